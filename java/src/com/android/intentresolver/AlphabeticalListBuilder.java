@@ -0,0 +1,193 @@
+/*
+ * Copyright (C) 2024 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.intentresolver;
+
+import android.os.Trace;
+import android.util.Log;
+
+import androidx.annotation.WorkerThread;
+
+import com.android.intentresolver.chooser.DisplayResolveInfo;
+import com.android.intentresolver.chooser.MultiDisplayResolveInfo;
+import com.android.intentresolver.icons.TargetDataLoader;
+
+import java.text.Collator;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Builds the alphabetical list of app targets: loads the missing labels, consolidates the targets
+ * of the same app and sorts them by label. Missing labels are loaded by up to {@code parallelism}
+ * workers at a time, one of them being the calling thread; the labels are collated once per app,
+ * unless the {@link TargetDataLoader} has their collation keys precomputed.
+ */
+final class AlphabeticalListBuilder {
+    private static final String TAG = "AlphabeticalListBuilder";
+
+    private final Locale mLocale;
+    private final Collator mCollator;
+    private final TargetDataLoader mTargetDataLoader;
+    private final Executor mLabelLoadingExecutor;
+    private final int mParallelism;
+
+    AlphabeticalListBuilder(
+            Locale locale,
+            TargetDataLoader targetDataLoader,
+            Executor labelLoadingExecutor,
+            int parallelism) {
+        mLocale = locale;
+        mCollator = Collator.getInstance(locale);
+        mTargetDataLoader = targetDataLoader;
+        mLabelLoadingExecutor = labelLoadingExecutor;
+        mParallelism = Math.max(1, parallelism);
+    }
+
+    @WorkerThread
+    List<DisplayResolveInfo> build(List<DisplayResolveInfo> targets) {
+        loadMissingLabels(targets);
+
+        // Consolidate multiple targets from same app.
+        final Map<GroupKey, List<DisplayResolveInfo>> groups = new LinkedHashMap<>();
+        for (DisplayResolveInfo target : targets) {
+            groups.computeIfAbsent(new GroupKey(target), key -> new ArrayList<>(1)).add(target);
+        }
+        final List<SortEntry> entries = new ArrayList<>(groups.size());
+        for (Map.Entry<GroupKey, List<DisplayResolveInfo>> group : groups.entrySet()) {
+            final List<DisplayResolveInfo> appTargets = group.getValue();
+            final DisplayResolveInfo target = (appTargets.size() == 1)
+                    ? appTargets.get(0)
+                    : MultiDisplayResolveInfo.newMultiDisplayResolveInfo(appTargets);
+            entries.add(new SortEntry(
+                    target,
+                    getCollationKey(appTargets.get(0), group.getKey().mLabel),
+                    group.getKey().mUserId));
+        }
+        entries.sort(null);
+
+        final List<DisplayResolveInfo> result = new ArrayList<>(entries.size());
+        for (SortEntry entry : entries) {
+            result.add(entry.mTarget);
+        }
+        return result;
+    }
+
+    private byte[] getCollationKey(DisplayResolveInfo target, String label) {
+        final byte[] key = mTargetDataLoader.getLabelCollationKey(target, mLocale);
+        return (key != null) ? key : mCollator.getCollationKey(label).toByteArray();
+    }
+
+    private void loadMissingLabels(List<DisplayResolveInfo> targets) {
+        final List<DisplayResolveInfo> missing = new ArrayList<>();
+        for (DisplayResolveInfo target : targets) {
+            if (!target.hasDisplayLabel()) {
+                missing.add(target);
+            }
+        }
+        if (missing.isEmpty()) {
+            return;
+        }
+        Trace.beginSection("load-missing-labels:" + missing.size());
+        final AtomicInteger nextIndex = new AtomicInteger();
+        final Runnable worker = () -> {
+            for (int i = nextIndex.getAndIncrement();
+                    i < missing.size();
+                    i = nextIndex.getAndIncrement()) {
+                try {
+                    mTargetDataLoader.getOrLoadLabel(missing.get(i));
+                } catch (RuntimeException e) {
+                    Log.e(TAG, "Failed to load the label of " + missing.get(i), e);
+                }
+            }
+        };
+        final int helperCount = Math.min(mParallelism, missing.size()) - 1;
+        final CountDownLatch helpersDone = new CountDownLatch(helperCount);
+        for (int i = 0; i < helperCount; i++) {
+            mLabelLoadingExecutor.execute(() -> {
+                try {
+                    worker.run();
+                } finally {
+                    helpersDone.countDown();
+                }
+            });
+        }
+        worker.run();
+        try {
+            helpersDone.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        Trace.endSection();
+    }
+
+    /** Identifies the targets that are shown as a single entry. */
+    private static final class GroupKey {
+        final String mPackageName;
+        final String mLabel;
+        final int mUserId;
+
+        GroupKey(DisplayResolveInfo target) {
+            mPackageName = target.getResolvedComponentName().getPackageName();
+            mLabel = Objects.toString(target.getDisplayLabel(), "");
+            mUserId = target.getResolveInfo().userHandle.getIdentifier();
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof GroupKey)) {
+                return false;
+            }
+            final GroupKey other = (GroupKey) o;
+            return mUserId == other.mUserId
+                    && mPackageName.equals(other.mPackageName)
+                    && mLabel.equals(other.mLabel);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(mPackageName, mLabel, mUserId);
+        }
+    }
+
+    private static final class SortEntry implements Comparable<SortEntry> {
+        final DisplayResolveInfo mTarget;
+        final byte[] mLabelKey;
+        final int mUserId;
+
+        SortEntry(DisplayResolveInfo target, byte[] labelKey, int userId) {
+            mTarget = target;
+            mLabelKey = labelKey;
+            mUserId = userId;
+        }
+
+        @Override
+        public int compareTo(SortEntry other) {
+            final int result = Arrays.compareUnsigned(mLabelKey, other.mLabelKey);
+            return (result != 0) ? result : Integer.compare(mUserId, other.mUserId);
+        }
+    }
+}
@@ -78,9 +78,11 @@ import androidx.viewpager.widget.ViewPager;
 import com.android.intentresolver.chooser.DisplayResolveInfo;
 import com.android.intentresolver.chooser.MultiDisplayResolveInfo;
 import com.android.intentresolver.chooser.TargetInfo;
+import com.android.intentresolver.concurrency.ActivityScopes;
 import com.android.intentresolver.contentpreview.BasePreviewViewModel;
 import com.android.intentresolver.contentpreview.ChooserContentPreviewUi;
 import com.android.intentresolver.contentpreview.HeadlineGeneratorImpl;
+import com.android.intentresolver.contentpreview.ImageLoader;
 import com.android.intentresolver.contentpreview.PreviewViewModel;
 import com.android.intentresolver.emptystate.EmptyState;
 import com.android.intentresolver.emptystate.EmptyStateProvider;
@@ -105,16 +107,12 @@ import dagger.hilt.android.AndroidEntryPoint;
 
 import java.lang.annotation.Retention;
 import java.lang.annotation.RetentionPolicy;
-import java.text.Collator;
 import java.util.ArrayList;
 import java.util.Collections;
-import java.util.Comparator;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
 import java.util.function.Consumer;
 
 import javax.inject.Inject;
@@ -177,6 +175,7 @@ public class ChooserActivity extends Hilt_ChooserActivity implements
 
     @Inject public FeatureFlags mFeatureFlags;
     @Inject public EventLog mEventLog;
+    @Inject public ActivityScopes mActivityScopes;
 
     private ChooserIntegratedDeviceComponents mIntegratedDeviceComponents;
 
@@ -192,6 +191,8 @@ public class ChooserActivity extends Hilt_ChooserActivity implements
     private ChooserRefinementManager mRefinementManager;
 
     private ChooserContentPreviewUi mChooserContentPreviewUi;
+    @Nullable
+    private ImageLoader mPreviewImageLoader;
 
     private boolean mShouldDisplayLandscape;
     private long mChooserShownTime;
@@ -211,7 +212,6 @@ public class ChooserActivity extends Hilt_ChooserActivity implements
     private SharedPreferences mPinnedSharedPrefs;
     private static final String PINNED_SHARED_PREFS_NAME = "chooser_pin_settings";
 
-    private final ExecutorService mBackgroundThreadPoolExecutor = Executors.newFixedThreadPool(5);
 
     private int mScrollStatus = SCROLL_STATUS_IDLE;
 
@@ -310,6 +310,7 @@ public class ChooserActivity extends Hilt_ChooserActivity implements
         BasePreviewViewModel previewViewModel =
                 new ViewModelProvider(this, createPreviewViewModelFactory())
                         .get(BasePreviewViewModel.class);
+        mPreviewImageLoader = previewViewModel.getImageLoader();
         previewViewModel.init(
                 mChooserRequest.getTargetIntent(),
                 getIntent(),
@@ -320,7 +321,7 @@ public class ChooserActivity extends Hilt_ChooserActivity implements
                 getCoroutineScope(getLifecycle()),
                 previewViewModel.getPreviewDataProvider(),
                 mChooserRequest.getTargetIntent(),
-                previewViewModel.getImageLoader(),
+                mPreviewImageLoader,
                 createChooserActionFactory(),
                 mEnterTransitionAnimationDelegate,
                 new HeadlineGeneratorImpl(this),
@@ -729,6 +730,14 @@ public class ChooserActivity extends Hilt_ChooserActivity implements
         }
     }
 
+    @Override
+    public void onTrimMemory(int level) {
+        super.onTrimMemory(level);
+        if (mPreviewImageLoader != null) {
+            mPreviewImageLoader.onTrimMemory(level);
+        }
+    }
+
     @Override
     protected void onDestroy() {
         super.onDestroy();
@@ -737,8 +746,6 @@ public class ChooserActivity extends Hilt_ChooserActivity implements
             mLatencyTracker.onActionCancel(ACTION_LOAD_SHARE_SHEET);
         }
 
-        mBackgroundThreadPoolExecutor.shutdownNow();
-
         destroyProfileRecords();
     }
 
@@ -1117,27 +1124,6 @@ public class ChooserActivity extends Hilt_ChooserActivity implements
                 ? null : record.appPredictor;
     }
 
-    /**
-     * Sort intents alphabetically based on display label.
-     */
-    static class AzInfoComparator implements Comparator<DisplayResolveInfo> {
-        Comparator<DisplayResolveInfo> mComparator;
-        AzInfoComparator(Context context) {
-            Collator collator = Collator
-                        .getInstance(context.getResources().getConfiguration().locale);
-            // Adding two stage comparator, first stage compares using displayLabel, next stage
-            //  compares using resolveInfo.userHandle
-            mComparator = Comparator.comparing(DisplayResolveInfo::getDisplayLabel, collator)
-                    .thenComparingInt(target -> target.getResolveInfo().userHandle.getIdentifier());
-        }
-
-        @Override
-        public int compare(
-                DisplayResolveInfo lhsp, DisplayResolveInfo rhsp) {
-            return mComparator.compare(lhsp, rhsp);
-        }
-    }
-
     protected EventLog getEventLog() {
         return mEventLog;
     }
@@ -1286,7 +1272,8 @@ public class ChooserActivity extends Hilt_ChooserActivity implements
         if (appPredictor != null) {
             resolverComparator = new AppPredictionServiceResolverComparator(this, getTargetIntent(),
                     getReferrerPackageName(), appPredictor, userHandle, getEventLog(),
-                    getIntegratedDeviceComponents().getNearbySharingComponent());
+                    getIntegratedDeviceComponents().getNearbySharingComponent(),
+                    mActivityScopes.getIpcExecutor());
         } else {
             resolverComparator =
                     new ResolverRankerServiceResolverComparator(
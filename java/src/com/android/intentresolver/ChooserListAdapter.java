@@ -30,7 +30,6 @@ import android.content.pm.PackageManager;
 import android.content.pm.ResolveInfo;
 import android.content.pm.ShortcutInfo;
 import android.graphics.drawable.Drawable;
-import android.os.AsyncTask;
 import android.os.Trace;
 import android.os.UserHandle;
 import android.os.UserManager;
@@ -48,10 +47,10 @@ import androidx.annotation.Nullable;
 import androidx.annotation.WorkerThread;
 
 import com.android.intentresolver.chooser.DisplayResolveInfo;
-import com.android.intentresolver.chooser.MultiDisplayResolveInfo;
 import com.android.intentresolver.chooser.NotSelectableTargetInfo;
 import com.android.intentresolver.chooser.SelectableTargetInfo;
 import com.android.intentresolver.chooser.TargetInfo;
+import com.android.intentresolver.concurrency.ProcessDispatchers;
 import com.android.intentresolver.icons.TargetDataLoader;
 import com.android.intentresolver.logging.EventLog;
 import com.android.intentresolver.widget.BadgeTextView;
@@ -65,7 +64,7 @@ import java.util.Map;
 import java.util.Objects;
 import java.util.Set;
 import java.util.concurrent.Executor;
-import java.util.stream.Collectors;
+import java.util.function.Consumer;
 
 public class ChooserListAdapter extends ResolverListAdapter {
 
@@ -91,6 +90,11 @@ public class ChooserListAdapter extends ResolverListAdapter {
 
     private static final int MAX_SUGGESTED_APP_TARGETS = 4;
 
+    // Max number of labels loaded concurrently when building the alphabetical list. The labels are
+    // loaded from the package manager, on the building thread and the label loading share of the
+    // IPC pool.
+    private static final int LABEL_LOADING_PARALLELISM = 4;
+
     /** {@link #getBaseScore} */
     public static final float CALLER_TARGET_SCORE_BOOST = 900.f;
     /** {@link #getBaseScore} */
@@ -99,6 +103,16 @@ public class ChooserListAdapter extends ResolverListAdapter {
     private final Intent mReferrerFillInIntent;
 
     private final int mMaxRankedTargets;
+    private final boolean mIsLowRamDevice;
+    private final boolean mUseProgressiveRanking;
+    private final boolean mResolveCallerTargetsInBackground;
+    private final Executor mBgExecutor;
+    // Resolves the caller targets; separate from mBgExecutor, which runs the sorting.
+    private final Executor mCallerTargetExecutor;
+    private final Executor mMainExecutor;
+    // Builds the A-Z list; separate from mBgExecutor, which may be blocked on the ranker service
+    // while the early app ranking is shown.
+    private final Executor mAlphabeticalListExecutor = ProcessDispatchers.uiCritical.serial();
 
     private final EventLog mEventLog;
 
@@ -112,7 +126,14 @@ public class ChooserListAdapter extends ResolverListAdapter {
     private final TargetDataLoader mTargetDataLoader;
     private final boolean mUseBadgeTextViewForLabels;
     private final List<TargetInfo> mServiceTargets = new ArrayList<>();
+    // The number of selectable targets in mServiceTargets, or -1 if it needs to be recounted; reset
+    // on each change of mServiceTargets.
+    private int mSelectableServiceTargetCount = -1;
     private final List<DisplayResolveInfo> mCallerTargets = new ArrayList<>();
+    // The number of caller target batches being resolved in the background; the service target
+    // loading is completed only once they have been added.
+    private int mPendingCallerTargetResolutions = 0;
+    private boolean mIsServiceTargetLoadingCompletePending = false;
 
     private final ShortcutSelectionLogic mShortcutSelectionLogic;
 
@@ -187,7 +208,8 @@ public class ChooserListAdapter extends ResolverListAdapter {
                 initialIntentsUserSpace,
                 targetDataLoader,
                 packageChangeCallback,
-                AsyncTask.SERIAL_EXECUTOR,
+                ProcessDispatchers.uiCritical.serial(),
+                ProcessDispatchers.ipc,
                 context.getMainExecutor(),
                 featureFlags);
     }
@@ -211,6 +233,7 @@ public class ChooserListAdapter extends ResolverListAdapter {
             TargetDataLoader targetDataLoader,
             @Nullable PackageChangeCallback packageChangeCallback,
             Executor bgExecutor,
+            Executor callerTargetExecutor,
             Executor mainExecutor,
             FeatureFlags featureFlags) {
         // Don't send the initial intents through the shared ResolverActivity path,
@@ -231,12 +254,18 @@ public class ChooserListAdapter extends ResolverListAdapter {
                 mainExecutor);
 
         mMaxRankedTargets = maxRankedTargets;
+        mIsLowRamDevice = ActivityManager.isLowRamDeviceStatic();
         mReferrerFillInIntent = referrerFillInIntent;
 
         mPlaceHolderTargetInfo = NotSelectableTargetInfo.newPlaceHolderTargetInfo(context);
         mTargetDataLoader = targetDataLoader;
         mPackageChangeCallback = packageChangeCallback;
         mUseBadgeTextViewForLabels = featureFlags.bespokeLabelView();
+        mUseProgressiveRanking = featureFlags.progressiveAppRanking();
+        mResolveCallerTargetsInBackground = featureFlags.resolveCallerTargetsInBackground();
+        mBgExecutor = bgExecutor;
+        mCallerTargetExecutor = callerTargetExecutor;
+        mMainExecutor = mainExecutor;
         createPlaceHolders();
         mEventLog = eventLog;
         mShortcutSelectionLogic = new ShortcutSelectionLogic(
@@ -320,6 +349,27 @@ public class ChooserListAdapter extends ResolverListAdapter {
 
     }
 
+    @Override
+    protected void onPackagesUpdated(
+            Set<String> changedPackages, List<DisplayResolveInfo> addedTargets) {
+        // The alphabetical list is built once the ranked list is complete; only update it if it's
+        // there already.
+        final boolean hasAlphabeticalList = !mSortedList.isEmpty();
+        mSortedList.removeIf(target ->
+                changedPackages.contains(target.getResolvedComponentName().getPackageName()));
+        boolean serviceTargetsRemoved = mServiceTargets.removeIf(target ->
+                target.getResolvedComponentName() != null
+                        && changedPackages.contains(
+                                target.getResolvedComponentName().getPackageName()));
+        if (serviceTargetsRemoved && mServiceTargets.isEmpty()) {
+            mServiceTargets.add(NotSelectableTargetInfo.newEmptyTargetInfo());
+        }
+        mSelectableServiceTargetCount = -1;
+        if (!addedTargets.isEmpty() && hasAlphabeticalList) {
+            updateAlphabeticalList();
+        }
+    }
+
     @Override
     public boolean rebuildList(boolean doPostProcessing) {
         mAnimationTracker.reset();
@@ -334,6 +384,7 @@ public class ChooserListAdapter extends ResolverListAdapter {
         for (int i = 0; i < mMaxRankedTargets; ++i) {
             mServiceTargets.add(mPlaceHolderTargetInfo);
         }
+        mSelectableServiceTargetCount = -1;
     }
 
     @Override
@@ -359,6 +410,8 @@ public class ChooserListAdapter extends ResolverListAdapter {
             holder.icon.setImageDrawable(loadIconPlaceholder());
             return;
         }
+        // The bound targets are the visible ones, have their pending loads run first
+        mTargetDataLoader.prioritize(info);
 
         final CharSequence displayLabel = Objects.requireNonNullElse(info.getDisplayLabel(), "");
         final CharSequence extendedInfo = Objects.requireNonNullElse(info.getExtendedInfo(), "");
@@ -478,58 +531,29 @@ public class ChooserListAdapter extends ResolverListAdapter {
     }
 
     public void updateAlphabeticalList() {
-        final ChooserActivity.AzInfoComparator comparator =
-                new ChooserActivity.AzInfoComparator(mContext);
+        final AlphabeticalListBuilder listBuilder = new AlphabeticalListBuilder(
+                mContext.getResources().getConfiguration().getLocales().get(0),
+                mTargetDataLoader,
+                ProcessDispatchers.labelLoading,
+                LABEL_LOADING_PARALLELISM);
         final List<DisplayResolveInfo> allTargets = new ArrayList<>();
         allTargets.addAll(getTargetsInCurrentDisplayList());
         allTargets.addAll(mCallerTargets);
 
-        new AsyncTask<Void, Void, List<DisplayResolveInfo>>() {
-            @Override
-            protected List<DisplayResolveInfo> doInBackground(Void... voids) {
-                try {
-                    Trace.beginSection("update-alphabetical-list");
-                    return updateList();
-                } finally {
-                    Trace.endSection();
-                }
-            }
-
-            private List<DisplayResolveInfo> updateList() {
-                loadMissingLabels(allTargets);
-
-                // Consolidate multiple targets from same app.
-                return allTargets
-                        .stream()
-                        .collect(Collectors.groupingBy(target ->
-                                target.getResolvedComponentName().getPackageName()
-                                        + "#" + target.getDisplayLabel()
-                                        + '#' + target.getResolveInfo().userHandle.getIdentifier()
-                        ))
-                        .values()
-                        .stream()
-                        .map(appTargets ->
-                                (appTargets.size() == 1)
-                                        ? appTargets.get(0)
-                                        : MultiDisplayResolveInfo.newMultiDisplayResolveInfo(
-                                            appTargets))
-                        .sorted(comparator)
-                        .collect(Collectors.toList());
+        mAlphabeticalListExecutor.execute(() -> {
+            final List<DisplayResolveInfo> newList;
+            try {
+                Trace.beginSection("update-alphabetical-list");
+                newList = listBuilder.build(allTargets);
+            } finally {
+                Trace.endSection();
             }
-
-            @Override
-            protected void onPostExecute(List<DisplayResolveInfo> newList) {
+            mMainExecutor.execute(() -> {
                 mSortedList.clear();
                 mSortedList.addAll(newList);
                 notifyDataSetChanged();
-            }
-
-            private void loadMissingLabels(List<DisplayResolveInfo> targets) {
-                for (DisplayResolveInfo target: targets) {
-                    mTargetDataLoader.getOrLoadLabel(target);
-                }
-            }
-        }.execute();
+            });
+        });
     }
 
     @Override
@@ -557,13 +581,16 @@ public class ChooserListAdapter extends ResolverListAdapter {
      * Filter out placeholders and non-selectable service targets
      */
     public int getSelectableServiceTargetCount() {
-        int count = 0;
-        for (TargetInfo info : mServiceTargets) {
-            if (info.isSelectableTargetInfo()) {
-                count++;
+        if (mSelectableServiceTargetCount < 0) {
+            int count = 0;
+            for (TargetInfo info : mServiceTargets) {
+                if (info.isSelectableTargetInfo()) {
+                    count++;
+                }
             }
+            mSelectableServiceTargetCount = count;
         }
-        return count;
+        return mSelectableServiceTargetCount;
     }
 
     private static boolean hasSendAction(Intent intent) {
@@ -573,7 +600,7 @@ public class ChooserListAdapter extends ResolverListAdapter {
     }
 
     public int getServiceTargetCount() {
-        if (hasSendAction(getTargetIntent()) && !ActivityManager.isLowRamDeviceStatic()) {
+        if (hasSendAction(getTargetIntent()) && !mIsLowRamDevice) {
             return Math.min(mServiceTargets.size(), mMaxRankedTargets);
         }
 
@@ -714,6 +741,50 @@ public class ChooserListAdapter extends ResolverListAdapter {
             @ChooserActivity.ShareTargetType int targetType,
             Map<ChooserTarget, ShortcutInfo> directShareToShortcutInfos,
             Map<ChooserTarget, AppTarget> directShareToAppTargets) {
+        if (origTarget == null && mResolveCallerTargetsInBackground) {
+            // Caller targets have no app target to take their activity from; resolve them all off
+            // the main thread before adding them.
+            final Context userContext = mContext.createContextAsUser(getUserHandle(), 0);
+            final Intent targetIntent = getTargetIntent();
+            mPendingCallerTargetResolutions++;
+            mCallerTargetExecutor.execute(() -> {
+                final Map<ChooserTarget, ResolveInfo> backupResolveInfos =
+                        ShortcutSelectionLogic.resolveCallerTargets(
+                                targets, userContext, targetIntent);
+                mMainExecutor.execute(() -> {
+                    mPendingCallerTargetResolutions--;
+                    addServiceResults(
+                            origTarget,
+                            targets,
+                            targetType,
+                            directShareToShortcutInfos,
+                            directShareToAppTargets,
+                            backupResolveInfos);
+                    if (mPendingCallerTargetResolutions == 0
+                            && mIsServiceTargetLoadingCompletePending) {
+                        mIsServiceTargetLoadingCompletePending = false;
+                        completeServiceTargetLoading();
+                    }
+                });
+            });
+            return;
+        }
+        addServiceResults(
+                origTarget,
+                targets,
+                targetType,
+                directShareToShortcutInfos,
+                directShareToAppTargets,
+                /* backupResolveInfos= */ null);
+    }
+
+    private void addServiceResults(
+            @Nullable DisplayResolveInfo origTarget,
+            List<ChooserTarget> targets,
+            @ChooserActivity.ShareTargetType int targetType,
+            Map<ChooserTarget, ShortcutInfo> directShareToShortcutInfos,
+            Map<ChooserTarget, AppTarget> directShareToAppTargets,
+            @Nullable Map<ChooserTarget, ResolveInfo> backupResolveInfos) {
         // Avoid inserting any potentially late results.
         if ((mServiceTargets.size() == 1) && mServiceTargets.get(0).isEmptyTargetInfo()) {
             return;
@@ -731,7 +802,9 @@ public class ChooserListAdapter extends ResolverListAdapter {
                 getTargetIntent(),
                 mReferrerFillInIntent,
                 mMaxRankedTargets,
+                backupResolveInfos,
                 mServiceTargets);
+        mSelectableServiceTargetCount = -1;
         if (isUpdated) {
             notifyDataSetChanged();
         }
@@ -760,16 +833,33 @@ public class ChooserListAdapter extends ResolverListAdapter {
         return score;
     }
 
+    /**
+     * Removes shortcut-based direct share targets, e.g. provisional ones, so they can be replaced
+     * with fresh results.
+     */
+    public void removeShortcutTargets() {
+        if (mServiceTargets.removeIf(target -> target.getDirectShareShortcutInfo() != null)) {
+            mSelectableServiceTargetCount = -1;
+            notifyDataSetChanged();
+        }
+    }
+
     /**
      * Calling this marks service target loading complete, and will attempt to no longer
-     * update the direct share area.
+     * update the direct share area. If caller targets are still being resolved, that happens once
+     * they have been added.
      */
     public void completeServiceTargetLoading() {
+        if (mPendingCallerTargetResolutions > 0) {
+            mIsServiceTargetLoadingCompletePending = true;
+            return;
+        }
         mServiceTargets.removeIf(o -> o.isPlaceHolderTargetInfo());
         if (mServiceTargets.isEmpty()) {
             mServiceTargets.add(NotSelectableTargetInfo.newEmptyTargetInfo());
             mEventLog.logSharesheetEmptyDirectShareRow();
         }
+        mSelectableServiceTargetCount = -1;
         notifyDataSetChanged();
     }
 
@@ -785,6 +875,35 @@ public class ChooserListAdapter extends ResolverListAdapter {
         Trace.endSection();
     }
 
+    @Override
+    @WorkerThread
+    protected void sortComponents(
+            List<ResolvedComponentInfo> components,
+            Consumer<List<ResolvedComponentInfo>> earlyRankingCallback) {
+        if (!mUseProgressiveRanking) {
+            sortComponents(components);
+            return;
+        }
+        Trace.beginSection("ChooserListAdapter#SortingTask");
+        mResolverListController.topK(components, mMaxRankedTargets, earlyRankingCallback);
+        Trace.endSection();
+    }
+
+    @Override
+    @MainThread
+    protected void onRankingUpdated(
+            List<DisplayResolveInfo> earlyOrder,
+            List<DisplayResolveInfo> finalOrder,
+            boolean applied) {
+        final int rankedTargetCount = getRankedTargetCount();
+        boolean topRowChanged =
+                earlyOrder.size() < rankedTargetCount || finalOrder.size() < rankedTargetCount;
+        for (int i = 0; i < rankedTargetCount && !topRowChanged; i++) {
+            topRowChanged = earlyOrder.get(i) != finalOrder.get(i);
+        }
+        mEventLog.logSharesheetAppRankingUpdated(topRowChanged, applied);
+    }
+
     @Override
     @MainThread
     protected void onComponentsSorted(
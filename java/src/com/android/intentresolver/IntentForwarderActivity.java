@@ -46,6 +46,7 @@ import android.widget.Toast;
 
 import androidx.annotation.Nullable;
 
+import com.android.intentresolver.concurrency.ProcessDispatchers;
 import com.android.internal.annotations.VisibleForTesting;
 import com.android.internal.logging.MetricsLogger;
 import com.android.internal.logging.nano.MetricsProto.MetricsEvent;
@@ -55,8 +56,7 @@ import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
 import java.util.concurrent.CompletableFuture;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.concurrent.Executor;
 
 /**
  * This is used in conjunction with
@@ -83,19 +83,13 @@ public class IntentForwarderActivity extends Activity  {
     private Injector mInjector;
 
     private MetricsLogger mMetricsLogger;
-    protected ExecutorService mExecutorService;
-
-    @Override
-    protected void onDestroy() {
-        super.onDestroy();
-        mExecutorService.shutdown();
-    }
+    protected Executor mExecutor;
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
         mInjector = createInjector();
-        mExecutorService = Executors.newSingleThreadExecutor();
+        mExecutor = ProcessDispatchers.ipc;
 
         Intent intentReceived = getIntent();
         String className = intentReceived.getComponent().getClassName();
@@ -153,7 +147,7 @@ public class IntentForwarderActivity extends Activity  {
                     }
                     startActivityAsCaller(newIntent, targetUserId);
                     return targetResolveInfo;
-                }, mExecutorService)
+                }, mExecutor)
                 .thenAcceptAsync(result -> {
                     maybeShowDisclosure(intentReceived, result, userMessage);
                     finish();
@@ -0,0 +1,72 @@
+/*
+ * Copyright (C) 2024 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.intentresolver;
+
+import android.content.pm.ResolveInfo;
+
+import java.util.List;
+
+/**
+ * Linear-time building blocks for filtering lists of {@link ResolvedComponentInfo} records. The
+ * records to keep are classified in one pass, and the list is then compacted in place at once,
+ * instead of removing the records one by one from the middle of the list.
+ */
+public final class ResolvedComponentFilters {
+    private ResolvedComponentFilters() {}
+
+    /**
+     * @return the index of the first record whose first resolution has a different priority or
+     * default status than the first record's, or the size of the list if there is none. Only the
+     * records before that index are meant to be displayed.
+     */
+    public static int indexOfFirstLowPriority(List<ResolvedComponentInfo> list) {
+        final int size = list.size();
+        if (size == 0) {
+            return 0;
+        }
+        final ResolveInfo first = list.get(0).getResolveInfoAt(0);
+        for (int i = 1; i < size; i++) {
+            final ResolveInfo info = list.get(i).getResolveInfoAt(0);
+            if (first.priority != info.priority || first.isDefault != info.isDefault) {
+                return i;
+            }
+        }
+        return size;
+    }
+
+    /**
+     * Removes the elements of {@code list} for which {@code keep} is false, keeping the order of
+     * the others, in a single pass.
+     *
+     * @param keep whether to keep each element, by index; as long as the list.
+     */
+    public static <T> void retain(List<T> list, boolean[] keep) {
+        final int size = list.size();
+        int kept = 0;
+        for (int i = 0; i < size; i++) {
+            if (keep[i]) {
+                if (kept != i) {
+                    list.set(kept, list.get(i));
+                }
+                kept++;
+            }
+        }
+        if (kept < size) {
+            list.subList(kept, size).clear();
+        }
+    }
+}
@@ -0,0 +1,61 @@
+/*
+ * Copyright (C) 2024 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.intentresolver;
+
+import android.content.ComponentName;
+import android.content.pm.ActivityInfo;
+import android.content.pm.ResolveInfo;
+
+import androidx.annotation.Nullable;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A lookup of {@link ResolvedComponentInfo} records in a list by their component name, used to
+ * dedupe resolutions without scanning the list for each of them. Records are appended to the
+ * underlying list through {@link #add}, so the list keeps the insertion order; records added to the
+ * list directly are not indexed.
+ */
+public final class ResolvedComponentIndex {
+    private final List<ResolvedComponentInfo> mList;
+    private final Map<ComponentName, ResolvedComponentInfo> mByName;
+
+    /** Indexes the records already in {@code list}; the first record wins for duplicate names. */
+    public ResolvedComponentIndex(List<ResolvedComponentInfo> list) {
+        mList = list;
+        mByName = new HashMap<>(Math.max(16, list.size() * 2));
+        for (int i = 0, size = list.size(); i < size; i++) {
+            final ResolvedComponentInfo rci = list.get(i);
+            mByName.putIfAbsent(rci.name, rci);
+        }
+    }
+
+    /** @return the record of the component the given resolution belongs to, if any. */
+    @Nullable
+    public ResolvedComponentInfo get(ResolveInfo info) {
+        final ActivityInfo ai = info.activityInfo;
+        return mByName.get(new ComponentName(ai.packageName, ai.name));
+    }
+
+    /** Appends {@code rci} to the underlying list. */
+    public void add(ResolvedComponentInfo rci) {
+        mList.add(rci);
+        mByName.putIfAbsent(rci.name, rci);
+    }
+}
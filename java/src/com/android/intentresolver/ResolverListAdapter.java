@@ -25,8 +25,8 @@ import android.content.pm.ResolveInfo;
 import android.graphics.ColorMatrix;
 import android.graphics.ColorMatrixColorFilter;
 import android.graphics.drawable.Drawable;
-import android.os.AsyncTask;
 import android.os.RemoteException;
+import android.os.SystemClock;
 import android.os.Trace;
 import android.os.UserHandle;
 import android.os.UserManager;
@@ -47,6 +47,7 @@ import androidx.annotation.WorkerThread;
 
 import com.android.intentresolver.chooser.DisplayResolveInfo;
 import com.android.intentresolver.chooser.TargetInfo;
+import com.android.intentresolver.concurrency.ProcessDispatchers;
 import com.android.intentresolver.icons.LabelInfo;
 import com.android.intentresolver.icons.TargetDataLoader;
 import com.android.internal.annotations.VisibleForTesting;
@@ -54,15 +55,26 @@ import com.android.internal.annotations.VisibleForTesting;
 import com.google.common.collect.ImmutableList;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.Executor;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
 
 public class ResolverListAdapter extends BaseAdapter {
     private static final String TAG = "ResolverListAdapter";
 
+    /**
+     * How long after the early ranking was shown the final one may still reorder the targets: a few
+     * frames, before the user can aim at a target. A later final ranking is only logged.
+     */
+    @VisibleForTesting
+    static final long FINAL_RANKING_BUDGET_MS = 100;
+
     @Nullable  // TODO: other model for lazy computation? Or just precompute?
     private static ColorMatrixColorFilter sSuspendedMatrixColorFilter;
 
@@ -92,10 +104,18 @@ public class ResolverListAdapter extends BaseAdapter {
     // This one is the list that the Adapter will actually present.
     private final List<DisplayResolveInfo> mDisplayList;
     private List<ResolvedComponentInfo> mUnfilteredResolveList;
+    // The ranked components the display list was last built from.
+    @Nullable
+    private List<ResolvedComponentInfo> mSortedComponents;
+    private int mRebuildCount;
 
     private int mLastChosenPosition = -1;
     private final boolean mFilterLastUsed;
     private boolean mIsTabLoaded;
+    // Whether the list was built from an early ranking that the final one will reorder
+    private boolean mHasEarlyRanking;
+    // When the list built from the early ranking was shown, see SystemClock#uptimeMillis
+    private long mEarlyRankingUptimeMs;
     // Represents the UserSpace in which the Initial Intents should be resolved.
     private final UserHandle mInitialIntentsUserSpace;
 
@@ -123,7 +143,7 @@ public class ResolverListAdapter extends BaseAdapter {
                 resolverListCommunicator,
                 initialIntentsUserSpace,
                 targetDataLoader,
-                AsyncTask.SERIAL_EXECUTOR,
+                ProcessDispatchers.uiCritical.serial(),
                 runnable -> context.getMainThreadHandler().post(runnable));
     }
 
@@ -176,6 +196,163 @@ public class ResolverListAdapter extends BaseAdapter {
         mResolverListCommunicator.onHandlePackagesChanged(this);
     }
 
+    /**
+     * Updates the list in place to reflect the changes in the given packages: only the components
+     * of these packages are resolved again, their entries are replaced and the new ones are placed
+     * with the current ranking model. Falls back to {@link #handlePackagesChanged()} when the list
+     * is not in a state that can be patched.
+     */
+    @MainThread
+    public void handlePackagesChanged(Set<String> changedPackages) {
+        if (!canUpdatePackagesInPlace()) {
+            handlePackagesChanged();
+            return;
+        }
+        final int rebuildCount = mRebuildCount;
+        final boolean shouldGetActivityMetadata =
+                mResolverListCommunicator.shouldGetActivityMetadata();
+        final boolean shouldGetOnlyDefaultActivities =
+                mResolverListCommunicator.shouldGetOnlyDefaultActivities();
+        mBgExecutor.execute(() -> {
+            List<ResolvedComponentInfo> changedComponents =
+                    mResolverListController.getResolversForPackagesAsUser(
+                            /* shouldGetResolvedFilter= */ true,
+                            shouldGetActivityMetadata,
+                            shouldGetOnlyDefaultActivities,
+                            mIntents,
+                            changedPackages,
+                            mUserHandle);
+            if (changedComponents == null) {
+                changedComponents = new ArrayList<>();
+            }
+            mResolverListController.filterIneligibleActivities(changedComponents, false);
+            final List<ResolvedComponentInfo> result = changedComponents;
+            mCallbackExecutor.execute(() -> {
+                if (mDestroyed.get()) {
+                    return;
+                }
+                if (rebuildCount != mRebuildCount
+                        || !canUpdatePackagesInPlace()
+                        || !updatePackagesInPlace(changedPackages, result)) {
+                    handlePackagesChanged();
+                }
+            });
+        });
+    }
+
+    private boolean canUpdatePackagesInPlace() {
+        return mIsTabLoaded
+                && mSortedComponents != null
+                && mBaseResolveList == null
+                && mOtherProfile == null
+                && (mInitialIntents == null || mInitialIntents.length == 0);
+    }
+
+    /**
+     * Replaces the components of {@code changedPackages} with {@code changedComponents} in the
+     * current list.
+     *
+     * @return false if the change can't be applied in place and the list needs to be rebuilt.
+     */
+    @MainThread
+    private boolean updatePackagesInPlace(
+            Set<String> changedPackages, List<ResolvedComponentInfo> changedComponents) {
+        // All the listed components passed the low-priority filtering, so any unchanged one tells
+        // the priority the changed ones have to match; see ResolverListController#filterLowPriority
+        ResolveInfo reference = null;
+        for (ResolvedComponentInfo rci : mSortedComponents) {
+            if (!changedPackages.contains(rci.name.getPackageName())) {
+                reference = rci.getResolveInfoAt(0);
+                break;
+            }
+        }
+        if (reference == null) {
+            return false;
+        }
+        for (ResolvedComponentInfo rci : changedComponents) {
+            final ResolveInfo ri = rci.getResolveInfoAt(0);
+            if (ri.targetUserId != UserHandle.USER_CURRENT
+                    || ri.priority != reference.priority
+                    || ri.isDefault != reference.isDefault) {
+                return false;
+            }
+        }
+        Trace.beginSection("ResolverListAdapter#updatePackagesInPlace");
+        mSortedComponents.removeIf(rci -> changedPackages.contains(rci.name.getPackageName()));
+        final Set<ResolvedComponentInfo> newComponents =
+                Collections.newSetFromMap(new IdentityHashMap<>());
+        for (ResolvedComponentInfo rci : changedComponents) {
+            int position = 0;
+            while (position < mSortedComponents.size()
+                    && mResolverListController.compare(rci, mSortedComponents.get(position)) >= 0) {
+                position++;
+            }
+            mSortedComponents.add(position, rci);
+            newComponents.add(rci);
+        }
+        if (mUnfilteredResolveList != null) {
+            mUnfilteredResolveList.removeIf(
+                    rci -> changedPackages.contains(rci.name.getPackageName()));
+            mUnfilteredResolveList.addAll(changedComponents);
+        }
+
+        final List<DisplayResolveInfo> addedTargets = updateDisplayListOrder(newComponents);
+        Trace.endSection();
+        if (mDisplayList.isEmpty()) {
+            return false;
+        }
+        onPackagesUpdated(changedPackages, addedTargets);
+        notifyDataSetChanged();
+        return true;
+    }
+
+    /**
+     * Rebuilds the display list in the order of {@code mSortedComponents}, keeping the existing
+     * targets (with their loaded labels and icons).
+     *
+     * @param newComponents the components to create targets for; the components without a target
+     * that are not in this set are dropped.
+     * @return the created targets.
+     */
+    @MainThread
+    private List<DisplayResolveInfo> updateDisplayListOrder(
+            Set<ResolvedComponentInfo> newComponents) {
+        final Map<ResolveInfo, DisplayResolveInfo> existingTargets = new IdentityHashMap<>();
+        for (DisplayResolveInfo dri : mDisplayList) {
+            existingTargets.put(dri.getResolveInfo(), dri);
+        }
+        final List<DisplayResolveInfo> addedTargets = new ArrayList<>();
+        mDisplayList.clear();
+        mLastChosenPosition = -1;
+        for (ResolvedComponentInfo rci : mSortedComponents) {
+            final ResolveInfo ri = rci.getResolveInfoAt(0);
+            if (ri == null) {
+                continue;
+            }
+            final DisplayResolveInfo existing = existingTargets.get(ri);
+            if (existing != null) {
+                mDisplayList.add(existing);
+                updateLastChosenPosition(ri);
+            } else if (newComponents.contains(rci)) {
+                final int size = mDisplayList.size();
+                addResolveInfoWithAlternates(rci);
+                if (mDisplayList.size() > size) {
+                    addedTargets.add(mDisplayList.get(size));
+                }
+            }
+        }
+        return addedTargets;
+    }
+
+    /**
+     * Called after the list has been updated in place for the changes in {@code changedPackages}.
+     *
+     * @param addedTargets the new targets of the changed packages.
+     */
+    @MainThread
+    protected void onPackagesUpdated(
+            Set<String> changedPackages, List<DisplayResolveInfo> addedTargets) {}
+
     public void setPlaceholderCount(int count) {
         mPlaceholderCount = count;
     }
@@ -260,7 +437,10 @@ public class ResolverListAdapter extends BaseAdapter {
     public boolean rebuildList(boolean doPostProcessing) {
         Trace.beginSection("ResolverListAdapter#rebuildList");
         mDisplayList.clear();
+        mSortedComponents = null;
+        mRebuildCount++;
         mIsTabLoaded = false;
+        mHasEarlyRanking = false;
         mLastChosenPosition = -1;
 
         List<ResolvedComponentInfo> currentResolveList = getInitialRebuiltResolveList();
@@ -447,13 +627,16 @@ public class ResolverListAdapter extends BaseAdapter {
 
         // Send an "incomplete" list-ready while the async task is running.
         postListReadyRunnable(doPostProcessing, /* rebuildCompleted */ false);
+        final int rebuildCount = mRebuildCount;
         mBgExecutor.execute(() -> {
             List<ResolvedComponentInfo> sortedComponents = null;
             //TODO: the try-catch logic here is to formally match the AsyncTask's behavior.
             // Empirically, we don't need it as in the case on an exception, the app will crash and
             // `onComponentsSorted` won't be invoked.
             try {
-                sortComponents(filteredResolveList);
+                sortComponents(filteredResolveList, earlyRanking -> mCallbackExecutor.execute(
+                        () -> onComponentsRankedEarly(
+                                earlyRanking, doPostProcessing, rebuildCount)));
                 sortedComponents = filteredResolveList;
             } catch (Throwable t) {
                 Log.e(TAG, "Failed to sort components", t);
@@ -471,6 +654,39 @@ public class ResolverListAdapter extends BaseAdapter {
         mResolverListController.sort(components);
     }
 
+    /**
+     * Sorts {@code components} in place, like {@link #sortComponents(List)}; implementations that
+     * can produce an early ranking before the final one pass a separate, ranked list to
+     * {@code earlyRankingCallback} first. The list is then built from the early ranking, and
+     * reordered in place once the final ranking is ready.
+     */
+    @WorkerThread
+    protected void sortComponents(
+            List<ResolvedComponentInfo> components,
+            Consumer<List<ResolvedComponentInfo>> earlyRankingCallback) {
+        sortComponents(components);
+    }
+
+    @MainThread
+    private void onComponentsRankedEarly(
+            List<ResolvedComponentInfo> rankedComponents,
+            boolean doPostProcessing,
+            int rebuildCount) {
+        // The reordering keeps the targets of the sorted components only, so the list can't be
+        // built early when it has other targets.
+        if (mDestroyed.get()
+                || rebuildCount != mRebuildCount
+                || mIsTabLoaded
+                || (mInitialIntents != null && mInitialIntents.length > 0)) {
+            return;
+        }
+        Trace.beginSection("ResolverListAdapter#onComponentsRankedEarly");
+        onComponentsSorted(rankedComponents, doPostProcessing);
+        mHasEarlyRanking = true;
+        mEarlyRankingUptimeMs = SystemClock.uptimeMillis();
+        Trace.endSection();
+    }
+
     @MainThread
     protected void onComponentsSorted(
             @Nullable List<ResolvedComponentInfo> sortedComponents, boolean doPostProcessing) {
@@ -480,8 +696,25 @@ public class ResolverListAdapter extends BaseAdapter {
 
     protected void processSortedList(
             @Nullable List<ResolvedComponentInfo> sortedComponents, boolean doPostProcessing) {
+        if (mHasEarlyRanking) {
+            mHasEarlyRanking = false;
+            if (sortedComponents == null) {
+                return;
+            }
+            if (SystemClock.uptimeMillis() - mEarlyRankingUptimeMs <= FINAL_RANKING_BUDGET_MS) {
+                applyFinalRanking(sortedComponents);
+            } else {
+                // Moving the targets now could make a tap launch a different app than intended.
+                onRankingUpdated(
+                        new ArrayList<>(mDisplayList),
+                        getTargetsOrderedAs(sortedComponents),
+                        /* applied= */ false);
+            }
+            return;
+        }
         final int n = sortedComponents != null ? sortedComponents.size() : 0;
         Trace.beginSection("ResolverListAdapter#processSortedList:" + n);
+        mSortedComponents = (sortedComponents != null) ? new ArrayList<>(sortedComponents) : null;
         if (n != 0) {
             // First put the initial items at the top.
             if (mInitialIntents != null) {
@@ -539,6 +772,48 @@ public class ResolverListAdapter extends BaseAdapter {
         Trace.endSection();
     }
 
+    /** Reorders the list built from the early ranking as {@code sortedComponents}. */
+    @MainThread
+    private void applyFinalRanking(List<ResolvedComponentInfo> sortedComponents) {
+        Trace.beginSection("ResolverListAdapter#applyFinalRanking");
+        final List<DisplayResolveInfo> earlyOrder = new ArrayList<>(mDisplayList);
+        mSortedComponents = new ArrayList<>(sortedComponents);
+        updateDisplayListOrder(Collections.emptySet());
+        onRankingUpdated(earlyOrder, new ArrayList<>(mDisplayList), /* applied= */ true);
+        notifyDataSetChanged();
+        Trace.endSection();
+    }
+
+    /** Returns the displayed targets in the order of {@code sortedComponents}. */
+    private List<DisplayResolveInfo> getTargetsOrderedAs(
+            List<ResolvedComponentInfo> sortedComponents) {
+        final Map<ResolveInfo, DisplayResolveInfo> targets = new IdentityHashMap<>();
+        for (DisplayResolveInfo dri : mDisplayList) {
+            targets.put(dri.getResolveInfo(), dri);
+        }
+        final List<DisplayResolveInfo> result = new ArrayList<>();
+        for (ResolvedComponentInfo rci : sortedComponents) {
+            final DisplayResolveInfo target = targets.get(rci.getResolveInfoAt(0));
+            if (target != null) {
+                result.add(target);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Called when the final ranking of a list built from an early ranking is ready.
+     *
+     * @param earlyOrder the targets in their early order.
+     * @param finalOrder the targets in their final order.
+     * @param applied whether the list was reordered, see {@link #FINAL_RANKING_BUDGET_MS}.
+     */
+    @MainThread
+    protected void onRankingUpdated(
+            List<DisplayResolveInfo> earlyOrder,
+            List<DisplayResolveInfo> finalOrder,
+            boolean applied) {}
+
     /**
      * Some necessary methods for creating the list are initiated in onCreate and will also
      * determine the layout known. We therefore can't update the UI inline and post to the
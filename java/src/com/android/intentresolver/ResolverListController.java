@@ -30,6 +30,7 @@ import android.os.RemoteException;
 import android.os.UserHandle;
 import android.util.Log;
 
+import androidx.annotation.Nullable;
 import androidx.annotation.WorkerThread;
 
 import com.android.intentresolver.chooser.DisplayResolveInfo;
@@ -41,7 +42,10 @@ import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
 import java.util.PriorityQueue;
+import java.util.Set;
 import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
 
 /**
  * A helper for the ResolverActivity that exposes methods to retrieve, filter and sort its list of
@@ -59,10 +63,13 @@ public class ResolverListController {
 
     private static final String TAG = "ResolverListController";
     private static final boolean DEBUG = false;
+    /** How long {@link #topK} waits for the ranking model before publishing an early ranking. */
+    private static final long EARLY_RANKING_DELAY_MS = 32;
     private final UserHandle mQueryIntentsAsUser;
 
     private AbstractResolverComparator mResolverComparator;
     private boolean isComputed = false;
+    private boolean mUseRankingKeys = false;
 
     public ResolverListController(
             Context context,
@@ -81,6 +88,15 @@ public class ResolverListController {
         mQueryIntentsAsUser = queryIntentsAsUser;
     }
 
+    /**
+     * Sets whether {@link #sort} and {@link #topK} order the components by sort keys computed once
+     * per component (see {@link AbstractResolverComparator#computeRankingKeys}) rather than with
+     * the comparator.
+     */
+    public void setUseRankingKeys(boolean useRankingKeys) {
+        mUseRankingKeys = useRankingKeys;
+    }
+
     @VisibleForTesting
     public ResolveInfo getLastChosen() throws RemoteException {
         return AppGlobals.getPackageManager().getLastChosenActivity(
@@ -113,11 +129,35 @@ public class ResolverListController {
                 | (shouldGetResolvedFilter ? PackageManager.GET_RESOLVED_FILTER : 0)
                 | (shouldGetActivityMetadata ? PackageManager.GET_META_DATA : 0)
                 | PackageManager.MATCH_CLONE_PROFILE;
-        return getResolversForIntentAsUserInternal(intents, userHandle, baseFlags);
+        return getResolversForIntentAsUserInternal(intents, null, userHandle, baseFlags);
+    }
+
+    /**
+     * Like {@link #getResolversForIntentAsUser}, but only resolves the components of the given
+     * packages.
+     */
+    @WorkerThread
+    public List<ResolvedComponentInfo> getResolversForPackagesAsUser(
+            boolean shouldGetResolvedFilter,
+            boolean shouldGetActivityMetadata,
+            boolean shouldGetOnlyDefaultActivities,
+            List<Intent> intents,
+            Set<String> packageNames,
+            UserHandle userHandle) {
+        int baseFlags = (shouldGetOnlyDefaultActivities ? PackageManager.MATCH_DEFAULT_ONLY : 0)
+                | PackageManager.MATCH_DIRECT_BOOT_AWARE
+                | PackageManager.MATCH_DIRECT_BOOT_UNAWARE
+                | (shouldGetResolvedFilter ? PackageManager.GET_RESOLVED_FILTER : 0)
+                | (shouldGetActivityMetadata ? PackageManager.GET_META_DATA : 0)
+                | PackageManager.MATCH_CLONE_PROFILE;
+        return getResolversForIntentAsUserInternal(intents, packageNames, userHandle, baseFlags);
     }
 
     private List<ResolvedComponentInfo> getResolversForIntentAsUserInternal(
-            List<Intent> intents, UserHandle userHandle, int baseFlags) {
+            List<Intent> intents,
+            @Nullable Set<String> packageNames,
+            UserHandle userHandle,
+            int baseFlags) {
         List<ResolvedComponentInfo> resolvedComponents = null;
         for (int i = 0, N = intents.size(); i < N; i++) {
             Intent intent = intents.get(i);
@@ -129,8 +169,9 @@ public class ResolverListController {
             // Because of AIDL bug, queryIntentActivitiesAsUser can't accept subclasses of Intent.
             intent = (intent.getClass() == Intent.class) ? intent : new Intent(
                     intent);
-            final List<ResolveInfo> infos = mpm.queryIntentActivitiesAsUser(intent, flags,
-                    userHandle);
+            final List<ResolveInfo> infos = (packageNames == null)
+                    ? mpm.queryIntentActivitiesAsUser(intent, flags, userHandle)
+                    : queryPackageActivitiesAsUser(intent, packageNames, flags, userHandle);
             if (infos != null) {
                 if (resolvedComponents == null) {
                     resolvedComponents = new ArrayList<>();
@@ -141,28 +182,40 @@ public class ResolverListController {
         return resolvedComponents;
     }
 
+    private List<ResolveInfo> queryPackageActivitiesAsUser(
+            Intent intent, Set<String> packageNames, int flags, UserHandle userHandle) {
+        final List<ResolveInfo> result = new ArrayList<>();
+        for (String packageName : packageNames) {
+            if (intent.getPackage() != null && !intent.getPackage().equals(packageName)) {
+                continue;
+            }
+            final Intent packageIntent = new Intent(intent).setPackage(packageName);
+            final List<ResolveInfo> infos =
+                    mpm.queryIntentActivitiesAsUser(packageIntent, flags, userHandle);
+            if (infos != null) {
+                result.addAll(infos);
+            }
+        }
+        return result;
+    }
+
     @VisibleForTesting
     public void addResolveListDedupe(
             List<ResolvedComponentInfo> into, Intent intent, List<ResolveInfo> from) {
         final int fromCount = from.size();
-        final int intoCount = into.size();
+        // Only index into as it was before we started (new records are appended to into directly);
+        // no dupes in from.
+        final ResolvedComponentIndex index = new ResolvedComponentIndex(into);
         for (int i = 0; i < fromCount; i++) {
             final ResolveInfo newInfo = from.get(i);
             if (newInfo.userHandle == null) {
                 Log.w(TAG, "Skipping ResolveInfo with no userHandle: " + newInfo);
                 continue;
             }
-            boolean found = false;
-            // Only loop to the end of into as it was before we started; no dupes in from.
-            for (int j = 0; j < intoCount; j++) {
-                final ResolvedComponentInfo rci = into.get(j);
-                if (isSameResolvedComponent(newInfo, rci)) {
-                    found = true;
-                    rci.add(intent, newInfo);
-                    break;
-                }
-            }
-            if (!found) {
+            final ResolvedComponentInfo existing = index.get(newInfo);
+            if (existing != null) {
+                existing.add(intent, newInfo);
+            } else {
                 final ComponentName name = new ComponentName(
                         newInfo.activityInfo.packageName, newInfo.activityInfo.name);
                 final ResolvedComponentInfo rci = new ResolvedComponentInfo(name, intent, newInfo);
@@ -187,24 +240,29 @@ public class ResolverListController {
     @VisibleForTesting
     public ArrayList<ResolvedComponentInfo> filterIneligibleActivities(
             List<ResolvedComponentInfo> inputList, boolean returnCopyOfOriginalListIfModified) {
-        ArrayList<ResolvedComponentInfo> listToReturn = null;
-        for (int i = inputList.size()-1; i >= 0; i--) {
+        final int size = inputList.size();
+        // Classify all the items first, so that the list is compacted in a single pass instead
+        // of shifting its tail on each removal.
+        final boolean[] eligible = new boolean[size];
+        boolean anyIneligible = false;
+        for (int i = 0; i < size; i++) {
             ActivityInfo ai = inputList.get(i)
                     .getResolveInfoAt(0).activityInfo;
             int granted = ActivityManager.checkComponentPermission(
                     ai.permission, mLaunchedFromUid,
                     ai.applicationInfo.uid, ai.exported);
-
-            if (granted != PackageManager.PERMISSION_GRANTED
-                    || isComponentFiltered(ai.getComponentName())) {
-                // Access not allowed! We're about to filter an item,
-                // so modify the unfiltered version if it hasn't already been modified.
-                if (returnCopyOfOriginalListIfModified && listToReturn == null) {
-                    listToReturn = new ArrayList<>(inputList);
-                }
-                inputList.remove(i);
-            }
+            // Access not allowed for the filtered out items!
+            eligible[i] = granted == PackageManager.PERMISSION_GRANTED
+                    && !isComponentFiltered(ai.getComponentName());
+            anyIneligible |= !eligible[i];
+        }
+        if (!anyIneligible) {
+            return null;
         }
+        // We're about to filter items, so keep the unfiltered version if asked to.
+        ArrayList<ResolvedComponentInfo> listToReturn =
+                returnCopyOfOriginalListIfModified ? new ArrayList<>(inputList) : null;
+        ResolvedComponentFilters.retain(inputList, eligible);
         return listToReturn;
     }
 
@@ -215,35 +273,32 @@ public class ResolverListController {
     @VisibleForTesting
     public ArrayList<ResolvedComponentInfo> filterLowPriority(
             List<ResolvedComponentInfo> inputList, boolean returnCopyOfOriginalListIfModified) {
-        ArrayList<ResolvedComponentInfo> listToReturn = null;
         // Only display the first matches that are either of equal
         // priority or have asked to be default options.
-        ResolvedComponentInfo rci0 = inputList.get(0);
-        ResolveInfo r0 = rci0.getResolveInfoAt(0);
         int N = inputList.size();
-        for (int i = 1; i < N; i++) {
-            ResolveInfo ri = inputList.get(i).getResolveInfoAt(0);
-            if (DEBUG) Log.v(
-                    TAG,
-                    r0.activityInfo.name + "=" +
-                            r0.priority + "/" + r0.isDefault + " vs " +
-                            ri.activityInfo.name + "=" +
-                            ri.priority + "/" + ri.isDefault);
-            if (r0.priority != ri.priority ||
-                    r0.isDefault != ri.isDefault) {
-                while (i < N) {
-                    if (returnCopyOfOriginalListIfModified && listToReturn == null) {
-                        listToReturn = new ArrayList<>(inputList);
-                    }
-                    inputList.remove(i);
-                    N--;
-                }
-            }
+        int firstLowPriority = ResolvedComponentFilters.indexOfFirstLowPriority(inputList);
+        if (firstLowPriority == N) {
+            return null;
+        }
+        if (DEBUG) {
+            Log.v(TAG, "Filtering out " + (N - firstLowPriority) + " low priority items from "
+                    + inputList.get(firstLowPriority).getResolveInfoAt(0).activityInfo.name);
         }
+        ArrayList<ResolvedComponentInfo> listToReturn =
+                returnCopyOfOriginalListIfModified ? new ArrayList<>(inputList) : null;
+        inputList.subList(firstLowPriority, N).clear();
         return listToReturn;
     }
 
-    private void compute(List<ResolvedComponentInfo> inputList) throws InterruptedException {
+    /**
+     * Computes the ranking model for {@code inputList}.
+     *
+     * @param onComputeDelayed if not null, run when the model is not computed within
+     * {@link #EARLY_RANKING_DELAY_MS}, before waiting for it any longer.
+     */
+    private void compute(
+            List<ResolvedComponentInfo> inputList, @Nullable Runnable onComputeDelayed)
+            throws InterruptedException {
         if (mResolverComparator == null) {
             Log.d(TAG, "Comparator has already been destroyed; skipped.");
             return;
@@ -251,6 +306,10 @@ public class ResolverListController {
         final CountDownLatch finishComputeSignal = new CountDownLatch(1);
         mResolverComparator.setCallBack(() -> finishComputeSignal.countDown());
         mResolverComparator.compute(inputList);
+        if (onComputeDelayed != null
+                && !finishComputeSignal.await(EARLY_RANKING_DELAY_MS, TimeUnit.MILLISECONDS)) {
+            onComputeDelayed.run();
+        }
         finishComputeSignal.await();
         isComputed = true;
     }
@@ -260,9 +319,9 @@ public class ResolverListController {
         try {
             long beforeRank = System.currentTimeMillis();
             if (!isComputed) {
-                compute(inputList);
+                compute(inputList, null);
             }
-            Collections.sort(inputList, mResolverComparator);
+            sortComputed(inputList);
 
             long afterRank = System.currentTimeMillis();
             if (DEBUG) {
@@ -273,49 +332,55 @@ public class ResolverListController {
         }
     }
 
+    private void sortComputed(List<ResolvedComponentInfo> inputList) {
+        if (mUseRankingKeys) {
+            mResolverComparator.sortByRankingKeys(inputList);
+        } else {
+            Collections.sort(inputList, mResolverComparator);
+        }
+    }
+
     @WorkerThread
     public void topK(List<ResolvedComponentInfo> inputList, int k) {
+        topK(inputList, k, null);
+    }
+
+    /**
+     * Same as {@link #topK(List, int)}, but if the ranking model takes longer than
+     * {@link #EARLY_RANKING_DELAY_MS} to compute (e.g. while waiting for the ranker service), a
+     * copy of {@code inputList} is first ranked with the model as it is at that point, typically
+     * with the scores derived from the cached usage stats, and passed to
+     * {@code earlyRankingCallback} on the calling thread.
+     */
+    @WorkerThread
+    public void topK(
+            List<ResolvedComponentInfo> inputList,
+            int k,
+            @Nullable Consumer<List<ResolvedComponentInfo>> earlyRankingCallback) {
         if (inputList == null || inputList.isEmpty() || k <= 0) {
             return;
         }
-        if (inputList.size() <= k) {
-            // Fall into normal sort when number of ranked elements
-            // needed is not smaller than size of input list.
-            sort(inputList);
-            return;
-        }
         try {
             long beforeRank = System.currentTimeMillis();
             if (!isComputed) {
-                compute(inputList);
+                compute(
+                        inputList,
+                        earlyRankingCallback == null ? null : () -> {
+                            List<ResolvedComponentInfo> earlyRanking = new ArrayList<>(inputList);
+                            // The model may be updated while this runs, so use the heap
+                            // selection, which (unlike sorting) tolerates an inconsistent order.
+                            selectTopK(earlyRanking, Math.min(k, earlyRanking.size()));
+                            earlyRankingCallback.accept(earlyRanking);
+                        });
             }
-
-            // Top of this heap has lowest rank.
-            PriorityQueue<ResolvedComponentInfo> minHeap = new PriorityQueue<>(k,
-                    (o1, o2) -> -mResolverComparator.compare(o1, o2));
-            final int size = inputList.size();
-            // Use this pointer to keep track of the position of next element
-            // to update in input list, starting from the last position.
-            int pointer = size - 1;
-            minHeap.addAll(inputList.subList(size - k, size));
-            for (int i = size - k - 1; i >= 0; --i) {
-                ResolvedComponentInfo ci = inputList.get(i);
-                if (-mResolverComparator.compare(ci, minHeap.peek()) > 0) {
-                    // When ranked higher than top of heap, remove top of heap,
-                    // update input list with it, add this new element to heap.
-                    inputList.set(pointer--, minHeap.poll());
-                    minHeap.add(ci);
-                } else {
-                    // When ranked no higher than top of heap, update input list
-                    // with this new element.
-                    inputList.set(pointer--, ci);
-                }
-            }
-
-            // Now we have top k elements in heap, update first
-            // k positions of input list with them.
-            while (!minHeap.isEmpty()) {
-                inputList.set(pointer--, minHeap.poll());
+            if (inputList.size() <= k) {
+                // Fall into normal sort when number of ranked elements
+                // needed is not smaller than size of input list.
+                sortComputed(inputList);
+            } else if (mUseRankingKeys) {
+                mResolverComparator.selectTopKByRankingKeys(inputList, k);
+            } else {
+                selectTopK(inputList, k);
             }
 
             long afterRank = System.currentTimeMillis();
@@ -328,10 +393,47 @@ public class ResolverListController {
         }
     }
 
-    private static boolean isSameResolvedComponent(ResolveInfo a, ResolvedComponentInfo b) {
-        final ActivityInfo ai = a.activityInfo;
-        return ai.packageName.equals(b.name.getPackageName())
-                && ai.name.equals(b.name.getClassName());
+    /**
+     * Puts the top {@code k} elements of {@code inputList} in order at its head, and the other
+     * elements in undetermined order in its tail.
+     */
+    private void selectTopK(List<ResolvedComponentInfo> inputList, int k) {
+        // Top of this heap has lowest rank.
+        PriorityQueue<ResolvedComponentInfo> minHeap = new PriorityQueue<>(k,
+                (o1, o2) -> -mResolverComparator.compare(o1, o2));
+        final int size = inputList.size();
+        // Use this pointer to keep track of the position of next element
+        // to update in input list, starting from the last position.
+        int pointer = size - 1;
+        minHeap.addAll(inputList.subList(size - k, size));
+        for (int i = size - k - 1; i >= 0; --i) {
+            ResolvedComponentInfo ci = inputList.get(i);
+            if (-mResolverComparator.compare(ci, minHeap.peek()) > 0) {
+                // When ranked higher than top of heap, remove top of heap,
+                // update input list with it, add this new element to heap.
+                inputList.set(pointer--, minHeap.poll());
+                minHeap.add(ci);
+            } else {
+                // When ranked no higher than top of heap, update input list
+                // with this new element.
+                inputList.set(pointer--, ci);
+            }
+        }
+
+        // Now we have top k elements in heap, update first
+        // k positions of input list with them.
+        while (!minHeap.isEmpty()) {
+            inputList.set(pointer--, minHeap.poll());
+        }
+    }
+
+    /**
+     * Compares two components with the ranking model computed by the last {@link #sort} or
+     * {@link #topK} call, without recomputing it; components unknown to the model are compared
+     * with the model's fallback rules.
+     */
+    public int compare(ResolvedComponentInfo lhs, ResolvedComponentInfo rhs) {
+        return (mResolverComparator == null) ? 0 : mResolverComparator.compare(lhs, rhs);
     }
 
     public boolean isComponentFiltered(ComponentName componentName) {
@@ -17,6 +17,7 @@
 package com.android.intentresolver;
 
 import android.app.prediction.AppTarget;
+import android.content.ComponentName;
 import android.content.Context;
 import android.content.Intent;
 import android.content.pm.PackageManager;
@@ -26,6 +27,7 @@ import android.service.chooser.ChooserTarget;
 import android.util.Log;
 
 import androidx.annotation.Nullable;
+import androidx.annotation.WorkerThread;
 
 import com.android.intentresolver.chooser.DisplayResolveInfo;
 import com.android.intentresolver.chooser.SelectableTargetInfo;
@@ -33,8 +35,12 @@ import com.android.intentresolver.chooser.TargetInfo;
 
 import java.util.Collections;
 import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
 
 class ShortcutSelectionLogic {
     private static final String TAG = "ShortcutSelectionLogic";
@@ -72,6 +78,39 @@ class ShortcutSelectionLogic {
             Intent referrerFillInIntent,
             int maxRankedTargets,
             List<TargetInfo> serviceTargets) {
+        return addServiceResults(
+                origTarget,
+                origTargetScore,
+                targets,
+                isShortcutResult,
+                directShareToShortcutInfos,
+                directShareToAppTargets,
+                userContext,
+                targetIntent,
+                referrerFillInIntent,
+                maxRankedTargets,
+                /* backupResolveInfos= */ null,
+                serviceTargets);
+    }
+
+    /**
+     * Same as above, but without a {@link PackageManager} call per target when
+     * {@code origTarget} is null, if {@code backupResolveInfos} holds the targets resolved ahead
+     * with {@link #resolveCallerTargets}.
+     */
+    public boolean addServiceResults(
+            @Nullable DisplayResolveInfo origTarget,
+            float origTargetScore,
+            List<ChooserTarget> targets,
+            boolean isShortcutResult,
+            Map<ChooserTarget, ShortcutInfo> directShareToShortcutInfos,
+            Map<ChooserTarget, AppTarget> directShareToAppTargets,
+            Context userContext,
+            Intent targetIntent,
+            Intent referrerFillInIntent,
+            int maxRankedTargets,
+            @Nullable Map<ChooserTarget, ResolveInfo> backupResolveInfos,
+            List<TargetInfo> serviceTargets) {
         if (DEBUG) {
             Log.d(TAG, "addServiceResults "
                     + (origTarget == null ? null : origTarget.getResolvedComponentName()) + ", "
@@ -88,6 +127,8 @@ class ShortcutSelectionLogic {
                 : targets.size();
         float lastScore = 0;
         boolean shouldNotify = false;
+        // Indexed once for the whole batch, instead of a similarity scan per target
+        Set<SimilarityKey> similarityKeys = null;
         for (int i = 0, count = targetsLimit; i < count; i++) {
             final ChooserTarget target = targets.get(i);
             float targetScore = target.getScore();
@@ -108,14 +149,16 @@ class ShortcutSelectionLogic {
             Intent resolvedIntent;
             if (origTarget == null) {
                 resolvedIntent = createResolvedIntentForCallerTarget(target, targetIntent);
-                backupResolveInfo = userContext.getPackageManager()
-                        .resolveActivity(
-                                resolvedIntent,
-                                PackageManager.ResolveInfoFlags.of(PackageManager.GET_META_DATA));
+                backupResolveInfo = (backupResolveInfos != null)
+                        ? backupResolveInfos.get(target)
+                        : resolveCallerTarget(userContext, resolvedIntent);
             } else {
                 resolvedIntent = origTarget.getResolvedIntent();
                 backupResolveInfo = null;
             }
+            if (similarityKeys == null) {
+                similarityKeys = indexSimilarityKeys(serviceTargets);
+            }
             boolean isInserted = insertServiceTarget(
                     SelectableTargetInfo.newSelectableTargetInfo(
                             origTarget,
@@ -127,7 +170,8 @@ class ShortcutSelectionLogic {
                             directShareToAppTargets.get(target),
                             referrerFillInIntent),
                     maxRankedTargets,
-                    serviceTargets);
+                    serviceTargets,
+                    similarityKeys);
 
             shouldNotify |= isInserted;
 
@@ -145,6 +189,27 @@ class ShortcutSelectionLogic {
         return shouldNotify;
     }
 
+    /**
+     * Resolves the activities of caller-specified targets (i.e. targets without an app target to
+     * take them from) for {@link #addServiceResults}, in one batch off the main thread.
+     */
+    @WorkerThread
+    static Map<ChooserTarget, ResolveInfo> resolveCallerTargets(
+            List<ChooserTarget> targets, Context userContext, Intent targetIntent) {
+        final Map<ChooserTarget, ResolveInfo> resolveInfos = new HashMap<>();
+        for (ChooserTarget target : targets) {
+            final Intent resolvedIntent = createResolvedIntentForCallerTarget(target, targetIntent);
+            resolveInfos.put(target, resolveCallerTarget(userContext, resolvedIntent));
+        }
+        return resolveInfos;
+    }
+
+    @Nullable
+    private static ResolveInfo resolveCallerTarget(Context userContext, Intent resolvedIntent) {
+        return userContext.getPackageManager().resolveActivity(
+                resolvedIntent, PackageManager.ResolveInfoFlags.of(PackageManager.GET_META_DATA));
+    }
+
     /**
      * Creates a resolved intent for a caller-specified target.
      * @param target, a caller-specified target.
@@ -158,37 +223,93 @@ class ShortcutSelectionLogic {
         return resolvedIntent;
     }
 
+    private static Set<SimilarityKey> indexSimilarityKeys(List<TargetInfo> serviceTargets) {
+        final Set<SimilarityKey> keys = new HashSet<>();
+        for (TargetInfo targetInfo : serviceTargets) {
+            if (targetInfo != null && targetInfo.isChooserTargetInfo()) {
+                keys.add(new SimilarityKey(targetInfo));
+            }
+        }
+        return keys;
+    }
+
     private boolean insertServiceTarget(
             TargetInfo chooserTargetInfo,
             int maxRankedTargets,
-            List<TargetInfo> serviceTargets) {
+            List<TargetInfo> serviceTargets,
+            Set<SimilarityKey> similarityKeys) {
 
-        // Check for duplicates and abort if found
-        for (TargetInfo otherTargetInfo : serviceTargets) {
-            if (chooserTargetInfo.isSimilar(otherTargetInfo)) {
-                return false;
-            }
+        // Check for duplicates and abort if found; the inserted targets are all chooser targets,
+        // which can only be similar to other chooser targets (see TargetInfo#isSimilar).
+        final SimilarityKey similarityKey = new SimilarityKey(chooserTargetInfo);
+        if (similarityKeys.contains(similarityKey)) {
+            return false;
         }
 
         int currentSize = serviceTargets.size();
         final float newScore = chooserTargetInfo.getModifiedScore();
+        // Only the first maxRankedTargets positions are scanned, so this is bounded however many
+        // results there are.
         for (int i = 0; i < Math.min(currentSize, maxRankedTargets);
                 i++) {
             final TargetInfo serviceTarget = serviceTargets.get(i);
             if (serviceTarget == null) {
                 serviceTargets.set(i, chooserTargetInfo);
+                similarityKeys.add(similarityKey);
                 return true;
             } else if (newScore > serviceTarget.getModifiedScore()) {
                 serviceTargets.add(i, chooserTargetInfo);
+                similarityKeys.add(similarityKey);
                 return true;
             }
         }
 
         if (currentSize < maxRankedTargets) {
             serviceTargets.add(chooserTargetInfo);
+            similarityKeys.add(similarityKey);
             return true;
         }
 
         return false;
     }
+
+    /**
+     * The attributes two chooser targets are compared on by {@link TargetInfo#isSimilar}, as a
+     * hash key.
+     */
+    private static final class SimilarityKey {
+        @Nullable private final ComponentName mComponentName;
+        @Nullable private final String mLabel;
+        @Nullable private final String mExtendedInfo;
+
+        SimilarityKey(TargetInfo targetInfo) {
+            mComponentName = targetInfo.getChooserTargetComponentName();
+            mLabel = toString(targetInfo.getDisplayLabel());
+            mExtendedInfo = toString(targetInfo.getExtendedInfo());
+        }
+
+        @Nullable
+        private static String toString(@Nullable CharSequence text) {
+            return (text == null) ? null : text.toString();
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof SimilarityKey)) {
+                return false;
+            }
+            final SimilarityKey other = (SimilarityKey) o;
+            return Objects.equals(mComponentName, other.mComponentName)
+                    && Objects.equals(mLabel, other.mLabel)
+                    && Objects.equals(mExtendedInfo, other.mExtendedInfo);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(mComponentName, mLabel, mExtendedInfo);
+        }
+    }
 }
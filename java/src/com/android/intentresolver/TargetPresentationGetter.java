@@ -31,6 +31,8 @@ import android.util.Log;
 
 import androidx.annotation.Nullable;
 
+import com.android.intentresolver.icons.SubstitutePermissionCache;
+
 /**
  * Loads the icon and label for the provided ApplicationInfo. Defaults to using the application icon
  * and label over any IntentFilter or Activity icon to increase user understanding, with an
@@ -51,20 +53,58 @@ public abstract class TargetPresentationGetter {
     public static class Factory {
         private final Context mContext;
         private final int mIconDpi;
+        @Nullable
+        private final SubstitutePermissionCache mPermissionCache;
 
         public Factory(Context context, int iconDpi) {
+            this(context, iconDpi, null);
+        }
+
+        /**
+         * @param permissionCache if not null, used to check the substitute permission of the
+         * targets instead of a permission check per presentation getter.
+         */
+        public Factory(
+                Context context,
+                int iconDpi,
+                @Nullable SubstitutePermissionCache permissionCache) {
             mContext = context;
             mIconDpi = iconDpi;
+            mPermissionCache = permissionCache;
+        }
+
+        /** The density the icons are loaded at. */
+        public int getIconDpi() {
+            return mIconDpi;
         }
 
         /** Make a {@link TargetPresentationGetter} for an {@link ActivityInfo}. */
         public TargetPresentationGetter makePresentationGetter(ActivityInfo activityInfo) {
-            return new ActivityInfoPresentationGetter(mContext, mIconDpi, activityInfo);
+            return new ActivityInfoPresentationGetter(
+                    mContext,
+                    mIconDpi,
+                    hasSubstitutePermission(activityInfo.applicationInfo),
+                    activityInfo);
         }
 
         /** Make a {@link TargetPresentationGetter} for a {@link ResolveInfo}. */
         public TargetPresentationGetter makePresentationGetter(ResolveInfo resolveInfo) {
-            return new ResolveInfoPresentationGetter(mContext, mIconDpi, resolveInfo);
+            return new ResolveInfoPresentationGetter(
+                    mContext,
+                    mIconDpi,
+                    hasSubstitutePermission(resolveInfo.activityInfo.applicationInfo),
+                    resolveInfo);
+        }
+
+        private boolean hasSubstitutePermission(ApplicationInfo appInfo) {
+            PackageManager pm = mContext.getPackageManager();
+            if (mPermissionCache != null) {
+                return mPermissionCache.hasPermission(
+                        pm, mContext.getUserId(), appInfo.packageName);
+            }
+            return PackageManager.PERMISSION_GRANTED == pm.checkPermission(
+                    android.Manifest.permission.SUBSTITUTE_SHARE_TARGET_APP_NAME_AND_ICON,
+                    appInfo.packageName);
         }
     }
 
@@ -168,14 +208,16 @@ public abstract class TargetPresentationGetter {
         return res.getDrawableForDensity(resId, mIconDpi);
     }
 
-    private TargetPresentationGetter(Context context, int iconDpi, ApplicationInfo appInfo) {
+    private TargetPresentationGetter(
+            Context context,
+            int iconDpi,
+            boolean hasSubstitutePermission,
+            ApplicationInfo appInfo) {
         mContext = context;
         mPm = context.getPackageManager();
         mAppInfo = appInfo;
         mIconDpi = iconDpi;
-        mHasSubstitutePermission = (PackageManager.PERMISSION_GRANTED == mPm.checkPermission(
-                android.Manifest.permission.SUBSTITUTE_SHARE_TARGET_APP_NAME_AND_ICON,
-                mAppInfo.packageName));
+        mHasSubstitutePermission = hasSubstitutePermission;
     }
 
     /** Loads the icon and label for the provided ResolveInfo. */
@@ -183,8 +225,11 @@ public abstract class TargetPresentationGetter {
         private final ResolveInfo mResolveInfo;
 
         ResolveInfoPresentationGetter(
-                Context context, int iconDpi, ResolveInfo resolveInfo) {
-            super(context, iconDpi, resolveInfo.activityInfo);
+                Context context,
+                int iconDpi,
+                boolean hasSubstitutePermission,
+                ResolveInfo resolveInfo) {
+            super(context, iconDpi, hasSubstitutePermission, resolveInfo.activityInfo);
             mResolveInfo = resolveInfo;
         }
 
@@ -230,8 +275,11 @@ public abstract class TargetPresentationGetter {
         private final ActivityInfo mActivityInfo;
 
         ActivityInfoPresentationGetter(
-                Context context, int iconDpi, ActivityInfo activityInfo) {
-            super(context, iconDpi, activityInfo.applicationInfo);
+                Context context,
+                int iconDpi,
+                boolean hasSubstitutePermission,
+                ActivityInfo activityInfo) {
+            super(context, iconDpi, hasSubstitutePermission, activityInfo.applicationInfo);
             mActivityInfo = activityInfo;
         }
 
@@ -20,13 +20,14 @@ import android.content.BroadcastReceiver;
 import android.content.Context;
 import android.content.Intent;
 import android.content.IntentFilter;
-import android.os.AsyncTask;
 import android.os.UserHandle;
 import android.os.UserManager;
 import android.text.TextUtils;
 
 import androidx.annotation.VisibleForTesting;
 
+import com.android.intentresolver.concurrency.ProcessDispatchers;
+
 /** Monitor for runtime conditions that may disable work profile display. */
 public class WorkProfileAvailabilityManager {
     private final UserManager mUserManager;
@@ -107,7 +108,7 @@ public class WorkProfileAvailabilityManager {
      * TODO: this is only used to disable quiet mode; should that be hard-coded?
      */
     public void requestQuietModeEnabled(boolean enabled) {
-        AsyncTask.THREAD_POOL_EXECUTOR.execute(
+        ProcessDispatchers.ipc.execute(
                 () -> mUserManager.requestQuietModeEnabled(enabled, mWorkProfileUserHandle));
         mIsWaitingToEnableWorkProfile = true;
     }
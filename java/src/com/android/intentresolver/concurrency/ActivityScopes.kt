@@ -0,0 +1,49 @@
+/*
+ * Copyright (C) 2024 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.intentresolver.concurrency
+
+import java.util.concurrent.Executor
+import kotlinx.coroutines.CoroutineDispatcher
+import kotlinx.coroutines.CoroutineScope
+import kotlinx.coroutines.launch
+import kotlinx.coroutines.plus
+
+/**
+ * Child scopes of an activity scope, one per process-wide dispatcher. They are cancelled along
+ * with the activity scope, i.e. when the activity is destroyed.
+ */
+class ActivityScopes(
+    activityScope: CoroutineScope,
+    uiCriticalDispatcher: CoroutineDispatcher,
+    ipcDispatcher: CoroutineDispatcher,
+    diskDispatcher: CoroutineDispatcher,
+) {
+    val uiCritical: CoroutineScope = activityScope + uiCriticalDispatcher
+    val ipc: CoroutineScope = activityScope + ipcDispatcher
+    val disk: CoroutineScope = activityScope + diskDispatcher
+
+    /** An executor for [uiCritical]; the tasks not started when it is cancelled never run. */
+    val uiCriticalExecutor: Executor = uiCritical.asExecutor()
+
+    /** An executor for [ipc]; the tasks not started when it is cancelled never run. */
+    val ipcExecutor: Executor = ipc.asExecutor()
+
+    /** An executor for [disk]; the tasks not started when it is cancelled never run. */
+    val diskExecutor: Executor = disk.asExecutor()
+
+    private fun CoroutineScope.asExecutor() = Executor { task -> launch { task.run() } }
+}
@@ -0,0 +1,109 @@
+/*
+ * Copyright (C) 2024 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.intentresolver.concurrency
+
+import android.os.Process
+import android.os.Trace
+import java.util.concurrent.Executor
+import java.util.concurrent.LinkedBlockingQueue
+import java.util.concurrent.ThreadFactory
+import java.util.concurrent.ThreadPoolExecutor
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicInteger
+import kotlinx.coroutines.CoroutineDispatcher
+import kotlinx.coroutines.ExperimentalCoroutinesApi
+import kotlinx.coroutines.asCoroutineDispatcher
+import kotlinx.coroutines.asExecutor
+
+private const val KEEP_ALIVE_SECONDS = 10L
+
+/**
+ * A named pool of at most [threadCount] threads, running at [threadPriority], that are released
+ * once they have been idle for a few seconds. The number of tasks waiting for a thread is tracked
+ * and reported as the `<name>-queue` trace counter.
+ */
+class MeteredExecutor
+@JvmOverloads
+constructor(
+    val name: String,
+    threadCount: Int,
+    threadPriority: Int = Process.THREAD_PRIORITY_DEFAULT,
+    private val onQueueDepthChanged: (Int) -> Unit = { depth ->
+        Trace.setCounter("$name-queue", depth.toLong())
+    },
+) : Executor {
+    private val queued = AtomicInteger()
+    private val maxQueued = AtomicInteger()
+    private val executor =
+        ThreadPoolExecutor(
+                threadCount,
+                threadCount,
+                KEEP_ALIVE_SECONDS,
+                TimeUnit.SECONDS,
+                LinkedBlockingQueue(),
+                createThreadFactory(name, threadPriority),
+            )
+            .apply { allowCoreThreadTimeOut(true) }
+
+    /** This executor as a coroutine dispatcher. */
+    val dispatcher: CoroutineDispatcher = asCoroutineDispatcher()
+
+    /** The number of tasks currently waiting for a thread. */
+    val queueDepth: Int
+        get() = queued.get()
+
+    /** The largest number of tasks that have been waiting for a thread at once. */
+    val maxQueueDepth: Int
+        get() = maxQueued.get()
+
+    override fun execute(command: Runnable) {
+        val depth = queued.incrementAndGet()
+        maxQueued.accumulateAndGet(depth, ::maxOf)
+        onQueueDepthChanged(depth)
+        executor.execute {
+            onQueueDepthChanged(queued.decrementAndGet())
+            command.run()
+        }
+    }
+
+    /** @return an executor that runs at most [parallelism] of its tasks on this pool at once. */
+    @OptIn(ExperimentalCoroutinesApi::class)
+    fun limited(parallelism: Int): Executor =
+        dispatcher.limitedParallelism(parallelism).asExecutor()
+
+    /** @return an executor that runs its tasks on this pool one at a time, in order. */
+    fun serial(): Executor = serialDispatcher().asExecutor()
+
+    /** @return a dispatcher that runs its tasks on this pool one at a time, in order. */
+    @OptIn(ExperimentalCoroutinesApi::class)
+    fun serialDispatcher(): CoroutineDispatcher = dispatcher.limitedParallelism(1)
+
+    private companion object {
+        fun createThreadFactory(name: String, threadPriority: Int): ThreadFactory {
+            val threadNumber = AtomicInteger()
+            return ThreadFactory { runnable ->
+                Thread(
+                    {
+                        Process.setThreadPriority(threadPriority)
+                        runnable.run()
+                    },
+                    "$name-${threadNumber.incrementAndGet()}",
+                )
+            }
+        }
+    }
+}
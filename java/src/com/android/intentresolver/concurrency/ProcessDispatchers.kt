@@ -0,0 +1,57 @@
+/*
+ * Copyright (C) 2024 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.intentresolver.concurrency
+
+import android.os.Process
+import java.util.concurrent.Executor
+
+/**
+ * The process-wide thread pools all the background work runs on. They are exposed to the injected
+ * classes through [com.android.intentresolver.inject.ConcurrencyModule]; this object is the access
+ * point for the code that is not injected.
+ */
+object ProcessDispatchers {
+    /** The work the UI is waiting for: target sorting and target icon and label loading. */
+    @JvmField val uiCritical = MeteredExecutor("ui-critical", threadCount = 4)
+
+    /** Binder calls to the system services and other apps. */
+    @JvmField val ipc = MeteredExecutor("ipc", threadCount = 6)
+
+    /**
+     * The share of [ipc] the A-Z list label loads can take at once, across all the lists, so that
+     * the direct share shortcut queries and the other binder calls on the critical path always
+     * have threads left.
+     */
+    @JvmField val labelLoading: Executor = ipc.limited(parallelism = 3)
+
+    /**
+     * The general, blocking background work of the injected classes and the content preview: user
+     * and share result bookkeeping and the preview metadata and image loading. The preview image
+     * loader runs at most 4 content provider calls at once, so it can not take all the threads, and
+     * none of this work waits for the label loads on [ipc].
+     */
+    @JvmField val background = MeteredExecutor("background", threadCount = 8)
+
+    /** File and database accesses. */
+    @JvmField
+    val disk =
+        MeteredExecutor(
+            "disk",
+            threadCount = 2,
+            threadPriority = Process.THREAD_PRIORITY_BACKGROUND,
+        )
+}
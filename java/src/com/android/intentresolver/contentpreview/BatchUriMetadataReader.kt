@@ -0,0 +1,120 @@
+/*
+ * Copyright (C) 2024 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.intentresolver.contentpreview
+
+import android.content.ContentInterface
+import android.content.ContentResolver
+import android.content.ContentUris
+import android.net.Uri
+import android.os.Bundle
+import android.provider.MediaStore
+import android.util.Log
+import com.android.intentresolver.measurements.runTracing
+
+/** A set of columns read by a bulk collection query, see [BatchUriMetadataReader]. */
+internal val BULK_METADATA_COLUMNS =
+    arrayOf(
+        MediaStore.MediaColumns._ID,
+        MediaStore.MediaColumns.MIME_TYPE,
+        MediaStore.MediaColumns.DISPLAY_NAME,
+    )
+
+/**
+ * Reads mime types and display names of shared content URIs in bulk. URIs that point to rows of a
+ * collection known to support bulk queries (currently, [MediaStore] collections) are grouped by the
+ * collection and read with a single query per group. No metadata is returned for other URIs or for
+ * the rows the query did not return (e.g. rows the caller only has a per-URI grant for); the
+ * caller is expected to fall back to the per-URI calls for those.
+ */
+internal class BatchUriMetadataReader(private val contentResolver: ContentInterface) {
+
+    class Metadata(val mimeType: String?, val title: String)
+
+    fun read(uris: List<Uri>): Map<Uri, Metadata> {
+        val result = HashMap<Uri, Metadata>()
+        uris
+            .groupBy { it.bulkQueryCollection }
+            .forEach { (collection, collectionUris) ->
+                if (collection != null) {
+                    readCollection(collection, collectionUris, result)
+                }
+            }
+        return result
+    }
+
+    private fun readCollection(
+        collection: Uri,
+        uris: List<Uri>,
+        result: MutableMap<Uri, Metadata>,
+    ) {
+        val urisById = uris.groupBy { ContentUris.parseId(it) }
+        val queryArgs =
+            Bundle().apply {
+                putString(
+                    ContentResolver.QUERY_ARG_SQL_SELECTION,
+                    "${MediaStore.MediaColumns._ID} IN (${urisById.keys.joinToString(",")})"
+                )
+            }
+        runTracing("bulk-query") {
+            try {
+                contentResolver.query(collection, BULK_METADATA_COLUMNS, queryArgs, null)?.use {
+                    cursor ->
+                    val idIdx = cursor.getColumnIndex(MediaStore.MediaColumns._ID)
+                    val mimeTypeIdx = cursor.getColumnIndex(MediaStore.MediaColumns.MIME_TYPE)
+                    val nameIdx = cursor.getColumnIndex(MediaStore.MediaColumns.DISPLAY_NAME)
+                    if (idIdx < 0) return@use
+                    while (cursor.moveToNext()) {
+                        val rowUris = urisById[cursor.getLong(idIdx)] ?: continue
+                        val mimeType = if (mimeTypeIdx >= 0) cursor.getString(mimeTypeIdx) else null
+                        val title = if (nameIdx >= 0) cursor.getString(nameIdx) else null
+                        val metadata = Metadata(mimeType, title ?: "")
+                        rowUris.forEach { result[it] = metadata }
+                    }
+                }
+            } catch (e: SecurityException) {
+                Log.w(ContentPreviewUi.TAG, "No access to $collection, fall back to per-URI reads")
+            } catch (t: Throwable) {
+                Log.e(ContentPreviewUi.TAG, "Failed to bulk-read metadata from $collection", t)
+            }
+        }
+    }
+}
+
+/**
+ * The collection URI of a [MediaStore] item URI, i.e. the URI without the trailing item id, if the
+ * URI is one of the well-known item URI shapes
+ * (`content://media/<volume>/<images|video|audio>/media/<id>`,
+ * `content://media/<volume>/<file|downloads>/<id>`); null otherwise.
+ */
+private val Uri.bulkQueryCollection: Uri?
+    get() {
+        if (scheme != ContentResolver.SCHEME_CONTENT || authority != MediaStore.AUTHORITY) {
+            return null
+        }
+        if (query != null || fragment != null) return null
+        val segments = pathSegments
+        val isItemUri =
+            when (segments.size) {
+                4 -> segments[1] in MEDIA_TYPES && segments[2] == "media"
+                3 -> segments[1] == "file" || segments[1] == "downloads"
+                else -> false
+            }
+        if (!isItemUri || segments.last().toLongOrNull()?.takeIf { it >= 0 } == null) return null
+        return buildUpon().path(null).apply { segments.dropLast(1).forEach(::appendPath) }.build()
+    }
+
+private val MEDIA_TYPES = setOf("images", "video", "audio")
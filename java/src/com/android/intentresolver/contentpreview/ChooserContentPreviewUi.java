@@ -29,6 +29,7 @@ import android.text.TextUtils;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
+import android.widget.FrameLayout;
 
 import androidx.annotation.Nullable;
 import androidx.annotation.VisibleForTesting;
@@ -37,6 +38,7 @@ import com.android.intentresolver.ContentTypeHint;
 import com.android.intentresolver.widget.ActionRow;
 import com.android.intentresolver.widget.ImagePreviewView.TransitionElementStatusCallback;
 
+import java.util.ArrayList;
 import java.util.List;
 import java.util.function.Consumer;
 
@@ -51,6 +53,14 @@ public final class ChooserContentPreviewUi {
 
     private final CoroutineScope mScope;
     private final boolean mIsPayloadTogglingEnabled;
+    private final boolean mIsProgressive;
+    private final ContentPreviewFactory mContentPreviewFactory;
+    private final TransitionElementStatusCallback mTransitionElementStatusCallback;
+    private final List<PreviewHost> mPreviewHosts = new ArrayList<>();
+    @ContentPreviewType
+    private int mPreviewType;
+    @Nullable
+    private Runnable mOnContentPreviewChangedListener;
 
     /**
      * Delegate to build the default system action buttons to display in the preview layout, if/when
@@ -92,7 +102,7 @@ public final class ChooserContentPreviewUi {
     }
 
     @VisibleForTesting
-    final ContentPreviewUi mContentPreviewUi;
+    ContentPreviewUi mContentPreviewUi;
 
     public ChooserContentPreviewUi(
             CoroutineScope scope,
@@ -106,9 +116,47 @@ public final class ChooserContentPreviewUi {
             @Nullable CharSequence metadata,
             // TODO: replace with the FeatureFlag ref when v1 is gone
             boolean isPayloadTogglingEnabled) {
+        this(
+                scope,
+                previewData,
+                targetIntent,
+                imageLoader,
+                actionFactory,
+                transitionElementStatusCallback,
+                headlineGenerator,
+                contentTypeHint,
+                metadata,
+                isPayloadTogglingEnabled,
+                /* isProgressive = */ false);
+    }
+
+    /**
+     * @param isProgressive if true, the preview is created with the provisional preview type (see
+     *                      {@link PreviewDataProvider#getProvisionalPreviewType()}) instead of
+     *                      waiting for the shared content metadata; the displayed preview is then
+     *                      replaced if the final preview type turns out to be different (see
+     *                      {@link #setOnContentPreviewChangedListener(Runnable)}).
+     */
+    public ChooserContentPreviewUi(
+            CoroutineScope scope,
+            PreviewDataProvider previewData,
+            Intent targetIntent,
+            ImageLoader imageLoader,
+            ActionFactory actionFactory,
+            TransitionElementStatusCallback transitionElementStatusCallback,
+            HeadlineGenerator headlineGenerator,
+            ContentTypeHint contentTypeHint,
+            @Nullable CharSequence metadata,
+            // TODO: replace with the FeatureFlag ref when v1 is gone
+            boolean isPayloadTogglingEnabled,
+            boolean isProgressive) {
         mScope = scope;
         mIsPayloadTogglingEnabled = isPayloadTogglingEnabled;
-        mContentPreviewUi = createContentPreview(
+        mIsProgressive = isProgressive;
+        mTransitionElementStatusCallback = transitionElementStatusCallback;
+        mContentPreviewFactory = (previewType, isProvisional) -> createContentPreview(
+                previewType,
+                isProvisional,
                 previewData,
                 targetIntent,
                 DefaultMimeTypeClassifier.INSTANCE,
@@ -119,12 +167,47 @@ public final class ChooserContentPreviewUi {
                 contentTypeHint,
                 metadata
         );
+        mPreviewType = isProgressive
+                ? previewData.getProvisionalPreviewType()
+                : previewData.getPreviewType();
+        mContentPreviewUi = mContentPreviewFactory.create(mPreviewType, isProgressive);
         if (mContentPreviewUi.getType() != CONTENT_PREVIEW_IMAGE) {
             transitionElementStatusCallback.onAllTransitionElementsReady();
         }
+        if (isProgressive) {
+            JavaFlowHelper.collect(
+                    scope, previewData.getPreviewTypeFlow(), this::onPreviewTypeUpdated);
+        }
+    }
+
+    /**
+     * Sets a listener to be notified when the displayed content preview is replaced as the final
+     * preview type differs from the provisional one; only used in the progressive mode.
+     */
+    public void setOnContentPreviewChangedListener(@Nullable Runnable listener) {
+        mOnContentPreviewChangedListener = listener;
+    }
+
+    private void onPreviewTypeUpdated(int previewType) {
+        if (previewType == mPreviewType) {
+            return;
+        }
+        mPreviewType = previewType;
+        mContentPreviewUi = mContentPreviewFactory.create(previewType, false);
+        for (PreviewHost host : mPreviewHosts) {
+            host.display(mContentPreviewUi);
+        }
+        if (mContentPreviewUi.getType() != CONTENT_PREVIEW_IMAGE) {
+            mTransitionElementStatusCallback.onAllTransitionElementsReady();
+        }
+        if (mOnContentPreviewChangedListener != null) {
+            mOnContentPreviewChangedListener.run();
+        }
     }
 
     private ContentPreviewUi createContentPreview(
+            @ContentPreviewType int previewType,
+            boolean isProvisional,
             PreviewDataProvider previewData,
             Intent targetIntent,
             MimeTypeClassifier typeClassifier,
@@ -135,7 +218,6 @@ public final class ChooserContentPreviewUi {
             ContentTypeHint contentTypeHint,
             @Nullable CharSequence metadata
     ) {
-        int previewType = previewData.getPreviewType();
         if (previewType == CONTENT_PREVIEW_TEXT) {
             return createTextPreview(
                     mScope,
@@ -165,8 +247,11 @@ public final class ChooserContentPreviewUi {
             return new ShareouselContentPreviewUi(actionFactory);
         }
 
+        // The provisional preview is created without waiting for the shared content metadata
         boolean isSingleImageShare = previewData.getUriCount() == 1
-                && typeClassifier.isImageType(previewData.getFirstFileInfo().getMimeType());
+                && typeClassifier.isImageType(isProvisional
+                        ? targetIntent.getType()
+                        : previewData.getFirstFileInfo().getMimeType());
         CharSequence text = targetIntent.getCharSequenceExtra(Intent.EXTRA_TEXT);
         if (!TextUtils.isEmpty(text)) {
             FilesPlusTextContentPreviewUi previewUi =
@@ -220,7 +305,23 @@ public final class ChooserContentPreviewUi {
             ViewGroup parent,
             @Nullable View headlineViewParent) {
 
-        return mContentPreviewUi.display(resources, layoutInflater, parent, headlineViewParent);
+        ViewGroup layout =
+                mContentPreviewUi.display(resources, layoutInflater, parent, headlineViewParent);
+        if (!mIsProgressive || layout == null) {
+            return layout;
+        }
+        // Wrap the preview into a container so it could be replaced in-place later
+        FrameLayout container = new FrameLayout(parent.getContext());
+        ViewGroup.LayoutParams layoutParams = layout.getLayoutParams();
+        if (layoutParams != null) {
+            container.setLayoutParams(layoutParams);
+            layout.setLayoutParams(
+                    new FrameLayout.LayoutParams(layoutParams.width, layoutParams.height));
+        }
+        container.addView(layout);
+        mPreviewHosts.add(
+                new PreviewHost(container, resources, layoutInflater, headlineViewParent));
+        return container;
     }
 
     private static TextContentPreviewUi createTextPreview(
@@ -254,4 +355,37 @@ public final class ChooserContentPreviewUi {
                 headlineGenerator,
                 contentTypeHint);
     }
+
+    private interface ContentPreviewFactory {
+        ContentPreviewUi create(@ContentPreviewType int previewType, boolean isProvisional);
+    }
+
+    /** A container of a displayed content preview, see {@link #displayContentPreview}. */
+    private static final class PreviewHost {
+        private final FrameLayout mContainer;
+        private final Resources mResources;
+        private final LayoutInflater mLayoutInflater;
+        @Nullable
+        private final View mHeadlineViewParent;
+
+        PreviewHost(
+                FrameLayout container,
+                Resources resources,
+                LayoutInflater layoutInflater,
+                @Nullable View headlineViewParent) {
+            mContainer = container;
+            mResources = resources;
+            mLayoutInflater = layoutInflater;
+            mHeadlineViewParent = headlineViewParent;
+        }
+
+        void display(ContentPreviewUi contentPreviewUi) {
+            mContainer.removeAllViews();
+            ViewGroup layout = contentPreviewUi.display(
+                    mResources, mLayoutInflater, mContainer, mHeadlineViewParent);
+            if (layout != null) {
+                mContainer.addView(layout);
+            }
+        }
+    }
 }
@@ -35,6 +35,19 @@ interface ImageLoader : suspend (Uri) -> Bitmap?, suspend (Uri, Boolean) -> Bitm
     /** Prepopulate the image loader cache. */
     fun prePopulate(uris: List<Uri>)
 
+    /**
+     * Provides a hint about the images currently on the screen. [visible] images are loaded ahead
+     * of any other; [upcoming] images, the next ones in the scroll direction, are prefetched.
+     * Pending prefetches of images that left the viewport are cancelled.
+     */
+    fun updateViewport(visible: List<Uri>, upcoming: List<Uri>) {}
+
+    /**
+     * Releases cached images in response to memory pressure, see
+     * [android.content.ComponentCallbacks2.onTrimMemory].
+     */
+    fun onTrimMemory(level: Int) {}
+
     /** Load preview image; caching is allowed. */
     override suspend fun invoke(uri: Uri) = invoke(uri, true)
 
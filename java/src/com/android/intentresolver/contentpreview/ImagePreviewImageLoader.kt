@@ -16,6 +16,7 @@
 
 package com.android.intentresolver.contentpreview
 
+import android.content.ComponentCallbacks2
 import android.content.ContentResolver
 import android.graphics.Bitmap
 import android.net.Uri
@@ -24,20 +25,34 @@ import android.util.Size
 import androidx.annotation.GuardedBy
 import androidx.annotation.VisibleForTesting
 import androidx.collection.LruCache
+import java.util.concurrent.atomic.AtomicLong
 import java.util.function.Consumer
 import kotlinx.coroutines.CancellationException
 import kotlinx.coroutines.CompletableDeferred
 import kotlinx.coroutines.CoroutineScope
-import kotlinx.coroutines.Deferred
+import kotlinx.coroutines.Job
 import kotlinx.coroutines.isActive
 import kotlinx.coroutines.launch
 import kotlinx.coroutines.sync.Semaphore
 
 private const val TAG = "ImagePreviewImageLoader"
+private const val DEFAULT_STRIPE_COUNT = 4
 
 /**
  * Implements preview image loading for the content preview UI. Provides requests deduplication,
- * image caching, and a limit on the number of parallel loadings.
+ * image caching, and a limit on the number of parallel loadings. If a [ThumbnailDiskCache] is
+ * provided, loaded thumbnails are also persisted there and served from it on subsequent loads.
+ *
+ * The in-memory cache is limited by the total bitmap allocation size, [cacheSizeBytes], and is
+ * split into [stripeCount] independently locked stripes selected by the URI hash so concurrent
+ * lookups for different images do not contend on a single monitor.
+ *
+ * If [useHardwareBitmaps] is set, loaded images are converted to [Bitmap.Config.HARDWARE] bitmaps
+ * and the software bitmaps are recycled right away; use it only when images are just displayed.
+ *
+ * Provider calls are ordered by the viewport hints (see [updateViewport]): visible images are
+ * loaded first, then the upcoming ones. A load that nobody waits for anymore, e.g. because its view
+ * was recycled, is cancelled if it has not started yet.
  */
 @VisibleForTesting(otherwise = VisibleForTesting.PACKAGE_PRIVATE)
 class ImagePreviewImageLoader
@@ -46,25 +61,73 @@ constructor(
     private val scope: CoroutineScope,
     thumbnailSize: Int,
     private val contentResolver: ContentResolver,
-    cacheSize: Int,
+    cacheSizeBytes: Int,
     // TODO: consider providing a scope with the dispatcher configured with
     //  [CoroutineDispatcher#limitedParallelism] instead
-    private val contentResolverSemaphore: Semaphore,
+    contentResolverSemaphore: Semaphore,
+    private val diskCache: ThumbnailDiskCache? = null,
+    stripeCount: Int = DEFAULT_STRIPE_COUNT,
+    private val useHardwareBitmaps: Boolean = false,
 ) : ImageLoader {
 
     constructor(
         scope: CoroutineScope,
         thumbnailSize: Int,
         contentResolver: ContentResolver,
-        cacheSize: Int,
-        maxSimultaneousRequests: Int = 4
-    ) : this(scope, thumbnailSize, contentResolver, cacheSize, Semaphore(maxSimultaneousRequests))
+        cacheSizeBytes: Int,
+        maxSimultaneousRequests: Int = 4,
+        diskCache: ThumbnailDiskCache? = null,
+        stripeCount: Int = DEFAULT_STRIPE_COUNT,
+        useHardwareBitmaps: Boolean = false,
+    ) : this(
+        scope,
+        thumbnailSize,
+        contentResolver,
+        cacheSizeBytes,
+        Semaphore(maxSimultaneousRequests),
+        diskCache,
+        stripeCount,
+        useHardwareBitmaps,
+    )
 
     private val thumbnailSize: Size = Size(thumbnailSize, thumbnailSize)
 
-    private val lock = Any()
-    @GuardedBy("lock") private val cache = LruCache<Uri, RequestRecord>(cacheSize)
-    @GuardedBy("lock") private val runningRequests = HashMap<Uri, RequestRecord>()
+    private val stripes = Array(stripeCount) { Stripe(maxOf(1, cacheSizeBytes / stripeCount)) }
+
+    private val permits = PrioritySemaphore(contentResolverSemaphore)
+    @Volatile private var viewport = Viewport(emptySet(), emptySet())
+
+    private val loadCount = AtomicLong()
+    private val decodedBytes = AtomicLong()
+
+    /** The number of full-size thumbnails that fit into the cache. */
+    private val prePopulateCount =
+        maxOf(1, cacheSizeBytes / maxOf(1, thumbnailSize * thumbnailSize * BYTES_PER_PIXEL))
+
+    /** In-memory cache statistics, aggregated over all stripes. */
+    val cacheStats: CacheStats
+        get() {
+            var hitCount = 0L
+            var missCount = 0L
+            var evictionCount = 0L
+            var sizeBytes = 0L
+            for (stripe in stripes) {
+                synchronized(stripe) {
+                    hitCount += stripe.cache.hitCount()
+                    missCount += stripe.cache.missCount()
+                    evictionCount += stripe.cache.evictionCount()
+                    sizeBytes += stripe.cache.size()
+                }
+            }
+            return CacheStats(
+                hitCount,
+                missCount,
+                evictionCount,
+                sizeBytes,
+                loadCount.get(),
+                decodedBytes.get(),
+            )
+        }
 
     override suspend fun invoke(uri: Uri, caching: Boolean): Bitmap? = loadImageAsync(uri, caching)
 
@@ -78,77 +141,258 @@ constructor(
     }
 
     override fun prePopulate(uris: List<Uri>) {
-        uris.asSequence().take(cache.maxSize()).forEach { uri ->
+        uris.asSequence().take(prePopulateCount).forEach { uri ->
             scope.launch { loadImageAsync(uri, caching = true) }
         }
     }
 
-    private suspend fun loadImageAsync(uri: Uri, caching: Boolean): Bitmap? {
-        return getRequestDeferred(uri, caching).await()
+    override fun onTrimMemory(level: Int) {
+        for (stripe in stripes) {
+            synchronized(stripe) {
+                when {
+                    level >= ComponentCallbacks2.TRIM_MEMORY_BACKGROUND -> stripe.cache.evictAll()
+                    level >= ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW ->
+                        stripe.cache.trimToSize(stripe.cache.maxSize() / 2)
+                }
+            }
+        }
+    }
+
+    override fun updateViewport(visible: List<Uri>, upcoming: List<Uri>) {
+        val viewport = Viewport(visible.toHashSet(), upcoming.toHashSet())
+        this.viewport = viewport
+        for (stripe in stripes) {
+            synchronized(stripe) {
+                val staleRequests =
+                    stripe.runningRequests.values.filter { request ->
+                        request.isPrefetch &&
+                            request.waiterCount == 0 &&
+                            !request.hasPermit &&
+                            request.uri !in viewport
+                    }
+                staleRequests.forEach { stripe.cancelRequest(it) }
+            }
+        }
+        for (uri in upcoming) {
+            prefetch(uri)
+        }
     }
 
-    private fun getRequestDeferred(uri: Uri, caching: Boolean): Deferred<Bitmap?> {
+    private suspend fun loadImageAsync(uri: Uri, caching: Boolean): Bitmap? {
         var shouldLaunchImageLoading = false
+        val stripe = stripeFor(uri)
         val request =
-            synchronized(lock) {
-                cache[uri]
-                    ?: runningRequests
-                        .getOrPut(uri) {
-                            shouldLaunchImageLoading = true
-                            RequestRecord(uri, CompletableDeferred(), caching)
-                        }
-                        .apply { this.caching = this.caching || caching }
+            synchronized(stripe) {
+                stripe.cache[uri]?.let {
+                    return it
+                }
+                stripe.runningRequests
+                    .getOrPut(uri) {
+                        shouldLaunchImageLoading = true
+                        RequestRecord(uri, CompletableDeferred(), caching)
+                    }
+                    .apply {
+                        this.caching = this.caching || caching
+                        waiterCount++
+                    }
             }
         if (shouldLaunchImageLoading) {
             request.loadBitmapAsync()
         }
-        return request.deferred
+        try {
+            return request.deferred.await()
+        } finally {
+            request.onWaiterGone()
+        }
     }
 
-    private fun RequestRecord.loadBitmapAsync() {
-        scope
-            .launch { loadBitmap() }
-            .invokeOnCompletion { cause ->
-                if (cause is CancellationException) {
-                    cancel()
+    private fun prefetch(uri: Uri) {
+        val stripe = stripeFor(uri)
+        val request =
+            synchronized(stripe) {
+                if (stripe.cache[uri] != null) return
+                stripe.runningRequests[uri]?.let { request ->
+                    request.caching = true
+                    request.isPrefetch = true
+                    return
+                }
+                RequestRecord(uri, CompletableDeferred(), caching = true).also {
+                    it.isPrefetch = true
+                    stripe.runningRequests[uri] = it
                 }
             }
+        request.loadBitmapAsync()
+    }
+
+    /**
+     * Cancels the request if no one waits for it anymore, unless it is already running or was
+     * requested as a prefetch (stale prefetches are cancelled by [updateViewport]).
+     */
+    private fun RequestRecord.onWaiterGone() {
+        val stripe = stripeFor(uri)
+        synchronized(stripe) {
+            waiterCount--
+            if (waiterCount > 0 || isPrefetch || hasPermit || deferred.isCompleted) return
+            stripe.cancelRequest(this)
+        }
+    }
+
+    /**
+     * Cancels the [request] and detaches it from the running requests right away, so a later load
+     * of the same image starts a new request instead of joining the cancelled one.
+     */
+    @GuardedBy("this")
+    private fun Stripe.cancelRequest(request: RequestRecord) {
+        runningRequests.remove(request.uri, request)
+        request.deferred.cancel()
+        request.job?.cancel()
+    }
+
+    /** Permit acquisition priority: visible images first, then the upcoming ones. */
+    private fun priorityOf(uri: Uri): Int {
+        val viewport = viewport
+        return when (uri) {
+            in viewport.visible -> PRIORITY_VISIBLE
+            in viewport.upcoming -> PRIORITY_UPCOMING
+            else -> PRIORITY_DEFAULT
+        }
+    }
+
+    private fun stripeFor(uri: Uri): Stripe =
+        stripes[(uri.hashCode() and Int.MAX_VALUE) % stripes.size]
+
+    private fun RequestRecord.loadBitmapAsync() {
+        val job = scope.launch { loadBitmap() }
+        synchronized(stripeFor(uri)) {
+            this.job = job
+            // the request may have been cancelled before its job was known
+            if (deferred.isCancelled) {
+                job.cancel()
+            }
+        }
+        job.invokeOnCompletion { cause ->
+            if (cause is CancellationException) {
+                cancel()
+            }
+        }
     }
 
     private suspend fun RequestRecord.loadBitmap() {
-        contentResolverSemaphore.acquire()
+        permits.acquire { priorityOf(uri) }
+        synchronized(stripeFor(uri)) { hasPermit = true }
         val bitmap =
             try {
-                contentResolver.loadThumbnail(uri, thumbnailSize, null)
+                loadThumbnail(uri)
             } catch (t: Throwable) {
                 Log.d(TAG, "failed to load $uri preview", t)
                 null
             } finally {
-                contentResolverSemaphore.release()
+                permits.release()
             }
         complete(bitmap)
     }
 
+    private fun loadThumbnail(uri: Uri): Bitmap? {
+        val bitmap = loadSoftwareThumbnail(uri) ?: return null
+        loadCount.incrementAndGet()
+        decodedBytes.addAndGet(bitmap.allocationByteCount.toLong())
+        return if (useHardwareBitmaps) bitmap.toHardwareBitmap() else bitmap
+    }
+
+    private fun loadSoftwareThumbnail(uri: Uri): Bitmap? {
+        val diskCache = diskCache ?: return contentResolver.loadThumbnail(uri, thumbnailSize, null)
+        val signature = diskCache.readSignature(uri)
+        if (signature != null) {
+            diskCache.get(uri, thumbnailSize.width, signature)?.let {
+                return it
+            }
+        }
+        return contentResolver.loadThumbnail(uri, thumbnailSize, null)?.also { bitmap ->
+            if (signature != null) {
+                diskCache.put(uri, thumbnailSize.width, signature, bitmap)
+            }
+        }
+    }
+
+    /** Converts this bitmap to a hardware one; this bitmap is recycled. */
+    private fun Bitmap.toHardwareBitmap(): Bitmap {
+        if (config == Bitmap.Config.HARDWARE) return this
+        val hardwareBitmap = copy(Bitmap.Config.HARDWARE, false) ?: return this
+        recycle()
+        return hardwareBitmap
+    }
+
     private fun RequestRecord.cancel() {
-        synchronized(lock) {
-            runningRequests.remove(uri)
+        val stripe = stripeFor(uri)
+        synchronized(stripe) {
+            stripe.runningRequests.remove(uri, this)
             deferred.cancel()
         }
     }
 
     private fun RequestRecord.complete(bitmap: Bitmap?) {
         deferred.complete(bitmap)
-        synchronized(lock) {
-            runningRequests.remove(uri)
+        val stripe = stripeFor(uri)
+        synchronized(stripe) {
+            stripe.runningRequests.remove(uri, this)
             if (bitmap != null && caching) {
-                cache.put(uri, this)
+                stripe.cache.put(uri, bitmap)
             }
         }
     }
 
+    /** A cache shard; all its members are guarded by the stripe instance itself. */
+    private class Stripe(maxSizeBytes: Int) {
+        val cache =
+            object : LruCache<Uri, Bitmap>(maxSizeBytes) {
+                override fun sizeOf(key: Uri, value: Bitmap): Int = value.allocationByteCount
+            }
+        val runningRequests = HashMap<Uri, RequestRecord>()
+    }
+
     private class RequestRecord(
         val uri: Uri,
         val deferred: CompletableDeferred<Bitmap?>,
-        @GuardedBy("lock") var caching: Boolean
-    )
+        @GuardedBy("stripe") var caching: Boolean
+    ) {
+        @GuardedBy("stripe") var job: Job? = null
+        @GuardedBy("stripe") var waiterCount = 0
+        @GuardedBy("stripe") var isPrefetch = false
+        @GuardedBy("stripe") var hasPermit = false
+    }
+
+    private class Viewport(val visible: Set<Uri>, val upcoming: Set<Uri>) {
+        operator fun contains(uri: Uri): Boolean = uri in visible || uri in upcoming
+    }
+
+    /**
+     * In-memory cache and decoding counters, see [cacheStats].
+     *
+     * @property loadCount the number of images loaded from the content provider or the disk cache.
+     * @property decodedBytes the total size of the decoded software bitmaps.
+     */
+    data class CacheStats(
+        val hitCount: Long,
+        val missCount: Long,
+        val evictionCount: Long,
+        val sizeBytes: Long,
+        val loadCount: Long = 0,
+        val decodedBytes: Long = 0,
+    ) {
+        /** Average number of newly allocated bitmap bytes per loaded image. */
+        val allocatedBytesPerLoad: Long
+            get() = if (loadCount == 0L) 0 else decodedBytes / loadCount
+    }
+
+    companion object {
+        private const val BYTES_PER_PIXEL = 4
+        private const val PRIORITY_VISIBLE = 0
+        private const val PRIORITY_UPCOMING = 1
+        private const val PRIORITY_DEFAULT = 2
+
+        /** Returns cache size in bytes that fits [count] full-size thumbnails. */
+        @JvmStatic
+        fun cacheSizeBytesFor(thumbnailSize: Int, count: Int): Int =
+            thumbnailSize * thumbnailSize * BYTES_PER_PIXEL * count
+    }
 }
@@ -32,6 +32,7 @@ import com.android.intentresolver.contentpreview.ContentPreviewType.CONTENT_PREV
 import com.android.intentresolver.contentpreview.ContentPreviewType.CONTENT_PREVIEW_IMAGE
 import com.android.intentresolver.contentpreview.ContentPreviewType.CONTENT_PREVIEW_PAYLOAD_SELECTION
 import com.android.intentresolver.contentpreview.ContentPreviewType.CONTENT_PREVIEW_TEXT
+import com.android.intentresolver.measurements.Tracer
 import com.android.intentresolver.measurements.runTracing
 import com.android.intentresolver.util.ownedByCurrentUser
 import java.util.concurrent.atomic.AtomicInteger
@@ -39,11 +40,15 @@ import java.util.function.Consumer
 import kotlinx.coroutines.CancellationException
 import kotlinx.coroutines.CompletableDeferred
 import kotlinx.coroutines.CoroutineScope
+import kotlinx.coroutines.Deferred
 import kotlinx.coroutines.async
 import kotlinx.coroutines.coroutineScope
 import kotlinx.coroutines.flow.Flow
 import kotlinx.coroutines.flow.MutableSharedFlow
+import kotlinx.coroutines.flow.MutableStateFlow
 import kotlinx.coroutines.flow.SharedFlow
+import kotlinx.coroutines.flow.StateFlow
+import kotlinx.coroutines.flow.asStateFlow
 import kotlinx.coroutines.flow.take
 import kotlinx.coroutines.isActive
 import kotlinx.coroutines.launch
@@ -63,6 +68,8 @@ val METADATA_COLUMNS =
         Downloads.Impl.COLUMN_TITLE
     )
 private const val TIMEOUT_MS = 1_000L
+/** A number of consecutive shared URIs whose metadata is read in bulk, see [UriRecord]. */
+@VisibleForTesting const val METADATA_BATCH_SIZE = 50
 
 /**
  * Asynchronously loads and stores shared URI metadata (see [Intent.EXTRA_STREAM]) such as mime
@@ -82,7 +89,24 @@ constructor(
     private val typeClassifier: MimeTypeClassifier = DefaultMimeTypeClassifier,
 ) {
 
-    private val records = targetIntent.contentUris.map { UriRecord(it) }
+    private val records = targetIntent.contentUris.mapIndexed { i, uri -> UriRecord(i, uri) }
+
+    private val batchMetadataReader = BatchUriMetadataReader(contentResolver)
+
+    /**
+     * Bulk-read metadata for each [METADATA_BATCH_SIZE] consecutive records; batches are read on
+     * demand so that the records are still resolved, and emitted, in order.
+     */
+    private val metadataBatches =
+        List((records.size + METADATA_BATCH_SIZE - 1) / METADATA_BATCH_SIZE) { batch ->
+            lazy {
+                val from = batch * METADATA_BATCH_SIZE
+                val to = minOf(from + METADATA_BATCH_SIZE, records.size)
+                runTracing("batch-metadata") {
+                    batchMetadataReader.read(records.subList(from, to).map { it.uri })
+                }
+            }
+        }
 
     private val fileInfoSharedFlow: SharedFlow<FileInfo> by lazy {
         // Alternatively, we could just use [shareIn()] on a [flow] -- and it would be, arguably,
@@ -127,15 +151,10 @@ constructor(
              * that broadly covers all data being shared, such as '*' when sending an image
              * and text. We therefore should inspect each item for the preferred type, in order:
              * IMAGE, FILE, TEXT. */
-            if (!targetIntent.isSend || records.isEmpty()) {
-                CONTENT_PREVIEW_TEXT
-            } else if (isPayloadTogglingEnabled && shouldShowPayloadSelection()) {
-                // TODO: replace with the proper flags injection
-                CONTENT_PREVIEW_PAYLOAD_SELECTION
-            } else {
-                try {
+            immediatePreviewType
+                ?: try {
                     runBlocking(scope.coroutineContext) {
-                        withTimeoutOrNull(TIMEOUT_MS) { scope.async { loadPreviewType() }.await() }
+                        withTimeoutOrNull(TIMEOUT_MS) { previewTypeLoading.await() }
                             ?: CONTENT_PREVIEW_FILE
                     }
                 } catch (e: CancellationException) {
@@ -146,10 +165,66 @@ constructor(
                     )
                     CONTENT_PREVIEW_FILE
                 }
+        }
+    }
+
+    /**
+     * A preview type that is determined without reading any shared URI metadata, i.e. from the
+     * intent alone: [Intent.getType] is used to guess between the image and the file preview. It
+     * is available immediately and is meant to be displayed until [previewTypeFlow] settles.
+     */
+    @get:OpenForTesting
+    @get:ContentPreviewType
+    open val provisionalPreviewType: Int by lazy {
+        immediatePreviewType
+            ?: targetIntent.type.let { type ->
+                if (typeClassifier.isImageType(type) || typeClassifier.isVideoType(type)) {
+                    CONTENT_PREVIEW_IMAGE
+                } else {
+                    CONTENT_PREVIEW_FILE
+                }
             }
+    }
+
+    /**
+     * A non-blocking alternative to [previewType]: starts with [provisionalPreviewType] and then,
+     * once the shared URI metadata is read, is updated with the final preview type (no timeout is
+     * applied to the metadata reading).
+     */
+    @get:OpenForTesting
+    open val previewTypeFlow: StateFlow<Int> by lazy {
+        val provisionalType = provisionalPreviewType
+        val flow = MutableStateFlow(provisionalType)
+        if (immediatePreviewType == null) {
+            Tracer.beginProvisionalPreviewSection()
+            scope.launch {
+                val finalType = previewTypeLoading.await()
+                val provisionalTime = Tracer.endProvisionalPreviewSection()
+                Log.d(
+                    ContentPreviewUi.TAG,
+                    "Preview type resolved in ${provisionalTime}ms," +
+                        " provisional: $provisionalType, final: $finalType"
+                )
+                flow.value = finalType
+            }
+        }
+        flow.asStateFlow()
+    }
+
+    /** A preview type that does not require reading shared URI metadata, if there is one. */
+    private val immediatePreviewType: Int? by lazy {
+        when {
+            !targetIntent.isSend || records.isEmpty() -> CONTENT_PREVIEW_TEXT
+            // TODO: replace with the proper flags injection
+            isPayloadTogglingEnabled && shouldShowPayloadSelection() ->
+                CONTENT_PREVIEW_PAYLOAD_SELECTION
+            else -> null
         }
     }
 
+    /** Preview type loading, shared between [previewType] and [previewTypeFlow]. */
+    private val previewTypeLoading: Deferred<Int> by lazy { scope.async { loadPreviewType() } }
+
     private fun shouldShowPayloadSelection(): Boolean {
         val extraContentUri = additionalContentUri ?: return false
         return runCatching {
@@ -270,9 +345,16 @@ constructor(
     /**
      * Provides a lazy evaluation and caches results of [ContentInterface.getType],
      * [ContentInterface.getStreamTypes], and [ContentInterface.query] methods for the given [uri].
+     * The mime type and the title are taken from the bulk-read metadata of the record's batch, if
+     * the provider supports bulk reads (see [BatchUriMetadataReader]).
      */
-    private inner class UriRecord(val uri: Uri) {
-        val mimeType: String? by lazy { contentResolver.getTypeSafe(uri) }
+    private inner class UriRecord(private val index: Int, val uri: Uri) {
+        private val batchMetadata: BatchUriMetadataReader.Metadata? by lazy {
+            metadataBatches[index / METADATA_BATCH_SIZE].value[uri]
+        }
+        val mimeType: String? by lazy {
+            batchMetadata?.mimeType ?: contentResolver.getTypeSafe(uri)
+        }
         val isImageType: Boolean
             get() = typeClassifier.isImageType(mimeType)
         val supportsImageType: Boolean by lazy {
@@ -281,7 +363,7 @@ constructor(
         val supportsThumbnail: Boolean
             get() = query.supportsThumbnail
         val title: String
-            get() = query.title
+            get() = batchMetadata?.title?.takeUnless(TextUtils::isEmpty) ?: query.title
         val iconUri: Uri?
             get() = query.iconUri
 
@@ -27,11 +27,9 @@ import androidx.lifecycle.ViewModelProvider.AndroidViewModelFactory.Companion.AP
 import androidx.lifecycle.viewModelScope
 import androidx.lifecycle.viewmodel.CreationExtras
 import com.android.intentresolver.R
+import com.android.intentresolver.concurrency.ProcessDispatchers
 import com.android.intentresolver.inject.Background
-import java.util.concurrent.Executors
 import kotlinx.coroutines.CoroutineDispatcher
-import kotlinx.coroutines.Dispatchers
-import kotlinx.coroutines.asCoroutineDispatcher
 import kotlinx.coroutines.plus
 
 /** A view model for the preview logic */
@@ -39,7 +37,10 @@ class PreviewViewModel(
     private val contentResolver: ContentResolver,
     // TODO: inject ImageLoader instead
     private val thumbnailSize: Int,
-    @Background private val dispatcher: CoroutineDispatcher = Dispatchers.IO,
+    @Background
+    private val dispatcher: CoroutineDispatcher = ProcessDispatchers.background.dispatcher,
+    private val diskCache: ThumbnailDiskCache? = null,
+    private val useHardwareBitmaps: Boolean = false,
 ) : BasePreviewViewModel() {
     private var targetIntent: Intent? = null
     private var chooserIntent: Intent? = null
@@ -63,7 +64,9 @@ class PreviewViewModel(
             viewModelScope + dispatcher,
             thumbnailSize,
             contentResolver,
-            cacheSize = 16
+            cacheSizeBytes = ImagePreviewImageLoader.cacheSizeBytesFor(thumbnailSize, count = 16),
+            diskCache = diskCache,
+            useHardwareBitmaps = useHardwareBitmaps,
         )
     }
 
@@ -103,7 +106,7 @@ class PreviewViewModel(
     ): PayloadToggleInteractor {
         return PayloadToggleInteractor(
             // TODO: update PayloadToggleInteractor to support multiple threads
-            viewModelScope + Executors.newSingleThreadScheduledExecutor().asCoroutineDispatcher(),
+            viewModelScope + ProcessDispatchers.background.serialDispatcher(),
             previewDataProvider.uris,
             maxOf(0, minOf(focusedItemIdx, previewDataProvider.uriCount - 1)),
             DefaultMimeTypeClassifier,
@@ -121,7 +124,15 @@ class PreviewViewModel(
     }
 
     companion object {
-        val Factory: ViewModelProvider.Factory =
+        val Factory: ViewModelProvider.Factory = createFactory(useHardwareBitmaps = false)
+
+        /**
+         * Creates a view model factory.
+         *
+         * @param useHardwareBitmaps see [ImagePreviewImageLoader].
+         */
+        @JvmStatic
+        fun createFactory(useHardwareBitmaps: Boolean): ViewModelProvider.Factory =
             object : ViewModelProvider.Factory {
                 @Suppress("UNCHECKED_CAST")
                 override fun <T : ViewModel> create(
@@ -133,7 +144,9 @@ class PreviewViewModel(
                         application.contentResolver,
                         application.resources.getDimensionPixelSize(
                             R.dimen.chooser_preview_image_max_dimen
-                        )
+                        ),
+                        diskCache = ThumbnailDiskCache.getInstance(application),
+                        useHardwareBitmaps = useHardwareBitmaps,
                     )
                         as T
                 }
@@ -0,0 +1,87 @@
+/*
+ * Copyright (C) 2024 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.intentresolver.contentpreview
+
+import androidx.annotation.GuardedBy
+import kotlinx.coroutines.CancellationException
+import kotlinx.coroutines.CompletableDeferred
+import kotlinx.coroutines.sync.Semaphore
+
+/**
+ * Orders [semaphore] permit acquisitions by priority. Only one waiting coroutine at a time is let
+ * to wait on the [semaphore]; it is the one with the lowest priority value at the moment the
+ * previous one got its permit (ties are resolved in the arrival order). Priorities are provided as
+ * functions and are re-evaluated on each turn, so they may change while a coroutine waits.
+ */
+internal class PrioritySemaphore(private val semaphore: Semaphore) {
+    private val lock = Any()
+    @GuardedBy("lock") private val waiters = ArrayList<Waiter>()
+    @GuardedBy("lock") private var isTurnTaken = false
+
+    suspend fun acquire(priority: () -> Int) {
+        val waiter = Waiter(priority)
+        synchronized(lock) {
+            waiters.add(waiter)
+            startNextTurn()
+        }
+        try {
+            waiter.turn.await()
+        } catch (e: CancellationException) {
+            val hadTurn = synchronized(lock) { !waiters.remove(waiter) }
+            if (hadTurn) {
+                endTurn()
+            }
+            throw e
+        }
+        try {
+            semaphore.acquire()
+        } finally {
+            endTurn()
+        }
+    }
+
+    fun release() {
+        semaphore.release()
+    }
+
+    private fun endTurn() {
+        synchronized(lock) {
+            isTurnTaken = false
+            startNextTurn()
+        }
+    }
+
+    @GuardedBy("lock")
+    private fun startNextTurn() {
+        if (isTurnTaken || waiters.isEmpty()) return
+        var nextIdx = 0
+        var nextPriority = waiters[0].priority()
+        for (i in 1 until waiters.size) {
+            val priority = waiters[i].priority()
+            if (priority < nextPriority) {
+                nextIdx = i
+                nextPriority = priority
+            }
+        }
+        isTurnTaken = true
+        waiters.removeAt(nextIdx).turn.complete(Unit)
+    }
+
+    private class Waiter(val priority: () -> Int) {
+        val turn = CompletableDeferred<Unit>()
+    }
+}
@@ -0,0 +1,366 @@
+/*
+ * Copyright (C) 2024 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.intentresolver.contentpreview
+
+import android.content.ContentInterface
+import android.content.Context
+import android.database.Cursor
+import android.graphics.Bitmap
+import android.graphics.BitmapFactory
+import android.net.Uri
+import android.provider.DocumentsContract
+import android.provider.MediaStore
+import android.provider.OpenableColumns
+import android.util.Log
+import androidx.annotation.GuardedBy
+import androidx.annotation.VisibleForTesting
+import com.android.intentresolver.measurements.runTracing
+import java.io.File
+import java.io.IOException
+import java.io.RandomAccessFile
+import java.nio.MappedByteBuffer
+import java.nio.channels.FileChannel
+
+private const val TAG = "ThumbnailDiskCache"
+
+private const val DIRECTORY_NAME = "preview-thumbnails"
+private const val INDEX_FILE_NAME = "index"
+private const val INDEX_MAGIC = 0x54484d42 // "THMB"
+private const val INDEX_VERSION = 1
+private const val HEADER_SIZE = 16
+private const val OFFSET_MAGIC = 0
+private const val OFFSET_VERSION = 4
+private const val OFFSET_ACCESS_COUNTER = 8
+
+private const val SLOT_SIZE = 40
+private const val SLOT_KEY = 0
+private const val SLOT_LAST_MODIFIED = 8
+private const val SLOT_CONTENT_SIZE = 16
+private const val SLOT_THUMBNAIL_SIZE = 24
+private const val SLOT_FILE_BYTES = 28
+private const val SLOT_LAST_ACCESS = 32
+
+private const val EMPTY_KEY = 0L
+private const val UNKNOWN = -1L
+private const val COMPRESS_QUALITY = 90
+
+/**
+ * Columns used to detect that a shared URI content has changed since its thumbnail was cached.
+ * Providers are not required to report any of them; URIs without any are not cached.
+ */
+@VisibleForTesting
+val THUMBNAIL_SIGNATURE_COLUMNS =
+    arrayOf(
+        DocumentsContract.Document.COLUMN_LAST_MODIFIED,
+        MediaStore.MediaColumns.DATE_MODIFIED,
+        OpenableColumns.SIZE,
+    )
+
+/**
+ * A persistent, second tier preview thumbnail cache. Thumbnails are stored as compressed files in
+ * the [directory] and are tracked by a compact fixed-size memory-mapped index. Each entry is keyed
+ * by the content URI and the thumbnail size and is validated against the provider-reported
+ * last-modified time and content size (see [readSignature]). The total size of the stored files is
+ * kept under [maxBytes] by evicting the least recently used entries.
+ *
+ * The index and the files are only guarded within an instance, so there must be at most one
+ * instance per [directory] in the process: use [getInstance].
+ *
+ * All methods perform I/O and should not be called on the main thread.
+ */
+class ThumbnailDiskCache
+@VisibleForTesting
+constructor(
+    private val directory: File,
+    private val maxBytes: Long,
+    private val contentResolver: ContentInterface,
+    private val capacity: Int,
+) {
+    @VisibleForTesting
+    constructor(
+        directory: File,
+        contentResolver: ContentInterface,
+        maxBytes: Long = 8L * 1024 * 1024,
+    ) : this(directory, maxBytes, contentResolver, capacity = 256)
+
+    private val lock = Any()
+    @GuardedBy("lock") private var index: MappedByteBuffer? = null
+    @GuardedBy("lock") private var isBroken = false
+
+    /**
+     * Reads the content signature of the [uri]: the provider-reported last-modified time and
+     * content size. Returns null if the provider reports neither.
+     */
+    fun readSignature(uri: Uri): Signature? =
+        runTracing("thumbnail-signature") {
+            contentResolver.querySafe(uri, THUMBNAIL_SIGNATURE_COLUMNS)?.use { cursor ->
+                if (!cursor.moveToFirst()) return@use null
+                val lastModified =
+                    cursor.readLong(DocumentsContract.Document.COLUMN_LAST_MODIFIED).takeIf {
+                        it != UNKNOWN
+                    }
+                        ?: cursor.readLong(MediaStore.MediaColumns.DATE_MODIFIED)
+                val size = cursor.readLong(OpenableColumns.SIZE)
+                if (lastModified == UNKNOWN && size == UNKNOWN) {
+                    null
+                } else {
+                    Signature(lastModified, size)
+                }
+            }
+        }
+
+    /**
+     * Returns a cached thumbnail of the given size for the [uri] if there is one and it matches the
+     * [signature]; an entry that does not match is dropped.
+     */
+    fun get(uri: Uri, thumbnailSize: Int, signature: Signature): Bitmap? =
+        runTracing("thumbnail-disk-cache-get") {
+            val key = keyOf(uri, thumbnailSize)
+            val file =
+                synchronized(lock) {
+                    val index = openIndex() ?: return null
+                    val slot = index.findSlot(key)
+                    if (slot < 0) return null
+                    if (!index.matches(slot, thumbnailSize, signature)) {
+                        index.clearSlot(slot)
+                        fileOf(key).delete()
+                        return null
+                    }
+                    index.putLong(slotOffset(slot) + SLOT_LAST_ACCESS, index.nextAccess())
+                    fileOf(key)
+                }
+            val bitmap = BitmapFactory.decodeFile(file.path)
+            if (bitmap == null) {
+                Log.w(TAG, "Failed to decode a cached thumbnail, dropping it")
+                synchronized(lock) {
+                    index?.let { index ->
+                        val slot = index.findSlot(key)
+                        if (slot >= 0) index.clearSlot(slot)
+                    }
+                    file.delete()
+                }
+            }
+            bitmap
+        }
+
+    /** Stores the [bitmap] as the thumbnail of the given size for the [uri]. */
+    fun put(uri: Uri, thumbnailSize: Int, signature: Signature, bitmap: Bitmap) {
+        runTracing("thumbnail-disk-cache-put") {
+            // make sure the cache directory exists before writing
+            synchronized(lock) { openIndex() } ?: return
+            val key = keyOf(uri, thumbnailSize)
+            val tmpFile = File(directory, "${key.toULong().toString(16)}.tmp")
+            val fileBytes =
+                try {
+                    tmpFile.outputStream().use {
+                        bitmap.compress(Bitmap.CompressFormat.WEBP_LOSSY, COMPRESS_QUALITY, it)
+                    }
+                    tmpFile.length()
+                } catch (e: IOException) {
+                    Log.w(TAG, "Failed to write a thumbnail", e)
+                    tmpFile.delete()
+                    return
+                }
+            if (fileBytes <= 0 || fileBytes > maxBytes || fileBytes > Int.MAX_VALUE) {
+                tmpFile.delete()
+                return
+            }
+            synchronized(lock) {
+                val index = openIndex()
+                if (index == null) {
+                    tmpFile.delete()
+                    return
+                }
+                var slot = index.findSlot(key)
+                if (slot >= 0) {
+                    index.clearSlot(slot)
+                }
+                index.evictToFit(fileBytes)
+                slot = index.findSlot(EMPTY_KEY)
+                if (slot < 0) {
+                    slot = index.leastRecentlyUsedSlot()
+                    fileOf(index.getLong(slotOffset(slot) + SLOT_KEY)).delete()
+                    index.clearSlot(slot)
+                }
+                if (!tmpFile.renameTo(fileOf(key))) {
+                    Log.w(TAG, "Failed to commit a thumbnail file")
+                    tmpFile.delete()
+                    return
+                }
+                val offset = slotOffset(slot)
+                index.putLong(offset + SLOT_LAST_MODIFIED, signature.lastModified)
+                index.putLong(offset + SLOT_CONTENT_SIZE, signature.size)
+                index.putInt(offset + SLOT_THUMBNAIL_SIZE, thumbnailSize)
+                index.putInt(offset + SLOT_FILE_BYTES, fileBytes.toInt())
+                index.putLong(offset + SLOT_LAST_ACCESS, index.nextAccess())
+                // the key is written last to mark the slot as occupied
+                index.putLong(offset + SLOT_KEY, key)
+            }
+        }
+    }
+
+    @GuardedBy("lock")
+    private fun openIndex(): MappedByteBuffer? {
+        index?.let {
+            return it
+        }
+        if (isBroken) return null
+        return try {
+            if (!directory.isDirectory && !directory.mkdirs()) {
+                throw IOException("Failed to create $directory")
+            }
+            val indexSize = HEADER_SIZE + capacity * SLOT_SIZE
+            val indexFile = File(directory, INDEX_FILE_NAME)
+            RandomAccessFile(indexFile, "rw")
+                .use { file ->
+                    val isNew = file.length() != indexSize.toLong()
+                    file.setLength(indexSize.toLong())
+                    file.channel.map(FileChannel.MapMode.READ_WRITE, 0, indexSize.toLong()).apply {
+                        if (
+                            isNew ||
+                                getInt(OFFSET_MAGIC) != INDEX_MAGIC ||
+                                getInt(OFFSET_VERSION) != INDEX_VERSION
+                        ) {
+                            reset()
+                        }
+                    }
+                }
+                .also { index = it }
+        } catch (e: IOException) {
+            Log.w(TAG, "Failed to open thumbnail cache index, the cache is disabled", e)
+            isBroken = true
+            null
+        }
+    }
+
+    private fun MappedByteBuffer.reset() {
+        directory.listFiles()?.forEach { file ->
+            if (file.name != INDEX_FILE_NAME) {
+                file.delete()
+            }
+        }
+        for (i in 0 until HEADER_SIZE + capacity * SLOT_SIZE) {
+            put(i, 0)
+        }
+        putInt(OFFSET_MAGIC, INDEX_MAGIC)
+        putInt(OFFSET_VERSION, INDEX_VERSION)
+    }
+
+    private fun MappedByteBuffer.findSlot(key: Long): Int {
+        for (slot in 0 until capacity) {
+            if (getLong(slotOffset(slot) + SLOT_KEY) == key) return slot
+        }
+        return -1
+    }
+
+    private fun MappedByteBuffer.matches(
+        slot: Int,
+        thumbnailSize: Int,
+        signature: Signature
+    ): Boolean {
+        val offset = slotOffset(slot)
+        return getInt(offset + SLOT_THUMBNAIL_SIZE) == thumbnailSize &&
+            getLong(offset + SLOT_LAST_MODIFIED) == signature.lastModified &&
+            getLong(offset + SLOT_CONTENT_SIZE) == signature.size
+    }
+
+    private fun MappedByteBuffer.evictToFit(fileBytes: Long) {
+        var totalBytes = 0L
+        for (slot in 0 until capacity) {
+            if (getLong(slotOffset(slot) + SLOT_KEY) != EMPTY_KEY) {
+                totalBytes += getInt(slotOffset(slot) + SLOT_FILE_BYTES)
+            }
+        }
+        while (totalBytes + fileBytes > maxBytes) {
+            val slot = leastRecentlyUsedSlot()
+            if (slot < 0) break
+            val offset = slotOffset(slot)
+            totalBytes -= getInt(offset + SLOT_FILE_BYTES)
+            fileOf(getLong(offset + SLOT_KEY)).delete()
+            clearSlot(slot)
+        }
+    }
+
+    /** Returns the least recently used occupied slot or -1 if the index is empty. */
+    private fun MappedByteBuffer.leastRecentlyUsedSlot(): Int {
+        var result = -1
+        var minAccess = Long.MAX_VALUE
+        for (slot in 0 until capacity) {
+            val offset = slotOffset(slot)
+            if (getLong(offset + SLOT_KEY) == EMPTY_KEY) continue
+            val access = getLong(offset + SLOT_LAST_ACCESS)
+            if (access < minAccess) {
+                minAccess = access
+                result = slot
+            }
+        }
+        return result
+    }
+
+    private fun MappedByteBuffer.clearSlot(slot: Int) {
+        putLong(slotOffset(slot) + SLOT_KEY, EMPTY_KEY)
+    }
+
+    private fun MappedByteBuffer.nextAccess(): Long =
+        (getLong(OFFSET_ACCESS_COUNTER) + 1).also { putLong(OFFSET_ACCESS_COUNTER, it) }
+
+    private fun fileOf(key: Long) = File(directory, key.toULong().toString(16))
+
+    /** Provider-reported content attributes that a cached thumbnail is validated against. */
+    data class Signature(val lastModified: Long, val size: Long)
+
+    companion object {
+        @Volatile private var instance: ThumbnailDiskCache? = null
+
+        /** Returns the process-wide cache, shared by all the previews. */
+        @JvmStatic
+        fun getInstance(context: Context): ThumbnailDiskCache =
+            instance
+                ?: synchronized(this) {
+                    instance
+                        ?: context.applicationContext.let { appContext ->
+                            ThumbnailDiskCache(
+                                    File(appContext.cacheDir, DIRECTORY_NAME),
+                                    appContext.contentResolver,
+                                )
+                                .also { instance = it }
+                        }
+                }
+    }
+}
+
+private fun slotOffset(slot: Int) = HEADER_SIZE + slot * SLOT_SIZE
+
+/** A 64-bit FNV-1a hash of the URI and the thumbnail size; never equals [EMPTY_KEY]. */
+private fun keyOf(uri: Uri, thumbnailSize: Int): Long {
+    var hash = -0x340d631b7bdddcdbL
+    fun mix(value: Int) {
+        hash = (hash xor value.toLong()) * 0x100000001b3L
+    }
+    uri.toString().forEach { mix(it.code) }
+    mix(thumbnailSize)
+    return if (hash == EMPTY_KEY) 1L else hash
+}
+
+private fun Cursor.readLong(columnName: String): Long =
+    runCatching {
+            getColumnIndex(columnName)
+                .takeIf { it >= 0 && !isNull(it) }
+                ?.let { getLong(it) }
+                ?: UNKNOWN
+        }
+        .getOrDefault(UNKNOWN)
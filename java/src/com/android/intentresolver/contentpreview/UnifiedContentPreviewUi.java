@@ -126,6 +126,7 @@ class UnifiedContentPreviewUi extends ContentPreviewUi {
         ScrollableImagePreviewView imagePreview =
                 mContentPreviewView.requireViewById(R.id.scrollable_image_preview);
         imagePreview.setImageLoader(mImageLoader);
+        imagePreview.setViewportListener(mImageLoader::updateViewport);
         imagePreview.setOnNoPreviewCallback(() -> imagePreview.setVisibility(View.GONE));
         imagePreview.setTransitionElementStatusCallback(mTransitionElementStatusCallback);
         imagePreview.setPreviews(
@@ -33,7 +33,9 @@ import androidx.compose.material3.AssistChip
 import androidx.compose.material3.MaterialTheme
 import androidx.compose.material3.Text
 import androidx.compose.runtime.Composable
+import androidx.compose.runtime.LaunchedEffect
 import androidx.compose.runtime.getValue
+import androidx.compose.runtime.snapshotFlow
 import androidx.compose.ui.Modifier
 import androidx.compose.ui.draw.clip
 import androidx.compose.ui.graphics.asImageBitmap
@@ -44,6 +46,7 @@ import androidx.lifecycle.compose.collectAsStateWithLifecycle
 import com.android.intentresolver.R
 import com.android.intentresolver.contentpreview.shareousel.ui.viewmodel.ShareouselImageViewModel
 import com.android.intentresolver.contentpreview.shareousel.ui.viewmodel.ShareouselViewModel
+import kotlinx.coroutines.flow.distinctUntilChanged
 
 @Composable
 fun Shareousel(viewModel: ShareouselViewModel) {
@@ -64,6 +67,31 @@ fun Shareousel(viewModel: ShareouselViewModel) {
                 ShareouselCard(viewModel.previewForKey(key))
             }
         }
+        LaunchedEffect(carouselState, previewKeys) {
+            var lastFirstIdx = carouselState.firstVisibleItemIndex
+            var isScrollingForward = true
+            snapshotFlow { carouselState.layoutInfo.visibleItemsInfo.map { it.index } }
+                .distinctUntilChanged()
+                .collect { visibleIndices ->
+                    val firstIdx = visibleIndices.firstOrNull() ?: return@collect
+                    val lastIdx = minOf(visibleIndices.last(), previewKeys.size - 1)
+                    if (firstIdx != lastFirstIdx) {
+                        isScrollingForward = firstIdx > lastFirstIdx
+                        lastFirstIdx = firstIdx
+                    }
+                    if (firstIdx > lastIdx) return@collect
+                    val upcomingRange =
+                        if (isScrollingForward) {
+                            (lastIdx + 1)..minOf(previewKeys.size - 1, lastIdx + PREFETCH_COUNT)
+                        } else {
+                            maxOf(0, firstIdx - PREFETCH_COUNT) until firstIdx
+                        }
+                    viewModel.onViewportChanged(
+                        previewKeys.subList(firstIdx, lastIdx + 1),
+                        upcomingRange.map { previewKeys[it] },
+                    )
+                }
+        }
         Spacer(modifier = Modifier.height(8.dp))
 
         val actions by viewModel.actions.collectAsStateWithLifecycle(initialValue = emptyList())
@@ -82,6 +110,7 @@ fun Shareousel(viewModel: ShareouselViewModel) {
     }
 }
 
+private const val PREFETCH_COUNT = 4
 private const val MIN_ASPECT_RATIO = 0.4f
 private const val MAX_ASPECT_RATIO = 2.5f
 
@@ -16,6 +16,7 @@
 package com.android.intentresolver.contentpreview.shareousel.ui.viewmodel
 
 import android.graphics.Bitmap
+import android.net.Uri
 import androidx.core.graphics.drawable.toBitmap
 import com.android.intentresolver.contentpreview.ChooserContentPreviewUi.ActionFactory
 import com.android.intentresolver.contentpreview.ImageLoader
@@ -38,7 +39,9 @@ data class ShareouselViewModel(
     val actions: Flow<List<ActionChipViewModel>>,
     val centerIndex: StateFlow<Int>,
     val previewForKey: (key: Any) -> ShareouselImageViewModel,
-    val previewRowKey: (Any) -> Any
+    val previewRowKey: (Any) -> Any,
+    /** Reports preview keys that are currently visible and the ones to be shown next. */
+    val onViewportChanged: (visibleKeys: List<Any>, upcomingKeys: List<Any>) -> Unit = { _, _ -> },
 )
 
 data class ActionChipViewModel(val label: String, val icon: ComposeIcon?, val onClick: () -> Unit)
@@ -79,9 +82,16 @@ suspend fun PayloadToggleInteractor.toShareouselViewModel(
             )
         },
         previewRowKey = { getKey(it) },
+        onViewportChanged = { visibleKeys, upcomingKeys ->
+            imageLoader.updateViewport(visibleKeys.previewUris(), upcomingKeys.previewUris())
+        },
     )
 }
 
+private fun List<Any>.previewUris(): List<Uri> = mapNotNull {
+    (it as? PayloadToggleInteractor.Item)?.previewUri
+}
+
 private fun Action.toActionChipViewModel() =
     ActionChipViewModel(
         label?.toString() ?: "",
@@ -16,6 +16,7 @@
 package com.android.intentresolver.emptystate;
 
 import android.annotation.NonNull;
+import android.annotation.Nullable;
 import android.annotation.UserIdInt;
 import android.app.AppGlobals;
 import android.content.ContentResolver;
@@ -25,15 +26,25 @@ import android.content.pm.IPackageManager;
 import com.android.intentresolver.IntentForwarderActivity;
 
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
 
 /**
  * Utility class to check if there are cross profile intents, it is in a separate class so
- * it could be mocked in tests
+ * it could be mocked in tests.
+ * <p>
+ * The forwarding decisions are cached for the lifetime of the instance, keyed by the filter
+ * signature of the intent and the source and target users, as each of them costs a binder call.
  */
 public class CrossProfileIntentsChecker {
 
     private final ContentResolver mContentResolver;
     private final IPackageManager mPackageManager;
+    private final Map<ForwardingKey, CompletableFuture<Boolean>> mCanForwardCache =
+            new ConcurrentHashMap<>();
 
     public CrossProfileIntentsChecker(@NonNull ContentResolver contentResolver) {
         this(contentResolver, AppGlobals.getPackageManager());
@@ -51,9 +62,90 @@ public class CrossProfileIntentsChecker {
      */
     public boolean hasCrossProfileIntents(
             List<Intent> intents, @UserIdInt int source, @UserIdInt int target) {
-        return intents.stream().anyMatch(intent ->
-                null != IntentForwarderActivity.canForward(intent, source, target,
-                        mPackageManager, mContentResolver));
+        return intents.stream().anyMatch(intent -> canForward(intent, source, target));
+    }
+
+    /**
+     * Starts computing, on {@code executor}, whether each of the {@code intents} can be forwarded
+     * from {@code source} (user id) to {@code target} (user id), so that the later
+     * {@link #hasCrossProfileIntents} calls are answered from the cache.
+     */
+    public void prefetchCrossProfileIntents(
+            List<Intent> intents,
+            @UserIdInt int source,
+            @UserIdInt int target,
+            Executor executor) {
+        for (Intent intent : intents) {
+            mCanForwardCache.computeIfAbsent(
+                    new ForwardingKey(intent, source, target),
+                    key -> CompletableFuture.supplyAsync(
+                            () -> computeCanForward(intent, source, target), executor));
+        }
+    }
+
+    private boolean canForward(Intent intent, @UserIdInt int source, @UserIdInt int target) {
+        ForwardingKey key = new ForwardingKey(intent, source, target);
+        CompletableFuture<Boolean> cached = mCanForwardCache.get(key);
+        if (cached != null && cached.isDone() && !cached.isCompletedExceptionally()) {
+            return cached.join();
+        }
+        // Never wait for a prefetch still in flight: it may be queued behind other work, so the
+        // check is made directly instead.
+        boolean canForward = computeCanForward(intent, source, target);
+        mCanForwardCache.put(key, CompletableFuture.completedFuture(canForward));
+        return canForward;
+    }
+
+    private boolean computeCanForward(
+            Intent intent, @UserIdInt int source, @UserIdInt int target) {
+        return null != IntentForwarderActivity.canForward(
+                intent, source, target, mPackageManager, mContentResolver);
+    }
+
+    /**
+     * The parts of a forwarding check the package manager's answer depends on: the filter fields
+     * of the intent and of its selector, and the users.
+     */
+    private static final class ForwardingKey {
+        private final Intent mFilter;
+        @Nullable
+        private final Intent mSelectorFilter;
+        private final int mSource;
+        private final int mTarget;
+
+        ForwardingKey(Intent intent, @UserIdInt int source, @UserIdInt int target) {
+            mFilter = intent.cloneFilter();
+            Intent selector = intent.getSelector();
+            mSelectorFilter = selector == null ? null : selector.cloneFilter();
+            mSource = source;
+            mTarget = target;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof ForwardingKey)) {
+                return false;
+            }
+            ForwardingKey other = (ForwardingKey) o;
+            return mSource == other.mSource
+                    && mTarget == other.mTarget
+                    && mFilter.filterEquals(other.mFilter)
+                    && (mSelectorFilter == null
+                            ? other.mSelectorFilter == null
+                            : mSelectorFilter.filterEquals(other.mSelectorFilter));
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(
+                    mFilter.filterHashCode(),
+                    mSelectorFilter == null ? 0 : mSelectorFilter.filterHashCode(),
+                    mSource,
+                    mTarget);
+        }
     }
 }
 
@@ -22,6 +22,7 @@ import android.animation.ValueAnimator;
 import android.app.ActivityManager;
 import android.content.Context;
 import android.database.DataSetObserver;
+import android.view.Choreographer;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.View.MeasureSpec;
@@ -34,16 +35,22 @@ import android.widget.TextView;
 
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
+import androidx.recyclerview.widget.AdapterListUpdateCallback;
 import androidx.recyclerview.widget.RecyclerView;
 
 import com.android.intentresolver.ChooserListAdapter;
 import com.android.intentresolver.FeatureFlags;
 import com.android.intentresolver.R;
 import com.android.intentresolver.ResolverListAdapter.ViewHolder;
+import com.android.intentresolver.chooser.TargetInfo;
 import com.android.internal.annotations.VisibleForTesting;
 
 import com.google.android.collect.Lists;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
 /**
  * Adapter for all types of items and targets in ShareSheet.
  * Note that ranked sections like Direct Share - while appearing grid-like - are handled on the
@@ -94,17 +101,51 @@ public final class ChooserGridAdapter extends RecyclerView.Adapter<RecyclerView.
     private static final int VIEW_TYPE_CALLER_AND_RANK = 5;
     private static final int VIEW_TYPE_FOOTER = 6;
 
+    /** The view types of the {@link ChooserGridLayout} sections, in display order. */
+    private static final int[] SECTION_VIEW_TYPES = {
+            VIEW_TYPE_CONTENT_PREVIEW,
+            VIEW_TYPE_DIRECT_SHARE,
+            VIEW_TYPE_CALLER_AND_RANK,
+            VIEW_TYPE_AZ_LABEL,
+            VIEW_TYPE_NORMAL,
+            VIEW_TYPE_FOOTER,
+    };
+
+    /** The number of rows of targets in the direct share view, see createItemGroupViewHolder. */
+    private static final int DIRECT_SHARE_ROW_COUNT = 2;
+
     private final ChooserActivityDelegate mChooserActivityDelegate;
     private final ChooserListAdapter mChooserListAdapter;
     private final LayoutInflater mLayoutInflater;
 
     private final int mMaxTargetsPerRow;
     private final boolean mShouldShowContentPreview;
+    private final boolean mIsLowRamDevice;
     private final int mChooserWidthPixels;
     private final int mChooserRowTextOptionTranslatePixelSize;
     private final FeatureFlags mFeatureFlags;
     @Nullable
     private RecyclerView mRecyclerView;
+    /**
+     * The rows last reported to the attached {@link RecyclerView}, if the wrapped adapter changes
+     * are reported as fine-grained row updates.
+     */
+    @Nullable
+    private ChooserGridSnapshot mSnapshot;
+    /**
+     * Reports the row changes accumulated since {@link #mSnapshot} once per frame, see
+     * {@link #onWrappedAdapterChanged()}.
+     */
+    private final Choreographer.FrameCallback mSnapshotUpdateCallback = frameTimeNanos -> {
+        mIsSnapshotUpdatePending = false;
+        if (mSnapshot != null) {
+            dispatchSnapshotUpdates();
+        }
+    };
+    private boolean mIsSnapshotUpdatePending;
+    /** The layout of the rows, computed on demand after each change of the wrapped adapter. */
+    @Nullable
+    private ChooserGridLayout mLayout;
 
     private int mChooserTargetWidth = 0;
 
@@ -128,6 +169,7 @@ public final class ChooserGridAdapter extends RecyclerView.Adapter<RecyclerView.
 
         mShouldShowContentPreview = shouldShowContentPreview;
         mMaxTargetsPerRow = maxTargetsPerRow;
+        mIsLowRamDevice = ActivityManager.isLowRamDeviceStatic();
 
         mChooserWidthPixels = context.getResources().getDimensionPixelSize(R.dimen.chooser_width);
         mChooserRowTextOptionTranslatePixelSize = context.getResources().getDimensionPixelSize(
@@ -138,13 +180,18 @@ public final class ChooserGridAdapter extends RecyclerView.Adapter<RecyclerView.
             @Override
             public void onChanged() {
                 super.onChanged();
-                notifyDataSetChanged();
+                onWrappedAdapterChanged();
             }
 
             @Override
             public void onInvalidated() {
                 super.onInvalidated();
+                mLayout = null;
+                cancelSnapshotUpdates();
                 notifyDataSetChanged();
+                if (mSnapshot != null) {
+                    mSnapshot = createSnapshot();
+                }
             }
         });
     }
@@ -154,11 +201,105 @@ public final class ChooserGridAdapter extends RecyclerView.Adapter<RecyclerView.
         if (mFeatureFlags.scrollablePreview()) {
             mRecyclerView = recyclerView;
         }
+        mLayout = null;
+        if (mFeatureFlags.gridDiffUpdates()) {
+            mSnapshot = createSnapshot();
+        }
     }
 
     @Override
     public void onDetachedFromRecyclerView(@NonNull RecyclerView recyclerView) {
         mRecyclerView = null;
+        mSnapshot = null;
+        cancelSnapshotUpdates();
+    }
+
+    private void onWrappedAdapterChanged() {
+        if (mSnapshot == null) {
+            mLayout = null;
+            notifyDataSetChanged();
+            return;
+        }
+        final ChooserGridLayout oldLayout = mLayout;
+        mLayout = null;
+        if (oldLayout != null && oldLayout.hasSameRows(getLayout())) {
+            // Only the contents of the rows changed, e.g. a target icon was loaded: the rows
+            // stay consistent with the wrapped adapter, so the changes of a frame are reported
+            // together.
+            if (!mIsSnapshotUpdatePending) {
+                mIsSnapshotUpdatePending = true;
+                Choreographer.getInstance().postFrameCallback(mSnapshotUpdateCallback);
+            }
+        } else {
+            cancelSnapshotUpdates();
+            dispatchSnapshotUpdates();
+        }
+    }
+
+    private void cancelSnapshotUpdates() {
+        if (mIsSnapshotUpdatePending) {
+            mIsSnapshotUpdatePending = false;
+            Choreographer.getInstance().removeFrameCallback(mSnapshotUpdateCallback);
+        }
+    }
+
+    /**
+     * Reports the rows that were inserted, removed, moved or changed since the last snapshot
+     * instead of the whole data set, so that only the affected rows are rebound.
+     *
+     * The row count and types are derived from the live state of the wrapped adapter, so the
+     * updates that add, remove or move rows have to be dispatched as soon as the wrapped adapter
+     * changes, on the main thread. The updates that only change the contents of the rows are
+     * coalesced and dispatched once per frame, before the layout pass.
+     */
+    private void dispatchSnapshotUpdates() {
+        ChooserGridSnapshot newSnapshot = createSnapshot();
+        ChooserGridSnapshot oldSnapshot = mSnapshot;
+        mSnapshot = newSnapshot;
+        oldSnapshot.dispatchUpdatesTo(newSnapshot, new AdapterListUpdateCallback(this));
+    }
+
+    private ChooserGridSnapshot createSnapshot() {
+        final int itemCount = getItemCount();
+        final List<ChooserGridSnapshot.Row> rows = new ArrayList<>(itemCount);
+        for (int position = 0; position < itemCount; position++) {
+            rows.add(createSnapshotRow(position));
+        }
+        return new ChooserGridSnapshot(rows);
+    }
+
+    private ChooserGridSnapshot.Row createSnapshotRow(int position) {
+        final int viewType = getItemViewType(position);
+        switch (viewType) {
+            case VIEW_TYPE_DIRECT_SHARE:
+            case VIEW_TYPE_CALLER_AND_RANK: {
+                // Keep in sync with bindItemGroupViewHolder
+                final int start = getListPosition(position);
+                final int columnCount = viewType == VIEW_TYPE_DIRECT_SHARE
+                        ? DIRECT_SHARE_ROW_COUNT * mMaxTargetsPerRow
+                        : mMaxTargetsPerRow;
+                final int end = getGroupRowEnd(start, columnCount);
+                final List<Object> contents = new ArrayList<>(end - start + 2);
+                contents.add(start);
+                for (int i = start; i <= end; i++) {
+                    contents.add(new ChooserGridSnapshot.BoundTarget(
+                            mChooserListAdapter.getItem(i)));
+                }
+                final int rowInSection = position - getSystemRowCount()
+                        - (viewType == VIEW_TYPE_CALLER_AND_RANK ? getServiceTargetRowCount() : 0);
+                return new ChooserGridSnapshot.Row(viewType, rowInSection, contents);
+            }
+            case VIEW_TYPE_NORMAL: {
+                final int listPosition = getListPosition(position);
+                final TargetInfo target = mChooserListAdapter.getItem(listPosition);
+                return new ChooserGridSnapshot.Row(
+                        viewType,
+                        target == null ? listPosition : target,
+                        List.of(listPosition, new ChooserGridSnapshot.BoundTarget(target)));
+            }
+            default:
+                return new ChooserGridSnapshot.Row(viewType, viewType, Collections.emptyList());
+        }
     }
 
     public void setFooterHeight(int height) {
@@ -197,16 +338,24 @@ public final class ChooserGridAdapter extends RecyclerView.Adapter<RecyclerView.
         return false;
     }
 
+    private ChooserGridLayout getLayout() {
+        if (mLayout == null) {
+            mLayout = new ChooserGridLayout(
+                    mMaxTargetsPerRow,
+                    SECTION_VIEW_TYPES,
+                    computeSystemRowCount(),
+                    computeServiceTargetRowCount(),
+                    mChooserListAdapter.getServiceTargetCount(),
+                    mChooserListAdapter.getCallerTargetCount()
+                            + mChooserListAdapter.getRankedTargetCount(),
+                    mChooserListAdapter.getAlphaTargetCount(),
+                    getFooterRowCount());
+        }
+        return mLayout;
+    }
+
     public int getRowCount() {
-        return (int) (
-                getSystemRowCount()
-                        + getServiceTargetRowCount()
-                        + getCallerAndRankedTargetRowCount()
-                        + getAzLabelRowCount()
-                        + Math.ceil(
-                        (float) mChooserListAdapter.getAlphaTargetCount()
-                                / mMaxTargetsPerRow)
-            );
+        return getLayout().getRowCount();
     }
 
     /**
@@ -214,6 +363,10 @@ public final class ChooserGridAdapter extends RecyclerView.Adapter<RecyclerView.
      * This area includes the content preview (if present) and action row.
      */
     public int getSystemRowCount() {
+        return getLayout().getSystemRowCount();
+    }
+
+    private int computeSystemRowCount() {
         // For the tabbed case we show the sticky content preview above the tabs,
         // please refer to shouldShowStickyContentPreview
         if (mChooserActivityDelegate.shouldShowTabs()
@@ -237,15 +390,17 @@ public final class ChooserGridAdapter extends RecyclerView.Adapter<RecyclerView.
     }
 
     public int getCallerAndRankedTargetRowCount() {
-        return (int) Math.ceil(
-                ((float) mChooserListAdapter.getCallerTargetCount()
-                        + mChooserListAdapter.getRankedTargetCount()) / mMaxTargetsPerRow);
+        return getLayout().getCallerAndRankedTargetRowCount();
     }
 
     // There can be at most one row in the listview, that is internally
     // a ViewGroup with 2 rows
     public int getServiceTargetRowCount() {
-        if (mShouldShowContentPreview && !ActivityManager.isLowRamDeviceStatic()) {
+        return getLayout().getServiceTargetRowCount();
+    }
+
+    private int computeServiceTargetRowCount() {
+        if (mShouldShowContentPreview && !mIsLowRamDevice) {
             return 1;
         }
         return 0;
@@ -253,28 +408,16 @@ public final class ChooserGridAdapter extends RecyclerView.Adapter<RecyclerView.
 
     public int getAzLabelRowCount() {
         // Only show a label if the a-z list is showing
-        return (mChooserListAdapter.getAlphaTargetCount() > 0) ? 1 : 0;
+        return getLayout().getAzLabelRowCount();
     }
 
     private int getAzLabelRowPosition() {
-        int azRowCount = getAzLabelRowCount();
-        if (azRowCount == 0) {
-            return -1;
-        }
-
-        return getSystemRowCount()
-                + getServiceTargetRowCount()
-                + getCallerAndRankedTargetRowCount();
+        return getLayout().getAzLabelRowPosition();
     }
 
     @Override
     public int getItemCount() {
-        return getSystemRowCount()
-                + getServiceTargetRowCount()
-                + getCallerAndRankedTargetRowCount()
-                + getAzLabelRowCount()
-                + mChooserListAdapter.getAlphaTargetCount()
-                + getFooterRowCount();
+        return getLayout().getItemCount();
     }
 
     @NonNull
@@ -357,23 +500,7 @@ public final class ChooserGridAdapter extends RecyclerView.Adapter<RecyclerView.
 
     @Override
     public int getItemViewType(int position) {
-        int count;
-
-        int countSum = (count = getSystemRowCount());
-        if (count > 0 && position < countSum) return VIEW_TYPE_CONTENT_PREVIEW;
-
-        countSum += (count = getServiceTargetRowCount());
-        if (count > 0 && position < countSum) return VIEW_TYPE_DIRECT_SHARE;
-
-        countSum += (count = getCallerAndRankedTargetRowCount());
-        if (count > 0 && position < countSum) return VIEW_TYPE_CALLER_AND_RANK;
-
-        countSum += (count = getAzLabelRowCount());
-        if (count > 0 && position < countSum) return VIEW_TYPE_AZ_LABEL;
-
-        if (position == getItemCount() - 1) return VIEW_TYPE_FOOTER;
-
-        return VIEW_TYPE_NORMAL;
+        return getLayout().getItemViewType(position);
     }
 
     public int getTargetType(int position) {
@@ -510,13 +637,9 @@ public final class ChooserGridAdapter extends RecyclerView.Adapter<RecyclerView.
     void bindItemGroupViewHolder(int position, ItemGroupViewHolder holder) {
         final ViewGroup viewGroup = (ViewGroup) holder.itemView;
         int start = getListPosition(position);
-        int startType = getRowType(start);
 
         int columnCount = holder.getColumnCount();
-        int end = start + columnCount - 1;
-        while (getRowType(end) != startType && end >= start) {
-            end--;
-        }
+        int end = getGroupRowEnd(start, columnCount);
 
         if (end == start && mChooserListAdapter.getItem(start).isEmptyTargetInfo()) {
             final TextView textView = viewGroup.findViewById(
@@ -556,28 +679,18 @@ public final class ChooserGridAdapter extends RecyclerView.Adapter<RecyclerView.
         }
     }
 
-    int getListPosition(int position) {
-        position -= getSystemRowCount();
-
-        final int serviceCount = mChooserListAdapter.getServiceTargetCount();
-        final int serviceRows = (int) Math.ceil((float) serviceCount / mMaxTargetsPerRow);
-        if (position < serviceRows) {
-            return position * mMaxTargetsPerRow;
-        }
-
-        position -= serviceRows;
-
-        final int callerAndRankedCount =
-                mChooserListAdapter.getCallerTargetCount()
-                + mChooserListAdapter.getRankedTargetCount();
-        final int callerAndRankedRows = getCallerAndRankedTargetRowCount();
-        if (position < callerAndRankedRows) {
-            return serviceCount + position * mMaxTargetsPerRow;
+    /** @return the list position of the last target shown in a row starting at {@code start}. */
+    private int getGroupRowEnd(int start, int columnCount) {
+        int startType = getRowType(start);
+        int end = start + columnCount - 1;
+        while (getRowType(end) != startType && end >= start) {
+            end--;
         }
+        return end;
+    }
 
-        position -= getAzLabelRowCount() + callerAndRankedRows;
-
-        return callerAndRankedCount + serviceCount + position;
+    int getListPosition(int position) {
+        return getLayout().getListPosition(position);
     }
 
     public ChooserListAdapter getListAdapter() {
@@ -0,0 +1,180 @@
+/*
+ * Copyright (C) 2024 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.intentresolver.grid;
+
+import java.util.Arrays;
+
+/**
+ * An immutable layout of the {@link ChooserGridAdapter} rows, computed from the counts of the
+ * wrapped adapter sections. The grid positions are split into consecutive sections, one per view
+ * type, in display order; the section of a position is looked up by a binary search over the
+ * section start positions.
+ */
+final class ChooserGridLayout {
+    private final int mMaxTargetsPerRow;
+    private final int mSystemRowCount;
+    private final int mServiceTargetRowCount;
+    private final int mServiceTargetCount;
+    private final int mCallerAndRankedTargetCount;
+    private final int mCallerAndRankedTargetRowCount;
+    private final int mAzLabelRowCount;
+    private final int mAlphaTargetCount;
+    private final int mItemCount;
+    /** The first position of each non-empty section, in ascending order. */
+    private final int[] mSectionStarts;
+    /** The view type of the rows of each section in {@link #mSectionStarts}. */
+    private final int[] mSectionViewTypes;
+
+    /**
+     * @param sectionViewTypes the view types of the system, service, caller and ranked, A-Z
+     * label, A-Z target and footer rows, in this order.
+     */
+    ChooserGridLayout(
+            int maxTargetsPerRow,
+            int[] sectionViewTypes,
+            int systemRowCount,
+            int serviceTargetRowCount,
+            int serviceTargetCount,
+            int callerAndRankedTargetCount,
+            int alphaTargetCount,
+            int footerRowCount) {
+        mMaxTargetsPerRow = maxTargetsPerRow;
+        mSystemRowCount = systemRowCount;
+        mServiceTargetRowCount = serviceTargetRowCount;
+        mServiceTargetCount = serviceTargetCount;
+        mCallerAndRankedTargetCount = callerAndRankedTargetCount;
+        mCallerAndRankedTargetRowCount = rowsFor(callerAndRankedTargetCount);
+        mAzLabelRowCount = alphaTargetCount > 0 ? 1 : 0;
+        mAlphaTargetCount = alphaTargetCount;
+
+        final int[] sectionSizes = {
+                systemRowCount,
+                serviceTargetRowCount,
+                mCallerAndRankedTargetRowCount,
+                mAzLabelRowCount,
+                alphaTargetCount,
+                footerRowCount,
+        };
+        final int[] starts = new int[sectionSizes.length];
+        final int[] viewTypes = new int[sectionSizes.length];
+        int sectionCount = 0;
+        int position = 0;
+        for (int i = 0; i < sectionSizes.length; i++) {
+            if (sectionSizes[i] > 0) {
+                starts[sectionCount] = position;
+                viewTypes[sectionCount] = sectionViewTypes[i];
+                sectionCount++;
+                position += sectionSizes[i];
+            }
+        }
+        mItemCount = position;
+        mSectionStarts = Arrays.copyOf(starts, sectionCount);
+        mSectionViewTypes = Arrays.copyOf(viewTypes, sectionCount);
+    }
+
+    int getItemCount() {
+        return mItemCount;
+    }
+
+    /**
+     * @return whether {@code other} has the same rows, showing the same list positions, i.e.
+     * whether only the contents of the rows can differ between the two layouts.
+     */
+    boolean hasSameRows(ChooserGridLayout other) {
+        return mItemCount == other.mItemCount
+                && mServiceTargetCount == other.mServiceTargetCount
+                && mCallerAndRankedTargetCount == other.mCallerAndRankedTargetCount
+                && mAlphaTargetCount == other.mAlphaTargetCount
+                && Arrays.equals(mSectionStarts, other.mSectionStarts)
+                && Arrays.equals(mSectionViewTypes, other.mSectionViewTypes);
+    }
+
+    int getRowCount() {
+        return mSystemRowCount
+                + mServiceTargetRowCount
+                + mCallerAndRankedTargetRowCount
+                + mAzLabelRowCount
+                + rowsFor(mAlphaTargetCount);
+    }
+
+    int getSystemRowCount() {
+        return mSystemRowCount;
+    }
+
+    int getServiceTargetRowCount() {
+        return mServiceTargetRowCount;
+    }
+
+    int getCallerAndRankedTargetRowCount() {
+        return mCallerAndRankedTargetRowCount;
+    }
+
+    int getAzLabelRowCount() {
+        return mAzLabelRowCount;
+    }
+
+    /** @return the position of the A-Z label row, or -1 if there is none. */
+    int getAzLabelRowPosition() {
+        if (mAzLabelRowCount == 0) {
+            return -1;
+        }
+        return mSystemRowCount + mServiceTargetRowCount + mCallerAndRankedTargetRowCount;
+    }
+
+    /**
+     * @return the view type of the row at {@code position}, the type of the last section for the
+     * positions past the end, or of the first one for the positions before the start.
+     */
+    int getItemViewType(int position) {
+        if (mSectionStarts.length == 0) {
+            throw new IndexOutOfBoundsException("No rows");
+        }
+        int index = Arrays.binarySearch(mSectionStarts, position);
+        if (index < 0) {
+            // The section that starts before the insertion point contains the position
+            index = Math.max(-index - 2, 0);
+        }
+        return mSectionViewTypes[index];
+    }
+
+    /**
+     * @return the position in the wrapped adapter of the (first) target shown at the grid
+     * {@code position}.
+     */
+    int getListPosition(int position) {
+        position -= mSystemRowCount;
+
+        final int serviceRows = rowsFor(mServiceTargetCount);
+        if (position < serviceRows) {
+            return position * mMaxTargetsPerRow;
+        }
+
+        position -= serviceRows;
+
+        if (position < mCallerAndRankedTargetRowCount) {
+            return mServiceTargetCount + position * mMaxTargetsPerRow;
+        }
+
+        position -= mAzLabelRowCount + mCallerAndRankedTargetRowCount;
+
+        return mCallerAndRankedTargetCount + mServiceTargetCount + position;
+    }
+
+    private int rowsFor(int targetCount) {
+        return (targetCount + mMaxTargetsPerRow - 1) / mMaxTargetsPerRow;
+    }
+}
@@ -0,0 +1,180 @@
+/*
+ * Copyright (C) 2024 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.intentresolver.grid;
+
+import android.graphics.drawable.Drawable;
+import android.text.TextUtils;
+
+import androidx.annotation.Nullable;
+import androidx.recyclerview.widget.DiffUtil;
+import androidx.recyclerview.widget.ListUpdateCallback;
+
+import com.android.intentresolver.chooser.TargetInfo;
+
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * An immutable description of the rows of the {@link ChooserGridAdapter}, as they were last
+ * reported to the {@link androidx.recyclerview.widget.RecyclerView}. Diffing two snapshots yields
+ * the row insertions, removals, moves and changes between them, so that only the affected rows
+ * are rebound when the wrapped list adapter changes.
+ */
+final class ChooserGridSnapshot {
+    private final List<Row> mRows;
+
+    ChooserGridSnapshot(List<Row> rows) {
+        mRows = rows;
+    }
+
+    /**
+     * Reports the updates that turn this snapshot into {@code newSnapshot} to {@code callback}.
+     * When both snapshots have the same rows, only the changed rows are reported, without running
+     * the full diff.
+     */
+    void dispatchUpdatesTo(ChooserGridSnapshot newSnapshot, ListUpdateCallback callback) {
+        if (hasSameRows(newSnapshot)) {
+            dispatchChangesTo(newSnapshot, callback);
+        } else {
+            diff(newSnapshot).dispatchUpdatesTo(callback);
+        }
+    }
+
+    private boolean hasSameRows(ChooserGridSnapshot other) {
+        if (mRows.size() != other.mRows.size()) {
+            return false;
+        }
+        for (int i = 0; i < mRows.size(); i++) {
+            if (!mRows.get(i).isSameRow(other.mRows.get(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void dispatchChangesTo(ChooserGridSnapshot newSnapshot, ListUpdateCallback callback) {
+        int changeStart = -1;
+        for (int i = 0; i <= mRows.size(); i++) {
+            final boolean isChanged = i < mRows.size()
+                    && !mRows.get(i).mContents.equals(newSnapshot.mRows.get(i).mContents);
+            if (isChanged && changeStart < 0) {
+                changeStart = i;
+            } else if (!isChanged && changeStart >= 0) {
+                callback.onChanged(changeStart, i - changeStart, null);
+                changeStart = -1;
+            }
+        }
+    }
+
+    private DiffUtil.DiffResult diff(ChooserGridSnapshot newSnapshot) {
+        final List<Row> oldRows = mRows;
+        final List<Row> newRows = newSnapshot.mRows;
+        return DiffUtil.calculateDiff(new DiffUtil.Callback() {
+            @Override
+            public int getOldListSize() {
+                return oldRows.size();
+            }
+
+            @Override
+            public int getNewListSize() {
+                return newRows.size();
+            }
+
+            @Override
+            public boolean areItemsTheSame(int oldItemPosition, int newItemPosition) {
+                return oldRows.get(oldItemPosition).isSameRow(newRows.get(newItemPosition));
+            }
+
+            @Override
+            public boolean areContentsTheSame(int oldItemPosition, int newItemPosition) {
+                return oldRows.get(oldItemPosition).mContents.equals(
+                        newRows.get(newItemPosition).mContents);
+            }
+        }, /* detectMoves= */ true);
+    }
+
+    /**
+     * One row of the grid.
+     *
+     * A row is identified by its view type and a key: the target for the single-target rows, so
+     * that the moved targets are recognized as such, or an arbitrary key (e.g. the row index
+     * within its section) for the other rows. The row needs to be rebound whenever its contents
+     * change: the list positions and the bound state of the targets it shows.
+     */
+    static final class Row {
+        private final int mViewType;
+        private final Object mKey;
+        private final List<Object> mContents;
+
+        Row(int viewType, Object key, List<Object> contents) {
+            mViewType = viewType;
+            mKey = key;
+            mContents = contents;
+        }
+
+        private boolean isSameRow(Row other) {
+            if (mViewType != other.mViewType) {
+                return false;
+            }
+            return mKey instanceof TargetInfo ? mKey == other.mKey : mKey.equals(other.mKey);
+        }
+    }
+
+    /**
+     * The state of a target that is reflected in its bound view. Targets are compared by
+     * identity, the same way {@link com.android.intentresolver.ItemRevealAnimationTracker} tracks
+     * them; their icon and labels are compared too as these are loaded after the target has been
+     * added to the list.
+     */
+    static final class BoundTarget {
+        @Nullable
+        private final TargetInfo mTarget;
+        @Nullable
+        private final Drawable mIcon;
+        @Nullable
+        private final CharSequence mLabel;
+        @Nullable
+        private final CharSequence mExtendedInfo;
+        private final boolean mIsPinned;
+
+        BoundTarget(@Nullable TargetInfo target) {
+            mTarget = target;
+            mIcon = target == null ? null : target.getDisplayIconHolder().getDisplayIcon();
+            mLabel = target == null ? null : target.getDisplayLabel();
+            mExtendedInfo = target == null ? null : target.getExtendedInfo();
+            mIsPinned = target != null && target.isPinned();
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof BoundTarget)) {
+                return false;
+            }
+            BoundTarget other = (BoundTarget) o;
+            return mTarget == other.mTarget
+                    && mIcon == other.mIcon
+                    && TextUtils.equals(mLabel, other.mLabel)
+                    && TextUtils.equals(mExtendedInfo, other.mExtendedInfo)
+                    && mIsPinned == other.mIsPinned;
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(System.identityHashCode(mTarget), System.identityHashCode(mIcon));
+        }
+    }
+}
@@ -40,7 +40,11 @@ abstract class BaseLoadIconTask extends AsyncTask<Void, Void, Drawable> {
     }
 
     protected final Drawable loadIconPlaceholder() {
-        return mContext.getDrawable(R.drawable.resolver_icon_placeholder);
+        return loadIconPlaceholder(mContext);
+    }
+
+    static Drawable loadIconPlaceholder(Context context) {
+        return context.getDrawable(R.drawable.resolver_icon_placeholder);
     }
 
     @Override
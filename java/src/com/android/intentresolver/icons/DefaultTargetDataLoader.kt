@@ -26,30 +26,56 @@ import androidx.annotation.GuardedBy
 import androidx.lifecycle.DefaultLifecycleObserver
 import androidx.lifecycle.Lifecycle
 import androidx.lifecycle.LifecycleOwner
+import androidx.lifecycle.coroutineScope
 import com.android.intentresolver.TargetPresentationGetter
 import com.android.intentresolver.chooser.DisplayResolveInfo
 import com.android.intentresolver.chooser.SelectableTargetInfo
+import com.android.intentresolver.chooser.TargetInfo
+import com.android.intentresolver.concurrency.ProcessDispatchers
+import java.util.Locale
 import java.util.concurrent.atomic.AtomicInteger
 import java.util.function.Consumer
 import kotlinx.coroutines.Dispatchers
-import kotlinx.coroutines.asExecutor
 
-/** An actual [TargetDataLoader] implementation. */
-// TODO: replace async tasks with coroutines.
-class DefaultTargetDataLoader(
+private const val MAX_PARALLEL_LOADS = 4
+
+/**
+ * An actual [TargetDataLoader] implementation. If [isLoadQueueEnabled] is set, the loads run in
+ * the [lifecycle] scope through a [TargetDataLoadQueue], otherwise each load runs as an async task.
+ */
+// TODO: remove async tasks once the load queue is rolled out.
+class DefaultTargetDataLoader
+@JvmOverloads
+constructor(
     private val context: Context,
     private val lifecycle: Lifecycle,
     private val isAudioCaptureDevice: Boolean,
+    private val labelCache: TargetLabelCache? = null,
+    private val iconCache: TargetIconCache? = null,
+    permissionCache: SubstitutePermissionCache? = null,
+    isLoadQueueEnabled: Boolean = false,
 ) : TargetDataLoader() {
     private val presentationFactory =
         TargetPresentationGetter.Factory(
             context,
             context.getSystemService(ActivityManager::class.java)?.launcherLargeIconDensity
-                ?: error("Unable to access ActivityManager")
+                ?: error("Unable to access ActivityManager"),
+            permissionCache,
         )
     private val nextTaskId = AtomicInteger(0)
     @GuardedBy("self") private val activeTasks = SparseArray<AsyncTask<*, *, *>>()
-    private val executor = Dispatchers.IO.asExecutor()
+    private val executor = ProcessDispatchers.uiCritical
+    private val loadQueue =
+        if (isLoadQueueEnabled) {
+            TargetDataLoadQueue(
+                lifecycle.coroutineScope,
+                ProcessDispatchers.uiCritical.dispatcher,
+                Dispatchers.Main,
+                MAX_PARALLEL_LOADS,
+            )
+        } else {
+            null
+        }
 
     init {
         lifecycle.addObserver(
@@ -67,8 +93,16 @@ class DefaultTargetDataLoader(
         userHandle: UserHandle,
         callback: Consumer<Drawable>,
     ) {
+        if (loadQueue != null) {
+            loadQueue.load(
+                LoadKey(LoadType.APP_ICON, info),
+                { LoadIconTask.loadIcon(context, info, presentationFactory, iconCache) },
+                callback,
+            )
+            return
+        }
         val taskId = nextTaskId.getAndIncrement()
-        LoadIconTask(context, info, userHandle, presentationFactory) { result ->
+        LoadIconTask(context, info, userHandle, presentationFactory, iconCache) { result ->
                 removeTask(taskId)
                 callback.accept(result)
             }
@@ -81,6 +115,20 @@ class DefaultTargetDataLoader(
         userHandle: UserHandle,
         callback: Consumer<Drawable>,
     ) {
+        if (loadQueue != null) {
+            loadQueue.load(
+                LoadKey(LoadType.DIRECT_SHARE_ICON, info),
+                {
+                    LoadDirectShareIconTask.loadIcon(
+                        context.createContextAsUser(userHandle, 0),
+                        info,
+                        presentationFactory,
+                    )
+                },
+                callback,
+            )
+            return
+        }
         val taskId = nextTaskId.getAndIncrement()
         LoadDirectShareIconTask(
                 context.createContextAsUser(userHandle, 0),
@@ -95,8 +143,30 @@ class DefaultTargetDataLoader(
     }
 
     override fun loadLabel(info: DisplayResolveInfo, callback: Consumer<LabelInfo>) {
+        if (loadQueue != null) {
+            loadQueue.load(
+                LoadKey(LoadType.LABEL, info),
+                {
+                    LoadLabelTask.loadLabel(
+                        context,
+                        info,
+                        isAudioCaptureDevice,
+                        presentationFactory,
+                        labelCache,
+                    )
+                },
+                callback,
+            )
+            return
+        }
         val taskId = nextTaskId.getAndIncrement()
-        LoadLabelTask(context, info, isAudioCaptureDevice, presentationFactory) { result ->
+        LoadLabelTask(
+                context,
+                info,
+                isAudioCaptureDevice,
+                presentationFactory,
+                labelCache,
+            ) { result ->
                 removeTask(taskId)
                 callback.accept(result)
             }
@@ -107,12 +177,29 @@ class DefaultTargetDataLoader(
     override fun getOrLoadLabel(info: DisplayResolveInfo) {
         if (!info.hasDisplayLabel()) {
             val result =
-                LoadLabelTask.loadLabel(context, info, isAudioCaptureDevice, presentationFactory)
+                LoadLabelTask.loadLabel(
+                    context,
+                    info,
+                    isAudioCaptureDevice,
+                    presentationFactory,
+                    labelCache,
+                )
             info.displayLabel = result.label
             info.extendedInfo = result.subLabel
         }
     }
 
+    override fun getLabelCollationKey(info: DisplayResolveInfo, locale: Locale): ByteArray? =
+        if (isAudioCaptureDevice) null else labelCache?.getCollationKey(info, locale)
+
+    override fun prioritize(info: TargetInfo) {
+        if (loadQueue != null) {
+            for (type in LoadType.values()) {
+                loadQueue.prioritize(LoadKey(type, info))
+            }
+        }
+    }
+
     private fun addTask(id: Int, task: AsyncTask<*, *, *>) {
         synchronized(activeTasks) { activeTasks.put(id, task) }
     }
@@ -129,4 +216,12 @@ class DefaultTargetDataLoader(
             activeTasks.clear()
         }
     }
+
+    private enum class LoadType {
+        APP_ICON,
+        DIRECT_SHARE_ICON,
+        LABEL,
+    }
+
+    private data class LoadKey(val type: LoadType, val target: TargetInfo)
 }
@@ -57,28 +57,38 @@ class LoadDirectShareIconTask extends BaseLoadIconTask {
 
     @Override
     protected Drawable doInBackground(Void... voids) {
+        return loadIcon(mContext, mTargetInfo, mPresentationFactory);
+    }
+
+    /** Loads the direct share target icon, falling back to the placeholder if it fails. */
+    @WorkerThread
+    static Drawable loadIcon(
+            Context context,
+            SelectableTargetInfo targetInfo,
+            TargetPresentationGetter.Factory presentationFactory) {
         Drawable drawable;
         Trace.beginSection("shortcut-icon");
         try {
-            final Icon icon = mTargetInfo.getChooserTargetIcon();
+            final Icon icon = targetInfo.getChooserTargetIcon();
             if (icon == null || UriFilters.hasValidIcon(icon)) {
                 drawable = getChooserTargetIconDrawable(
-                        mContext,
+                        context,
                         icon,
-                        mTargetInfo.getChooserTargetComponentName(),
-                        mTargetInfo.getDirectShareShortcutInfo());
+                        targetInfo.getChooserTargetComponentName(),
+                        targetInfo.getDirectShareShortcutInfo(),
+                        presentationFactory);
             } else {
                 Log.e(TAG, "Failed to load shortcut icon for "
-                        + mTargetInfo.getChooserTargetComponentName() + "; no access");
-                drawable = loadIconPlaceholder();
+                        + targetInfo.getChooserTargetComponentName() + "; no access");
+                drawable = loadIconPlaceholder(context);
             }
         } catch (Exception e) {
             Log.e(
                     TAG,
                     "Failed to load shortcut icon for "
-                            + mTargetInfo.getChooserTargetComponentName(),
+                            + targetInfo.getChooserTargetComponentName(),
                     e);
-            drawable = loadIconPlaceholder();
+            drawable = loadIconPlaceholder(context);
         } finally {
             Trace.endSection();
         }
@@ -86,11 +96,12 @@ class LoadDirectShareIconTask extends BaseLoadIconTask {
     }
 
     @WorkerThread
-    private Drawable getChooserTargetIconDrawable(
+    private static Drawable getChooserTargetIconDrawable(
             Context context,
             @Nullable Icon icon,
             ComponentName targetComponentName,
-            @Nullable ShortcutInfo shortcutInfo) {
+            @Nullable ShortcutInfo shortcutInfo,
+            TargetPresentationGetter.Factory presentationFactory) {
         Drawable directShareIcon = null;
 
         // First get the target drawable and associated activity info
@@ -119,7 +130,7 @@ class LoadDirectShareIconTask extends BaseLoadIconTask {
         }
 
         // Now fetch app icon and raster with no badging even in work profile
-        Bitmap appIcon = mPresentationFactory.makePresentationGetter(info).getIconBitmap(null);
+        Bitmap appIcon = presentationFactory.makePresentationGetter(info).getIconBitmap(null);
 
         // Raster target drawable with appIcon as a badge
         SimpleIconFactory sif = SimpleIconFactory.obtain(context);
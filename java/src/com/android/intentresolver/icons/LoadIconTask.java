@@ -19,11 +19,15 @@ package com.android.intentresolver.icons;
 import android.content.ComponentName;
 import android.content.Context;
 import android.content.pm.ResolveInfo;
+import android.graphics.Bitmap;
+import android.graphics.drawable.BitmapDrawable;
 import android.graphics.drawable.Drawable;
 import android.os.Trace;
 import android.os.UserHandle;
 import android.util.Log;
 
+import androidx.annotation.Nullable;
+
 import com.android.intentresolver.TargetPresentationGetter;
 import com.android.intentresolver.chooser.DisplayResolveInfo;
 
@@ -33,37 +37,62 @@ class LoadIconTask extends BaseLoadIconTask {
     private static final String TAG = "IconTask";
     protected final DisplayResolveInfo mDisplayResolveInfo;
     private final UserHandle mUserHandle;
-    private final ResolveInfo mResolveInfo;
+    @Nullable
+    private final TargetIconCache mIconCache;
 
     LoadIconTask(
             Context context, DisplayResolveInfo dri,
             UserHandle userHandle,
             TargetPresentationGetter.Factory presentationFactory,
+            @Nullable TargetIconCache iconCache,
             Consumer<Drawable> callback) {
         super(context, presentationFactory, callback);
         mUserHandle = userHandle;
         mDisplayResolveInfo = dri;
-        mResolveInfo = dri.getResolveInfo();
+        mIconCache = iconCache;
     }
 
     @Override
     protected Drawable doInBackground(Void... params) {
+        return loadIcon(mContext, mDisplayResolveInfo, mPresentationFactory, mIconCache);
+    }
+
+    /** Loads the app target icon, falling back to the placeholder if it fails. */
+    static Drawable loadIcon(
+            Context context,
+            DisplayResolveInfo displayResolveInfo,
+            TargetPresentationGetter.Factory presentationFactory,
+            @Nullable TargetIconCache iconCache) {
         Trace.beginSection("app-icon");
         try {
-            return loadIconForResolveInfo(mResolveInfo);
+            return loadIconForResolveInfo(
+                    context, displayResolveInfo.getResolveInfo(), presentationFactory, iconCache);
         } catch (Exception e) {
-            ComponentName componentName = mDisplayResolveInfo.getResolvedComponentName();
+            ComponentName componentName = displayResolveInfo.getResolvedComponentName();
             Log.e(TAG, "Failed to load app icon for " + componentName, e);
-            return loadIconPlaceholder();
+            return loadIconPlaceholder(context);
         } finally {
             Trace.endSection();
         }
     }
 
-    protected final Drawable loadIconForResolveInfo(ResolveInfo ri) {
+    private static Drawable loadIconForResolveInfo(
+            Context context,
+            ResolveInfo ri,
+            TargetPresentationGetter.Factory presentationFactory,
+            @Nullable TargetIconCache iconCache) {
         // Load icons based on userHandle from ResolveInfo. If in work profile/clone profile, icons
         // should be badged.
-        return mPresentationFactory.makePresentationGetter(ri).getIcon(ri.userHandle);
+        if (iconCache == null) {
+            return presentationFactory.makePresentationGetter(ri).getIcon(ri.userHandle);
+        }
+        int iconDpi = presentationFactory.getIconDpi();
+        String configKey = TargetIconCache.configKeyOf(context);
+        Bitmap icon = iconCache.get(ri, iconDpi, configKey);
+        if (icon == null) {
+            icon = presentationFactory.makePresentationGetter(ri).getIconBitmap(ri.userHandle);
+            iconCache.put(ri, iconDpi, configKey, icon);
+        }
+        return new BitmapDrawable(context.getResources(), icon);
     }
-
 }
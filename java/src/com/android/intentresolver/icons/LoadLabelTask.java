@@ -22,10 +22,13 @@ import android.content.pm.ActivityInfo;
 import android.os.AsyncTask;
 import android.os.Trace;
 
+import androidx.annotation.Nullable;
+
 import com.android.intentresolver.R;
 import com.android.intentresolver.TargetPresentationGetter;
 import com.android.intentresolver.chooser.DisplayResolveInfo;
 
+import java.util.Locale;
 import java.util.function.Consumer;
 
 class LoadLabelTask extends AsyncTask<Void, Void, LabelInfo> {
@@ -33,15 +36,18 @@ class LoadLabelTask extends AsyncTask<Void, Void, LabelInfo> {
     private final DisplayResolveInfo mDisplayResolveInfo;
     private final boolean mIsAudioCaptureDevice;
     protected final TargetPresentationGetter.Factory mPresentationFactory;
+    @Nullable
+    private final TargetLabelCache mLabelCache;
     private final Consumer<LabelInfo> mCallback;
 
     LoadLabelTask(Context context, DisplayResolveInfo dri,
             boolean isAudioCaptureDevice, TargetPresentationGetter.Factory presentationFactory,
-            Consumer<LabelInfo> callback) {
+            @Nullable TargetLabelCache labelCache, Consumer<LabelInfo> callback) {
         mContext = context;
         mDisplayResolveInfo = dri;
         mIsAudioCaptureDevice = isAudioCaptureDevice;
         mPresentationFactory = presentationFactory;
+        mLabelCache = labelCache;
         mCallback = callback;
     }
 
@@ -50,13 +56,43 @@ class LoadLabelTask extends AsyncTask<Void, Void, LabelInfo> {
         try {
             Trace.beginSection("app-label");
             return loadLabel(
-                    mContext, mDisplayResolveInfo, mIsAudioCaptureDevice, mPresentationFactory);
+                    mContext,
+                    mDisplayResolveInfo,
+                    mIsAudioCaptureDevice,
+                    mPresentationFactory,
+                    mLabelCache);
         } finally {
             Trace.endSection();
         }
     }
 
+    /**
+     * Loads the labels of the target, using the {@code labelCache} ones if the target package has
+     * not changed since they were cached. The audio capture device sublabel depends on the target
+     * permissions, so those labels are never cached.
+     */
     static LabelInfo loadLabel(
+            Context context,
+            DisplayResolveInfo displayResolveInfo,
+            boolean isAudioCaptureDevice,
+            TargetPresentationGetter.Factory presentationFactory,
+            @Nullable TargetLabelCache labelCache) {
+        if (labelCache == null || isAudioCaptureDevice) {
+            return loadLabel(
+                    context, displayResolveInfo, isAudioCaptureDevice, presentationFactory);
+        }
+        Locale locale = context.getResources().getConfiguration().getLocales().get(0);
+        TargetLabelCache.Entry entry = labelCache.get(displayResolveInfo, locale);
+        if (entry != null) {
+            return entry.toLabelInfo();
+        }
+        LabelInfo result = loadLabel(
+                context, displayResolveInfo, isAudioCaptureDevice, presentationFactory);
+        labelCache.put(displayResolveInfo, locale, result);
+        return result;
+    }
+
+    private static LabelInfo loadLabel(
             Context context,
             DisplayResolveInfo displayResolveInfo,
             boolean isAudioCaptureDevice,
@@ -0,0 +1,71 @@
+/*
+ * Copyright (C) 2024 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.intentresolver.icons
+
+import android.content.Context
+import android.content.pm.LauncherApps
+import android.os.Handler
+import android.os.Looper
+import android.os.UserHandle
+import android.util.Log
+import androidx.annotation.MainThread
+import java.util.concurrent.atomic.AtomicBoolean
+
+private const val TAG = "PackageChangeCallback"
+
+/**
+ * Reports any change of a package to [onChange], on the main thread. Used by the target data caches
+ * to drop the data of the changed packages.
+ */
+internal class PackageChangeCallback(
+    private val onChange: (packageName: String, user: UserHandle) -> Unit,
+) : LauncherApps.Callback() {
+    private val isRegistered = AtomicBoolean(false)
+
+    /** Starts listening to package changes; only the first call has an effect. */
+    @MainThread
+    fun register(context: Context) {
+        if (!isRegistered.compareAndSet(false, true)) return
+        runCatching {
+                context.applicationContext
+                    .getSystemService(LauncherApps::class.java)
+                    ?.registerCallback(this, Handler(Looper.getMainLooper()))
+            }
+            .onFailure { Log.w(TAG, "Failed to listen to package changes", it) }
+    }
+
+    override fun onPackageRemoved(packageName: String, user: UserHandle) =
+        onChange(packageName, user)
+
+    override fun onPackageAdded(packageName: String, user: UserHandle) =
+        onChange(packageName, user)
+
+    override fun onPackageChanged(packageName: String, user: UserHandle) =
+        onChange(packageName, user)
+
+    override fun onPackagesAvailable(
+        packageNames: Array<out String>,
+        user: UserHandle,
+        replacing: Boolean
+    ) = packageNames.forEach { onChange(it, user) }
+
+    override fun onPackagesUnavailable(
+        packageNames: Array<out String>,
+        user: UserHandle,
+        replacing: Boolean
+    ) = packageNames.forEach { onChange(it, user) }
+}
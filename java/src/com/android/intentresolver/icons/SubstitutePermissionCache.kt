@@ -0,0 +1,100 @@
+/*
+ * Copyright (C) 2024 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.intentresolver.icons
+
+import android.Manifest.permission.SUBSTITUTE_SHARE_TARGET_APP_NAME_AND_ICON
+import android.content.Context
+import android.content.pm.PackageManager
+import android.os.UserHandle
+import android.util.Log
+import android.util.SparseArray
+import androidx.annotation.GuardedBy
+import androidx.annotation.MainThread
+import androidx.annotation.VisibleForTesting
+import androidx.annotation.WorkerThread
+
+private const val TAG = "SubstitutePermissionCache"
+
+/**
+ * A process-level record of the packages that hold the
+ * [SUBSTITUTE_SHARE_TARGET_APP_NAME_AND_ICON] permission, per user. The packages of a user are
+ * queried in one pass on the first check, instead of a permission check per target, and dropped on
+ * any package change for the user (see [startListening]).
+ */
+class SubstitutePermissionCache @VisibleForTesting constructor() {
+    private val lock = Any()
+    @GuardedBy("lock") private val packagesPerUser = SparseArray<Set<String>>()
+    /** Incremented on each invalidation, so that a query started before is not cached. */
+    @GuardedBy("lock") private var generation = 0
+
+    private val packageChangeCallback = PackageChangeCallback { _, user -> invalidate(user) }
+
+    /**
+     * Starts listening to package changes to invalidate the cache; only the first call has an
+     * effect.
+     */
+    @MainThread
+    fun startListening(context: Context) = packageChangeCallback.register(context)
+
+    /**
+     * Whether the package holds the permission for the user of [packageManager], as
+     * [PackageManager.checkPermission] would report.
+     */
+    @WorkerThread
+    fun hasPermission(packageManager: PackageManager, userId: Int, packageName: String): Boolean {
+        val queryGeneration =
+            synchronized(lock) {
+                packagesPerUser[userId]?.let {
+                    return packageName in it
+                }
+                generation
+            }
+        val packages =
+            runCatching {
+                    packageManager
+                        .getPackagesHoldingPermissions(
+                            arrayOf(SUBSTITUTE_SHARE_TARGET_APP_NAME_AND_ICON),
+                            0
+                        )
+                        .mapTo(HashSet()) { it.packageName }
+                }
+                .onFailure { Log.w(TAG, "Failed to query the permission holders", it) }
+                .getOrNull()
+                ?: return packageManager.checkPermission(
+                    SUBSTITUTE_SHARE_TARGET_APP_NAME_AND_ICON,
+                    packageName
+                ) == PackageManager.PERMISSION_GRANTED
+        synchronized(lock) {
+            if (generation == queryGeneration) {
+                packagesPerUser.put(userId, packages)
+            }
+        }
+        return packageName in packages
+    }
+
+    /** Drops the permission holders of the given user. */
+    fun invalidate(userHandle: UserHandle) {
+        synchronized(lock) {
+            generation++
+            packagesPerUser.remove(userHandle.identifier)
+        }
+    }
+
+    companion object {
+        @JvmStatic val instance = SubstitutePermissionCache()
+    }
+}
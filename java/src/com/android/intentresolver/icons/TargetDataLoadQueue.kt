@@ -0,0 +1,151 @@
+/*
+ * Copyright (C) 2024 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.intentresolver.icons
+
+import android.os.Trace
+import android.util.Log
+import androidx.annotation.GuardedBy
+import java.util.function.Consumer
+import kotlinx.coroutines.CoroutineDispatcher
+import kotlinx.coroutines.CoroutineScope
+import kotlinx.coroutines.android.awaitFrame
+import kotlinx.coroutines.isActive
+import kotlinx.coroutines.launch
+
+private const val TAG = "TargetDataLoadQueue"
+
+/**
+ * Runs the target data loads in [scope], at most [maxParallelism] at a time on
+ * [backgroundDispatcher]:
+ * - requests with the same key are coalesced: the load runs once and its result is delivered to
+ *   all the callbacks;
+ * - the waiting request that was requested or [prioritized][prioritize] last runs first, so the
+ *   targets that are being bound, i.e. the visible ones, are loaded before the others;
+ * - the results are delivered in batches on [mainDispatcher], one batch per [awaitDelivery] turn
+ *   (by default, once per frame), instead of one main thread post per result.
+ *
+ * The requests that are still waiting when [scope] is cancelled are dropped.
+ */
+internal class TargetDataLoadQueue(
+    private val scope: CoroutineScope,
+    private val backgroundDispatcher: CoroutineDispatcher,
+    private val mainDispatcher: CoroutineDispatcher,
+    private val maxParallelism: Int,
+    private val awaitDelivery: suspend () -> Unit = { awaitFrame() },
+) {
+    private val lock = Any()
+    @GuardedBy("lock") private val waiting = HashMap<Any, Request<*>>()
+    @GuardedBy("lock") private val running = HashMap<Any, Request<*>>()
+    @GuardedBy("lock") private val results = ArrayList<Request<*>>()
+    @GuardedBy("lock") private var nextPriority = 0L
+    @GuardedBy("lock") private var workerCount = 0
+    @GuardedBy("lock") private var isDeliveryScheduled = false
+
+    /**
+     * Loads the data identified by [key] with [load] on a background thread, unless the same data
+     * is already being loaded, and delivers it to [callback] on the main thread.
+     */
+    fun <T> load(key: Any, load: () -> T, callback: Consumer<T>) {
+        val startWorker =
+            synchronized(lock) {
+                @Suppress("UNCHECKED_CAST")
+                val request =
+                    (running[key] ?: waiting.getOrPut(key) { Request(key, load) }) as Request<T>
+                request.callbacks.add(callback)
+                request.priority = nextPriority++
+                (waiting.isNotEmpty() && workerCount < maxParallelism).also {
+                    if (it) workerCount++
+                }
+            }
+        if (startWorker) {
+            scope.launch(backgroundDispatcher) { runWorker() }
+        }
+    }
+
+    /** Moves the load identified by [key] ahead of the other waiting ones, if it is waiting. */
+    fun prioritize(key: Any) {
+        synchronized(lock) { waiting[key]?.priority = nextPriority++ }
+    }
+
+    private fun CoroutineScope.runWorker() {
+        var request = synchronized(lock) { takeNextRequestOrStop() }
+        while (request != null) {
+            request.run()
+            if (complete(request)) {
+                scope.launch(mainDispatcher) {
+                    awaitDelivery()
+                    deliverResults()
+                }
+            }
+            request = synchronized(lock) { if (isActive) takeNextRequestOrStop() else stop() }
+        }
+    }
+
+    /** Queues the result of the request for delivery; returns whether a delivery is needed. */
+    private fun complete(request: Request<*>): Boolean =
+        synchronized(lock) {
+            running.remove(request.key)
+            results.add(request)
+            !isDeliveryScheduled.also { isDeliveryScheduled = true }
+        }
+
+    /** Returns the waiting request to run next, or stops the worker if there is none. */
+    @GuardedBy("lock")
+    private fun takeNextRequestOrStop(): Request<*>? {
+        // The number of the waiting requests is bound by the number of targets, a linear scan is
+        // cheaper than keeping a priority queue updated on each bind.
+        val request = waiting.values.maxByOrNull { it.priority } ?: return stop()
+        waiting.remove(request.key)
+        running[request.key] = request
+        return request
+    }
+
+    @GuardedBy("lock")
+    private fun stop(): Request<*>? {
+        workerCount--
+        return null
+    }
+
+    private fun deliverResults() {
+        val batch =
+            synchronized(lock) {
+                isDeliveryScheduled = false
+                ArrayList(results).also { results.clear() }
+            }
+        Trace.beginSection("deliver-target-data:${batch.size}")
+        try {
+            batch.forEach { it.deliver() }
+        } finally {
+            Trace.endSection()
+        }
+    }
+
+    private class Request<T>(val key: Any, private val load: () -> T) {
+        /** Guarded by the queue lock until the request is delivered, only accessed after. */
+        val callbacks = ArrayList<Consumer<T>>(1)
+        var priority = 0L
+        private var result: Result<T>? = null
+
+        fun run() {
+            result = runCatching(load).onFailure { Log.e(TAG, "Failed to load $key", it) }
+        }
+
+        fun deliver() {
+            result?.onSuccess { value -> callbacks.forEach { it.accept(value) } }
+        }
+    }
+}
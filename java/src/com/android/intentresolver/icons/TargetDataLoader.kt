@@ -20,6 +20,8 @@ import android.graphics.drawable.Drawable
 import android.os.UserHandle
 import com.android.intentresolver.chooser.DisplayResolveInfo
 import com.android.intentresolver.chooser.SelectableTargetInfo
+import com.android.intentresolver.chooser.TargetInfo
+import java.util.Locale
 import java.util.function.Consumer
 
 /** A target data loader contract. Added to support testing. */
@@ -43,4 +45,13 @@ abstract class TargetDataLoader {
 
     /** Loads DisplayResolveInfo's display label synchronously, if needed */
     abstract fun getOrLoadLabel(info: DisplayResolveInfo)
+
+    /**
+     * Returns a precomputed collation key of DisplayResolveInfo's display label for the given
+     * locale, if available. Keys compare as unsigned byte sequences.
+     */
+    open fun getLabelCollationKey(info: DisplayResolveInfo, locale: Locale): ByteArray? = null
+
+    /** Hints that the target is being shown, so its pending loads should run before the others. */
+    open fun prioritize(info: TargetInfo) {}
 }
@@ -0,0 +1,230 @@
+/*
+ * Copyright (C) 2024 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.intentresolver.icons
+
+import android.content.Context
+import android.content.pm.ResolveInfo
+import android.content.res.Configuration
+import android.graphics.Bitmap
+import android.graphics.BitmapFactory
+import android.os.UserHandle
+import android.util.Log
+import android.util.LruCache
+import androidx.annotation.MainThread
+import androidx.annotation.VisibleForTesting
+import androidx.annotation.WorkerThread
+import com.android.intentresolver.concurrency.ProcessDispatchers
+import java.io.DataInputStream
+import java.io.DataOutputStream
+import java.io.File
+import java.io.FileInputStream
+import java.io.FileNotFoundException
+import java.io.FileOutputStream
+import java.io.IOException
+import java.util.concurrent.Executor
+
+private const val TAG = "TargetIconCache"
+private const val DIR_NAME = "target_icons"
+private const val FILE_SUFFIX = ".icon"
+private const val MAX_MEMORY_KB = 8 * 1024
+private const val MAX_FILES = 200
+
+/**
+ * A process-level cache of the badged app target icons, kept in memory and compressed in the app
+ * cache dir, so the icons are available across sessions without loading the target app resources.
+ * Icons are keyed by the target component and icon resources, the icon density, the badged user,
+ * the package version and the configuration the icons are rendered for (see [configKeyOf]). The
+ * icons of a package are dropped on any change of the package (see [startListening]).
+ */
+class TargetIconCache
+@VisibleForTesting
+constructor(
+    private val dir: File,
+    private val diskExecutor: Executor,
+    maxMemoryKb: Int,
+    private val maxFiles: Int,
+) {
+    private val memoryCache =
+        object : LruCache<String, Bitmap>(maxMemoryKb) {
+            override fun sizeOf(key: String, value: Bitmap): Int =
+                (value.allocationByteCount + 1023) / 1024
+        }
+
+    private val packageChangeCallback = PackageChangeCallback(::invalidate)
+
+    /**
+     * Starts listening to package changes to invalidate the cache; only the first call has an
+     * effect.
+     */
+    @MainThread
+    fun startListening(context: Context) = packageChangeCallback.register(context)
+
+    /**
+     * Returns the cached icon of the target, loaded at the given density and badged for the target
+     * user in the configuration identified by [configKey], if the target package has not changed
+     * since.
+     */
+    @WorkerThread
+    fun get(resolveInfo: ResolveInfo, iconDpi: Int, configKey: String): Bitmap? {
+        val key = resolveInfo.cacheKey(iconDpi, configKey) ?: return null
+        memoryCache.get(key)?.let {
+            return it
+        }
+        return readFile(resolveInfo.activityInfo.packageName, key)?.also {
+            memoryCache.put(key, it)
+        }
+    }
+
+    /** Caches the icon loaded for the target. The icon is written to the disk asynchronously. */
+    fun put(resolveInfo: ResolveInfo, iconDpi: Int, configKey: String, icon: Bitmap) {
+        val key = resolveInfo.cacheKey(iconDpi, configKey) ?: return
+        memoryCache.put(key, icon)
+        diskExecutor.execute { writeFile(resolveInfo.activityInfo.packageName, key, icon) }
+    }
+
+    /** Drops the cached icons of the given package and user. */
+    fun invalidate(packageName: String, userHandle: UserHandle) {
+        val keyPrefix = keyPrefix(packageName, userHandle.identifier)
+        for (key in memoryCache.snapshot().keys) {
+            if (key.startsWith(keyPrefix)) {
+                memoryCache.remove(key)
+            }
+        }
+        diskExecutor.execute {
+            val filePrefix = filePrefix(packageName)
+            dir.listFiles { _, name -> name.startsWith(filePrefix) }
+                ?.forEach { file ->
+                    // Only the files of the invalidated user are dropped
+                    if (readKey(file)?.startsWith(keyPrefix) != false) {
+                        file.delete()
+                    }
+                }
+        }
+    }
+
+    @WorkerThread
+    private fun readFile(packageName: String, key: String): Bitmap? {
+        val file = fileFor(packageName, key)
+        return try {
+            DataInputStream(FileInputStream(file).buffered()).use { input ->
+                if (input.readUTF() != key) return null
+                BitmapFactory.decodeStream(input)?.also {
+                    file.setLastModified(System.currentTimeMillis())
+                }
+            }
+        } catch (e: FileNotFoundException) {
+            null
+        } catch (e: IOException) {
+            Log.w(TAG, "Failed to read the cached icon $key", e)
+            null
+        }
+    }
+
+    @WorkerThread
+    private fun readKey(file: File): String? =
+        try {
+            DataInputStream(FileInputStream(file).buffered()).use { it.readUTF() }
+        } catch (e: IOException) {
+            null
+        }
+
+    @WorkerThread
+    private fun writeFile(packageName: String, key: String, icon: Bitmap) {
+        if (!dir.isDirectory && !dir.mkdirs()) {
+            Log.w(TAG, "Failed to create the icon cache dir")
+            return
+        }
+        val file = fileFor(packageName, key)
+        val tmpFile = File(dir, file.name + ".tmp")
+        try {
+            DataOutputStream(FileOutputStream(tmpFile).buffered()).use { output ->
+                output.writeUTF(key)
+                icon.compress(Bitmap.CompressFormat.WEBP_LOSSLESS, 100, output)
+            }
+            if (!tmpFile.renameTo(file)) {
+                throw IOException("Failed to rename $tmpFile")
+            }
+        } catch (e: IOException) {
+            Log.w(TAG, "Failed to write the cached icon $key", e)
+            tmpFile.delete()
+            return
+        }
+        trimFiles()
+    }
+
+    /** Drops the least recently used files above the limit. */
+    @WorkerThread
+    private fun trimFiles() {
+        val files = dir.listFiles { _, name -> name.endsWith(FILE_SUFFIX) } ?: return
+        if (files.size <= maxFiles) return
+        files.sortBy { it.lastModified() }
+        for (i in 0 until files.size - maxFiles) {
+            files[i].delete()
+        }
+    }
+
+    private fun fileFor(packageName: String, key: String) =
+        File(dir, filePrefix(packageName) + Integer.toHexString(key.hashCode()) + FILE_SUFFIX)
+
+    companion object {
+        @Volatile private var instance: TargetIconCache? = null
+
+        @JvmStatic
+        fun getInstance(context: Context): TargetIconCache =
+            instance
+                ?: synchronized(this) {
+                    instance
+                        ?: TargetIconCache(
+                                File(context.applicationContext.cacheDir, DIR_NAME),
+                                ProcessDispatchers.disk.serial(),
+                                MAX_MEMORY_KB,
+                                MAX_FILES,
+                            )
+                            .also { instance = it }
+                }
+
+        /**
+         * Identifies the parts of the [context] configuration the badged icons depend on beyond
+         * their resources: the night mode, that selects the `-night` icon resources, and the system
+         * icon shape the adaptive icons are masked with, that an overlay can change.
+         */
+        @JvmStatic
+        fun configKeyOf(context: Context): String {
+            val resources = context.resources
+            val nightMode = resources.configuration.uiMode and Configuration.UI_MODE_NIGHT_MASK
+            val iconMask = resources.getString(com.android.internal.R.string.config_icon_mask)
+            return "$nightMode/${Integer.toHexString(iconMask.hashCode())}"
+        }
+
+        private fun keyPrefix(packageName: String, userId: Int) = "$packageName/$userId/"
+
+        private fun filePrefix(packageName: String) = "${packageName}_"
+
+        /**
+         * The key identifies the resources the target icon can be loaded from, see
+         * [com.android.intentresolver.TargetPresentationGetter.getIconBitmap].
+         */
+        private fun ResolveInfo.cacheKey(iconDpi: Int, configKey: String): String? {
+            val activityInfo = activityInfo ?: return null
+            val appInfo = activityInfo.applicationInfo ?: return null
+            val userId = userHandle?.identifier ?: return null
+            return keyPrefix(activityInfo.packageName, userId) +
+                "${activityInfo.name}/${appInfo.longVersionCode}/$iconDpi/$configKey/" +
+                "$resolvePackageName/$icon/${activityInfo.icon}/${appInfo.icon}"
+        }
+    }
+}
@@ -0,0 +1,300 @@
+/*
+ * Copyright (C) 2024 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.intentresolver.icons
+
+import android.content.Context
+import android.icu.util.VersionInfo
+import android.os.Build
+import android.os.UserHandle
+import android.util.AtomicFile
+import android.util.Log
+import androidx.annotation.GuardedBy
+import androidx.annotation.MainThread
+import androidx.annotation.VisibleForTesting
+import androidx.annotation.WorkerThread
+import com.android.intentresolver.chooser.DisplayResolveInfo
+import com.android.intentresolver.concurrency.ProcessDispatchers
+import java.io.DataInputStream
+import java.io.DataOutputStream
+import java.io.File
+import java.io.FileNotFoundException
+import java.io.IOException
+import java.text.Collator
+import java.util.Locale
+import java.util.concurrent.Executor
+import java.util.concurrent.atomic.AtomicBoolean
+
+private const val TAG = "TargetLabelCache"
+private const val FILE_NAME = "target_labels"
+private const val FILE_VERSION = 2
+private const val MAX_ENTRIES = 500
+
+/**
+ * A process-level cache of the loaded target labels that is persisted in the app cache dir, so the
+ * labels are available across sessions without loading the target app resources. Entries are keyed
+ * by the target component, the resolved label resource and the user, and are only valid for the
+ * package version and locale they were loaded for. Along with the labels, an entry holds the
+ * collation key of the label for the locale, used to sort the targets alphabetically. The entries
+ * of a package are dropped on any change of the package (see [startListening]), and all of them on
+ * a change of the [collationVersion], as the collation keys are only comparable with the keys
+ * computed by the same collator implementation.
+ */
+class TargetLabelCache
+@VisibleForTesting
+constructor(
+    private val file: AtomicFile,
+    private val writeExecutor: Executor,
+    private val maxEntries: Int,
+    private val collationVersion: String = currentCollationVersion(),
+) {
+    private val lock = Any()
+    @GuardedBy("lock")
+    private val entries =
+        object : LinkedHashMap<Key, Entry>(16, 0.75f, true) {
+            override fun removeEldestEntry(eldest: MutableMap.MutableEntry<Key, Entry>?): Boolean =
+                size > maxEntries
+        }
+    @GuardedBy("lock") private var isRead = false
+    /** Packages invalidated before the cache file is read, as (package name, user id) pairs. */
+    @GuardedBy("lock") private val pendingInvalidations = HashSet<Pair<String, Int>>()
+    @GuardedBy("lock") private var collator: Collator? = null
+    @GuardedBy("lock") private var collatorLocale: Locale? = null
+    private val isWriteScheduled = AtomicBoolean(false)
+
+    private val packageChangeCallback = PackageChangeCallback(::invalidate)
+
+    /**
+     * Starts listening to package changes to invalidate the cache; only the first call has an
+     * effect.
+     */
+    @MainThread
+    fun startListening(context: Context) = packageChangeCallback.register(context)
+
+    /** Returns the cached labels of the target, if they were loaded for the given locale. */
+    @WorkerThread
+    fun get(info: DisplayResolveInfo, locale: Locale): Entry? {
+        val key = info.cacheKey() ?: return null
+        val versionCode = info.versionCode()
+        val localeTag = locale.toLanguageTag()
+        return synchronized(lock) {
+            readIfNeeded()
+            entries[key]?.takeIf { it.versionCode == versionCode && it.localeTag == localeTag }
+        }
+    }
+
+    /**
+     * Returns the collation key of the target display label, if the label is cached for the given
+     * locale. Keys compare as unsigned byte sequences.
+     */
+    @WorkerThread
+    fun getCollationKey(info: DisplayResolveInfo, locale: Locale): ByteArray? {
+        val label = info.displayLabel?.toString() ?: return null
+        return get(info, locale)?.takeIf { it.label == label }?.collationKey
+    }
+
+    /** Caches the labels loaded for the target in the given locale. */
+    @WorkerThread
+    fun put(info: DisplayResolveInfo, locale: Locale, labelInfo: LabelInfo) {
+        val key = info.cacheKey() ?: return
+        val label = labelInfo.label?.toString()
+        synchronized(lock) {
+            readIfNeeded()
+            val collator =
+                this.collator?.takeIf { collatorLocale == locale }
+                    ?: Collator.getInstance(locale).also {
+                        this.collator = it
+                        collatorLocale = locale
+                    }
+            entries[key] =
+                Entry(
+                    info.versionCode(),
+                    locale.toLanguageTag(),
+                    label,
+                    labelInfo.subLabel?.toString(),
+                    collator.getCollationKey(label ?: "").toByteArray(),
+                )
+        }
+        scheduleWrite()
+    }
+
+    /** Drops the cached labels of the given package and user. */
+    fun invalidate(packageName: String, userHandle: UserHandle) {
+        val isChanged =
+            synchronized(lock) {
+                if (!isRead) {
+                    // Do not read the file on the caller thread, drop the entries once it is read
+                    pendingInvalidations.add(packageName to userHandle.identifier)
+                }
+                entries.keys.removeAll {
+                    it.userId == userHandle.identifier && it.packageName == packageName
+                }
+            }
+        if (isChanged) {
+            scheduleWrite()
+        }
+    }
+
+    @GuardedBy("lock")
+    private fun readIfNeeded() {
+        if (isRead) return
+        isRead = true
+        try {
+            DataInputStream(file.openRead().buffered()).use { input ->
+                if (input.readInt() != FILE_VERSION) return
+                // The whole file is replaced with the next write
+                if (input.readUTF() != collationVersion) return
+                repeat(input.readInt()) {
+                    val key =
+                        Key(input.readUTF(), input.readUTF(), input.readInt(), input.readInt())
+                    val entry =
+                        Entry(
+                            versionCode = input.readLong(),
+                            localeTag = input.readUTF(),
+                            label = input.readNullableUTF(),
+                            subLabel = input.readNullableUTF(),
+                            collationKey = ByteArray(input.readInt()).also { input.readFully(it) },
+                        )
+                    if ((key.packageName to key.userId) !in pendingInvalidations) {
+                        entries.putIfAbsent(key, entry)
+                    }
+                }
+            }
+        } catch (e: FileNotFoundException) {
+            // Nothing has been cached yet
+        } catch (e: IOException) {
+            Log.w(TAG, "Failed to read the cached labels", e)
+        } finally {
+            pendingInvalidations.clear()
+        }
+    }
+
+    private fun scheduleWrite() {
+        if (isWriteScheduled.compareAndSet(false, true)) {
+            writeExecutor.execute {
+                isWriteScheduled.set(false)
+                write()
+            }
+        }
+    }
+
+    @WorkerThread
+    private fun write() {
+        val snapshot = synchronized(lock) { entries.entries.map { it.key to it.value } }
+        val stream =
+            try {
+                file.startWrite()
+            } catch (e: IOException) {
+                Log.w(TAG, "Failed to write the cached labels", e)
+                return
+            }
+        try {
+            val output = DataOutputStream(stream.buffered())
+            output.writeInt(FILE_VERSION)
+            output.writeUTF(collationVersion)
+            output.writeInt(snapshot.size)
+            for ((key, entry) in snapshot) {
+                output.writeUTF(key.packageName)
+                output.writeUTF(key.className)
+                output.writeInt(key.labelRes)
+                output.writeInt(key.userId)
+                output.writeLong(entry.versionCode)
+                output.writeUTF(entry.localeTag)
+                output.writeNullableUTF(entry.label)
+                output.writeNullableUTF(entry.subLabel)
+                output.writeInt(entry.collationKey.size)
+                output.write(entry.collationKey)
+            }
+            output.flush()
+            file.finishWrite(stream)
+        } catch (e: IOException) {
+            Log.w(TAG, "Failed to write the cached labels", e)
+            file.failWrite(stream)
+        }
+    }
+
+    /** Cached labels of a target. */
+    class Entry(
+        internal val versionCode: Long,
+        internal val localeTag: String,
+        val label: String?,
+        val subLabel: String?,
+        val collationKey: ByteArray,
+    ) {
+        fun toLabelInfo() = LabelInfo(label, subLabel)
+    }
+
+    private data class Key(
+        val packageName: String,
+        val className: String,
+        val labelRes: Int,
+        val userId: Int,
+    )
+
+    companion object {
+        @Volatile private var instance: TargetLabelCache? = null
+
+        @JvmStatic
+        fun getInstance(context: Context): TargetLabelCache =
+            instance
+                ?: synchronized(this) {
+                    instance
+                        ?: TargetLabelCache(
+                                AtomicFile(File(context.applicationContext.cacheDir, FILE_NAME)),
+                                ProcessDispatchers.disk.serial(),
+                                MAX_ENTRIES,
+                            )
+                            .also { instance = it }
+                }
+
+        /**
+         * The system build and ICU versions: the collation keys may change with either of them, the
+         * latter being updatable separately from the system.
+         */
+        private fun currentCollationVersion(): String =
+            "${Build.FINGERPRINT}/${VersionInfo.ICU_VERSION}"
+
+        /**
+         * A target can only be cached if its label comes from the resources of its package:
+         * targets with an inline label already have it.
+         */
+        private fun DisplayResolveInfo.cacheKey(): Key? {
+            val activityInfo = resolveInfo.activityInfo ?: return null
+            if (activityInfo.applicationInfo == null || resolveInfo.nonLocalizedLabel != null) {
+                return null
+            }
+            return Key(
+                activityInfo.packageName,
+                activityInfo.name,
+                resolveInfo.labelRes,
+                resolveInfo.userHandle?.identifier ?: UserHandle.USER_NULL,
+            )
+        }
+
+        private fun DisplayResolveInfo.versionCode(): Long =
+            resolveInfo.activityInfo.applicationInfo.longVersionCode
+
+        private fun DataInputStream.readNullableUTF(): String? =
+            if (readBoolean()) readUTF() else null
+
+        private fun DataOutputStream.writeNullableUTF(value: String?) {
+            writeBoolean(value != null)
+            if (value != null) {
+                writeUTF(value)
+            }
+        }
+    }
+}
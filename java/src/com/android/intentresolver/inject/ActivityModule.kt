@@ -20,10 +20,13 @@ import android.app.Activity
 import androidx.lifecycle.Lifecycle
 import androidx.lifecycle.LifecycleOwner
 import androidx.lifecycle.lifecycleScope
+import com.android.intentresolver.concurrency.ActivityScopes
 import dagger.Module
 import dagger.Provides
 import dagger.hilt.InstallIn
 import dagger.hilt.android.components.ActivityComponent
+import dagger.hilt.android.scopes.ActivityScoped
+import kotlinx.coroutines.CoroutineDispatcher
 import kotlinx.coroutines.CoroutineScope
 
 @Module
@@ -43,4 +46,15 @@ object ActivityModule {
         check(activity is LifecycleOwner) { "activity must implement LifecycleOwner" }
         return activity.lifecycleScope
     }
+
+    /** The children of the activity scope that run on the process-wide dispatchers. */
+    @Provides
+    @ActivityScoped
+    fun activityScopes(
+        @ActivityOwned activityScope: CoroutineScope,
+        @UiCritical uiCriticalDispatcher: CoroutineDispatcher,
+        @Ipc ipcDispatcher: CoroutineDispatcher,
+        @Disk diskDispatcher: CoroutineDispatcher,
+    ): ActivityScopes =
+        ActivityScopes(activityScope, uiCriticalDispatcher, ipcDispatcher, diskDispatcher)
 }
@@ -16,10 +16,12 @@
 
 package com.android.intentresolver.inject
 
+import com.android.intentresolver.concurrency.ProcessDispatchers
 import dagger.Module
 import dagger.Provides
 import dagger.hilt.InstallIn
 import dagger.hilt.components.SingletonComponent
+import java.util.concurrent.Executor
 import javax.inject.Singleton
 import kotlinx.coroutines.CoroutineDispatcher
 import kotlinx.coroutines.CoroutineScope
@@ -39,5 +41,25 @@ object ConcurrencyModule {
     fun mainCoroutineScope(@Main mainDispatcher: CoroutineDispatcher) =
         CoroutineScope(SupervisorJob() + mainDispatcher)
 
-    @Provides @Background fun backgroundDispatcher(): CoroutineDispatcher = Dispatchers.IO
+    /** General blocking work, see [ProcessDispatchers.background]. */
+    @Provides
+    @Background
+    fun backgroundDispatcher(): CoroutineDispatcher = ProcessDispatchers.background.dispatcher
+
+    /** The work the UI is waiting for, see [ProcessDispatchers.uiCritical]. */
+    @Provides
+    @UiCritical
+    fun uiCriticalDispatcher(): CoroutineDispatcher = ProcessDispatchers.uiCritical.dispatcher
+
+    @Provides @UiCritical fun uiCriticalExecutor(): Executor = ProcessDispatchers.uiCritical
+
+    /** Binder calls, see [ProcessDispatchers.ipc]. */
+    @Provides @Ipc fun ipcDispatcher(): CoroutineDispatcher = ProcessDispatchers.ipc.dispatcher
+
+    @Provides @Ipc fun ipcExecutor(): Executor = ProcessDispatchers.ipc
+
+    /** File and database accesses, see [ProcessDispatchers.disk]. */
+    @Provides @Disk fun diskDispatcher(): CoroutineDispatcher = ProcessDispatchers.disk.dispatcher
+
+    @Provides @Disk fun diskExecutor(): Executor = ProcessDispatchers.disk
 }
@@ -37,3 +37,9 @@ annotation class ApplicationUser
 @Qualifier @MustBeDocumented @Retention(AnnotationRetention.RUNTIME) annotation class Default
 
 @Qualifier @MustBeDocumented @Retention(AnnotationRetention.RUNTIME) annotation class Main
+
+@Qualifier @MustBeDocumented @Retention(AnnotationRetention.RUNTIME) annotation class UiCritical
+
+@Qualifier @MustBeDocumented @Retention(AnnotationRetention.RUNTIME) annotation class Ipc
+
+@Qualifier @MustBeDocumented @Retention(AnnotationRetention.RUNTIME) annotation class Disk
@@ -71,4 +71,5 @@ interface EventLog {
     fun logSharesheetExpansionChanged(isCollapsed: Boolean)
     fun logSharesheetAppShareRankingTimeout()
     fun logSharesheetEmptyDirectShareRow()
+    fun logSharesheetAppRankingUpdated(topRowChanged: Boolean, applied: Boolean)
 }
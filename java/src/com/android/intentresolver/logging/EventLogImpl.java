@@ -273,6 +273,22 @@ public class EventLogImpl implements EventLog {
         log(SharesheetStandardEvent.SHARESHEET_EMPTY_DIRECT_SHARE_ROW, mInstanceId);
     }
 
+    /**
+     * Logs a UiEventReported event for the system sharesheet receiving the final ranking of the
+     * app targets shown from an early ranking: whether it changed the top row, or whether it came
+     * too late to be applied.
+     */
+    @Override
+    public void logSharesheetAppRankingUpdated(boolean topRowChanged, boolean applied) {
+        if (!applied) {
+            log(SharesheetStandardEvent.SHARESHEET_APP_RANKING_UPDATE_SKIPPED, mInstanceId);
+        } else if (topRowChanged) {
+            log(SharesheetStandardEvent.SHARESHEET_APP_RANKING_TOP_ROW_CHANGED, mInstanceId);
+        } else {
+            log(SharesheetStandardEvent.SHARESHEET_APP_RANKING_TOP_ROW_UNCHANGED, mInstanceId);
+        }
+    }
+
     /**
      * Logs a UiEventReported event for a given share activity
      * @param event
@@ -379,7 +395,13 @@ public class EventLogImpl implements EventLog {
         @UiEvent(doc = "Sharesheet app share ranking timed out.")
         SHARESHEET_APP_SHARE_RANKING_TIMEOUT(831),
         @UiEvent(doc = "Sharesheet empty direct share row.")
-        SHARESHEET_EMPTY_DIRECT_SHARE_ROW(828);
+        SHARESHEET_EMPTY_DIRECT_SHARE_ROW(828),
+        @UiEvent(doc = "Sharesheet app ranking was updated and the top row changed.")
+        SHARESHEET_APP_RANKING_TOP_ROW_CHANGED(1701),
+        @UiEvent(doc = "Sharesheet app ranking was updated and the top row did not change.")
+        SHARESHEET_APP_RANKING_TOP_ROW_UNCHANGED(1702),
+        @UiEvent(doc = "Sharesheet app ranking update came too late and was not applied.")
+        SHARESHEET_APP_RANKING_UPDATE_SKIPPED(1703);
 
         private final int mId;
         SharesheetStandardEvent(int id) {
@@ -27,9 +27,11 @@ import java.util.concurrent.atomic.AtomicLong
 private const val SECTION_LAUNCH_TO_SHORTCUT = "launch-to-shortcut"
 private const val SECTION_APP_PREDICTOR_PREFIX = "app-predictor-"
 private const val SECTION_APP_TARGET_PREFIX = "app-target-"
+private const val SECTION_PROVISIONAL_PREVIEW = "provisional-preview"
 
 object Tracer {
     private val launchToFirstShortcut = AtomicLong(-1L)
+    private val provisionalPreviewStart = AtomicLong(-1L)
     private val nextId = AtomicInteger(0)
     @GuardedBy("self") private val profileRecords = SparseArray<ProfileRecord>()
 
@@ -50,6 +52,32 @@ object Tracer {
         }
     }
 
+    /**
+     * Begin tracing the time the content preview is displayed with a provisional preview type, i.e.
+     * before the shared content metadata is read.
+     */
+    fun beginProvisionalPreviewSection() {
+        if (provisionalPreviewStart.compareAndSet(-1, elapsedTimeNow())) {
+            Trace.beginAsyncSection(SECTION_PROVISIONAL_PREVIEW, 0)
+        }
+    }
+
+    /**
+     * End provisional preview tracing, see [beginProvisionalPreviewSection].
+     *
+     * @return the time spent with the provisional preview type in milliseconds.
+     */
+    fun endProvisionalPreviewSection(): Long {
+        val time = elapsedTimeNow()
+        val startTime = provisionalPreviewStart.get()
+        return if (startTime >= 0 && provisionalPreviewStart.compareAndSet(startTime, -1L)) {
+            Trace.endAsyncSection(SECTION_PROVISIONAL_PREVIEW, 0)
+            time - startTime
+        } else {
+            -1L
+        }
+    }
+
     /**
      * Begin shortcuts request tracing. The logic is based on an assumption that each request for
      * shortcuts update is followed by at least one response. Note, that it is not always measure
@@ -37,8 +37,10 @@ import com.android.intentresolver.ResolverListController;
 import com.android.intentresolver.chooser.TargetInfo;
 import com.android.intentresolver.logging.EventLog;
 
+import java.text.CollationKey;
 import java.text.Collator;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Comparator;
 import java.util.HashMap;
 import java.util.List;
@@ -73,7 +75,17 @@ public abstract class AbstractResolverComparator implements Comparator<ResolvedC
     // predicting ranking scores.
     private static final int WATCHDOG_TIMEOUT_MILLIS = 500;
 
-    private final Comparator<ResolveInfo> mAzComparator;
+    // Layout of the keys computed by computeRankingKeys(), from the highest bits.
+    private static final int TIER_SHIFT = 61;
+    private static final long TIER_PROMOTED = 0;
+    private static final long TIER_REGULAR = 1;
+    private static final long TIER_OTHER_USER = 2;
+    private static final int NOT_SPECIFIC_SHIFT = 60;
+    private static final int NOT_PINNED_SHIFT = 59;
+    private static final int RANK_SHIFT = 32;
+    private static final long RANKING_KEY_INDEX_MASK = 0xFFFFFFFFL;
+
+    private final AzInfoComparator mAzComparator;
     private EventLog mEventLog;
 
     protected final Handler mHandler = new Handler(Looper.getMainLooper()) {
@@ -226,6 +238,197 @@ public abstract class AbstractResolverComparator implements Comparator<ResolvedC
         return compare(lhs, rhs);
     }
 
+    /**
+     * Sorts {@code targets} in the order {@code Collections.sort(targets, this)} would produce,
+     * after computing a packed sort key per target with {@link #computeRankingKeys(List)}, so that
+     * the special cases of {@link #compare(ResolvedComponentInfo, ResolvedComponentInfo)} are
+     * evaluated once per target instead of once per comparison.
+     */
+    public final void sortByRankingKeys(List<ResolvedComponentInfo> targets) {
+        final long[] keys = computeRankingKeys(targets);
+        Arrays.sort(keys);
+        final ResolvedComponentInfo[] original =
+                targets.toArray(new ResolvedComponentInfo[targets.size()]);
+        for (int i = 0; i < keys.length; i++) {
+            targets.set(i, original[(int) (keys[i] & RANKING_KEY_INDEX_MASK)]);
+        }
+    }
+
+    /**
+     * Puts the top {@code k} targets at the head of {@code targets}, in the order {@link
+     * #sortByRankingKeys(List)} would produce, and the other ones in their original order in its
+     * tail. The top targets are selected with a bounded heap over the keys of {@link
+     * #computeRankingKeys(List)}, rather than by sorting all of them.
+     *
+     * @param k the number of top targets, between 1 and {@code targets.size()}.
+     */
+    public final void selectTopKByRankingKeys(List<ResolvedComponentInfo> targets, int k) {
+        final long[] keys = computeRankingKeys(targets);
+        // Max-heap of the k lowest keys seen so far.
+        final long[] heap = Arrays.copyOf(keys, k);
+        for (int i = k / 2 - 1; i >= 0; i--) {
+            siftDown(heap, i);
+        }
+        for (int i = k; i < keys.length; i++) {
+            if (keys[i] < heap[0]) {
+                heap[0] = keys[i];
+                siftDown(heap, 0);
+            }
+        }
+        Arrays.sort(heap);
+        final ResolvedComponentInfo[] original =
+                targets.toArray(new ResolvedComponentInfo[targets.size()]);
+        final boolean[] selected = new boolean[original.length];
+        for (int i = 0; i < k; i++) {
+            final int index = (int) (heap[i] & RANKING_KEY_INDEX_MASK);
+            selected[index] = true;
+            targets.set(i, original[index]);
+        }
+        int next = k;
+        for (int i = 0; i < original.length; i++) {
+            if (!selected[i]) {
+                targets.set(next++, original[i]);
+            }
+        }
+    }
+
+    private static void siftDown(long[] heap, int i) {
+        while (true) {
+            int largest = i;
+            final int left = 2 * i + 1;
+            final int right = left + 1;
+            if (left < heap.length && heap[left] > heap[largest]) {
+                largest = left;
+            }
+            if (right < heap.length && heap[right] > heap[largest]) {
+                largest = right;
+            }
+            if (largest == i) {
+                return;
+            }
+            final long swap = heap[i];
+            heap[i] = heap[largest];
+            heap[largest] = swap;
+            i = largest;
+        }
+    }
+
+    /**
+     * Computes a sort key per target, in the order of {@code targets}: ordering the targets by
+     * ascending key is the order of {@link #compare(ResolvedComponentInfo, ResolvedComponentInfo)},
+     * with the ties kept in their original order. From the highest bits, a key packs the tier of
+     * the target (promoted, regular or targeted to another user), whether it is a non-specific
+     * URI match, whether it is unpinned, its rank among the pinned targets (by collation) or the
+     * unpinned ones (by the model), and its index. If the model scores every unpinned target with
+     * {@link #getRankingScore(ResolveInfo)}, they are ranked by sorting their scores, and only the
+     * ones with the same score are compared with {@link #compare(ResolveInfo, ResolveInfo)}.
+     *
+     * <p>Must be called after {@link #compute(List)} has completed, like any other comparison.
+     */
+    public final long[] computeRankingKeys(List<ResolvedComponentInfo> targets) {
+        final int size = targets.size();
+        final long[] keys = new long[size];
+        final List<Integer> pinned = new ArrayList<>();
+        final List<Integer> unpinned = new ArrayList<>();
+        for (int i = 0; i < size; i++) {
+            final ResolvedComponentInfo target = targets.get(i);
+            final ResolveInfo info = target.getResolveInfoAt(0);
+            long key = i;
+            if (info.targetUserId != UserHandle.USER_CURRENT) {
+                key |= TIER_OTHER_USER << TIER_SHIFT;
+            } else if (mPromoteToFirst != null
+                    && mPromoteToFirst.equals(info.activityInfo.getComponentName())) {
+                key |= TIER_PROMOTED << TIER_SHIFT;
+            } else {
+                key |= TIER_REGULAR << TIER_SHIFT;
+                if (mHttp && !ResolverActivity.isSpecificUriMatch(info.match)) {
+                    key |= 1L << NOT_SPECIFIC_SHIFT;
+                }
+                if (target.isPinned()) {
+                    pinned.add(i);
+                } else {
+                    key |= 1L << NOT_PINNED_SHIFT;
+                    unpinned.add(i);
+                }
+            }
+            keys[i] = key;
+        }
+        if (!pinned.isEmpty()) {
+            // Both pinned targets are compared alphabetically, collate each of them once.
+            final CollationKey[] collationKeys = new CollationKey[size];
+            for (int i : pinned) {
+                collationKeys[i] =
+                        mAzComparator.getCollationKey(targets.get(i).getResolveInfoAt(0));
+            }
+            addRanks(
+                    keys,
+                    pinned,
+                    (lhs, rhs) -> collationKeys[lhs].compareTo(collationKeys[rhs]),
+                    0);
+        }
+        final Comparator<Integer> modelComparator = (lhs, rhs) -> compare(
+                targets.get(lhs).getResolveInfoAt(0), targets.get(rhs).getResolveInfoAt(0));
+        final long[] scoreKeys = computeScoreKeys(targets, unpinned);
+        if (scoreKeys == null) {
+            addRanks(keys, unpinned, modelComparator, 0);
+            return keys;
+        }
+        // Ascending score keys are in descending score order, only compare the tied targets.
+        Arrays.sort(scoreKeys);
+        final List<Integer> tied = new ArrayList<>();
+        long rank = 0;
+        int i = 0;
+        while (i < scoreKeys.length) {
+            final long score = scoreKeys[i] >>> 32;
+            tied.clear();
+            while (i < scoreKeys.length && (scoreKeys[i] >>> 32) == score) {
+                tied.add((int) (scoreKeys[i++] & RANKING_KEY_INDEX_MASK));
+            }
+            rank = addRanks(keys, tied, modelComparator, rank);
+        }
+        return keys;
+    }
+
+    /**
+     * Packs the score of each of the {@code indices} of {@code targets} negated in the high bits,
+     * and the index in the low bits, or returns {@code null} if the model can't score one of them.
+     */
+    @Nullable
+    private long[] computeScoreKeys(List<ResolvedComponentInfo> targets, List<Integer> indices) {
+        final long[] scoreKeys = new long[indices.size()];
+        for (int i = 0; i < scoreKeys.length; i++) {
+            final int index = indices.get(i);
+            final float score = getRankingScore(targets.get(index).getResolveInfoAt(0));
+            if (Float.isNaN(score)) {
+                return null;
+            }
+            // Map the float bits to an int with the order of Float.compare(), then invert it.
+            final int bits = Float.floatToIntBits(score);
+            final int negated = ~(bits ^ ((bits >> 31) & Integer.MAX_VALUE));
+            scoreKeys[i] = ((long) negated << 32) | index;
+        }
+        return scoreKeys;
+    }
+
+    /**
+     * Sorts {@code indices} by {@code comparator} and adds their rank to their keys, starting from
+     * {@code firstRank}.
+     *
+     * @return the rank following the last one added.
+     */
+    private static long addRanks(
+            long[] keys, List<Integer> indices, Comparator<Integer> comparator, long firstRank) {
+        indices.sort(comparator);
+        long rank = firstRank;
+        for (int i = 0; i < indices.size(); i++) {
+            if (i > 0 && comparator.compare(indices.get(i - 1), indices.get(i)) != 0) {
+                rank++;
+            }
+            keys[indices.get(i)] |= rank << RANK_SHIFT;
+        }
+        return rank + 1;
+    }
+
     /**
      * Delegated to when used as a {@link Comparator<ResolvedComponentInfo>} if there is not a
      * special case. The {@link ResolveInfo ResolveInfos} are the first {@link ResolveInfo} in
@@ -234,6 +437,15 @@ public abstract class AbstractResolverComparator implements Comparator<ResolvedC
      */
     public abstract int compare(ResolveInfo lhs, ResolveInfo rhs);
 
+    /**
+     * Returns the score the model ranks {@code target} by, higher scores first, or {@link
+     * Float#NaN} if it can't score it. Must be consistent with {@link #compare(ResolveInfo,
+     * ResolveInfo)}: a target with a higher score must compare lower.
+     */
+    protected float getRankingScore(ResolveInfo target) {
+        return Float.NaN;
+    }
+
     /**
      * Computes features for each target. This will be called before calls to {@link
      * #getScore(TargetInfo)} or {@link #compare(ResolveInfo, ResolveInfo)}, in order to prepare the
@@ -324,6 +536,11 @@ public abstract class AbstractResolverComparator implements Comparator<ResolvedC
             }
             return mCollator.compare(lhsp.activityInfo.packageName, rhsp.activityInfo.packageName);
         }
+
+        /** @return a key ordering {@code info} the same way as {@link #compare}. */
+        CollationKey getCollationKey(ResolveInfo info) {
+            return mCollator.getCollationKey(info.activityInfo.packageName);
+        }
     }
 
 }
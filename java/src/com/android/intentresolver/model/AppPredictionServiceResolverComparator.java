@@ -44,7 +44,7 @@ import java.util.Comparator;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.concurrent.Executors;
+import java.util.concurrent.Executor;
 
 /**
  * Uses an {@link AppPredictor} to sort Resolver targets. If the AppPredictionService appears to be
@@ -62,6 +62,10 @@ public class AppPredictionServiceResolverComparator extends AbstractResolverComp
     private final UserHandle mUser;
     private final Intent mIntent;
     private final String mReferrerPackage;
+    private final Executor mCallbackExecutor;
+    // The callback of the in-flight sort request, if any.
+    @Nullable
+    private volatile ScopedAppTargetListCallback mSortCallback;
     // If this is non-null (and this is not destroyed), it means APS is disabled and we should fall
     // back to using the ResolverRankerService.
     // TODO: responsibility for this fallback behavior can live outside of the AppPrediction client.
@@ -75,13 +79,15 @@ public class AppPredictionServiceResolverComparator extends AbstractResolverComp
             AppPredictor appPredictor,
             UserHandle user,
             EventLog eventLog,
-            @Nullable ComponentName promoteToFirst) {
+            @Nullable ComponentName promoteToFirst,
+            Executor callbackExecutor) {
         super(context, intent, Lists.newArrayList(user), promoteToFirst);
         mContext = context;
         mIntent = intent;
         mAppPredictor = appPredictor;
         mUser = user;
         mReferrerPackage = referrerPackage;
+        mCallbackExecutor = callbackExecutor;
         setEventLog(eventLog);
         mComparatorModel = buildUpdatedModel();
     }
@@ -91,6 +97,11 @@ public class AppPredictionServiceResolverComparator extends AbstractResolverComp
         return mComparatorModel.getComparator().compare(lhs, rhs);
     }
 
+    @Override
+    protected float getRankingScore(ResolveInfo target) {
+        return mComparatorModel.getRankingScore(target);
+    }
+
     @Override
     public void doCompute(List<ResolvedComponentInfo> targets) {
         if (targets.isEmpty()) {
@@ -107,17 +118,16 @@ public class AppPredictionServiceResolverComparator extends AbstractResolverComp
                     .setClassName(target.name.getClassName())
                     .build());
         }
+        cancelSortRequest();
+        ScopedAppTargetListCallback callback = new ScopedAppTargetListCallback(
+                mContext,
+                sortedAppTargets -> {
+                    onAppTargetsSorted(targets, sortedAppTargets);
+                    return kotlin.Unit.INSTANCE;
+                });
+        mSortCallback = callback;
         try {
-            mAppPredictor.sortTargets(
-                    appTargets,
-                    Executors.newSingleThreadExecutor(),
-                    new ScopedAppTargetListCallback(
-                            mContext,
-                            sortedAppTargets -> {
-                                onAppTargetsSorted(targets, sortedAppTargets);
-                                return kotlin.Unit.INSTANCE;
-                            }).toConsumer()
-            );
+            mAppPredictor.sortTargets(appTargets, mCallbackExecutor, callback.toConsumer());
         } catch (IllegalStateException e) {
             Log.w(TAG, "Couldn't sort targets with AppPredictionService", e);
         }
@@ -201,8 +211,18 @@ public class AppPredictionServiceResolverComparator extends AbstractResolverComp
         mComparatorModel.notifyOnTargetSelected(targetInfo);
     }
 
+    /** Drops the result of the in-flight sort request, if any. */
+    private void cancelSortRequest() {
+        ScopedAppTargetListCallback callback = mSortCallback;
+        if (callback != null) {
+            callback.cancel();
+            mSortCallback = null;
+        }
+    }
+
     @Override
     public void destroy() {
+        cancelSortRequest();
         if (mResolverRankerService != null) {
             mResolverRankerService.destroy();
             mResolverRankerService = null;
@@ -270,6 +290,19 @@ public class AppPredictionServiceResolverComparator extends AbstractResolverComp
             };
         }
 
+        /**
+         * Returns the rank of {@code info} negated, or {@link Float#POSITIVE_INFINITY} for the
+         * components without a rank, which the comparator puts first.
+         */
+        float getRankingScore(ResolveInfo info) {
+            if (mResolverRankerService != null) {
+                return mResolverRankerService.getRankingScore(info);
+            }
+            Integer rank = mTargetRanks.get(new ComponentName(info.activityInfo.packageName,
+                    info.activityInfo.name));
+            return rank == null ? Float.POSITIVE_INFINITY : -rank;
+        }
+
         @Override
         public float getScore(TargetInfo targetInfo) {
             if (mResolverRankerService != null) {
@@ -78,6 +78,8 @@ public class ResolverRankerServiceResolverComparator extends AbstractResolverCom
 
     private final Collator mCollator;
     private final Map<UserHandle, Map<String, UsageStats>> mStatsPerUser;
+    @Nullable
+    private final UsageStatsCache mUsageStatsCache;
     private final long mCurrentTime;
     private final long mSinceTime;
     private final Map<UserHandle, Map<ComponentName, ResolverTarget>> mTargetsDictPerUser;
@@ -120,6 +122,25 @@ public class ResolverRankerServiceResolverComparator extends AbstractResolverCom
     public ResolverRankerServiceResolverComparator(Context launchedFromContext, Intent intent,
             String referrerPackage, Runnable afterCompute, EventLog eventLog,
             List<UserHandle> targetUserSpaceList, @Nullable ComponentName promoteToFirst) {
+        this(launchedFromContext, intent, referrerPackage, afterCompute, eventLog,
+                targetUserSpaceList, promoteToFirst, null);
+    }
+
+    /**
+     * Constructor to initialize the comparator.
+     * @param launchedFromContext the activity calling this comparator
+     * @param intent original intent
+     * @param targetUserSpaceList the userSpace(s) used by the comparator for fetching activity
+     *                            stats and recording activity selection. The latter could be
+     *                            different from the userSpace provided by context.
+     * @param usageStatsCache if not null, activity stats are read from the cache (and the cache is
+     *                        refreshed in the background) instead of being aggregated by the
+     *                        comparator.
+     */
+    public ResolverRankerServiceResolverComparator(Context launchedFromContext, Intent intent,
+            String referrerPackage, Runnable afterCompute, EventLog eventLog,
+            List<UserHandle> targetUserSpaceList, @Nullable ComponentName promoteToFirst,
+            @Nullable UsageStatsCache usageStatsCache) {
         super(launchedFromContext, intent, targetUserSpaceList, promoteToFirst);
         mCollator = Collator.getInstance(
                 launchedFromContext.getResources().getConfiguration().locale);
@@ -128,12 +149,17 @@ public class ResolverRankerServiceResolverComparator extends AbstractResolverCom
 
         mCurrentTime = System.currentTimeMillis();
         mSinceTime = mCurrentTime - USAGE_STATS_PERIOD;
+        mUsageStatsCache = usageStatsCache;
         mStatsPerUser = new HashMap<>();
         mTargetsDictPerUser = new HashMap<>();
         for (UserHandle user : targetUserSpaceList) {
-            mStatsPerUser.put(
-                    user,
-                    mUsmMap.get(user).queryAndAggregateUsageStats(mSinceTime, mCurrentTime));
+            if (mUsageStatsCache == null) {
+                mStatsPerUser.put(
+                        user,
+                        mUsmMap.get(user).queryAndAggregateUsageStats(mSinceTime, mCurrentTime));
+            } else {
+                mUsageStatsCache.refresh(user, mUsmMap.get(user));
+            }
             mTargetsDictPerUser.put(user, new LinkedHashMap<>());
         }
         mAction = intent.getAction();
@@ -179,6 +205,11 @@ public class ResolverRankerServiceResolverComparator extends AbstractResolverCom
     @Override
     public void doCompute(List<ResolvedComponentInfo> targets) {
         final long recentSinceTime = mCurrentTime - RECENCY_TIME_PERIOD;
+        if (mUsageStatsCache != null) {
+            for (UserHandle user : mTargetsDictPerUser.keySet()) {
+                mStatsPerUser.put(user, mUsageStatsCache.getStats(user));
+            }
+        }
 
         float mostRecencyScore = 1.0f;
         float mostTimeSpentScore = 1.0f;
@@ -284,6 +315,11 @@ public class ResolverRankerServiceResolverComparator extends AbstractResolverCom
         return mComparatorModel.getComparator().compare(lhs, rhs);
     }
 
+    @Override
+    protected float getRankingScore(ResolveInfo target) {
+        return mComparatorModel.getRankingScore(target);
+    }
+
     @Override
     public float getScore(TargetInfo targetInfo) {
         return mComparatorModel.getScore(targetInfo);
@@ -607,6 +643,16 @@ public class ResolverRankerServiceResolverComparator extends AbstractResolverCom
             };
         }
 
+        /**
+         * Returns the select probability of {@code info}, which the comparator orders by before
+         * falling back to the labels, or {@link Float#NaN} if it has no {@link ResolverTarget}.
+         */
+        float getRankingScore(ResolveInfo info) {
+            final ResolverTarget target =
+                    getActivityResolverTargetForUser(info.activityInfo, info.userHandle);
+            return target != null ? target.getSelectProbability() : Float.NaN;
+        }
+
         @Override
         public float getScore(TargetInfo targetInfo) {
             ResolverTarget target = getResolverTargetForUserAndComponent(
@@ -0,0 +1,284 @@
+/*
+ * Copyright (C) 2024 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.intentresolver.model;
+
+import android.app.usage.UsageStats;
+import android.app.usage.UsageStatsManager;
+import android.os.UserHandle;
+import android.util.ArrayMap;
+import android.util.Log;
+
+import androidx.annotation.GuardedBy;
+import androidx.annotation.VisibleForTesting;
+
+import com.android.intentresolver.concurrency.ProcessDispatchers;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.LongSupplier;
+
+/**
+ * A process-level cache of the per-package usage stats of the last {@link #PERIOD_MILLIS}, per
+ * user. The stats are kept in the daily buckets reported by {@link UsageStatsManager}: a refresh
+ * only queries the buckets that overlap the time passed since the previous refresh, replaces them
+ * in the cache, drops the buckets that fell out of the period and re-aggregates the rest. Refreshes
+ * run in the background; readers get the last aggregated snapshot.
+ */
+public class UsageStatsCache {
+    private static final String TAG = "UsageStatsCache";
+
+    // One week
+    @VisibleForTesting
+    static final long PERIOD_MILLIS = 1000 * 60 * 60 * 24 * 7;
+
+    // How long a reader waits for a refresh in progress before falling back to the previous
+    // snapshot.
+    private static final long REFRESH_WAIT_TIMEOUT_MILLIS = 100;
+
+    // How long a reader waits for the first refresh, which may be queued behind other work, before
+    // querying the stats itself.
+    @VisibleForTesting
+    static final long FIRST_REFRESH_WAIT_TIMEOUT_MILLIS = 200;
+
+    private static final UsageStatsCache sInstance =
+            new UsageStatsCache(ProcessDispatchers.ipc.serial(), System::currentTimeMillis);
+
+    private final Executor mExecutor;
+    private final LongSupplier mClock;
+    private final Object mLock = new Object();
+    @GuardedBy("mLock")
+    private final Map<UserHandle, UserStats> mUserStats = new HashMap<>();
+
+    public static UsageStatsCache getInstance() {
+        return sInstance;
+    }
+
+    @VisibleForTesting
+    UsageStatsCache(Executor executor, LongSupplier clock) {
+        mExecutor = executor;
+        mClock = clock;
+    }
+
+    /**
+     * Starts a background refresh of the user's stats, unless one is already in progress.
+     */
+    public void refresh(UserHandle user, UsageStatsManager usageStatsManager) {
+        refresh(
+                user,
+                (begin, end) -> usageStatsManager.queryUsageStats(
+                        UsageStatsManager.INTERVAL_DAILY, begin, end));
+    }
+
+    @VisibleForTesting
+    void refresh(UserHandle user, BucketQuery query) {
+        final UserStats userStats;
+        final CompletableFuture<Void> refresh = new CompletableFuture<>();
+        synchronized (mLock) {
+            userStats = mUserStats.computeIfAbsent(user, u -> new UserStats());
+            if (userStats.mRefresh != null && !userStats.mRefresh.isDone()) {
+                return;
+            }
+            userStats.mRefresh = refresh;
+            userStats.mQuery = query;
+        }
+        mExecutor.execute(() -> {
+            try {
+                userStats.update(query, mClock.getAsLong());
+            } catch (Exception e) {
+                Log.e(TAG, "Failed to refresh usage stats of " + user, e);
+            } finally {
+                refresh.complete(null);
+            }
+        });
+    }
+
+    /**
+     * Returns the aggregated stats of the user by package name. Waits for a refresh in progress,
+     * if any: for at most {@link #REFRESH_WAIT_TIMEOUT_MILLIS} if the user's stats have been read
+     * before, falling back to the previous snapshot, or for at most
+     * {@link #FIRST_REFRESH_WAIT_TIMEOUT_MILLIS} otherwise, falling back to querying the stats on
+     * the caller thread. Returns an empty map if the stats were never refreshed.
+     */
+    public Map<String, UsageStats> getStats(UserHandle user) {
+        final UserStats userStats;
+        final CompletableFuture<Void> refresh;
+        final BucketQuery query;
+        synchronized (mLock) {
+            userStats = mUserStats.get(user);
+            if (userStats == null) {
+                return Collections.emptyMap();
+            }
+            refresh = userStats.mRefresh;
+            query = userStats.mQuery;
+        }
+        if (refresh != null && !refresh.isDone()) {
+            final boolean hasSnapshot = userStats.mSnapshot != null;
+            try {
+                if (hasSnapshot) {
+                    refresh.get(REFRESH_WAIT_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+                } else {
+                    refresh.get(FIRST_REFRESH_WAIT_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+                }
+            } catch (TimeoutException e) {
+                if (!hasSnapshot) {
+                    Log.w(TAG, "Usage stats refresh is taking long, querying the stats directly");
+                    return userStats.query(query, mClock.getAsLong());
+                }
+                Log.w(TAG, "Usage stats refresh is taking long, using the previous snapshot");
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (ExecutionException e) {
+                // The refresh is never completed exceptionally
+            }
+        }
+        final Map<String, UsageStats> snapshot = userStats.mSnapshot;
+        return snapshot == null ? Collections.emptyMap() : snapshot;
+    }
+
+    /** Drops the cached stats of all users. */
+    public void clear() {
+        synchronized (mLock) {
+            mUserStats.clear();
+        }
+    }
+
+    @VisibleForTesting
+    interface BucketQuery {
+        List<UsageStats> query(long beginTime, long endTime);
+    }
+
+    private static class UserStats {
+        // Only accessed by the refresh, refreshes are not run concurrently.
+        private final Map<Long, Map<String, UsageStats>> mBuckets = new HashMap<>();
+        private long mLastRefreshTime;
+
+        private volatile Map<String, UsageStats> mSnapshot;
+        // Guarded by UsageStatsCache.mLock
+        private CompletableFuture<Void> mRefresh;
+        // Guarded by UsageStatsCache.mLock
+        private BucketQuery mQuery;
+
+        void update(BucketQuery query, long now) {
+            final long sinceTime = now - PERIOD_MILLIS;
+            final List<UsageStats> delta =
+                    query.query(Math.max(mLastRefreshTime, sinceTime), now);
+            mLastRefreshTime = now;
+            addToBuckets(mBuckets, delta);
+            Iterator<Map<String, UsageStats>> iterator = mBuckets.values().iterator();
+            while (iterator.hasNext()) {
+                if (getEndTime(iterator.next()) < sinceTime) {
+                    iterator.remove();
+                }
+            }
+            mSnapshot = aggregate(mBuckets.values());
+        }
+
+        /**
+         * Queries and aggregates the stats of the whole period, without touching the buckets of
+         * the refreshes. The result is kept as the snapshot until the refresh replaces it.
+         */
+        Map<String, UsageStats> query(BucketQuery query, long now) {
+            final Map<Long, Map<String, UsageStats>> buckets = new HashMap<>();
+            addToBuckets(buckets, query.query(now - PERIOD_MILLIS, now));
+            final Map<String, UsageStats> result = aggregate(buckets.values());
+            if (mSnapshot == null) {
+                mSnapshot = result;
+            }
+            return result;
+        }
+
+        private static void addToBuckets(
+                Map<Long, Map<String, UsageStats>> buckets, List<UsageStats> stats) {
+            if (stats == null) {
+                return;
+            }
+            for (UsageStats item : stats) {
+                buckets.computeIfAbsent(item.getFirstTimeStamp(), t -> new HashMap<>())
+                        .put(item.getPackageName(), item);
+            }
+        }
+
+        private static long getEndTime(Map<String, UsageStats> bucket) {
+            long endTime = 0;
+            for (UsageStats stats : bucket.values()) {
+                endTime = Math.max(endTime, stats.getLastTimeStamp());
+            }
+            return endTime;
+        }
+
+        private static Map<String, UsageStats> aggregate(
+                Iterable<Map<String, UsageStats>> buckets) {
+            final Map<String, UsageStats> result = new HashMap<>();
+            for (Map<String, UsageStats> bucket : buckets) {
+                for (UsageStats stats : bucket.values()) {
+                    UsageStats total = result.get(stats.getPackageName());
+                    if (total == null) {
+                        total = new UsageStats();
+                        total.mPackageName = stats.getPackageName();
+                        total.mBeginTimeStamp = stats.getFirstTimeStamp();
+                        result.put(total.mPackageName, total);
+                    }
+                    add(total, stats);
+                }
+            }
+            return Collections.unmodifiableMap(result);
+        }
+
+        /**
+         * Adds {@code stats} to {@code total}. Unlike {@link UsageStats#add}, never shares the
+         * chooser count maps between the two, so the cached buckets stay intact.
+         */
+        private static void add(UsageStats total, UsageStats stats) {
+            total.mBeginTimeStamp = Math.min(total.mBeginTimeStamp, stats.getFirstTimeStamp());
+            total.mEndTimeStamp = Math.max(total.mEndTimeStamp, stats.getLastTimeStamp());
+            total.mLastTimeUsed = Math.max(total.mLastTimeUsed, stats.getLastTimeUsed());
+            total.mTotalTimeInForeground += stats.getTotalTimeInForeground();
+            total.mLaunchCount += stats.mLaunchCount;
+            if (stats.mChooserCounts == null) {
+                return;
+            }
+            if (total.mChooserCounts == null) {
+                total.mChooserCounts = new ArrayMap<>();
+            }
+            for (int i = 0; i < stats.mChooserCounts.size(); i++) {
+                final ArrayMap<String, Integer> counts = stats.mChooserCounts.valueAt(i);
+                if (counts == null) {
+                    continue;
+                }
+                ArrayMap<String, Integer> totalCounts =
+                        total.mChooserCounts.get(stats.mChooserCounts.keyAt(i));
+                if (totalCounts == null) {
+                    totalCounts = new ArrayMap<>();
+                    total.mChooserCounts.put(stats.mChooserCounts.keyAt(i), totalCounts);
+                }
+                for (int j = 0; j < counts.size(); j++) {
+                    totalCounts.put(
+                            counts.keyAt(j),
+                            totalCounts.getOrDefault(counts.keyAt(j), 0) + counts.valueAt(j));
+                }
+            }
+        }
+    }
+}
@@ -46,6 +46,11 @@ class ScopedAppTargetListCallback(
         scope?.launch { awaitCancellation() }?.invokeOnCompletion { callbackRef = null }
     }
 
+    /** Drops the reference to the callback, e.g. when the request it was made for is abandoned. */
+    fun cancel() {
+        callbackRef = null
+    }
+
     private fun notifyCallback(result: List<AppTarget>) {
         callbackRef?.invoke(result)
     }
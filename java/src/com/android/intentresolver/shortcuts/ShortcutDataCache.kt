@@ -0,0 +1,126 @@
+/*
+ * Copyright (C) 2024 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.intentresolver.shortcuts
+
+import android.content.Context
+import android.content.IntentFilter
+import android.content.pm.LauncherApps
+import android.content.pm.ShortcutInfo
+import android.os.Handler
+import android.os.Looper
+import android.os.UserHandle
+import android.util.Log
+import androidx.annotation.GuardedBy
+import androidx.annotation.MainThread
+import androidx.annotation.VisibleForTesting
+import java.util.concurrent.atomic.AtomicBoolean
+
+private const val TAG = "ShortcutDataCache"
+private const val MAX_ENTRIES = 8
+
+/**
+ * A process-level cache of the last loaded shortcuts per user profile and share target intent
+ * filter. [ShortcutLoader] uses it to deliver provisional results right away, while the fresh
+ * shortcuts are being loaded. All entries of a user are dropped on any package or shortcut change
+ * for the user (see [startListening]).
+ */
+class ShortcutDataCache @VisibleForTesting constructor(private val maxEntries: Int) {
+    private val lock = Any()
+    @GuardedBy("lock")
+    private val entries =
+        object : LinkedHashMap<Key, ShortcutLoader.ShortcutData>(16, 0.75f, true) {
+            override fun removeEldestEntry(
+                eldest: MutableMap.MutableEntry<Key, ShortcutLoader.ShortcutData>?
+            ): Boolean = size > maxEntries
+        }
+    private val isListening = AtomicBoolean(false)
+
+    private val launcherAppsCallback =
+        object : LauncherApps.Callback() {
+            override fun onPackageRemoved(packageName: String, user: UserHandle) =
+                invalidate(user)
+
+            override fun onPackageAdded(packageName: String, user: UserHandle) = invalidate(user)
+
+            override fun onPackageChanged(packageName: String, user: UserHandle) =
+                invalidate(user)
+
+            override fun onPackagesAvailable(
+                packageNames: Array<out String>,
+                user: UserHandle,
+                replacing: Boolean
+            ) = invalidate(user)
+
+            override fun onPackagesUnavailable(
+                packageNames: Array<out String>,
+                user: UserHandle,
+                replacing: Boolean
+            ) = invalidate(user)
+
+            override fun onShortcutsChanged(
+                packageName: String,
+                shortcuts: MutableList<ShortcutInfo>,
+                user: UserHandle
+            ) = invalidate(user)
+        }
+
+    /**
+     * Starts listening to package and shortcut changes to invalidate the cache; only the first call
+     * has an effect.
+     */
+    @MainThread
+    fun startListening(context: Context) {
+        if (!isListening.compareAndSet(false, true)) return
+        runCatching {
+                context.applicationContext
+                    .getSystemService(LauncherApps::class.java)
+                    ?.registerCallback(launcherAppsCallback, Handler(Looper.getMainLooper()))
+            }
+            .onFailure { Log.w(TAG, "Failed to listen to package and shortcut changes", it) }
+    }
+
+    internal fun get(userHandle: UserHandle, filter: IntentFilter): ShortcutLoader.ShortcutData? =
+        synchronized(lock) { entries[Key(userHandle, filter.signature)] }
+
+    internal fun put(
+        userHandle: UserHandle,
+        filter: IntentFilter,
+        data: ShortcutLoader.ShortcutData
+    ) {
+        synchronized(lock) { entries[Key(userHandle, filter.signature)] = data }
+    }
+
+    /** Drops all cached shortcuts of the given user. */
+    fun invalidate(userHandle: UserHandle) {
+        synchronized(lock) { entries.keys.removeAll { it.userHandle == userHandle } }
+    }
+
+    private data class Key(val userHandle: UserHandle, val filterSignature: String)
+
+    companion object {
+        @JvmStatic val instance = ShortcutDataCache(MAX_ENTRIES)
+    }
+}
+
+/** A string that is equal for the filters that match the same intents. */
+private val IntentFilter.signature: String
+    get() = buildString {
+        append(List(countActions(), this::getAction).sorted())
+        append(List(countCategories(), this::getCategory).sorted())
+        append(List(countDataTypes(), this::getDataType).sorted())
+        append(List(countDataSchemes(), this::getDataScheme).sorted())
+    }
@@ -36,13 +36,13 @@ import androidx.annotation.OpenForTesting
 import androidx.annotation.VisibleForTesting
 import androidx.annotation.WorkerThread
 import com.android.intentresolver.chooser.DisplayResolveInfo
+import com.android.intentresolver.concurrency.ProcessDispatchers
 import com.android.intentresolver.measurements.Tracer
 import com.android.intentresolver.measurements.runTracing
 import java.util.concurrent.Executor
 import java.util.function.Consumer
 import kotlinx.coroutines.CoroutineDispatcher
 import kotlinx.coroutines.CoroutineScope
-import kotlinx.coroutines.Dispatchers
 import kotlinx.coroutines.asExecutor
 import kotlinx.coroutines.channels.BufferOverflow
 import kotlinx.coroutines.flow.MutableSharedFlow
@@ -71,7 +71,8 @@ constructor(
     private val isPersonalProfile: Boolean,
     private val targetIntentFilter: IntentFilter?,
     private val dispatcher: CoroutineDispatcher,
-    private val callback: Consumer<Result>
+    private val callback: Consumer<Result>,
+    private val shortcutCache: ShortcutDataCache? = null,
 ) {
     private val shortcutToChooserTargetConverter = ShortcutToChooserTargetConverter()
     private val userManager = context.getSystemService(Context.USER_SERVICE) as UserManager
@@ -88,14 +89,21 @@ constructor(
     private val isDestroyed
         get() = !scope.isActive
 
+    /**
+     * @param shortcutCache if provided, the last shortcuts loaded for the same user and
+     *   [targetIntentFilter] are delivered as provisional results (see [Result.isProvisional])
+     *   while the fresh shortcuts are being loaded.
+     */
     @MainThread
+    @JvmOverloads
     constructor(
         context: Context,
         scope: CoroutineScope,
         appPredictor: AppPredictor?,
         userHandle: UserHandle,
         targetIntentFilter: IntentFilter?,
-        callback: Consumer<Result>
+        callback: Consumer<Result>,
+        shortcutCache: ShortcutDataCache? = null,
     ) : this(
         context,
         scope,
@@ -103,8 +111,9 @@ constructor(
         userHandle,
         userHandle == UserHandle.of(ActivityManager.getCurrentUser()),
         targetIntentFilter,
-        Dispatchers.IO,
-        callback
+        ProcessDispatchers.ipc.dispatcher,
+        callback,
+        shortcutCache?.also { it.startListening(context) },
     )
 
     init {
@@ -117,12 +126,7 @@ constructor(
                             null
                         } else {
                             runTracing("filter-shortcuts-${userHandle.identifier}") {
-                                filterShortcuts(
-                                    appTargets,
-                                    shortcutData.shortcuts,
-                                    shortcutData.isFromAppPredictor,
-                                    shortcutData.appPredictorTargets
-                                )
+                                filterShortcuts(appTargets, shortcutData)
                             }
                         }
                     }
@@ -162,6 +166,12 @@ constructor(
             Log.d(TAG, "skip shortcuts loading for user $userHandle")
             return
         }
+        if (shortcutCache != null && targetIntentFilter != null) {
+            shortcutCache.get(userHandle, targetIntentFilter)?.let { cached ->
+                Log.d(TAG, "deliver cached shortcuts for user $userHandle")
+                shortcutSource.tryEmit(cached.copy(isProvisional = true))
+            }
+        }
         Log.d(TAG, "querying direct share targets for user $userHandle")
         queryDirectShareTargets(false)
     }
@@ -249,15 +259,19 @@ constructor(
         isFromAppPredictor: Boolean,
         appPredictorTargets: List<AppTarget>?
     ) {
-        shortcutSource.tryEmit(ShortcutData(shortcuts, isFromAppPredictor, appPredictorTargets))
+        val data = ShortcutData(shortcuts, isFromAppPredictor, appPredictorTargets)
+        if (shortcutCache != null && targetIntentFilter != null) {
+            shortcutCache.put(userHandle, targetIntentFilter, data)
+        }
+        shortcutSource.tryEmit(data)
     }
 
     private fun filterShortcuts(
         appTargets: Array<DisplayResolveInfo>,
-        shortcuts: List<ShareShortcutInfo>,
-        isFromAppPredictor: Boolean,
-        appPredictorTargets: List<AppTarget>?
+        shortcutData: ShortcutData
     ): Result {
+        val shortcuts = shortcutData.shortcuts
+        val appPredictorTargets = shortcutData.appPredictorTargets
         if (appPredictorTargets != null && appPredictorTargets.size != shortcuts.size) {
             throw RuntimeException(
                 "resultList and appTargets must have the same size." +
@@ -273,14 +287,14 @@ constructor(
         // for direct share targets. After ShareSheet is refactored we should use the
         // ShareShortcutInfos directly.
         val resultRecords: MutableList<ShortcutResultInfo> = ArrayList()
+        val shortcutsByComponent = groupByTargetComponent(shortcuts)
         for (displayResolveInfo in appTargets) {
             val matchingShortcuts =
-                shortcuts.filter { it.targetComponent == displayResolveInfo.resolvedComponentName }
-            if (matchingShortcuts.isEmpty()) continue
+                shortcutsByComponent[displayResolveInfo.resolvedComponentName] ?: continue
             val chooserTargets =
                 shortcutToChooserTargetConverter.convertToChooserTarget(
-                    matchingShortcuts,
-                    shortcuts,
+                    matchingShortcuts.shortcuts,
+                    matchingShortcuts.positions.toIntArray(),
                     appPredictorTargets,
                     directShareAppTargetCache,
                     directShareShortcutInfoCache
@@ -289,14 +303,32 @@ constructor(
             resultRecords.add(resultRecord)
         }
         return Result(
-            isFromAppPredictor,
+            shortcutData.isFromAppPredictor,
             appTargets,
             resultRecords.toTypedArray(),
             directShareAppTargetCache,
-            directShareShortcutInfoCache
+            directShareShortcutInfoCache,
+            shortcutData.isProvisional,
         )
     }
 
+    /**
+     * Groups [shortcuts] by their target components in one pass, preserving the order and
+     * recording the shortcut positions in the original list.
+     */
+    private fun groupByTargetComponent(
+        shortcuts: List<ShareShortcutInfo>
+    ): Map<ComponentName, ComponentShortcuts> {
+        val result = HashMap<ComponentName, ComponentShortcuts>()
+        shortcuts.forEachIndexed { i, shortcut ->
+            result.getOrPut(shortcut.targetComponent) { ComponentShortcuts() }.run {
+                this.shortcuts.add(shortcut)
+                positions.add(i)
+            }
+        }
+        return result
+    }
+
     /**
      * Returns `false` if `userHandle` is the work profile and it's either in quiet mode or not
      * running.
@@ -310,14 +342,18 @@ constructor(
                 userManager.isUserUnlocked(userHandle) &&
                 !userManager.isQuietModeEnabled(userHandle)
 
-    private class ShortcutData(
+    internal data class ShortcutData(
         val shortcuts: List<ShareShortcutInfo>,
         val isFromAppPredictor: Boolean,
-        val appPredictorTargets: List<AppTarget>?
+        val appPredictorTargets: List<AppTarget>?,
+        /** Whether the data comes from [ShortcutDataCache] and is yet to be refreshed. */
+        val isProvisional: Boolean = false,
     )
 
     /** Resolved shortcuts with corresponding app targets. */
-    class Result(
+    class Result
+    @JvmOverloads
+    constructor(
         val isFromAppPredictor: Boolean,
         /**
          * Input app targets (see [ShortcutLoader.updateAppTargets] the shortcuts were process
@@ -327,7 +363,12 @@ constructor(
         /** Shortcuts grouped by app target. */
         val shortcutsByApp: Array<ShortcutResultInfo>,
         val directShareAppTargetCache: Map<ChooserTarget, AppTarget>,
-        val directShareShortcutInfoCache: Map<ChooserTarget, ShortcutInfo>
+        val directShareShortcutInfoCache: Map<ChooserTarget, ShortcutInfo>,
+        /**
+         * Whether the result is based on previously loaded (cached) shortcuts; a non-provisional
+         * result follows and supersedes it.
+         */
+        val isProvisional: Boolean = false,
     )
 
     /** Shortcuts grouped by app. */
@@ -336,6 +377,12 @@ constructor(
         val shortcuts: List<ChooserTarget?>
     )
 
+    /** Shortcuts of a single target component with their positions in the list of all shortcuts. */
+    private class ComponentShortcuts {
+        val shortcuts = ArrayList<ShareShortcutInfo>()
+        val positions = ArrayList<Int>()
+    }
+
     private class ShortcutsAppTargetsPair(
         val shortcuts: List<ShareShortcutInfo>,
         val appTargets: List<AppTarget>?
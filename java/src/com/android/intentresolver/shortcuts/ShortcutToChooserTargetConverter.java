@@ -27,8 +27,10 @@ import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.Comparator;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
@@ -54,25 +56,61 @@ class ShortcutToChooserTargetConverter {
             @Nullable List<AppTarget> allAppTargets,
             @Nullable Map<ChooserTarget, AppTarget> directShareAppTargetCache,
             @Nullable Map<ChooserTarget, ShortcutInfo> directShareShortcutInfoCache) {
+        HashMap<ShortcutManager.ShareShortcutInfo, Integer> allShortcutPositions =
+                new HashMap<>(allShortcuts.size() * 2);
+        for (int i = 0; i < allShortcuts.size(); i++) {
+            allShortcutPositions.putIfAbsent(allShortcuts.get(i), i);
+        }
+        int[] matchingShortcutPositions = new int[matchingShortcuts.size()];
+        for (int i = 0; i < matchingShortcuts.size(); i++) {
+            Integer position = allShortcutPositions.get(matchingShortcuts.get(i));
+            matchingShortcutPositions[i] = position == null ? -1 : position;
+        }
+        return convertToChooserTarget(
+                matchingShortcuts,
+                matchingShortcutPositions,
+                allAppTargets,
+                directShareAppTargetCache,
+                directShareShortcutInfoCache);
+    }
+
+    /**
+     * Converts a list of ShareShortcutInfos to ChooserTargets; same as
+     * {@link #convertToChooserTarget(List, List, List, Map, Map)} but with the positions of the
+     * matching shortcuts in the list of all the shortcuts precomputed.
+     * @param matchingShortcutPositions Positions of {@code matchingShortcuts} items in the list of
+     *                                  all the shortcuts returned for the current sharing action.
+     */
+    @NonNull
+    public List<ChooserTarget> convertToChooserTarget(
+            @NonNull List<ShortcutManager.ShareShortcutInfo> matchingShortcuts,
+            @NonNull int[] matchingShortcutPositions,
+            @Nullable List<AppTarget> allAppTargets,
+            @Nullable Map<ChooserTarget, AppTarget> directShareAppTargetCache,
+            @Nullable Map<ChooserTarget, ShortcutInfo> directShareShortcutInfoCache) {
         // If |appTargets| is not null, results are from AppPredictionService and already sorted.
         final boolean isFromAppPredictor = allAppTargets != null;
-        // A set of distinct scores for the matched shortcuts. We use index of a rank in the sorted
-        // list instead of the actual rank value when converting a rank to a score.
-        List<Integer> scoreList = new ArrayList<>();
+        // A sorted set of distinct scores for the matched shortcuts. We use index of a rank in the
+        // sorted list instead of the actual rank value when converting a rank to a score.
+        int[] scores = null;
+        int scoreCount = 0;
         if (!isFromAppPredictor) {
+            scores = new int[matchingShortcuts.size()];
             for (int i = 0; i < matchingShortcuts.size(); i++) {
-                int shortcutRank = matchingShortcuts.get(i).getShortcutInfo().getRank();
-                if (!scoreList.contains(shortcutRank)) {
-                    scoreList.add(shortcutRank);
+                scores[i] = matchingShortcuts.get(i).getShortcutInfo().getRank();
+            }
+            Arrays.sort(scores);
+            for (int i = 0; i < scores.length; i++) {
+                if (scoreCount == 0 || scores[scoreCount - 1] != scores[i]) {
+                    scores[scoreCount++] = scores[i];
                 }
             }
-            Collections.sort(scoreList);
         }
 
         List<ChooserTarget> chooserTargetList = new ArrayList<>(matchingShortcuts.size());
         for (int i = 0; i < matchingShortcuts.size(); i++) {
             ShortcutInfo shortcutInfo = matchingShortcuts.get(i).getShortcutInfo();
-            int indexInAllShortcuts = allShortcuts.indexOf(matchingShortcuts.get(i));
+            int indexInAllShortcuts = matchingShortcutPositions[i];
 
             float score;
             if (isFromAppPredictor) {
@@ -80,7 +118,7 @@ class ShortcutToChooserTargetConverter {
                 score = Math.max(1.0f - (0.01f * indexInAllShortcuts), 0.0f);
             } else {
                 // Create a score based on the rank of the shortcut.
-                int rankIndex = scoreList.indexOf(shortcutInfo.getRank());
+                int rankIndex = Arrays.binarySearch(scores, 0, scoreCount, shortcutInfo.getRank());
                 score = Math.max(1.0f - (0.01f * rankIndex), 0.0f);
             }
 
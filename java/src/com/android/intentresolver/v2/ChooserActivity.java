@@ -122,9 +122,11 @@ import com.android.intentresolver.WorkProfileAvailabilityManager;
 import com.android.intentresolver.chooser.DisplayResolveInfo;
 import com.android.intentresolver.chooser.MultiDisplayResolveInfo;
 import com.android.intentresolver.chooser.TargetInfo;
+import com.android.intentresolver.concurrency.ActivityScopes;
 import com.android.intentresolver.contentpreview.BasePreviewViewModel;
 import com.android.intentresolver.contentpreview.ChooserContentPreviewUi;
 import com.android.intentresolver.contentpreview.HeadlineGeneratorImpl;
+import com.android.intentresolver.contentpreview.ImageLoader;
 import com.android.intentresolver.contentpreview.PayloadToggleInteractor;
 import com.android.intentresolver.contentpreview.PreviewViewModel;
 import com.android.intentresolver.emptystate.CompositeEmptyStateProvider;
@@ -133,12 +135,15 @@ import com.android.intentresolver.emptystate.EmptyState;
 import com.android.intentresolver.emptystate.EmptyStateProvider;
 import com.android.intentresolver.grid.ChooserGridAdapter;
 import com.android.intentresolver.icons.TargetDataLoader;
+import com.android.intentresolver.inject.Ipc;
 import com.android.intentresolver.logging.EventLog;
 import com.android.intentresolver.measurements.Tracer;
 import com.android.intentresolver.model.AbstractResolverComparator;
 import com.android.intentresolver.model.AppPredictionServiceResolverComparator;
 import com.android.intentresolver.model.ResolverRankerServiceResolverComparator;
+import com.android.intentresolver.model.UsageStatsCache;
 import com.android.intentresolver.shortcuts.AppPredictorFactory;
+import com.android.intentresolver.shortcuts.ShortcutDataCache;
 import com.android.intentresolver.shortcuts.ShortcutLoader;
 import com.android.intentresolver.v2.data.repository.DevicePolicyResources;
 import com.android.intentresolver.v2.emptystate.NoAppsAvailableEmptyStateProvider;
@@ -179,13 +184,13 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Optional;
 import java.util.Set;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.concurrent.Executor;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.function.Consumer;
 
@@ -252,6 +257,8 @@ public class ChooserActivity extends Hilt_ChooserActivity implements
 
     @Nullable
     private OnSwitchOnWorkSelectedListener mOnSwitchOnWorkSelectedListener;
+    @Nullable
+    private CrossProfileIntentsChecker mCrossProfileIntentsChecker;
 
     //////////////////////////////////////////////////////////////////////////////////////////////
     //////////////////////////////////////////////////////////////////////////////////////////////
@@ -281,6 +288,8 @@ public class ChooserActivity extends Hilt_ChooserActivity implements
     @Inject @AppPredictionAvailable public boolean mAppPredictionAvailable;
     @Inject @ImageEditor public Optional<ComponentName> mImageEditor;
     @Inject @NearbyShare public Optional<ComponentName> mNearbyShare;
+    @Inject public ActivityScopes mActivityScopes;
+    @Inject @Ipc public Executor mIpcExecutor;
     @Inject public TargetDataLoader mTargetDataLoader;
     @Inject public DevicePolicyResources mDevicePolicyResources;
     @Inject public PackageManager mPackageManager;
@@ -293,6 +302,8 @@ public class ChooserActivity extends Hilt_ChooserActivity implements
     private ChooserRefinementManager mRefinementManager;
 
     private ChooserContentPreviewUi mChooserContentPreviewUi;
+    @Nullable
+    private ImageLoader mPreviewImageLoader;
 
     private boolean mShouldDisplayLandscape;
     private long mChooserShownTime;
@@ -312,7 +323,6 @@ public class ChooserActivity extends Hilt_ChooserActivity implements
     private SharedPreferences mPinnedSharedPrefs;
     private static final String PINNED_SHARED_PREFS_NAME = "chooser_pin_settings";
 
-    private final ExecutorService mBackgroundThreadPoolExecutor = Executors.newFixedThreadPool(5);
 
     private int mScrollStatus = SCROLL_STATUS_IDLE;
 
@@ -490,6 +500,14 @@ public class ChooserActivity extends Hilt_ChooserActivity implements
         mChooserMultiProfilePagerAdapter.getActiveListAdapter().handlePackagesChanged();
     }
 
+    @Override
+    public void onTrimMemory(int level) {
+        super.onTrimMemory(level);
+        if (mPreviewImageLoader != null) {
+            mPreviewImageLoader.onTrimMemory(level);
+        }
+    }
+
     @Override
     protected final void onDestroy() {
         super.onDestroy();
@@ -498,8 +516,6 @@ public class ChooserActivity extends Hilt_ChooserActivity implements
             mLatencyTracker.onActionCancel(ACTION_LOAD_SHARE_SHEET);
         }
 
-        mBackgroundThreadPoolExecutor.shutdownNow();
-
         destroyProfileRecords();
     }
 
@@ -524,6 +540,7 @@ public class ChooserActivity extends Hilt_ChooserActivity implements
                 ),
                 chooserRequest.getShareTargetFilter()
         );
+        prefetchCrossProfileIntents(chooserRequest.getPayloadIntents());
 
         Intent intent = mViewModel.getChooserRequest().getTargetIntent();
         List<Intent> initialIntents = mViewModel.getChooserRequest().getInitialIntents();
@@ -615,6 +632,7 @@ public class ChooserActivity extends Hilt_ChooserActivity implements
         BasePreviewViewModel previewViewModel =
                 new ViewModelProvider(this, createPreviewViewModelFactory())
                         .get(BasePreviewViewModel.class);
+        mPreviewImageLoader = previewViewModel.getImageLoader();
         previewViewModel.init(
                 chooserRequest.getTargetIntent(),
                 mActivityModel.getIntent(),
@@ -623,7 +641,9 @@ public class ChooserActivity extends Hilt_ChooserActivity implements
                 mChooserServiceFeatureFlags.chooserPayloadToggling());
         ChooserActionFactory chooserActionFactory = createChooserActionFactory();
         ChooserContentPreviewUi.ActionFactory actionFactory = chooserActionFactory;
-        if (previewViewModel.getPreviewDataProvider().getPreviewType()
+        // Payload selection does not depend on the shared content metadata and thus is never
+        // provisional, see PreviewDataProvider#getProvisionalPreviewType.
+        if (previewViewModel.getPreviewDataProvider().getProvisionalPreviewType()
                 == CONTENT_PREVIEW_PAYLOAD_SELECTION
                 && mChooserServiceFeatureFlags.chooserPayloadToggling()) {
             PayloadToggleInteractor payloadToggleInteractor =
@@ -642,13 +662,15 @@ public class ChooserActivity extends Hilt_ChooserActivity implements
                 getCoroutineScope(getLifecycle()),
                 previewViewModel.getPreviewDataProvider(),
                 chooserRequest.getTargetIntent(),
-                previewViewModel.getImageLoader(),
+                mPreviewImageLoader,
                 actionFactory,
                 mEnterTransitionAnimationDelegate,
                 new HeadlineGeneratorImpl(this),
                 chooserRequest.getContentTypeHint(),
                 chooserRequest.getMetadataText(),
-                mChooserServiceFeatureFlags.chooserPayloadToggling());
+                mChooserServiceFeatureFlags.chooserPayloadToggling(),
+                mFeatureFlags.progressivePreviewType());
+        mChooserContentPreviewUi.setOnContentPreviewChangedListener(this::onContentPreviewChanged);
         updateStickyContentPreview();
         if (shouldShowStickyContentPreview()
                 || mChooserMultiProfilePagerAdapter
@@ -988,6 +1010,30 @@ public class ChooserActivity extends Hilt_ChooserActivity implements
         return new CrossProfileIntentsChecker(getContentResolver());
     }
 
+    private CrossProfileIntentsChecker getCrossProfileIntentsChecker() {
+        if (mCrossProfileIntentsChecker == null) {
+            mCrossProfileIntentsChecker = createCrossProfileIntentsChecker();
+        }
+        return mCrossProfileIntentsChecker;
+    }
+
+    /**
+     * Starts checking whether the {@code intents} can be forwarded from the tab owner to the other
+     * profiles, so that rendering the cross-profile empty states doesn't wait for the package
+     * manager.
+     */
+    private void prefetchCrossProfileIntents(List<Intent> intents) {
+        AnnotatedUserHandles userHandles = requireAnnotatedUserHandles();
+        UserHandle tabOwner = userHandles.tabOwnerUserHandleForLaunch;
+        for (UserHandle profile : Arrays.asList(
+                userHandles.personalProfileUserHandle, userHandles.workProfileUserHandle)) {
+            if (profile != null && !profile.equals(tabOwner)) {
+                getCrossProfileIntentsChecker().prefetchCrossProfileIntents(
+                        intents, tabOwner.getIdentifier(), profile.getIdentifier(), mIpcExecutor);
+            }
+        }
+    }
+
     protected final EmptyStateProvider createEmptyStateProvider(
             @Nullable UserHandle workProfileUserHandle) {
         final EmptyStateProvider blockerEmptyStateProvider = createBlockerEmptyStateProvider();
@@ -1330,7 +1376,8 @@ public class ChooserActivity extends Hilt_ChooserActivity implements
                 appPredictor,
                 userHandle,
                 targetIntentFilter,
-                callback);
+                callback,
+                mFeatureFlags.warmShortcutCache() ? ShortcutDataCache.getInstance() : null);
     }
 
     static SharedPreferences getPinnedSharedPrefs(Context context) {
@@ -1384,7 +1431,7 @@ public class ChooserActivity extends Hilt_ChooserActivity implements
                 requireAnnotatedUserHandles().personalProfileUserHandle,
                 noWorkToPersonalEmptyState,
                 noPersonalToWorkEmptyState,
-                createCrossProfileIntentsChecker(),
+                getCrossProfileIntentsChecker(),
                 requireAnnotatedUserHandles().tabOwnerUserHandleForLaunch);
     }
 
@@ -1480,13 +1527,59 @@ public class ChooserActivity extends Hilt_ChooserActivity implements
     //@Override
     protected PackageMonitor createPackageMonitor(ResolverListAdapter listAdapter) {
         return new PackageMonitor() {
+            private final Set<String> mChangedPackages = new HashSet<>();
+
+            @Override
+            public void onPackageAppeared(String packageName, int reason) {
+                mChangedPackages.add(packageName);
+            }
+
+            @Override
+            public void onPackageDisappeared(String packageName, int reason) {
+                mChangedPackages.add(packageName);
+            }
+
+            @Override
+            public void onPackageModified(String packageName) {
+                mChangedPackages.add(packageName);
+            }
+
+            @Override
+            public void onPackagesSuspended(String[] packages) {
+                mChangedPackages.addAll(Arrays.asList(packages));
+            }
+
+            @Override
+            public void onPackagesUnsuspended(String[] packages) {
+                mChangedPackages.addAll(Arrays.asList(packages));
+            }
+
             @Override
             public void onSomePackagesChanged() {
-                handlePackagesChanged(listAdapter);
+                Set<String> changedPackages = new HashSet<>(mChangedPackages);
+                mChangedPackages.clear();
+                handlePackagesChanged(listAdapter, changedPackages);
             }
         };
     }
 
+    /**
+     * Update UI to reflect changes in the given packages of the {@code listAdapter} profile,
+     * patching the list in place when possible.
+     */
+    private void handlePackagesChanged(
+            ResolverListAdapter listAdapter, Set<String> changedPackages) {
+        if (!mFeatureFlags.incrementalPackageUpdates()
+                || changedPackages.isEmpty()
+                || listAdapter != mChooserMultiProfilePagerAdapter.getActiveListAdapter()) {
+            handlePackagesChanged(listAdapter);
+            return;
+        }
+        // Refresh pinned items
+        mPinnedSharedPrefs = getPinnedSharedPrefs(this);
+        listAdapter.handlePackagesChanged(changedPackages);
+    }
+
     /**
      * Update UI to reflect changes in data.
      */
@@ -1588,6 +1681,17 @@ public class ChooserActivity extends Hilt_ChooserActivity implements
         return layout;
     }
 
+    /**
+     * Called when the displayed content preview has been replaced in-place as the final preview
+     * type turned out to be different from the provisional one.
+     */
+    private void onContentPreviewChanged() {
+        if (isFinishing() || isDestroyed()) {
+            return;
+        }
+        adjustPreviewWidth(getResources().getConfiguration().orientation, null);
+    }
+
     @Nullable
     private View getFirstVisibleImgPreviewView() {
         View imagePreview = findViewById(R.id.scrollable_image_preview);
@@ -2094,7 +2198,8 @@ public class ChooserActivity extends Hilt_ChooserActivity implements
                     appPredictor,
                     userHandle,
                     getEventLog(),
-                    mNearbyShare.orElse(null)
+                    mNearbyShare.orElse(null),
+                    mActivityScopes.getIpcExecutor()
             );
         } else {
             resolverComparator =
@@ -2105,10 +2210,13 @@ public class ChooserActivity extends Hilt_ChooserActivity implements
                             null,
                             getEventLog(),
                             getResolverRankerServiceUserHandleList(userHandle),
-                            mNearbyShare.orElse(null));
+                            mNearbyShare.orElse(null),
+                            mFeatureFlags.cacheUsageStats()
+                                    ? UsageStatsCache.getInstance()
+                                    : null);
         }
 
-        return new ChooserListController(
+        ChooserListController listController = new ChooserListController(
                 this,
                 mPackageManager,
                 mViewModel.getChooserRequest().getTargetIntent(),
@@ -2118,11 +2226,13 @@ public class ChooserActivity extends Hilt_ChooserActivity implements
                 getQueryIntentsUser(userHandle),
                 mViewModel.getChooserRequest().getFilteredComponentNames(),
                 mPinnedSharedPrefs);
+        listController.setUseRankingKeys(mFeatureFlags.rankingSortKeys());
+        return listController;
     }
 
     @VisibleForTesting
     protected ViewModelProvider.Factory createPreviewViewModelFactory() {
-        return PreviewViewModel.Companion.getFactory();
+        return PreviewViewModel.createFactory(mFeatureFlags.previewHardwareBitmaps());
     }
 
     private ChooserActionFactory createChooserActionFactory() {
@@ -2374,7 +2484,12 @@ public class ChooserActivity extends Hilt_ChooserActivity implements
         mDirectShareAppTargetCache.putAll(result.getDirectShareAppTargetCache());
         ChooserListAdapter adapter =
                 mChooserMultiProfilePagerAdapter.getListAdapterForUserHandle(userHandle);
+        ProfileRecord record = getProfileRecord(userHandle);
         if (adapter != null) {
+            if (record != null && record.hasProvisionalShortcuts) {
+                // Fresh results supersede the provisional ones
+                adapter.removeShortcutTargets();
+            }
             for (ShortcutLoader.ShortcutResultInfo resultInfo : result.getShortcutsByApp()) {
                 adapter.addServiceResults(
                         resultInfo.getAppTarget(),
@@ -2385,7 +2500,12 @@ public class ChooserActivity extends Hilt_ChooserActivity implements
                         mDirectShareShortcutInfoCache,
                         mDirectShareAppTargetCache);
             }
-            adapter.completeServiceTargetLoading();
+            if (!result.isProvisional()) {
+                adapter.completeServiceTargetLoading();
+            }
+        }
+        if (record != null) {
+            record.hasProvisionalShortcuts = result.isProvisional();
         }
 
         if (mChooserMultiProfilePagerAdapter.getActiveListAdapter() == adapter) {
@@ -2394,6 +2514,9 @@ public class ChooserActivity extends Hilt_ChooserActivity implements
                 Log.d(TAG, "stat to first shortcut time: " + duration + " ms");
             }
         }
+        if (result.isProvisional()) {
+            return;
+        }
         logDirectShareTargetReceived(userHandle);
         sendVoiceChoicesIfNeeded();
         getEventLog().logSharesheetDirectLoadComplete();
@@ -2620,6 +2743,8 @@ public class ChooserActivity extends Hilt_ChooserActivity implements
         @Nullable
         public final ShortcutLoader shortcutLoader;
         public long loadingStartTime;
+        /** Whether the displayed shortcuts are provisional, see ShortcutLoader.Result. */
+        public boolean hasProvisionalShortcuts;
 
         private ProfileRecord(
                 @Nullable AppPredictor appPredictor,
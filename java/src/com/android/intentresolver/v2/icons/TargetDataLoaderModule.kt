@@ -20,7 +20,11 @@ import android.content.Context
 import androidx.lifecycle.Lifecycle
 import com.android.intentresolver.icons.DefaultTargetDataLoader
 import com.android.intentresolver.icons.TargetDataLoader
+import com.android.intentresolver.icons.TargetIconCache
+import com.android.intentresolver.icons.SubstitutePermissionCache
+import com.android.intentresolver.icons.TargetLabelCache
 import com.android.intentresolver.inject.ActivityOwned
+import com.android.intentresolver.inject.IntentResolverFlags
 import dagger.Module
 import dagger.Provides
 import dagger.hilt.InstallIn
@@ -36,5 +40,32 @@ object TargetDataLoaderModule {
     fun targetDataLoader(
         @ActivityContext context: Context,
         @ActivityOwned lifecycle: Lifecycle,
-    ): TargetDataLoader = DefaultTargetDataLoader(context, lifecycle, isAudioCaptureDevice = false)
+        flags: IntentResolverFlags,
+    ): TargetDataLoader {
+        val isCachingEnabled = flags.targetDataCaching()
+        return DefaultTargetDataLoader(
+            context,
+            lifecycle,
+            isAudioCaptureDevice = false,
+            labelCache =
+                if (isCachingEnabled) {
+                    TargetLabelCache.getInstance(context).also { it.startListening(context) }
+                } else {
+                    null
+                },
+            iconCache =
+                if (isCachingEnabled) {
+                    TargetIconCache.getInstance(context).also { it.startListening(context) }
+                } else {
+                    null
+                },
+            permissionCache =
+                if (flags.cacheSubstitutePermission()) {
+                    SubstitutePermissionCache.instance.also { it.startListening(context) }
+                } else {
+                    null
+                },
+            isLoadQueueEnabled = flags.targetDataLoadQueue(),
+        )
+    }
 }
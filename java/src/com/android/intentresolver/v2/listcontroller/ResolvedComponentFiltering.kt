@@ -2,11 +2,10 @@ package com.android.intentresolver.v2.listcontroller
 
 import android.content.pm.PackageManager
 import android.util.Log
+import com.android.intentresolver.ResolvedComponentFilters
 import com.android.intentresolver.ResolvedComponentInfo
-import kotlinx.coroutines.CompletableDeferred
 import kotlinx.coroutines.CoroutineDispatcher
 import kotlinx.coroutines.async
-import kotlinx.coroutines.awaitAll
 import kotlinx.coroutines.coroutineScope
 
 /** Provides filtering methods for lists of [ResolvedComponentInfo]. */
@@ -55,27 +54,24 @@ class ResolvedComponentFilteringImpl(
     override suspend fun filterIneligibleActivities(
         inputList: List<ResolvedComponentInfo>,
     ): List<ResolvedComponentInfo> = coroutineScope {
-        inputList
-            .map {
+        // Do all permission checks in parallel; no check is needed for the filtered components.
+        val permissionChecks =
+            inputList.map {
                 val activityInfo = it.getResolveInfoAt(0).activityInfo
                 if (isComponentFiltered(activityInfo.componentName)) {
-                    CompletableDeferred(value = null)
+                    null
                 } else {
-                    // Do all permission checks in parallel
                     async {
-                        val granted =
-                            checkComponentPermission(
-                                activityInfo.permission,
-                                launchedFromUid,
-                                activityInfo.applicationInfo.uid,
-                                activityInfo.exported,
-                            ) == PackageManager.PERMISSION_GRANTED
-                        if (granted) it else null
+                        checkComponentPermission(
+                            activityInfo.permission,
+                            launchedFromUid,
+                            activityInfo.applicationInfo.uid,
+                            activityInfo.exported,
+                        ) == PackageManager.PERMISSION_GRANTED
                     }
                 }
             }
-            .awaitAll()
-            .filterNotNull()
+        inputList.filterIndexed { index, _ -> permissionChecks[index]?.await() ?: false }
     }
 
     /**
@@ -85,29 +81,17 @@ class ResolvedComponentFilteringImpl(
     override fun filterLowPriority(
         inputList: List<ResolvedComponentInfo>,
     ): List<ResolvedComponentInfo> {
-        val firstResolveInfo = inputList[0].getResolveInfoAt(0)
         // Only display the first matches that are either of equal
         // priority or have asked to be default options.
-        val firstDiffIndex =
-            inputList.indexOfFirst { resolvedComponentInfo ->
-                val resolveInfo = resolvedComponentInfo.getResolveInfoAt(0)
-                if (firstResolveInfo == resolveInfo) {
-                    false
-                } else {
-                    if (DEBUG) {
-                        Log.v(
-                            TAG,
-                            "${firstResolveInfo?.activityInfo?.name}=" +
-                                "${firstResolveInfo?.priority}/${firstResolveInfo?.isDefault}" +
-                                " vs ${resolveInfo?.activityInfo?.name}=" +
-                                "${resolveInfo?.priority}/${resolveInfo?.isDefault}"
-                        )
-                    }
-                    firstResolveInfo!!.priority != resolveInfo!!.priority ||
-                        firstResolveInfo.isDefault != resolveInfo.isDefault
-                }
-            }
-        return if (firstDiffIndex == -1) {
+        val firstDiffIndex = ResolvedComponentFilters.indexOfFirstLowPriority(inputList)
+        if (DEBUG && firstDiffIndex < inputList.size) {
+            Log.v(
+                TAG,
+                "Filtering out ${inputList.size - firstDiffIndex} low priority items from " +
+                    inputList[firstDiffIndex].getResolveInfoAt(0)?.activityInfo?.name
+            )
+        }
+        return if (firstDiffIndex == inputList.size) {
             inputList
         } else {
             inputList.subList(0, firstDiffIndex)
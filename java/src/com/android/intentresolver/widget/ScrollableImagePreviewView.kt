@@ -59,6 +59,7 @@ private const val MIN_ASPECT_RATIO = 0.4f
 private const val MIN_ASPECT_RATIO_STRING = "2:5"
 private const val MAX_ASPECT_RATIO = 2.5f
 private const val MAX_ASPECT_RATIO_STRING = "5:2"
+private const val PREFETCH_ITEM_COUNT = 4
 
 private typealias CachingImageLoader = suspend (Uri, Boolean) -> Bitmap?
 
@@ -111,8 +112,25 @@ class ScrollableImagePreviewView : RecyclerView, ImagePreviewView {
         val itemAnimator = ItemAnimator()
         super.setItemAnimator(itemAnimator)
         super.setAdapter(Adapter(context, itemAnimator.getAddDuration()))
+        addOnScrollListener(
+            object : RecyclerView.OnScrollListener() {
+                override fun onScrolled(recyclerView: RecyclerView, dx: Int, dy: Int) {
+                    if (dx != 0) {
+                        isScrollingForward = dx > 0
+                    }
+                    dispatchViewportChanged()
+                }
+            }
+        )
     }
 
+    private var viewportListener: ViewportListener? = null
+    private var isScrollingForward = true
+    private var lastFirstVisiblePos = RecyclerView.NO_POSITION
+    private var lastLastVisiblePos = RecyclerView.NO_POSITION
+    private var lastPreviewCount = 0
+    private var lastIsScrollingForward = true
+
     private var batchLoader: BatchPreviewLoader? = null
     private val previewAdapter
         get() = adapter as Adapter
@@ -149,6 +167,42 @@ class ScrollableImagePreviewView : RecyclerView, ImagePreviewView {
         setOverScrollMode(
             if (areAllChildrenVisible) View.OVER_SCROLL_NEVER else View.OVER_SCROLL_ALWAYS
         )
+        dispatchViewportChanged()
+    }
+
+    /**
+     * Reports the previews that are currently visible and the ones that are next in the scroll
+     * direction to the [viewportListener], if the viewport has changed since the last report.
+     */
+    private fun dispatchViewportChanged() {
+        val listener = viewportListener ?: return
+        val layoutManager = layoutManager as? LinearLayoutManager ?: return
+        val previewCount = previewAdapter.previewCount
+        val firstPos = layoutManager.findFirstVisibleItemPosition()
+        val lastPos = minOf(layoutManager.findLastVisibleItemPosition(), previewCount - 1)
+        if (
+            firstPos == lastFirstVisiblePos &&
+                lastPos == lastLastVisiblePos &&
+                previewCount == lastPreviewCount &&
+                isScrollingForward == lastIsScrollingForward
+        ) {
+            return
+        }
+        lastFirstVisiblePos = firstPos
+        lastLastVisiblePos = lastPos
+        lastPreviewCount = previewCount
+        lastIsScrollingForward = isScrollingForward
+        if (firstPos == RecyclerView.NO_POSITION || firstPos > lastPos) return
+        val upcomingRange =
+            if (isScrollingForward) {
+                (lastPos + 1)..minOf(previewCount - 1, lastPos + PREFETCH_ITEM_COUNT)
+            } else {
+                maxOf(0, firstPos - PREFETCH_ITEM_COUNT) until firstPos
+            }
+        listener.onViewportChanged(
+            (firstPos..lastPos).map(previewAdapter::getPreviewUri),
+            upcomingRange.map(previewAdapter::getPreviewUri),
+        )
     }
 
     override fun onAttachedToWindow() {
@@ -187,6 +241,14 @@ class ScrollableImagePreviewView : RecyclerView, ImagePreviewView {
         previewAdapter.imageLoader = imageLoader
     }
 
+    /** Sets a listener to be notified about what previews are visible and should be prefetched. */
+    fun setViewportListener(listener: ViewportListener?) {
+        viewportListener = listener
+        lastFirstVisiblePos = RecyclerView.NO_POSITION
+        lastLastVisiblePos = RecyclerView.NO_POSITION
+        dispatchViewportChanged()
+    }
+
     fun setLoading(totalItemCount: Int) {
         previewAdapter.reset(totalItemCount)
     }
@@ -279,6 +341,15 @@ class ScrollableImagePreviewView : RecyclerView, ImagePreviewView {
         ) : this(type, uri, editAction, "1:1")
     }
 
+    fun interface ViewportListener {
+        /**
+         * @param visible the URIs of the previews currently on the screen, in order.
+         * @param upcoming the URIs of the previews that follow the visible ones in the scroll
+         *   direction, ordered by the distance from the visible ones.
+         */
+        fun onViewportChanged(visible: List<Uri>, upcoming: List<Uri>)
+    }
+
     enum class PreviewType {
         Image,
         Video,
@@ -305,6 +376,10 @@ class ScrollableImagePreviewView : RecyclerView, ImagePreviewView {
             get() = previews.size < totalItemCount
         val hasPreviews: Boolean
             get() = previews.isNotEmpty()
+        val previewCount: Int
+            get() = previews.size
+
+        fun getPreviewUri(position: Int): Uri = previews[position].uri
 
         var transitionStatusElementCallback: TransitionElementStatusCallback? = null
 
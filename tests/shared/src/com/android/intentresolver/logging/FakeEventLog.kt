@@ -33,6 +33,7 @@ class FakeEventLog @Inject constructor(private val instanceId: InstanceId) : Eve
     var customActionSelected: CustomActionSelected? = null
     var actionShareWithPreview: ActionShareWithPreview? = null
     val shareTargetSelected: MutableList<ShareTargetSelected> = mutableListOf()
+    val appRankingUpdates: MutableList<AppRankingUpdated> = mutableListOf()
 
     private fun log(message: () -> Any?) {
         if (LOG) {
@@ -164,9 +165,17 @@ class FakeEventLog @Inject constructor(private val instanceId: InstanceId) : Eve
         log { "logSharesheetEmptyDirectShareRow()" }
     }
 
+    override fun logSharesheetAppRankingUpdated(topRowChanged: Boolean, applied: Boolean) {
+        appRankingUpdates.add(AppRankingUpdated(topRowChanged, applied))
+        log {
+            "logSharesheetAppRankingUpdated(topRowChanged=$topRowChanged, applied=$applied)"
+        }
+    }
+
     data class ActionSelected(val targetType: Int)
     data class CustomActionSelected(val positionPicked: Int)
     data class ActionShareWithPreview(val previewType: Int)
+    data class AppRankingUpdated(val topRowChanged: Boolean, val applied: Boolean)
     data class ChooserActivityShown(
         val isWorkProfile: Boolean,
         val targetMimeType: String?,
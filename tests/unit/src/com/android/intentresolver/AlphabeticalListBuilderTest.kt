@@ -0,0 +1,161 @@
+/*
+ * Copyright (C) 2024 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.intentresolver
+
+import android.content.ComponentName
+import android.content.Intent
+import android.graphics.drawable.Drawable
+import android.os.UserHandle
+import com.android.intentresolver.chooser.DisplayResolveInfo
+import com.android.intentresolver.chooser.SelectableTargetInfo
+import com.android.intentresolver.icons.LabelInfo
+import com.android.intentresolver.icons.TargetDataLoader
+import com.google.common.truth.Truth.assertThat
+import java.util.Locale
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.Executors
+import java.util.function.Consumer
+import org.junit.Test
+
+class AlphabeticalListBuilderTest {
+    private val labels =
+        mapOf(
+            "org.pkg.b" to "Bravo",
+            "org.pkg.a" to "alpha",
+            "org.pkg.c" to "Charlie",
+        )
+    private val targetDataLoader = FakeTargetDataLoader(labels)
+
+    @Test
+    fun build_loadsMissingLabelsAndSortsByLabel() {
+        val targets =
+            labels.keys.map { createTarget(ComponentName(it, "Activity"), UserHandle.of(0)) }
+        val builder = createBuilder(parallelism = 3)
+
+        val result = builder.build(targets)
+
+        assertThat(result.map { it.displayLabel.toString() })
+            .containsExactly("alpha", "Bravo", "Charlie")
+            .inOrder()
+        assertThat(targetDataLoader.loadedLabels.keys).containsExactlyElementsIn(targets)
+    }
+
+    @Test
+    fun build_consolidatesTargetsOfTheSameApp() {
+        val user = UserHandle.of(0)
+        val targets =
+            listOf(
+                createTarget(ComponentName("org.pkg.b", "Activity1"), user),
+                createTarget(ComponentName("org.pkg.a", "Activity"), user),
+                createTarget(ComponentName("org.pkg.b", "Activity2"), user),
+            )
+
+        val result = createBuilder(parallelism = 2).build(targets)
+
+        assertThat(result).hasSize(2)
+        assertThat(result[0]).isSameInstanceAs(targets[1])
+        assertThat(result[1].isMultiDisplayResolveInfo).isTrue()
+        assertThat(result[1].allDisplayTargets).containsExactly(targets[0], targets[2]).inOrder()
+    }
+
+    @Test
+    fun build_sameLabelDifferentUsers_sortedByUserAndNotConsolidated() {
+        val targets =
+            listOf(
+                createTarget(ComponentName("org.pkg.a", "Activity"), UserHandle.of(10)),
+                createTarget(ComponentName("org.pkg.a", "Activity"), UserHandle.of(0)),
+            )
+
+        val result = createBuilder(parallelism = 1).build(targets)
+
+        assertThat(result).containsExactly(targets[1], targets[0]).inOrder()
+    }
+
+    @Test
+    fun build_manyTargets_loadsEachLabelOnce() {
+        val targets =
+            List(250) { createTarget(ComponentName("org.pkg.$it", "Activity"), UserHandle.of(0)) }
+
+        val result = createBuilder(parallelism = 4).build(targets)
+
+        assertThat(result).hasSize(targets.size)
+        assertThat(targetDataLoader.loadedLabels.keys).containsExactlyElementsIn(targets)
+        assertThat(targetDataLoader.loadedLabels.values.all { it == 1 }).isTrue()
+    }
+
+    @Test
+    fun build_usesPrecomputedCollationKeys() {
+        targetDataLoader.collationKeys["org.pkg.c"] = byteArrayOf()
+        val targets =
+            labels.keys.map { createTarget(ComponentName(it, "Activity"), UserHandle.of(0)) }
+
+        val result = createBuilder(parallelism = 1).build(targets)
+
+        assertThat(result.map { it.displayLabel.toString() })
+            .containsExactly("Charlie", "alpha", "Bravo")
+            .inOrder()
+    }
+
+    private fun createBuilder(parallelism: Int) =
+        AlphabeticalListBuilder(
+            Locale.US,
+            targetDataLoader,
+            Executors.newFixedThreadPool(parallelism),
+            parallelism,
+        )
+
+    private fun createTarget(component: ComponentName, user: UserHandle): DisplayResolveInfo {
+        val resolveInfo =
+            ResolverDataProvider.createResolveInfo(component, UserHandle.USER_CURRENT, user)
+        return DisplayResolveInfo.newDisplayResolveInfo(
+            Intent(),
+            resolveInfo,
+            Intent().setComponent(component),
+        )
+    }
+
+    private class FakeTargetDataLoader(private val labels: Map<String, String>) :
+        TargetDataLoader() {
+        val loadedLabels = ConcurrentHashMap<DisplayResolveInfo, Int>()
+        val collationKeys = HashMap<String, ByteArray>()
+
+        override fun getOrLoadLabel(info: DisplayResolveInfo) {
+            if (!info.hasDisplayLabel()) {
+                loadedLabels.merge(info, 1, Int::plus)
+                val packageName = info.resolvedComponentName.packageName
+                info.displayLabel = labels[packageName] ?: packageName
+            }
+        }
+
+        override fun getLabelCollationKey(info: DisplayResolveInfo, locale: Locale) =
+            collationKeys[info.resolvedComponentName.packageName]
+
+        override fun loadAppTargetIcon(
+            info: DisplayResolveInfo,
+            userHandle: UserHandle,
+            callback: Consumer<Drawable>,
+        ) = Unit
+
+        override fun loadDirectShareIcon(
+            info: SelectableTargetInfo,
+            userHandle: UserHandle,
+            callback: Consumer<Drawable>,
+        ) = Unit
+
+        override fun loadLabel(info: DisplayResolveInfo, callback: Consumer<LabelInfo>) = Unit
+    }
+}
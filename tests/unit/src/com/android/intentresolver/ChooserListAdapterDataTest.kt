@@ -1,19 +1,23 @@
 package com.android.intentresolver
 
+import android.content.ComponentName
 import android.content.Context
 import android.content.Intent
 import android.content.pm.PackageManager
 import android.content.pm.PackageManager.ComponentInfoFlags
+import android.content.pm.PackageManager.ResolveInfoFlags
 import android.os.UserHandle
 import android.os.UserManager
 import android.view.LayoutInflater
 import com.android.intentresolver.ResolverDataProvider.createActivityInfo
+import com.android.intentresolver.ResolverDataProvider.createResolveInfo
 import com.android.intentresolver.ResolverDataProvider.createResolvedComponentInfo
 import com.android.intentresolver.icons.TargetDataLoader
 import com.android.intentresolver.logging.FakeEventLog
 import com.android.intentresolver.util.TestExecutor
 import com.android.internal.logging.InstanceId
 import com.google.common.truth.Truth.assertThat
+import java.util.function.Consumer
 import org.junit.Test
 import org.mockito.Mockito
 
@@ -43,11 +47,16 @@ class ChooserListAdapterDataTest {
     private val userHandle = UserHandle.of(UserHandle.USER_CURRENT)
     private val targetDataLoader = mock<TargetDataLoader>()
     private val backgroundExecutor = TestExecutor()
+    private val callerTargetExecutor = TestExecutor()
     private val immediateExecutor = TestExecutor(immediate = true)
     private val referrerFillInIntent =
         Intent().putExtra(Intent.EXTRA_REFERRER, "org.referrer.package")
     private val featureFlags =
-        FakeFeatureFlagsImpl().apply { setFlag(Flags.FLAG_BESPOKE_LABEL_VIEW, false) }
+        FakeFeatureFlagsImpl().apply {
+            setFlag(Flags.FLAG_BESPOKE_LABEL_VIEW, false)
+            setFlag(Flags.FLAG_PROGRESSIVE_APP_RANKING, false)
+            setFlag(Flags.FLAG_RESOLVE_CALLER_TARGETS_IN_BACKGROUND, false)
+        }
 
     @Test
     fun test_twoTargetsWithNonOverlappingInitialIntent_threeTargetsInResolverAdapter() {
@@ -98,6 +107,7 @@ class ChooserListAdapterDataTest {
                 targetDataLoader,
                 null,
                 backgroundExecutor,
+                callerTargetExecutor,
                 immediateExecutor,
                 featureFlags,
             )
@@ -162,6 +172,7 @@ class ChooserListAdapterDataTest {
                 targetDataLoader,
                 null,
                 backgroundExecutor,
+                callerTargetExecutor,
                 immediateExecutor,
                 featureFlags,
             )
@@ -178,4 +189,192 @@ class ChooserListAdapterDataTest {
         // we don't reset placeholder count (legacy logic, likely an oversight?)
         assertThat(testSubject.displayResolveInfoCount).isEqualTo(resolvedTargets.size - 1)
     }
+
+    @Test
+    fun test_progressiveRanking_earlyRankingIsReorderedByFinalRanking() {
+        val resolvedTargets =
+            mutableListOf(
+                createResolvedComponentInfo(1),
+                createResolvedComponentInfo(2),
+                createResolvedComponentInfo(3),
+            )
+        whenever(
+                resolverListController.getResolversForIntentAsUser(
+                    true,
+                    resolverListCommunicator.shouldGetActivityMetadata(),
+                    resolverListCommunicator.shouldGetOnlyDefaultActivities(),
+                    payloadIntents,
+                    userHandle
+                )
+            )
+            .thenReturn(resolvedTargets)
+        Mockito.doAnswer { invocation ->
+                val earlyRankingCallback =
+                    invocation.getArgument<Consumer<List<ResolvedComponentInfo>>>(2)
+                earlyRankingCallback.accept(resolvedTargets.reversed())
+                null
+            }
+            .`when`(resolverListController)
+            .topK(any(), Mockito.anyInt(), any())
+        featureFlags.setFlag(Flags.FLAG_PROGRESSIVE_APP_RANKING, true)
+        val eventLog = FakeEventLog(InstanceId.fakeInstanceId(1))
+        val testSubject =
+            ChooserListAdapter(
+                context,
+                payloadIntents,
+                /*initialIntents=*/ null,
+                /*rList=*/ null,
+                /*filterLastUsed=*/ false,
+                resolverListController,
+                userHandle,
+                targetIntent,
+                referrerFillInIntent,
+                resolverListCommunicator,
+                packageManager,
+                eventLog,
+                /*maxRankedTargets=*/ 2,
+                /*initialIntentsUserSpace=*/ userHandle,
+                targetDataLoader,
+                null,
+                backgroundExecutor,
+                callerTargetExecutor,
+                immediateExecutor,
+                featureFlags,
+            )
+
+        testSubject.rebuildList(/* doPostProcessing= */ true)
+        backgroundExecutor.runUntilIdle()
+
+        assertThat(
+                (0 until testSubject.displayResolveInfoCount).map {
+                    testSubject.getDisplayResolveInfo(it).resolveInfo
+                }
+            )
+            .containsExactlyElementsIn(resolvedTargets.map { it.getResolveInfoAt(0) })
+            .inOrder()
+        assertThat(eventLog.appRankingUpdates)
+            .containsExactly(FakeEventLog.AppRankingUpdated(topRowChanged = true, applied = true))
+    }
+
+    @Test
+    fun test_progressiveRanking_lateFinalRankingKeepsEarlyOrder() {
+        val resolvedTargets =
+            mutableListOf(
+                createResolvedComponentInfo(1),
+                createResolvedComponentInfo(2),
+                createResolvedComponentInfo(3),
+            )
+        whenever(
+                resolverListController.getResolversForIntentAsUser(
+                    true,
+                    resolverListCommunicator.shouldGetActivityMetadata(),
+                    resolverListCommunicator.shouldGetOnlyDefaultActivities(),
+                    payloadIntents,
+                    userHandle
+                )
+            )
+            .thenReturn(resolvedTargets)
+        Mockito.doAnswer { invocation ->
+                val earlyRankingCallback =
+                    invocation.getArgument<Consumer<List<ResolvedComponentInfo>>>(2)
+                earlyRankingCallback.accept(resolvedTargets.reversed())
+                // the final ranking arrives after the early list has been shown for too long
+                Thread.sleep(ResolverListAdapter.FINAL_RANKING_BUDGET_MS + 50)
+                null
+            }
+            .`when`(resolverListController)
+            .topK(any(), Mockito.anyInt(), any())
+        featureFlags.setFlag(Flags.FLAG_PROGRESSIVE_APP_RANKING, true)
+        val eventLog = FakeEventLog(InstanceId.fakeInstanceId(1))
+        val testSubject =
+            ChooserListAdapter(
+                context,
+                payloadIntents,
+                /*initialIntents=*/ null,
+                /*rList=*/ null,
+                /*filterLastUsed=*/ false,
+                resolverListController,
+                userHandle,
+                targetIntent,
+                referrerFillInIntent,
+                resolverListCommunicator,
+                packageManager,
+                eventLog,
+                /*maxRankedTargets=*/ 2,
+                /*initialIntentsUserSpace=*/ userHandle,
+                targetDataLoader,
+                null,
+                backgroundExecutor,
+                callerTargetExecutor,
+                immediateExecutor,
+                featureFlags,
+            )
+
+        testSubject.rebuildList(/* doPostProcessing= */ true)
+        backgroundExecutor.runUntilIdle()
+
+        assertThat(
+                (0 until testSubject.displayResolveInfoCount).map {
+                    testSubject.getDisplayResolveInfo(it).resolveInfo
+                }
+            )
+            .containsExactlyElementsIn(resolvedTargets.reversed().map { it.getResolveInfoAt(0) })
+            .inOrder()
+        assertThat(eventLog.appRankingUpdates)
+            .containsExactly(FakeEventLog.AppRankingUpdated(topRowChanged = true, applied = false))
+    }
+
+    @Test
+    fun test_callerTargetsResolvedAfterShortcutsLoaded_addedBeforeLoadingCompletes() {
+        val callerTarget =
+            createChooserTarget(
+                "Caller target",
+                0.5f,
+                ComponentName("org.caller.package", "org.caller.package.Activity"),
+                "caller-target",
+            )
+        whenever(context.createContextAsUser(any(), Mockito.anyInt())).thenReturn(context)
+        whenever(packageManager.resolveActivity(any(), any<ResolveInfoFlags>()))
+            .thenReturn(createResolveInfo(1, UserHandle.USER_CURRENT))
+        featureFlags.setFlag(Flags.FLAG_RESOLVE_CALLER_TARGETS_IN_BACKGROUND, true)
+        val eventLog = FakeEventLog(InstanceId.fakeInstanceId(1))
+        val testSubject =
+            ChooserListAdapter(
+                context,
+                payloadIntents,
+                /*initialIntents=*/ null,
+                /*rList=*/ null,
+                /*filterLastUsed=*/ false,
+                resolverListController,
+                userHandle,
+                targetIntent,
+                referrerFillInIntent,
+                resolverListCommunicator,
+                packageManager,
+                eventLog,
+                /*maxRankedTargets=*/ 2,
+                /*initialIntentsUserSpace=*/ userHandle,
+                targetDataLoader,
+                null,
+                backgroundExecutor,
+                callerTargetExecutor,
+                immediateExecutor,
+                featureFlags,
+            )
+
+        testSubject.addServiceResults(
+            /* origTarget= */ null,
+            mutableListOf(callerTarget),
+            ChooserActivity.TARGET_TYPE_DEFAULT,
+            /* directShareToShortcutInfos= */ emptyMap(),
+            /* directShareToAppTargets= */ emptyMap(),
+        )
+        // the shortcut loading completes, with no shortcuts, before the caller targets are resolved
+        testSubject.completeServiceTargetLoading()
+        callerTargetExecutor.runUntilIdle()
+
+        assertThat(testSubject.surfacedTargetInfo.map { it.chooserTargetComponentName })
+            .containsExactly(callerTarget.componentName)
+        assertThat(testSubject.surfacedTargetInfo.none { it.isPlaceHolderTargetInfo }).isTrue()
+    }
 }
@@ -0,0 +1,103 @@
+/*
+ * Copyright (C) 2024 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.intentresolver
+
+import android.content.ComponentName
+import android.content.Intent
+import android.content.pm.ActivityInfo
+import android.content.pm.ResolveInfo
+import com.google.common.truth.Truth.assertThat
+import org.junit.Test
+
+class ResolvedComponentFiltersTest {
+    @Test
+    fun indexOfFirstLowPriority_returnsFirstDifferentPriorityOrDefault() {
+        for (size in LIST_SIZES) {
+            val samePriority = createList(size) { ResolveInfo() }
+            assertThat(ResolvedComponentFilters.indexOfFirstLowPriority(samePriority))
+                .isEqualTo(size)
+
+            val lowerPriority =
+                createList(size) { i -> ResolveInfo().apply { priority = if (i < 7) 1 else 0 } }
+            assertThat(ResolvedComponentFilters.indexOfFirstLowPriority(lowerPriority))
+                .isEqualTo(7)
+
+            val notDefault =
+                createList(size) { i -> ResolveInfo().apply { isDefault = i < size / 2 } }
+            assertThat(ResolvedComponentFilters.indexOfFirstLowPriority(notDefault))
+                .isEqualTo(size / 2)
+        }
+    }
+
+    @Test
+    fun indexOfFirstLowPriority_emptyList() {
+        assertThat(ResolvedComponentFilters.indexOfFirstLowPriority(emptyList())).isEqualTo(0)
+    }
+
+    @Test
+    fun retain_removesRejectedElementsInOrder() {
+        for (size in LIST_SIZES) {
+            val list = createList(size) { ResolveInfo() }
+            val keep = BooleanArray(size) { it % 3 != 1 }
+            val expected = list.filterIndexed { i, _ -> keep[i] }
+
+            ResolvedComponentFilters.retain(list, keep)
+
+            assertThat(list).containsExactlyElementsIn(expected).inOrder()
+        }
+    }
+
+    @Test
+    fun retain_keepAll_leavesListUnchanged() {
+        val list = createList(LIST_SIZES.first()) { ResolveInfo() }
+        val expected = ArrayList(list)
+
+        ResolvedComponentFilters.retain(list, BooleanArray(list.size) { true })
+
+        assertThat(list).containsExactlyElementsIn(expected).inOrder()
+    }
+
+    @Test
+    fun retain_keepNone_clearsList() {
+        val list = createList(LIST_SIZES.last()) { ResolveInfo() }
+
+        ResolvedComponentFilters.retain(list, BooleanArray(list.size))
+
+        assertThat(list).isEmpty()
+    }
+
+    private fun createList(
+        size: Int,
+        createResolveInfo: (Int) -> ResolveInfo,
+    ): MutableList<ResolvedComponentInfo> =
+        MutableList(size) { i ->
+            val name = ComponentName("org.pkg.app$i", "org.pkg.app$i.Activity")
+            val resolveInfo =
+                createResolveInfo(i).apply {
+                    activityInfo =
+                        ActivityInfo().apply {
+                            packageName = name.packageName
+                            this.name = name.className
+                        }
+                }
+            ResolvedComponentInfo(name, Intent(), resolveInfo)
+        }
+
+    private companion object {
+        val LIST_SIZES = listOf(50, 500, 5000)
+    }
+}
@@ -0,0 +1,104 @@
+/*
+ * Copyright (C) 2024 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.intentresolver
+
+import android.content.ComponentName
+import android.content.Intent
+import android.content.pm.ActivityInfo
+import android.content.pm.ResolveInfo
+import android.os.UserHandle
+import com.google.common.truth.Truth.assertThat
+import org.junit.Test
+
+class ResolvedComponentIndexTest {
+    private val intent = Intent(Intent.ACTION_SEND)
+
+    @Test
+    fun get_findsExistingRecordsByComponent() {
+        val first = createRecord("pkg1", "Class1")
+        val second = createRecord("pkg2", "Class2")
+        val index = ResolvedComponentIndex(mutableListOf(first, second))
+
+        assertThat(index.get(createResolveInfo("pkg1", "Class1"))).isSameInstanceAs(first)
+        assertThat(index.get(createResolveInfo("pkg2", "Class2"))).isSameInstanceAs(second)
+        assertThat(index.get(createResolveInfo("pkg1", "Class2"))).isNull()
+    }
+
+    @Test
+    fun get_duplicateRecords_findsFirst() {
+        val first = createRecord("pkg", "Class")
+        val index = ResolvedComponentIndex(mutableListOf(first, createRecord("pkg", "Class")))
+
+        assertThat(index.get(createResolveInfo("pkg", "Class"))).isSameInstanceAs(first)
+    }
+
+    @Test
+    fun add_appendsToListAndIndexes() {
+        val list = mutableListOf(createRecord("pkg1", "Class1"))
+        val index = ResolvedComponentIndex(list)
+        val added = createRecord("pkg2", "Class2")
+
+        index.add(added)
+
+        assertThat(list.map { it.name.packageName }).containsExactly("pkg1", "pkg2").inOrder()
+        assertThat(index.get(createResolveInfo("pkg2", "Class2"))).isSameInstanceAs(added)
+    }
+
+    @Test
+    fun multiIntentDedupe_keepsInsertionOrderAndMergesResolutions() {
+        val componentCount = 300
+        val intents = List(9) { Intent("action$it") }
+        val list = mutableListOf<ResolvedComponentInfo>()
+        for (intent in intents) {
+            val index = ResolvedComponentIndex(list)
+            for (i in componentCount - 1 downTo 0) {
+                val info = createResolveInfo("pkg$i", "Class$i")
+                val existing = index.get(info)
+                if (existing != null) {
+                    existing.add(intent, info)
+                } else {
+                    val name = ComponentName("pkg$i", "Class$i")
+                    index.add(ResolvedComponentInfo(name, intent, info))
+                }
+            }
+        }
+
+        assertThat(list).hasSize(componentCount)
+        list.forEachIndexed { position, rci ->
+            assertThat(rci.name.packageName).isEqualTo("pkg${componentCount - 1 - position}")
+            assertThat(rci.count).isEqualTo(intents.size)
+            assertThat(List(rci.count) { rci.getIntentAt(it) }).isEqualTo(intents)
+        }
+    }
+
+    private fun createRecord(packageName: String, className: String) =
+        ResolvedComponentInfo(
+            ComponentName(packageName, className),
+            intent,
+            createResolveInfo(packageName, className),
+        )
+
+    private fun createResolveInfo(packageName: String, className: String) =
+        ResolveInfo().apply {
+            userHandle = UserHandle.of(0)
+            activityInfo =
+                ActivityInfo().apply {
+                    this.packageName = packageName
+                    name = className
+                }
+        }
+}
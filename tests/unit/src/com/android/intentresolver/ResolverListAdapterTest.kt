@@ -33,6 +33,7 @@ import org.junit.Test
 import org.mockito.Mockito.anyBoolean
 import org.mockito.Mockito.inOrder
 import org.mockito.Mockito.never
+import org.mockito.Mockito.times
 import org.mockito.Mockito.verify
 
 private const val PKG_NAME = "org.pkg.app"
@@ -1014,6 +1015,145 @@ class ResolverListAdapterTest {
         verify(communicator, never()).onPostListReady(eq(testSubject), eq(doPostProcessing), any())
     }
 
+    @Test
+    fun test_packagesChanged_changedPackageEntriesReplacedInPlace() {
+        val resolvedTargets =
+            listOf(
+                createResolvedComponent(ComponentName(PKG_NAME, CLASS_NAME)),
+                createResolvedComponent(ComponentName(PKG_NAME_TWO, CLASS_NAME)),
+            )
+        val updatedTargets = listOf(createResolvedComponent(ComponentName(PKG_NAME_TWO, "Other")))
+        whenever(
+                resolverListController.getResolversForIntentAsUser(
+                    true,
+                    resolverListCommunicator.shouldGetActivityMetadata(),
+                    resolverListCommunicator.shouldGetOnlyDefaultActivities(),
+                    payloadIntents,
+                    userHandle
+                )
+            )
+            .thenReturn(ArrayList(resolvedTargets))
+        whenever(
+                resolverListController.getResolversForPackagesAsUser(
+                    true,
+                    resolverListCommunicator.shouldGetActivityMetadata(),
+                    resolverListCommunicator.shouldGetOnlyDefaultActivities(),
+                    payloadIntents,
+                    setOf(PKG_NAME_TWO),
+                    userHandle
+                )
+            )
+            .thenReturn(ArrayList(updatedTargets))
+        val testSubject = createPackageChangeTestSubject()
+        testSubject.rebuildList(/* doPostProcessing= */ true)
+        backgroundExecutor.runUntilIdle()
+        val unchangedTarget = testSubject.getItem(0)
+
+        testSubject.handlePackagesChanged(setOf(PKG_NAME_TWO))
+        backgroundExecutor.runUntilIdle()
+
+        assertThat(testSubject.count).isEqualTo(2)
+        assertThat(testSubject.getItem(0)).isSameInstanceAs(unchangedTarget)
+        assertThat(testSubject.getItem(1).resolvedComponentName)
+            .isEqualTo(ComponentName(PKG_NAME_TWO, "Other"))
+        verify(resolverListController, times(1))
+            .getResolversForIntentAsUser(anyBoolean(), anyBoolean(), anyBoolean(), any(), any())
+    }
+
+    @Test
+    fun test_packagesChanged_packageRemoved_entriesRemovedInPlace() {
+        val resolvedTargets =
+            listOf(
+                createResolvedComponent(ComponentName(PKG_NAME, CLASS_NAME)),
+                createResolvedComponent(ComponentName(PKG_NAME_TWO, CLASS_NAME)),
+                createResolvedComponent(ComponentName(PKG_NAME_THREE, CLASS_NAME)),
+            )
+        whenever(
+                resolverListController.getResolversForIntentAsUser(
+                    true,
+                    resolverListCommunicator.shouldGetActivityMetadata(),
+                    resolverListCommunicator.shouldGetOnlyDefaultActivities(),
+                    payloadIntents,
+                    userHandle
+                )
+            )
+            .thenReturn(ArrayList(resolvedTargets))
+        whenever(
+                resolverListController.getResolversForPackagesAsUser(
+                    anyBoolean(),
+                    anyBoolean(),
+                    anyBoolean(),
+                    any(),
+                    any(),
+                    any()
+                )
+            )
+            .thenReturn(ArrayList())
+        val testSubject = createPackageChangeTestSubject()
+        testSubject.rebuildList(/* doPostProcessing= */ true)
+        backgroundExecutor.runUntilIdle()
+
+        testSubject.handlePackagesChanged(setOf(PKG_NAME_TWO))
+        backgroundExecutor.runUntilIdle()
+
+        assertThat(testSubject.count).isEqualTo(2)
+        assertThat(testSubject.getItem(0).resolvedComponentName.packageName).isEqualTo(PKG_NAME)
+        assertThat(testSubject.getItem(1).resolvedComponentName.packageName)
+            .isEqualTo(PKG_NAME_THREE)
+        assertThat(testSubject.unfilteredResolveList.map { it.name.packageName })
+            .containsExactly(PKG_NAME, PKG_NAME_THREE)
+    }
+
+    @Test
+    fun test_packagesChanged_listNotLoaded_fallsBackToFullUpdate() {
+        val communicator = mock<ResolverListCommunicator>()
+        val testSubject =
+            ResolverListAdapter(
+                context,
+                payloadIntents,
+                /*initialIntents=*/ null,
+                /*rList=*/ null,
+                /*filterLastUsed=*/ true,
+                resolverListController,
+                userHandle,
+                targetIntent,
+                communicator,
+                /*initialIntentsUserSpace=*/ userHandle,
+                targetDataLoader,
+                backgroundExecutor,
+                immediateExecutor,
+            )
+
+        testSubject.handlePackagesChanged(setOf(PKG_NAME))
+
+        verify(communicator).onHandlePackagesChanged(testSubject)
+        assertThat(backgroundExecutor.pendingCommandCount).isEqualTo(0)
+    }
+
+    private fun createPackageChangeTestSubject() =
+        ResolverListAdapter(
+            context,
+            payloadIntents,
+            /*initialIntents=*/ null,
+            /*rList=*/ null,
+            /*filterLastUsed=*/ false,
+            resolverListController,
+            userHandle,
+            targetIntent,
+            resolverListCommunicator,
+            /*initialIntentsUserSpace=*/ userHandle,
+            targetDataLoader,
+            backgroundExecutor,
+            immediateExecutor,
+        )
+
+    private fun createResolvedComponent(component: ComponentName) =
+        ResolvedComponentInfo(
+            component,
+            targetIntent,
+            createResolveInfo(component.packageName, component.className)
+        )
+
     private fun createResolvedComponents(
         vararg components: ComponentName
     ): List<ResolvedComponentInfo> {
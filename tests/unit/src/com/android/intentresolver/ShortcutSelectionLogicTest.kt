@@ -19,6 +19,8 @@ package com.android.intentresolver
 import android.content.ComponentName
 import android.content.Context
 import android.content.Intent
+import android.content.pm.PackageManager
+import android.content.pm.PackageManager.ResolveInfoFlags
 import android.content.pm.ShortcutInfo
 import android.os.UserHandle
 import android.service.chooser.ChooserTarget
@@ -27,8 +29,12 @@ import com.android.intentresolver.chooser.TargetInfo
 import androidx.test.filters.SmallTest
 import androidx.test.platform.app.InstrumentationRegistry
 import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertSame
 import org.junit.Assert.assertTrue
 import org.junit.Test
+import org.mockito.Mockito.never
+import org.mockito.Mockito.verify
 
 private const val PACKAGE_A = "package.a"
 private const val PACKAGE_B = "package.b"
@@ -288,6 +294,74 @@ class ShortcutSelectionLogicTest {
         )
     }
 
+    @Test
+    fun testAddShortcuts_similar_targets_in_later_batch_are_not_added() {
+        val serviceResults = ArrayList<TargetInfo>()
+        val sc1 = packageTargets[PACKAGE_A, 0]
+        val sc2 = packageTargets[PACKAGE_A, 1]
+        val testSubject = ShortcutSelectionLogic(
+            /* maxShortcutTargetsPerApp = */ 1,
+            /* applySharingAppLimits = */ false
+        )
+        val addResults = {
+            testSubject.addServiceResults(
+                /* origTarget = */ baseDisplayInfo,
+                /* origTargetScore = */ 0.1f,
+                /* targets = */ listOf(sc1, sc2),
+                /* isShortcutResult = */ true,
+                /* directShareToShortcutInfos = */ emptyMap(),
+                /* directShareToAppTargets = */ emptyMap(),
+                /* userContext = */ mock(),
+                /* targetIntent = */ mock(),
+                /* refererFillInIntent = */ mock(),
+                /* maxRankedTargets = */ 4,
+                /* serviceTargets = */ serviceResults
+            )
+        }
+
+        assertTrue("Updates are expected", addResults())
+        assertFalse("No updates are expected for similar targets", addResults())
+        assertShortcutsInOrder(
+            listOf(sc2, sc1),
+            serviceResults,
+            "Similar shortcuts are expected to be added once"
+        )
+    }
+
+    @Test
+    fun test_caller_targets_resolved_ahead_are_not_resolved_again() {
+        val serviceResults = ArrayList<TargetInfo>()
+        val sc1 = packageTargets[PACKAGE_A, 0]
+        val resolveInfo = ResolverDataProvider.createResolveInfo(5, 0, PERSONAL_USER_HANDLE)
+        val packageManager = mock<PackageManager>()
+        val context = mock<Context> {
+            whenever(this.packageManager).thenReturn(packageManager)
+        }
+        val testSubject = ShortcutSelectionLogic(
+            /* maxShortcutTargetsPerApp = */ 1,
+            /* applySharingAppLimits = */ true
+        )
+
+        testSubject.addServiceResults(
+            /* origTarget = */ null,
+            /* origTargetScore = */ 0.1f,
+            /* targets = */ listOf(sc1),
+            /* isShortcutResult = */ false,
+            /* directShareToShortcutInfos = */ emptyMap(),
+            /* directShareToAppTargets = */ emptyMap(),
+            /* userContext = */ context,
+            /* targetIntent = */ Intent(Intent.ACTION_SEND),
+            /* refererFillInIntent = */ Intent(),
+            /* maxRankedTargets = */ 4,
+            /* backupResolveInfos = */ mapOf(sc1 to resolveInfo),
+            /* serviceTargets = */ serviceResults
+        )
+
+        assertShortcutsInOrder(listOf(sc1), serviceResults)
+        assertSame(resolveInfo, serviceResults[0].resolveInfo)
+        verify(packageManager, never()).resolveActivity(any(), any<ResolveInfoFlags>())
+    }
+
     // TODO: consider renaming. Not all `ChooserTarget`s are "shortcuts" and many of our test cases
     // add results with `isShortcutResult = false` and `directShareToShortcutInfos = emptyMap()`.
     private fun assertShortcutsInOrder(
@@ -0,0 +1,98 @@
+/*
+ * Copyright (C) 2024 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.intentresolver.concurrency
+
+import android.os.Process
+import com.google.common.truth.Truth.assertThat
+import java.util.Collections
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicInteger
+import org.junit.Test
+
+class MeteredExecutorTest {
+    private val reportedDepths = Collections.synchronizedList(ArrayList<Int>())
+    private val executor =
+        MeteredExecutor(
+            "test",
+            threadCount = 1,
+            threadPriority = Process.THREAD_PRIORITY_DEFAULT,
+        ) { depth ->
+            reportedDepths.add(depth)
+        }
+
+    @Test
+    fun execute_tracksQueueDepth() {
+        val release = CountDownLatch(1)
+        val done = CountDownLatch(3)
+        repeat(3) {
+            executor.execute {
+                release.await(TIMEOUT_SECONDS, TimeUnit.SECONDS)
+                done.countDown()
+            }
+        }
+
+        assertThat(executor.maxQueueDepth).isAtLeast(2)
+
+        release.countDown()
+        assertThat(done.await(TIMEOUT_SECONDS, TimeUnit.SECONDS)).isTrue()
+        assertThat(executor.queueDepth).isEqualTo(0)
+        assertThat(reportedDepths).contains(0)
+    }
+
+    @Test
+    fun serial_runsTasksInOrder() {
+        val order = Collections.synchronizedList(ArrayList<Int>())
+        val done = CountDownLatch(10)
+        val serialExecutor = executor.serial()
+
+        repeat(10) { i ->
+            serialExecutor.execute {
+                order.add(i)
+                done.countDown()
+            }
+        }
+
+        assertThat(done.await(TIMEOUT_SECONDS, TimeUnit.SECONDS)).isTrue()
+        assertThat(order).containsExactlyElementsIn(0 until 10).inOrder()
+    }
+
+    @Test
+    fun limited_runsAtMostParallelismTasksAtOnce() {
+        val pool = MeteredExecutor("test-pool", threadCount = 4) {}
+        val limitedExecutor = pool.limited(parallelism = 2)
+        val running = AtomicInteger()
+        val maxRunning = AtomicInteger()
+        val done = CountDownLatch(8)
+
+        repeat(8) {
+            limitedExecutor.execute {
+                maxRunning.accumulateAndGet(running.incrementAndGet(), ::maxOf)
+                Thread.sleep(10)
+                running.decrementAndGet()
+                done.countDown()
+            }
+        }
+
+        assertThat(done.await(TIMEOUT_SECONDS, TimeUnit.SECONDS)).isTrue()
+        assertThat(maxRunning.get()).isAtMost(2)
+    }
+
+    private companion object {
+        const val TIMEOUT_SECONDS = 5L
+    }
+}
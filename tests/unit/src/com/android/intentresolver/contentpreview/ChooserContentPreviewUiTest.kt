@@ -31,6 +31,7 @@ import com.google.common.truth.Truth.assertThat
 import java.util.function.Consumer
 import kotlin.coroutines.EmptyCoroutineContext
 import kotlinx.coroutines.flow.MutableSharedFlow
+import kotlinx.coroutines.flow.MutableStateFlow
 import kotlinx.coroutines.test.TestScope
 import kotlinx.coroutines.test.UnconfinedTestDispatcher
 import org.junit.Rule
@@ -62,7 +63,8 @@ class ChooserContentPreviewUiTest {
 
     private fun createContentPreviewUi(
         targetIntent: Intent,
-        isPayloadTogglingEnabled: Boolean = false
+        isPayloadTogglingEnabled: Boolean = false,
+        isProgressive: Boolean = false,
     ) =
         ChooserContentPreviewUi(
             testScope,
@@ -75,6 +77,7 @@ class ChooserContentPreviewUiTest {
             ContentTypeHint.NONE,
             testMetadataText,
             isPayloadTogglingEnabled,
+            isProgressive,
         )
 
     @Test
@@ -151,4 +154,49 @@ class ChooserContentPreviewUiTest {
         assertThat(testSubject.mContentPreviewUi)
             .isInstanceOf(ShareouselContentPreviewUi::class.java)
     }
+
+    @Test
+    fun test_progressiveMode_provisionalTypeIsUsedWithoutWaitingForMetadata() {
+        whenever(previewData.provisionalPreviewType)
+            .thenReturn(ContentPreviewType.CONTENT_PREVIEW_IMAGE)
+        whenever(previewData.previewTypeFlow)
+            .thenReturn(MutableStateFlow(ContentPreviewType.CONTENT_PREVIEW_IMAGE))
+        whenever(previewData.uriCount).thenReturn(2)
+        whenever(previewData.imagePreviewFileInfoFlow).thenReturn(MutableSharedFlow())
+        val testSubject =
+            createContentPreviewUi(
+                targetIntent = Intent(Intent.ACTION_SEND).apply { type = "image/png" },
+                isProgressive = true,
+            )
+
+        assertThat(testSubject.mContentPreviewUi).isInstanceOf(UnifiedContentPreviewUi::class.java)
+        verify(previewData, never()).previewType
+        verify(previewData, never()).firstFileInfo
+        verify(transitionCallback, never()).onAllTransitionElementsReady()
+    }
+
+    @Test
+    fun test_progressiveMode_finalTypeDiffers_previewIsReplaced() {
+        val previewTypeFlow = MutableStateFlow(ContentPreviewType.CONTENT_PREVIEW_IMAGE)
+        whenever(previewData.provisionalPreviewType)
+            .thenReturn(ContentPreviewType.CONTENT_PREVIEW_IMAGE)
+        whenever(previewData.previewTypeFlow).thenReturn(previewTypeFlow)
+        whenever(previewData.uriCount).thenReturn(2)
+        whenever(previewData.imagePreviewFileInfoFlow).thenReturn(MutableSharedFlow())
+        val testSubject =
+            createContentPreviewUi(
+                targetIntent = Intent(Intent.ACTION_SEND).apply { type = "image/png" },
+                isProgressive = true,
+            )
+        var changeCount = 0
+        testSubject.setOnContentPreviewChangedListener { changeCount++ }
+
+        previewTypeFlow.value = ContentPreviewType.CONTENT_PREVIEW_FILE
+
+        assertThat(testSubject.preferredContentPreview)
+            .isEqualTo(ContentPreviewType.CONTENT_PREVIEW_FILE)
+        assertThat(testSubject.mContentPreviewUi).isInstanceOf(FileContentPreviewUi::class.java)
+        assertThat(changeCount).isEqualTo(1)
+        verify(transitionCallback, times(1)).onAllTransitionElementsReady()
+    }
 }
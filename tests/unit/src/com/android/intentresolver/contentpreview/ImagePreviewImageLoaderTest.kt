@@ -16,6 +16,7 @@
 
 package com.android.intentresolver.contentpreview
 
+import android.content.ComponentCallbacks2
 import android.content.ContentResolver
 import android.graphics.Bitmap
 import android.net.Uri
@@ -43,6 +44,7 @@ import kotlinx.coroutines.Dispatchers
 import kotlinx.coroutines.ExperimentalCoroutinesApi
 import kotlinx.coroutines.Runnable
 import kotlinx.coroutines.async
+import kotlinx.coroutines.cancelAndJoin
 import kotlinx.coroutines.coroutineScope
 import kotlinx.coroutines.launch
 import kotlinx.coroutines.plus
@@ -67,7 +69,9 @@ class ImagePreviewImageLoaderTest {
     private val imageSize = Size(300, 300)
     private val uriOne = Uri.parse("content://org.package.app/image-1.png")
     private val uriTwo = Uri.parse("content://org.package.app/image-2.png")
-    private val bitmap = Bitmap.createBitmap(1, 1, Bitmap.Config.ARGB_8888)
+    private val bitmap =
+        Bitmap.createBitmap(imageSize.width, imageSize.height, Bitmap.Config.ARGB_8888)
+    private val singleImageCacheSize = bitmap.allocationByteCount
     private val contentResolver =
         mock<ContentResolver> {
             whenever(loadThumbnail(any(), any(), anyOrNull())).thenReturn(bitmap)
@@ -86,7 +90,8 @@ class ImagePreviewImageLoaderTest {
                 lifecycleOwner.lifecycle.coroutineScope + dispatcher,
                 imageSize.width,
                 contentResolver,
-                cacheSize = 1,
+                cacheSizeBytes = singleImageCacheSize,
+                stripeCount = 1,
             )
     }
 
@@ -132,7 +137,7 @@ class ImagePreviewImageLoaderTest {
                 lifecycleOwner.lifecycle.coroutineScope + dispatcher,
                 imageSize.width,
                 contentResolver,
-                cacheSize = 1,
+                cacheSizeBytes = singleImageCacheSize,
             )
         coroutineScope {
             launch(start = UNDISPATCHED) { testSubject(uriOne, false) }
@@ -178,7 +183,7 @@ class ImagePreviewImageLoaderTest {
                 lifecycleOwner.lifecycle.coroutineScope + dispatcher,
                 imageSize.width,
                 contentResolver,
-                cacheSize = 1,
+                cacheSizeBytes = singleImageCacheSize,
             )
         coroutineScope {
             val deferred = async(start = UNDISPATCHED) { testSubject(uriOne, false) }
@@ -197,7 +202,8 @@ class ImagePreviewImageLoaderTest {
                 lifecycleOwner.lifecycle.coroutineScope + dispatcher,
                 imageSize.width,
                 contentResolver,
-                cacheSize = 1,
+                cacheSizeBytes = singleImageCacheSize,
+                stripeCount = 1,
             )
         coroutineScope {
             launch(start = UNDISPATCHED) { testSubject(uriOne, false) }
@@ -209,6 +215,157 @@ class ImagePreviewImageLoaderTest {
         verify(contentResolver, times(1)).loadThumbnail(uriOne, imageSize, null)
     }
 
+    @Test
+    fun invoke_cacheIsLimitedByBitmapBytes() = runTest {
+        val smallBitmap = Bitmap.createBitmap(1, 1, Bitmap.Config.ARGB_8888)
+        whenever(contentResolver.loadThumbnail(any(), any(), anyOrNull())).thenReturn(smallBitmap)
+
+        testSubject(uriOne)
+        testSubject(uriTwo)
+        testSubject(uriOne)
+        testSubject(uriTwo)
+
+        verify(contentResolver, times(1)).loadThumbnail(uriOne, imageSize, null)
+        verify(contentResolver, times(1)).loadThumbnail(uriTwo, imageSize, null)
+    }
+
+    @Test
+    fun cacheStats_reflectsHitsMissesAndEvictions() = runTest {
+        testSubject(uriOne)
+        testSubject(uriOne)
+        testSubject(uriTwo)
+
+        val stats = testSubject.cacheStats
+        assertThat(stats.hitCount).isEqualTo(1)
+        assertThat(stats.missCount).isEqualTo(2)
+        assertThat(stats.evictionCount).isEqualTo(1)
+        assertThat(stats.sizeBytes).isEqualTo(bitmap.allocationByteCount.toLong())
+    }
+
+    @Test
+    fun onTrimMemory_backgroundLevel_evictsCachedImages() = runTest {
+        testSubject(uriOne)
+
+        testSubject.onTrimMemory(ComponentCallbacks2.TRIM_MEMORY_BACKGROUND)
+        testSubject(uriOne)
+
+        verify(contentResolver, times(2)).loadThumbnail(uriOne, imageSize, null)
+        assertThat(testSubject.cacheStats.sizeBytes).isEqualTo(bitmap.allocationByteCount.toLong())
+    }
+
+    @Test
+    fun invoke_hardwareBitmaps_softwareBitmapIsRecycled() = runTest {
+        val testSubject =
+            ImagePreviewImageLoader(
+                lifecycleOwner.lifecycle.coroutineScope + dispatcher,
+                imageSize.width,
+                contentResolver,
+                cacheSizeBytes = singleImageCacheSize,
+                useHardwareBitmaps = true,
+            )
+
+        val result = testSubject(uriOne)
+
+        assertThat(result?.config).isEqualTo(Bitmap.Config.HARDWARE)
+        assertThat(bitmap.isRecycled).isTrue()
+    }
+
+    @Test
+    fun updateViewport_upcomingImagesArePrefetched() = runTest {
+        testSubject.updateViewport(visible = emptyList(), upcoming = listOf(uriOne))
+
+        verify(contentResolver, times(1)).loadThumbnail(uriOne, imageSize, null)
+
+        testSubject(uriOne)
+        verify(contentResolver, times(1)).loadThumbnail(uriOne, imageSize, null)
+    }
+
+    @Test
+    fun invoke_visibleImagesAreLoadedFirst() = runTest {
+        val uriThree = Uri.parse("content://org.package.app/image-3.png")
+        val loadOrder = ArrayList<Uri>()
+        whenever(contentResolver.loadThumbnail(any(), any(), anyOrNull())).thenAnswer {
+            loadOrder.add(it.arguments[0] as Uri)
+            bitmap
+        }
+        val scheduler = TestCoroutineScheduler()
+        val dispatcher = StandardTestDispatcher(scheduler)
+        val semaphore = Semaphore(1)
+        semaphore.acquire()
+        val testSubject =
+            ImagePreviewImageLoader(
+                lifecycleOwner.lifecycle.coroutineScope + dispatcher,
+                imageSize.width,
+                contentResolver,
+                cacheSizeBytes = singleImageCacheSize,
+                semaphore,
+            )
+        coroutineScope {
+            launch(start = UNDISPATCHED) { testSubject(uriOne, false) }
+            launch(start = UNDISPATCHED) { testSubject(uriTwo, false) }
+            launch(start = UNDISPATCHED) { testSubject(uriThree, false) }
+            scheduler.advanceUntilIdle()
+
+            testSubject.updateViewport(visible = listOf(uriThree), upcoming = emptyList())
+            semaphore.release()
+            scheduler.advanceUntilIdle()
+        }
+
+        assertThat(loadOrder).containsExactly(uriOne, uriThree, uriTwo).inOrder()
+    }
+
+    @Test
+    fun invoke_callerCancelledBeforeLoadingStarted_loadingIsCancelled() = runTest {
+        val scheduler = TestCoroutineScheduler()
+        val dispatcher = StandardTestDispatcher(scheduler)
+        val semaphore = Semaphore(1)
+        semaphore.acquire()
+        val testSubject =
+            ImagePreviewImageLoader(
+                lifecycleOwner.lifecycle.coroutineScope + dispatcher,
+                imageSize.width,
+                contentResolver,
+                cacheSizeBytes = singleImageCacheSize,
+                semaphore,
+            )
+        val job = launch(start = UNDISPATCHED) { testSubject(uriOne, true) }
+        scheduler.advanceUntilIdle()
+
+        job.cancelAndJoin()
+        semaphore.release()
+        scheduler.advanceUntilIdle()
+
+        verify(contentResolver, never()).loadThumbnail(any(), any(), anyOrNull())
+    }
+
+    @Test
+    fun invoke_afterStalePrefetchCancelled_startsNewRequest() = runTest {
+        val scheduler = TestCoroutineScheduler()
+        val dispatcher = StandardTestDispatcher(scheduler)
+        val semaphore = Semaphore(1)
+        semaphore.acquire()
+        val testSubject =
+            ImagePreviewImageLoader(
+                lifecycleOwner.lifecycle.coroutineScope + dispatcher,
+                imageSize.width,
+                contentResolver,
+                cacheSizeBytes = singleImageCacheSize,
+                semaphore,
+            )
+        testSubject.updateViewport(visible = emptyList(), upcoming = listOf(uriOne))
+        scheduler.advanceUntilIdle()
+
+        // the prefetch is cancelled, but its job only completes once the dispatcher runs again;
+        // the waiter attached in between must not be cancelled along with it
+        testSubject.updateViewport(visible = emptyList(), upcoming = emptyList())
+        val result = async(start = UNDISPATCHED) { testSubject(uriOne) }
+        semaphore.release()
+        scheduler.advanceUntilIdle()
+
+        assertThat(result.await()).isSameInstanceAs(bitmap)
+        verify(contentResolver, times(1)).loadThumbnail(uriOne, imageSize, null)
+    }
+
     @Test
     fun invoke_semaphoreGuardsContentResolverCalls() = runTest {
         val contentResolver =
@@ -241,7 +398,7 @@ class ImagePreviewImageLoaderTest {
                 lifecycleOwner.lifecycle.coroutineScope + dispatcher,
                 imageSize.width,
                 contentResolver,
-                cacheSize = 1,
+                cacheSizeBytes = singleImageCacheSize,
                 testSemaphore,
             )
         testSubject(uriOne, false)
@@ -278,7 +435,7 @@ class ImagePreviewImageLoaderTest {
                 lifecycleOwner.lifecycle.coroutineScope + dispatcher,
                 imageSize.width,
                 contentResolver,
-                cacheSize = 1,
+                cacheSizeBytes = singleImageCacheSize,
                 testSemaphore,
             )
         launch(start = UNDISPATCHED) { testSubject(uriOne, false) }
@@ -315,7 +472,7 @@ class ImagePreviewImageLoaderTest {
                 lifecycleOwner.lifecycle.coroutineScope + dispatcher + CoroutineName(name),
                 imageSize.width,
                 contentResolver,
-                cacheSize = 1,
+                cacheSizeBytes = singleImageCacheSize,
                 maxSimultaneousRequests,
             )
         runTest {
@@ -24,6 +24,8 @@ import android.net.Uri
 import android.platform.test.flag.junit.CheckFlagsRule
 import android.platform.test.flag.junit.DeviceFlagsValueProvider
 import android.provider.DocumentsContract
+import com.android.intentresolver.anyOrNull
+import com.android.intentresolver.eq
 import com.android.intentresolver.mock
 import com.android.intentresolver.whenever
 import com.google.common.truth.Truth.assertThat
@@ -33,6 +35,7 @@ import kotlinx.coroutines.ExperimentalCoroutinesApi
 import kotlinx.coroutines.flow.toList
 import kotlinx.coroutines.test.TestScope
 import kotlinx.coroutines.test.UnconfinedTestDispatcher
+import kotlinx.coroutines.test.advanceUntilIdle
 import kotlinx.coroutines.test.runTest
 import org.junit.Rule
 import org.junit.Test
@@ -441,4 +444,156 @@ class PreviewDataProviderTest {
         assertThat(testSubject.previewType).isEqualTo(ContentPreviewType.CONTENT_PREVIEW_TEXT)
         verify(contentResolver, never()).getType(any())
     }
+
+    @Test
+    fun test_mediaStoreUris_metadataIsReadWithOneQuery() =
+        testScope.runTest {
+            val collection = Uri.parse("content://media/external/images/media")
+            val uri1 = Uri.withAppendedPath(collection, "1")
+            val uri2 = Uri.withAppendedPath(collection, "2")
+            val targetIntent =
+                Intent(Intent.ACTION_SEND_MULTIPLE).apply {
+                    putExtra(Intent.EXTRA_STREAM, arrayListOf(uri1, uri2))
+                }
+            whenever(
+                    contentResolver.query(
+                        eq(collection),
+                        eq(BULK_METADATA_COLUMNS),
+                        anyOrNull(),
+                        anyOrNull()
+                    )
+                )
+                .thenReturn(
+                    MatrixCursor(BULK_METADATA_COLUMNS).apply {
+                        addRow(arrayOf(2L, "image/jpeg", "two.jpg"))
+                        addRow(arrayOf(1L, "image/png", "one.png"))
+                    }
+                )
+            val testSubject = createDataProvider(targetIntent)
+
+            val fileInfos = testSubject.imagePreviewFileInfoFlow.toList()
+
+            assertThat(testSubject.previewType).isEqualTo(ContentPreviewType.CONTENT_PREVIEW_IMAGE)
+            assertThat(fileInfos.map { it.uri }).containsExactly(uri1, uri2).inOrder()
+            assertThat(fileInfos.map { it.mimeType })
+                .containsExactly("image/png", "image/jpeg")
+                .inOrder()
+            assertThat(fileInfos.map { it.previewUri }).containsExactly(uri1, uri2).inOrder()
+            verify(contentResolver, never()).getType(any())
+            verify(contentResolver, times(1)).query(any(), any(), anyOrNull(), anyOrNull())
+        }
+
+    @Test
+    fun test_mediaStoreUriMissingFromBulkQuery_fallsBackToPerUriCalls() =
+        testScope.runTest {
+            val collection = Uri.parse("content://media/external/images/media")
+            val uri1 = Uri.withAppendedPath(collection, "1")
+            val uri2 = Uri.withAppendedPath(collection, "2")
+            val targetIntent =
+                Intent(Intent.ACTION_SEND_MULTIPLE).apply {
+                    putExtra(Intent.EXTRA_STREAM, arrayListOf(uri1, uri2))
+                }
+            whenever(
+                    contentResolver.query(
+                        eq(collection),
+                        eq(BULK_METADATA_COLUMNS),
+                        anyOrNull(),
+                        anyOrNull()
+                    )
+                )
+                .thenReturn(
+                    MatrixCursor(BULK_METADATA_COLUMNS).apply {
+                        addRow(arrayOf(1L, "image/png", "one.png"))
+                    }
+                )
+            whenever(contentResolver.getType(uri2)).thenReturn("image/jpeg")
+            val testSubject = createDataProvider(targetIntent)
+
+            val fileInfos = testSubject.imagePreviewFileInfoFlow.toList()
+
+            assertThat(fileInfos.map { it.mimeType })
+                .containsExactly("image/png", "image/jpeg")
+                .inOrder()
+            verify(contentResolver, never()).getType(uri1)
+            verify(contentResolver, times(1)).getType(uri2)
+        }
+
+    @Test
+    fun test_nonMediaStoreUris_noBulkQuery() =
+        testScope.runTest {
+            val uri1 = Uri.parse("content://org.pkg.app/test1.png")
+            val uri2 = Uri.parse("content://org.pkg.app/test2.png")
+            val targetIntent =
+                Intent(Intent.ACTION_SEND_MULTIPLE).apply {
+                    putExtra(Intent.EXTRA_STREAM, arrayListOf(uri1, uri2))
+                }
+            whenever(contentResolver.getType(uri1)).thenReturn("image/png")
+            whenever(contentResolver.getType(uri2)).thenReturn("image/png")
+            val testSubject = createDataProvider(targetIntent)
+
+            testSubject.imagePreviewFileInfoFlow.toList()
+
+            verify(contentResolver, never())
+                .query(any(), eq(BULK_METADATA_COLUMNS), anyOrNull(), anyOrNull())
+        }
+
+    @Test
+    fun test_provisionalPreviewType_isDerivedFromIntentTypeWithoutMetadata() {
+        val uri = Uri.parse("content://org.pkg.app/image.png")
+        val targetIntent =
+            Intent(Intent.ACTION_SEND).apply {
+                type = "image/png"
+                putExtra(Intent.EXTRA_STREAM, uri)
+            }
+        val testSubject = createDataProvider(targetIntent)
+
+        assertThat(testSubject.provisionalPreviewType)
+            .isEqualTo(ContentPreviewType.CONTENT_PREVIEW_IMAGE)
+        verify(contentResolver, never()).getType(any())
+    }
+
+    @Test
+    fun test_provisionalPreviewTypeForGenericIntentType_isFile() {
+        val uri = Uri.parse("content://org.pkg.app/image.png")
+        val targetIntent =
+            Intent(Intent.ACTION_SEND).apply {
+                type = "*/*"
+                putExtra(Intent.EXTRA_STREAM, uri)
+            }
+        val testSubject = createDataProvider(targetIntent)
+
+        assertThat(testSubject.provisionalPreviewType)
+            .isEqualTo(ContentPreviewType.CONTENT_PREVIEW_FILE)
+        verify(contentResolver, never()).getType(any())
+    }
+
+    @Test
+    fun test_previewTypeFlow_startsProvisionalAndSettlesOnFinalType() {
+        val uri = Uri.parse("content://org.pkg.app/image.png")
+        val targetIntent =
+            Intent(Intent.ACTION_SEND).apply {
+                type = "*/*"
+                putExtra(Intent.EXTRA_STREAM, uri)
+            }
+        whenever(contentResolver.getType(uri)).thenReturn("image/png")
+        val scope = TestScope()
+        val testSubject = createDataProvider(targetIntent, scope = scope)
+
+        val previewTypeFlow = testSubject.previewTypeFlow
+        assertThat(previewTypeFlow.value).isEqualTo(ContentPreviewType.CONTENT_PREVIEW_FILE)
+
+        scope.advanceUntilIdle()
+
+        assertThat(previewTypeFlow.value).isEqualTo(ContentPreviewType.CONTENT_PREVIEW_IMAGE)
+        verify(contentResolver, times(1)).getType(any())
+    }
+
+    @Test
+    fun test_previewTypeFlowForNonSendIntent_isFinalImmediately() {
+        val testSubject = createDataProvider(Intent(Intent.ACTION_VIEW))
+
+        assertThat(testSubject.previewTypeFlow.value)
+            .isEqualTo(ContentPreviewType.CONTENT_PREVIEW_TEXT)
+        verify(contentResolver, never()).getType(any())
+    }
 }
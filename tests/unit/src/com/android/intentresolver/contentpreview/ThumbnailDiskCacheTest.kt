@@ -0,0 +1,169 @@
+/*
+ * Copyright (C) 2024 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.intentresolver.contentpreview
+
+import android.content.ContentInterface
+import android.database.MatrixCursor
+import android.graphics.Bitmap
+import android.net.Uri
+import android.provider.DocumentsContract
+import android.provider.OpenableColumns
+import androidx.test.platform.app.InstrumentationRegistry
+import com.android.intentresolver.anyOrNull
+import com.android.intentresolver.eq
+import com.android.intentresolver.mock
+import com.android.intentresolver.whenever
+import com.google.common.truth.Truth.assertThat
+import java.io.File
+import org.junit.After
+import org.junit.Test
+
+class ThumbnailDiskCacheTest {
+    private val uriOne = Uri.parse("content://org.package.app/image-1.png")
+    private val uriTwo = Uri.parse("content://org.package.app/image-2.png")
+    private val thumbnailSize = 100
+    private val signature = ThumbnailDiskCache.Signature(lastModified = 1_000L, size = 2_000L)
+    private val bitmap =
+        Bitmap.createBitmap(thumbnailSize, thumbnailSize, Bitmap.Config.ARGB_8888).apply {
+            eraseColor(0xff00ff00.toInt())
+        }
+    private val directory =
+        File(
+            InstrumentationRegistry.getInstrumentation().context.cacheDir,
+            "thumbnail-disk-cache-test"
+        )
+    private val probeDirectory = File(directory.parentFile, "thumbnail-disk-cache-test-probe")
+    private val contentResolver = mock<ContentInterface>()
+
+    @After
+    fun cleanup() {
+        directory.deleteRecursively()
+        probeDirectory.deleteRecursively()
+    }
+
+    @Test
+    fun getInstance_sharedByAllContexts() {
+        val context = InstrumentationRegistry.getInstrumentation().targetContext
+
+        assertThat(ThumbnailDiskCache.getInstance(context))
+            .isSameInstanceAs(ThumbnailDiskCache.getInstance(context.applicationContext))
+    }
+
+    @Test
+    fun readSignature_readsLastModifiedAndSize() {
+        whenever(
+                contentResolver.query(
+                    eq(uriOne),
+                    eq(THUMBNAIL_SIGNATURE_COLUMNS),
+                    anyOrNull(),
+                    anyOrNull()
+                )
+            )
+            .thenReturn(
+                MatrixCursor(
+                        arrayOf(
+                            DocumentsContract.Document.COLUMN_LAST_MODIFIED,
+                            OpenableColumns.SIZE
+                        )
+                    )
+                    .apply { addRow(arrayOf(1_000L, 2_000L)) }
+            )
+        val testSubject = ThumbnailDiskCache(directory, contentResolver)
+
+        assertThat(testSubject.readSignature(uriOne)).isEqualTo(signature)
+    }
+
+    @Test
+    fun readSignature_noMetadata_returnsNull() {
+        whenever(
+                contentResolver.query(
+                    eq(uriOne),
+                    eq(THUMBNAIL_SIGNATURE_COLUMNS),
+                    anyOrNull(),
+                    anyOrNull()
+                )
+            )
+            .thenReturn(
+                MatrixCursor(arrayOf(OpenableColumns.DISPLAY_NAME)).apply { addRow(arrayOf("a")) }
+            )
+        val testSubject = ThumbnailDiskCache(directory, contentResolver)
+
+        assertThat(testSubject.readSignature(uriOne)).isNull()
+    }
+
+    @Test
+    fun get_storedThumbnail_isReturnedByAnotherInstance() {
+        ThumbnailDiskCache(directory, contentResolver).put(uriOne, thumbnailSize, signature, bitmap)
+
+        val result =
+            ThumbnailDiskCache(directory, contentResolver).get(uriOne, thumbnailSize, signature)
+
+        assertThat(result).isNotNull()
+        assertThat(result?.width).isEqualTo(bitmap.width)
+        assertThat(result?.height).isEqualTo(bitmap.height)
+    }
+
+    @Test
+    fun get_signatureMismatch_entryIsDropped() {
+        val testSubject = ThumbnailDiskCache(directory, contentResolver)
+        testSubject.put(uriOne, thumbnailSize, signature, bitmap)
+
+        assertThat(testSubject.get(uriOne, thumbnailSize, signature.copy(lastModified = 1_001L)))
+            .isNull()
+        assertThat(testSubject.get(uriOne, thumbnailSize, signature)).isNull()
+    }
+
+    @Test
+    fun get_differentThumbnailSize_returnsNull() {
+        val testSubject = ThumbnailDiskCache(directory, contentResolver)
+        testSubject.put(uriOne, thumbnailSize, signature, bitmap)
+
+        assertThat(testSubject.get(uriOne, thumbnailSize * 2, signature)).isNull()
+    }
+
+    @Test
+    fun put_overCapacity_leastRecentlyUsedEntryIsEvicted() {
+        val testSubject =
+            ThumbnailDiskCache(directory, Long.MAX_VALUE, contentResolver, capacity = 1)
+        testSubject.put(uriOne, thumbnailSize, signature, bitmap)
+        testSubject.put(uriTwo, thumbnailSize, signature, bitmap)
+
+        assertThat(testSubject.get(uriOne, thumbnailSize, signature)).isNull()
+        assertThat(testSubject.get(uriTwo, thumbnailSize, signature)).isNotNull()
+    }
+
+    @Test
+    fun put_overByteBudget_leastRecentlyUsedEntryIsEvicted() {
+        val uriThree = Uri.parse("content://org.package.app/image-3.png")
+        ThumbnailDiskCache(probeDirectory, contentResolver)
+            .put(uriOne, thumbnailSize, signature, bitmap)
+        val entryBytes =
+            probeDirectory.listFiles()!!.filter { it.name != "index" }.sumOf { it.length() }
+        val testSubject =
+            ThumbnailDiskCache(directory, entryBytes * 2, contentResolver, capacity = 16)
+
+        testSubject.put(uriOne, thumbnailSize, signature, bitmap)
+        testSubject.put(uriTwo, thumbnailSize, signature, bitmap)
+        // touch the first entry so the second one is the least recently used
+        assertThat(testSubject.get(uriOne, thumbnailSize, signature)).isNotNull()
+        testSubject.put(uriThree, thumbnailSize, signature, bitmap)
+
+        assertThat(testSubject.get(uriOne, thumbnailSize, signature)).isNotNull()
+        assertThat(testSubject.get(uriTwo, thumbnailSize, signature)).isNull()
+        assertThat(testSubject.get(uriThree, thumbnailSize, signature)).isNotNull()
+    }
+}
@@ -27,6 +27,8 @@ import org.mockito.Mockito.any
 import org.mockito.Mockito.anyInt
 import org.mockito.Mockito.eq
 import org.mockito.Mockito.nullable
+import org.mockito.Mockito.times
+import org.mockito.Mockito.verify
 
 class CrossProfileIntentsCheckerTest {
     private val PERSONAL_USER_ID = 10
@@ -81,4 +83,97 @@ class CrossProfileIntentsCheckerTest {
         assertThat(checker.hasCrossProfileIntents(intents, PERSONAL_USER_ID, WORK_USER_ID))
             .isFalse()
     }
+
+    @Test
+    fun testChecker_cachesDecisionsPerFilterAndUsers() {
+        val packageManager =
+            mock<IPackageManager> {
+                whenever(
+                        canForwardTo(
+                            any(Intent::class.java),
+                            nullable(String::class.java),
+                            anyInt(),
+                            anyInt()
+                        )
+                    )
+                    .thenReturn(false)
+            }
+        val checker = CrossProfileIntentsChecker(contentResolver, packageManager)
+        val intents = listOf(Intent(Intent.ACTION_SEND).putExtra(Intent.EXTRA_TEXT, "text"))
+
+        checker.hasCrossProfileIntents(intents, PERSONAL_USER_ID, WORK_USER_ID)
+        checker.hasCrossProfileIntents(
+            listOf(Intent(Intent.ACTION_SEND).putExtra(Intent.EXTRA_TEXT, "other text")),
+            PERSONAL_USER_ID,
+            WORK_USER_ID
+        )
+        checker.hasCrossProfileIntents(intents, WORK_USER_ID, PERSONAL_USER_ID)
+
+        verify(packageManager, times(1))
+            .canForwardTo(
+                any(Intent::class.java),
+                nullable(String::class.java),
+                eq(PERSONAL_USER_ID),
+                eq(WORK_USER_ID)
+            )
+        verify(packageManager, times(1))
+            .canForwardTo(
+                any(Intent::class.java),
+                nullable(String::class.java),
+                eq(WORK_USER_ID),
+                eq(PERSONAL_USER_ID)
+            )
+    }
+
+    @Test
+    fun testChecker_prefetchedDecisionIsReused() {
+        val packageManager =
+            mock<IPackageManager> {
+                whenever(
+                        canForwardTo(
+                            any(Intent::class.java),
+                            nullable(String::class.java),
+                            anyInt(),
+                            anyInt()
+                        )
+                    )
+                    .thenReturn(true)
+            }
+        val checker = CrossProfileIntentsChecker(contentResolver, packageManager)
+        val intents = listOf(Intent(Intent.ACTION_SEND))
+
+        checker.prefetchCrossProfileIntents(intents, PERSONAL_USER_ID, WORK_USER_ID) { it.run() }
+
+        assertThat(checker.hasCrossProfileIntents(intents, PERSONAL_USER_ID, WORK_USER_ID)).isTrue()
+        verify(packageManager, times(1))
+            .canForwardTo(
+                any(Intent::class.java),
+                nullable(String::class.java),
+                anyInt(),
+                anyInt()
+            )
+    }
+
+    @Test
+    fun testChecker_pendingPrefetchIsNotWaitedFor() {
+        val packageManager =
+            mock<IPackageManager> {
+                whenever(
+                        canForwardTo(
+                            any(Intent::class.java),
+                            nullable(String::class.java),
+                            anyInt(),
+                            anyInt()
+                        )
+                    )
+                    .thenReturn(true)
+            }
+        val checker = CrossProfileIntentsChecker(contentResolver, packageManager)
+        val intents = listOf(Intent(Intent.ACTION_SEND))
+
+        // the executor never runs the prefetch
+        checker.prefetchCrossProfileIntents(intents, PERSONAL_USER_ID, WORK_USER_ID) {}
+
+        assertThat(checker.hasCrossProfileIntents(intents, PERSONAL_USER_ID, WORK_USER_ID)).isTrue()
+    }
 }
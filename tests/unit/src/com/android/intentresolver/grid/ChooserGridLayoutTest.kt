@@ -0,0 +1,118 @@
+/*
+ * Copyright (C) 2024 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.intentresolver.grid
+
+import com.google.common.truth.Truth.assertThat
+import org.junit.Test
+
+class ChooserGridLayoutTest {
+    @Test
+    fun allSections_viewTypesAndListPositions() {
+        // 1 system row, 1 service row (3 targets), 2 ranked rows (6 targets), a label, 3 A-Z
+        // targets and the footer
+        val layout =
+            createLayout(
+                systemRowCount = 1,
+                serviceTargetRowCount = 1,
+                serviceTargetCount = 3,
+                callerAndRankedTargetCount = 6,
+                alphaTargetCount = 3,
+            )
+
+        assertThat(layout.itemCount).isEqualTo(9)
+        assertThat(layout.rowCount).isEqualTo(6)
+        assertThat(layout.azLabelRowPosition).isEqualTo(4)
+        assertThat((0 until layout.itemCount).map { layout.getItemViewType(it) })
+            .containsExactly(
+                PREVIEW,
+                DIRECT_SHARE,
+                CALLER_AND_RANK,
+                CALLER_AND_RANK,
+                AZ_LABEL,
+                NORMAL,
+                NORMAL,
+                NORMAL,
+                FOOTER,
+            )
+            .inOrder()
+        assertThat(layout.getListPosition(1)).isEqualTo(0)
+        assertThat(layout.getListPosition(2)).isEqualTo(3)
+        assertThat(layout.getListPosition(3)).isEqualTo(7)
+        assertThat(layout.getListPosition(5)).isEqualTo(9)
+        assertThat(layout.getListPosition(7)).isEqualTo(11)
+    }
+
+    @Test
+    fun emptySectionsAreSkipped() {
+        val layout = createLayout(callerAndRankedTargetCount = 5)
+
+        assertThat(layout.itemCount).isEqualTo(3)
+        assertThat(layout.azLabelRowPosition).isEqualTo(-1)
+        assertThat((0 until layout.itemCount).map { layout.getItemViewType(it) })
+            .containsExactly(CALLER_AND_RANK, CALLER_AND_RANK, FOOTER)
+            .inOrder()
+        assertThat(layout.getListPosition(1)).isEqualTo(4)
+    }
+
+    @Test
+    fun footerOnly() {
+        val layout = createLayout()
+
+        assertThat(layout.itemCount).isEqualTo(1)
+        assertThat(layout.rowCount).isEqualTo(0)
+        assertThat(layout.getItemViewType(0)).isEqualTo(FOOTER)
+    }
+
+    @Test
+    fun hasSameRows() {
+        val layout = createLayout(serviceTargetRowCount = 1, serviceTargetCount = 2)
+        val sameLayout = createLayout(serviceTargetRowCount = 1, serviceTargetCount = 2)
+        val moreServiceTargets = createLayout(serviceTargetRowCount = 1, serviceTargetCount = 3)
+
+        assertThat(layout.hasSameRows(sameLayout)).isTrue()
+        assertThat(layout.hasSameRows(moreServiceTargets)).isFalse()
+        assertThat(layout.hasSameRows(createLayout(alphaTargetCount = 1))).isFalse()
+    }
+
+    private fun createLayout(
+        systemRowCount: Int = 0,
+        serviceTargetRowCount: Int = 0,
+        serviceTargetCount: Int = 0,
+        callerAndRankedTargetCount: Int = 0,
+        alphaTargetCount: Int = 0,
+    ) =
+        ChooserGridLayout(
+            MAX_TARGETS_PER_ROW,
+            intArrayOf(PREVIEW, DIRECT_SHARE, CALLER_AND_RANK, AZ_LABEL, NORMAL, FOOTER),
+            systemRowCount,
+            serviceTargetRowCount,
+            serviceTargetCount,
+            callerAndRankedTargetCount,
+            alphaTargetCount,
+            /* footerRowCount= */ 1,
+        )
+
+    private companion object {
+        const val MAX_TARGETS_PER_ROW = 4
+        const val DIRECT_SHARE = 0
+        const val NORMAL = 1
+        const val PREVIEW = 2
+        const val AZ_LABEL = 4
+        const val CALLER_AND_RANK = 5
+        const val FOOTER = 6
+    }
+}
@@ -0,0 +1,157 @@
+/*
+ * Copyright (C) 2024 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.intentresolver.grid
+
+import android.graphics.drawable.ColorDrawable
+import androidx.recyclerview.widget.ListUpdateCallback
+import com.android.intentresolver.chooser.TargetInfo
+import com.android.intentresolver.mock
+import com.android.intentresolver.whenever
+import com.google.common.truth.Truth.assertThat
+import org.junit.Test
+
+class ChooserGridSnapshotTest {
+    private val updates = ArrayList<String>()
+    private val updateRecorder =
+        object : ListUpdateCallback {
+            override fun onInserted(position: Int, count: Int) {
+                updates.add("insert $position $count")
+            }
+
+            override fun onRemoved(position: Int, count: Int) {
+                updates.add("remove $position $count")
+            }
+
+            override fun onMoved(fromPosition: Int, toPosition: Int) {
+                updates.add("move $fromPosition $toPosition")
+            }
+
+            override fun onChanged(position: Int, count: Int, payload: Any?) {
+                updates.add("change $position $count")
+            }
+        }
+
+    @Test
+    fun diff_sameTargets_noUpdates() {
+        val targets = createTargets(3)
+
+        diff(createSnapshot(targets), createSnapshot(targets))
+
+        assertThat(updates).isEmpty()
+    }
+
+    @Test
+    fun diff_targetIconLoaded_onlyItsRowChanges() {
+        val targets = createTargets(3)
+        val oldSnapshot = createSnapshot(targets)
+
+        targets[1].displayIconHolder.displayIcon = ColorDrawable()
+        diff(oldSnapshot, createSnapshot(targets))
+
+        assertThat(updates).containsExactly("change ${HEADER_ROWS + 1} 1")
+    }
+
+    @Test
+    fun diff_adjacentTargetIconsLoaded_reportedAsOneRange() {
+        val targets = createTargets(4)
+        val oldSnapshot = createSnapshot(targets)
+
+        targets[1].displayIconHolder.displayIcon = ColorDrawable()
+        targets[2].displayIconHolder.displayIcon = ColorDrawable()
+        diff(oldSnapshot, createSnapshot(targets))
+
+        assertThat(updates).containsExactly("change ${HEADER_ROWS + 1} 2")
+    }
+
+    @Test
+    fun diff_targetInserted_insertsItsRowAndRebindsTheShiftedRows() {
+        val targets = createTargets(3)
+        val oldSnapshot = createSnapshot(targets)
+
+        val newTargets = listOf(targets[0], createTarget(), targets[1], targets[2])
+        diff(oldSnapshot, createSnapshot(newTargets))
+
+        assertThat(updates).contains("insert ${HEADER_ROWS + 1} 1")
+        assertThat(updates).doesNotContain("change $HEADER_ROWS 1")
+        assertThat(updates.filter { it.startsWith("remove") }).isEmpty()
+    }
+
+    @Test
+    fun diff_targetMoved_isReportedAsMove() {
+        val targets = createTargets(3)
+        val oldSnapshot = createSnapshot(targets)
+
+        diff(oldSnapshot, createSnapshot(listOf(targets[2], targets[0], targets[1])))
+
+        assertThat(updates.filter { it.startsWith("move") }).isNotEmpty()
+        assertThat(updates.filter { it.startsWith("insert") || it.startsWith("remove") })
+            .isEmpty()
+    }
+
+    @Test
+    fun diff_groupRowTargetReplaced_rowChangesInPlace() {
+        val rankedTargets = createTargets(2)
+        val targets = createTargets(2)
+        val oldSnapshot = createSnapshot(targets, rankedTargets)
+
+        diff(oldSnapshot, createSnapshot(targets, listOf(rankedTargets[0], createTarget())))
+
+        assertThat(updates).containsExactly("change 0 1")
+    }
+
+    private fun diff(oldSnapshot: ChooserGridSnapshot, newSnapshot: ChooserGridSnapshot) {
+        oldSnapshot.dispatchUpdatesTo(newSnapshot, updateRecorder)
+    }
+
+    /** A ranked row with [rankedTargets], followed by one row per target and a footer. */
+    private fun createSnapshot(
+        targets: List<TargetInfo>,
+        rankedTargets: List<TargetInfo> = emptyList(),
+    ): ChooserGridSnapshot {
+        val rankedRowContents = ArrayList<Any>()
+        rankedRowContents.add(0)
+        rankedTargets.forEach { rankedRowContents.add(ChooserGridSnapshot.BoundTarget(it)) }
+        val rows = ArrayList<ChooserGridSnapshot.Row>()
+        rows.add(ChooserGridSnapshot.Row(VIEW_TYPE_GROUP, 0, rankedRowContents))
+        targets.forEachIndexed { i, target ->
+            val listPosition = rankedTargets.size + i
+            rows.add(
+                ChooserGridSnapshot.Row(
+                    VIEW_TYPE_ITEM,
+                    target,
+                    listOf(listPosition, ChooserGridSnapshot.BoundTarget(target))
+                )
+            )
+        }
+        rows.add(ChooserGridSnapshot.Row(VIEW_TYPE_FOOTER, VIEW_TYPE_FOOTER, emptyList()))
+        return ChooserGridSnapshot(rows)
+    }
+
+    private fun createTargets(count: Int) = MutableList(count) { createTarget() }
+
+    private fun createTarget(): TargetInfo {
+        val iconHolder = TargetInfo.SettableIconHolder()
+        return mock { whenever(displayIconHolder).thenReturn(iconHolder) }
+    }
+
+    private companion object {
+        const val VIEW_TYPE_GROUP = 5
+        const val VIEW_TYPE_ITEM = 1
+        const val VIEW_TYPE_FOOTER = 6
+        const val HEADER_ROWS = 1
+    }
+}
@@ -0,0 +1,86 @@
+/*
+ * Copyright (C) 2024 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.intentresolver.icons
+
+import android.Manifest.permission.SUBSTITUTE_SHARE_TARGET_APP_NAME_AND_ICON
+import android.content.pm.PackageInfo
+import android.content.pm.PackageManager
+import android.os.UserHandle
+import com.android.intentresolver.any
+import com.android.intentresolver.eq
+import com.android.intentresolver.mock
+import com.android.intentresolver.whenever
+import com.google.common.truth.Truth.assertThat
+import org.junit.Test
+import org.mockito.Mockito.anyInt
+import org.mockito.Mockito.anyString
+import org.mockito.Mockito.never
+import org.mockito.Mockito.times
+import org.mockito.Mockito.verify
+
+class SubstitutePermissionCacheTest {
+    private val packageManager =
+        mock<PackageManager> {
+            whenever(getPackagesHoldingPermissions(any(), anyInt()))
+                .thenReturn(listOf(createPackageInfo("org.pkg.holder")))
+        }
+    private val cache = SubstitutePermissionCache()
+
+    @Test
+    fun hasPermission_queriesHoldersOncePerUser() {
+        assertThat(cache.hasPermission(packageManager, 0, "org.pkg.holder")).isTrue()
+        assertThat(cache.hasPermission(packageManager, 0, "org.pkg.other")).isFalse()
+        assertThat(cache.hasPermission(packageManager, 10, "org.pkg.holder")).isTrue()
+
+        verify(packageManager, times(2))
+            .getPackagesHoldingPermissions(
+                eq(arrayOf(SUBSTITUTE_SHARE_TARGET_APP_NAME_AND_ICON)),
+                anyInt()
+            )
+        verify(packageManager, never()).checkPermission(anyString(), anyString())
+    }
+
+    @Test
+    fun invalidate_queriesHoldersAgain() {
+        cache.hasPermission(packageManager, 0, "org.pkg.holder")
+        whenever(packageManager.getPackagesHoldingPermissions(any(), anyInt()))
+            .thenReturn(listOf(createPackageInfo("org.pkg.other")))
+
+        cache.invalidate(UserHandle.of(0))
+
+        assertThat(cache.hasPermission(packageManager, 0, "org.pkg.holder")).isFalse()
+        assertThat(cache.hasPermission(packageManager, 0, "org.pkg.other")).isTrue()
+    }
+
+    @Test
+    fun hasPermission_queryFails_checksPermission() {
+        whenever(packageManager.getPackagesHoldingPermissions(any(), anyInt()))
+            .thenThrow(SecurityException())
+        whenever(
+                packageManager.checkPermission(
+                    SUBSTITUTE_SHARE_TARGET_APP_NAME_AND_ICON,
+                    "org.pkg.holder"
+                )
+            )
+            .thenReturn(PackageManager.PERMISSION_GRANTED)
+
+        assertThat(cache.hasPermission(packageManager, 0, "org.pkg.holder")).isTrue()
+    }
+
+    private fun createPackageInfo(packageName: String) =
+        PackageInfo().also { it.packageName = packageName }
+}
@@ -0,0 +1,123 @@
+/*
+ * Copyright (C) 2024 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.intentresolver.icons
+
+import com.google.common.truth.Truth.assertThat
+import java.util.function.Consumer
+import kotlinx.coroutines.CompletableDeferred
+import kotlinx.coroutines.ExperimentalCoroutinesApi
+import kotlinx.coroutines.cancel
+import kotlinx.coroutines.test.StandardTestDispatcher
+import kotlinx.coroutines.test.TestScope
+import org.junit.Test
+
+@OptIn(ExperimentalCoroutinesApi::class)
+class TargetDataLoadQueueTest {
+    private val dispatcher = StandardTestDispatcher()
+    private val scope = TestScope(dispatcher)
+    private var deliveryGate = CompletableDeferred<Unit>()
+    private var deliveryCount = 0
+    private val loadedKeys = ArrayList<String>()
+    private val delivered = ArrayList<String>()
+
+    @Test
+    fun load_sameKey_loadsOnceAndDeliversToAllCallbacks() {
+        val queue = createQueue(maxParallelism = 2)
+        val otherDelivered = ArrayList<String>()
+
+        queue.load("a", { load("a") }, Consumer { delivered.add(it) })
+        queue.load("a", { load("a") }, Consumer { otherDelivered.add(it) })
+        deliverAll()
+
+        assertThat(loadedKeys).containsExactly("a")
+        assertThat(delivered).containsExactly("a")
+        assertThat(otherDelivered).containsExactly("a")
+    }
+
+    @Test
+    fun load_lastRequestedOrPrioritizedRunsFirst() {
+        val queue = createQueue(maxParallelism = 1)
+
+        for (key in listOf("a", "b", "c", "d")) {
+            queue.load(key, { load(key) }, Consumer { delivered.add(it) })
+        }
+        queue.prioritize("b")
+        deliverAll()
+
+        assertThat(loadedKeys).containsExactly("b", "d", "c", "a").inOrder()
+        assertThat(delivered).containsExactly("b", "d", "c", "a").inOrder()
+    }
+
+    @Test
+    fun load_resultsAreDeliveredInOneBatch() {
+        val queue = createQueue(maxParallelism = 2)
+
+        for (key in listOf("a", "b", "c")) {
+            queue.load(key, { load(key) }, Consumer { delivered.add(it) })
+        }
+        scope.testScheduler.runCurrent()
+
+        assertThat(loadedKeys).hasSize(3)
+        assertThat(delivered).isEmpty()
+
+        deliverAll()
+
+        assertThat(delivered).containsExactly("a", "b", "c")
+        assertThat(deliveryCount).isEqualTo(1)
+    }
+
+    @Test
+    fun load_failedLoad_otherResultsAreDelivered() {
+        val queue = createQueue(maxParallelism = 1)
+
+        queue.load("a", { load("a") }, Consumer { delivered.add(it) })
+        queue.load("b", { error("failed") }, Consumer { delivered.add(it) })
+        deliverAll()
+
+        assertThat(delivered).containsExactly("a")
+    }
+
+    @Test
+    fun load_scopeCancelled_nothingIsLoaded() {
+        val queue = createQueue(maxParallelism = 1)
+
+        queue.load("a", { load("a") }, Consumer { delivered.add(it) })
+        scope.cancel()
+        deliverAll()
+
+        assertThat(loadedKeys).isEmpty()
+        assertThat(delivered).isEmpty()
+    }
+
+    private fun createQueue(maxParallelism: Int) =
+        TargetDataLoadQueue(scope, dispatcher, dispatcher, maxParallelism) {
+            deliveryCount++
+            deliveryGate.await()
+        }
+
+    private fun load(key: String): String {
+        loadedKeys.add(key)
+        return key
+    }
+
+    private fun deliverAll() {
+        scope.testScheduler.runCurrent()
+        deliveryGate.complete(Unit)
+        scope.testScheduler.runCurrent()
+        deliveryGate = CompletableDeferred()
+    }
+}
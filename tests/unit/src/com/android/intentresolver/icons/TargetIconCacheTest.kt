@@ -0,0 +1,157 @@
+/*
+ * Copyright (C) 2024 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.intentresolver.icons
+
+import android.content.ComponentName
+import android.content.pm.ResolveInfo
+import android.content.res.Configuration
+import android.graphics.Bitmap
+import android.graphics.Color
+import android.os.UserHandle
+import androidx.test.platform.app.InstrumentationRegistry
+import com.android.intentresolver.ResolverDataProvider
+import com.google.common.truth.Truth.assertThat
+import java.io.File
+import org.junit.After
+import org.junit.Test
+
+private const val ICON_DPI = 480
+private const val CONFIG_KEY = "16/1"
+
+class TargetIconCacheTest {
+    private val context = InstrumentationRegistry.getInstrumentation().context
+    private val dir = File(context.cacheDir, "target_icon_cache_test")
+
+    @After
+    fun tearDown() {
+        dir.deleteRecursively()
+    }
+
+    @Test
+    fun get_returnsIconCachedForTheSameVersionDensityAndUser() {
+        val cache = createCache()
+        val icon = createIcon(Color.RED)
+        cache.put(createResolveInfo("org.pkg", versionCode = 1), ICON_DPI, CONFIG_KEY, icon)
+
+        assertThat(cache.get(createResolveInfo("org.pkg", versionCode = 1), ICON_DPI, CONFIG_KEY))
+            .isSameInstanceAs(icon)
+        assertThat(cache.get(createResolveInfo("org.pkg", versionCode = 2), ICON_DPI, CONFIG_KEY))
+            .isNull()
+        assertThat(
+                cache.get(createResolveInfo("org.pkg", versionCode = 1), ICON_DPI / 2, CONFIG_KEY)
+            )
+            .isNull()
+        assertThat(
+                cache.get(
+                    createResolveInfo("org.pkg", versionCode = 1, user = UserHandle.of(10)),
+                    ICON_DPI,
+                    CONFIG_KEY,
+                )
+            )
+            .isNull()
+    }
+
+    @Test
+    fun get_otherConfiguration_returnsNull() {
+        val cache = createCache()
+        val resolveInfo = createResolveInfo("org.pkg", versionCode = 1)
+        cache.put(resolveInfo, ICON_DPI, CONFIG_KEY, createIcon(Color.RED))
+
+        assertThat(cache.get(resolveInfo, ICON_DPI, "32/1")).isNull()
+        assertThat(cache.get(resolveInfo, ICON_DPI, "16/2")).isNull()
+    }
+
+    @Test
+    fun configKeyOf_dependsOnNightMode() {
+        val dayContext = context.createConfigurationContext(configurationWithNightMode(false))
+        val nightContext = context.createConfigurationContext(configurationWithNightMode(true))
+
+        assertThat(TargetIconCache.configKeyOf(dayContext))
+            .isNotEqualTo(TargetIconCache.configKeyOf(nightContext))
+    }
+
+    @Test
+    fun iconsArePersisted() {
+        val resolveInfo = createResolveInfo("org.pkg", versionCode = 1)
+        val icon = createIcon(Color.RED)
+        createCache().put(resolveInfo, ICON_DPI, CONFIG_KEY, icon)
+
+        val cachedIcon = createCache().get(resolveInfo, ICON_DPI, CONFIG_KEY)
+
+        assertThat(cachedIcon).isNotNull()
+        assertThat(cachedIcon!!.sameAs(icon)).isTrue()
+    }
+
+    @Test
+    fun invalidate_dropsIconsOfThePackageAndUser() {
+        val cache = createCache()
+        val resolveInfo = createResolveInfo("org.pkg", versionCode = 1)
+        val otherResolveInfo = createResolveInfo("org.other", versionCode = 1)
+        cache.put(resolveInfo, ICON_DPI, CONFIG_KEY, createIcon(Color.RED))
+        cache.put(otherResolveInfo, ICON_DPI, CONFIG_KEY, createIcon(Color.BLUE))
+
+        cache.invalidate("org.pkg", UserHandle.of(10))
+        assertThat(cache.get(resolveInfo, ICON_DPI, CONFIG_KEY)).isNotNull()
+
+        cache.invalidate("org.pkg", UserHandle.of(0))
+        assertThat(cache.get(resolveInfo, ICON_DPI, CONFIG_KEY)).isNull()
+        assertThat(createCache().get(resolveInfo, ICON_DPI, CONFIG_KEY)).isNull()
+        assertThat(createCache().get(otherResolveInfo, ICON_DPI, CONFIG_KEY)).isNotNull()
+    }
+
+    @Test
+    fun put_overFileLimit_dropsLeastRecentlyUsedFiles() {
+        val cache = createCache(maxFiles = 2)
+        val resolveInfos = List(3) { createResolveInfo("org.pkg$it", versionCode = 1) }
+        resolveInfos.forEachIndexed { i, resolveInfo ->
+            cache.put(resolveInfo, ICON_DPI, CONFIG_KEY, createIcon(Color.RED))
+            dir.listFiles { _, name -> name.startsWith("org.pkg${i}_") }
+                ?.forEach { it.setLastModified(1000L * (i + 1)) }
+        }
+
+        assertThat(dir.listFiles()).hasLength(2)
+        val diskCache = createCache()
+        assertThat(diskCache.get(resolveInfos[0], ICON_DPI, CONFIG_KEY)).isNull()
+        assertThat(diskCache.get(resolveInfos[1], ICON_DPI, CONFIG_KEY)).isNotNull()
+        assertThat(diskCache.get(resolveInfos[2], ICON_DPI, CONFIG_KEY)).isNotNull()
+    }
+
+    private fun createCache(maxFiles: Int = 10) =
+        TargetIconCache(dir, Runnable::run, maxMemoryKb = 1024, maxFiles)
+
+    private fun configurationWithNightMode(isNight: Boolean) =
+        Configuration(context.resources.configuration).apply {
+            uiMode =
+                (uiMode and Configuration.UI_MODE_NIGHT_MASK.inv()) or
+                    if (isNight) Configuration.UI_MODE_NIGHT_YES else Configuration.UI_MODE_NIGHT_NO
+        }
+
+    private fun createIcon(color: Int): Bitmap =
+        Bitmap.createBitmap(4, 4, Bitmap.Config.ARGB_8888).apply { eraseColor(color) }
+
+    private fun createResolveInfo(
+        packageName: String,
+        versionCode: Long,
+        user: UserHandle = UserHandle.of(0),
+    ): ResolveInfo =
+        ResolverDataProvider.createResolveInfo(
+                ComponentName(packageName, "Activity"),
+                UserHandle.USER_CURRENT,
+                user,
+            )
+            .apply { activityInfo.applicationInfo.setVersionCode(versionCode) }
+}
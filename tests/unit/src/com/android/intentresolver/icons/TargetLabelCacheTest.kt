@@ -0,0 +1,146 @@
+/*
+ * Copyright (C) 2024 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.intentresolver.icons
+
+import android.content.ComponentName
+import android.content.Intent
+import android.os.UserHandle
+import android.util.AtomicFile
+import androidx.test.platform.app.InstrumentationRegistry
+import com.android.intentresolver.ResolverDataProvider
+import com.android.intentresolver.chooser.DisplayResolveInfo
+import com.google.common.truth.Truth.assertThat
+import java.io.File
+import java.text.Collator
+import java.util.Locale
+import org.junit.After
+import org.junit.Test
+
+class TargetLabelCacheTest {
+    private val context = InstrumentationRegistry.getInstrumentation().context
+    private val file = File(context.cacheDir, "target_label_cache_test")
+    private val user = UserHandle.of(0)
+
+    @After
+    fun tearDown() {
+        AtomicFile(file).delete()
+    }
+
+    @Test
+    fun get_returnsLabelsLoadedForTheSameVersionAndLocale() {
+        val cache = createCache()
+        val target = createTarget("org.pkg", versionCode = 2)
+        cache.put(target, Locale.US, LabelInfo("Label", "Sublabel"))
+
+        val entry = cache.get(createTarget("org.pkg", versionCode = 2), Locale.US)
+
+        assertThat(entry?.label).isEqualTo("Label")
+        assertThat(entry?.subLabel).isEqualTo("Sublabel")
+        assertThat(entry?.collationKey)
+            .isEqualTo(Collator.getInstance(Locale.US).getCollationKey("Label").toByteArray())
+        assertThat(cache.get(createTarget("org.pkg", versionCode = 3), Locale.US)).isNull()
+        assertThat(cache.get(createTarget("org.pkg", versionCode = 2), Locale.FRANCE)).isNull()
+    }
+
+    @Test
+    fun getCollationKey_displayLabelDiffers_returnsNull() {
+        val cache = createCache()
+        val target = createTarget("org.pkg", versionCode = 1)
+        cache.put(target, Locale.US, LabelInfo("Label", null))
+
+        target.displayLabel = "Label"
+        assertThat(cache.getCollationKey(target, Locale.US)).isNotNull()
+        target.displayLabel = "Other"
+        assertThat(cache.getCollationKey(target, Locale.US)).isNull()
+    }
+
+    @Test
+    fun invalidate_dropsEntriesOfThePackageAndUser() {
+        val cache = createCache()
+        val target = createTarget("org.pkg", versionCode = 1)
+        val otherTarget = createTarget("org.other", versionCode = 1)
+        cache.put(target, Locale.US, LabelInfo("Label", null))
+        cache.put(otherTarget, Locale.US, LabelInfo("Other", null))
+
+        cache.invalidate("org.pkg", UserHandle.of(10))
+        assertThat(cache.get(target, Locale.US)).isNotNull()
+
+        cache.invalidate("org.pkg", user)
+        assertThat(cache.get(target, Locale.US)).isNull()
+        assertThat(cache.get(otherTarget, Locale.US)).isNotNull()
+    }
+
+    @Test
+    fun entriesArePersisted() {
+        val target = createTarget("org.pkg", versionCode = 1)
+        createCache().put(target, Locale.US, LabelInfo("Label", null))
+
+        val entry = createCache().get(target, Locale.US)
+
+        assertThat(entry?.label).isEqualTo("Label")
+        assertThat(entry?.subLabel).isNull()
+    }
+
+    @Test
+    fun collationVersionChanged_dropsPersistedEntries() {
+        val target = createTarget("org.pkg", versionCode = 1)
+        createCache(collationVersion = "1").put(target, Locale.US, LabelInfo("Label", null))
+
+        assertThat(createCache(collationVersion = "2").get(target, Locale.US)).isNull()
+    }
+
+    @Test
+    fun invalidateBeforeRead_dropsPersistedEntries() {
+        val target = createTarget("org.pkg", versionCode = 1)
+        createCache().put(target, Locale.US, LabelInfo("Label", null))
+        val cache = createCache()
+
+        cache.invalidate("org.pkg", user)
+
+        assertThat(cache.get(target, Locale.US)).isNull()
+    }
+
+    @Test
+    fun put_overCapacity_dropsLeastRecentlyUsed() {
+        val cache = createCache(maxEntries = 2)
+        val targets = List(3) { createTarget("org.pkg$it", versionCode = 1) }
+        cache.put(targets[0], Locale.US, LabelInfo("Label0", null))
+        cache.put(targets[1], Locale.US, LabelInfo("Label1", null))
+        cache.get(targets[0], Locale.US)
+
+        cache.put(targets[2], Locale.US, LabelInfo("Label2", null))
+
+        assertThat(cache.get(targets[0], Locale.US)).isNotNull()
+        assertThat(cache.get(targets[1], Locale.US)).isNull()
+        assertThat(cache.get(targets[2], Locale.US)).isNotNull()
+    }
+
+    private fun createCache(maxEntries: Int = 10, collationVersion: String = "1") =
+        TargetLabelCache(AtomicFile(file), Runnable::run, maxEntries, collationVersion)
+
+    private fun createTarget(packageName: String, versionCode: Long): DisplayResolveInfo {
+        val component = ComponentName(packageName, "Activity")
+        val resolveInfo =
+            ResolverDataProvider.createResolveInfo(component, UserHandle.USER_CURRENT, user)
+        resolveInfo.activityInfo.applicationInfo.setVersionCode(versionCode)
+        return DisplayResolveInfo.newDisplayResolveInfo(
+            Intent(),
+            resolveInfo,
+            Intent().setComponent(component),
+        )
+    }
+}
@@ -319,6 +319,39 @@ public final class EventLogImplTest {
                 any());
     }
 
+    @Test
+    public void testLogSharesheetAppRankingUpdated_topRowChanged() {
+        mChooserLogger.logSharesheetAppRankingUpdated(
+                /* topRowChanged= */ true, /* applied= */ true);
+        verify(mUiEventLog).logWithInstanceId(
+                eq(SharesheetStandardEvent.SHARESHEET_APP_RANKING_TOP_ROW_CHANGED),
+                eq(0),
+                isNull(),
+                any());
+    }
+
+    @Test
+    public void testLogSharesheetAppRankingUpdated_topRowUnchanged() {
+        mChooserLogger.logSharesheetAppRankingUpdated(
+                /* topRowChanged= */ false, /* applied= */ true);
+        verify(mUiEventLog).logWithInstanceId(
+                eq(SharesheetStandardEvent.SHARESHEET_APP_RANKING_TOP_ROW_UNCHANGED),
+                eq(0),
+                isNull(),
+                any());
+    }
+
+    @Test
+    public void testLogSharesheetAppRankingUpdated_notApplied() {
+        mChooserLogger.logSharesheetAppRankingUpdated(
+                /* topRowChanged= */ true, /* applied= */ false);
+        verify(mUiEventLog).logWithInstanceId(
+                eq(SharesheetStandardEvent.SHARESHEET_APP_RANKING_UPDATE_SKIPPED),
+                eq(0),
+                isNull(),
+                any());
+    }
+
     @Test
     public void testDifferentLoggerInstancesUseDifferentInstanceIds() {
         ArgumentCaptor<Integer> idIntCaptor = ArgumentCaptor.forClass(Integer.class);
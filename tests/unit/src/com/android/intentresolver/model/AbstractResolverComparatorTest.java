@@ -34,7 +34,10 @@ import com.google.android.collect.Lists;
 
 import org.junit.Test;
 
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.Random;
 
 public class AbstractResolverComparatorTest {
 
@@ -101,6 +104,82 @@ public class AbstractResolverComparatorTest {
         assertEquals("Pinned ranks under PromoteToFirst", 1, comparator.compare(r2, r1));
     }
 
+    @Test
+    public void testSortByRankingKeys_matchesComparatorOrder() {
+        ComponentName promoteToFirst = new ComponentName("package7", "class");
+        Context context = InstrumentationRegistry.getTargetContext();
+        AbstractResolverComparator comparator =
+                getScoringComparator(context, promoteToFirst, /* withRankingScores= */ false);
+        Random random = new Random(42);
+
+        for (int size : new int[] {50, 500, 5000}) {
+            List<ResolvedComponentInfo> targets = createRandomTargets(size, random);
+            List<ResolvedComponentInfo> expected = new ArrayList<>(targets);
+            Collections.sort(expected, comparator);
+
+            comparator.sortByRankingKeys(targets);
+
+            assertEquals("Order of " + size + " targets", expected, targets);
+        }
+    }
+
+    @Test
+    public void testSortByRankingKeys_withRankingScores_matchesComparatorOrder() {
+        ComponentName promoteToFirst = new ComponentName("package7", "class");
+        Context context = InstrumentationRegistry.getTargetContext();
+        AbstractResolverComparator comparator =
+                getScoringComparator(context, promoteToFirst, /* withRankingScores= */ true);
+        Random random = new Random(42);
+
+        for (int size : new int[] {50, 500, 5000}) {
+            List<ResolvedComponentInfo> targets = createRandomTargets(size, random);
+            List<ResolvedComponentInfo> expected = new ArrayList<>(targets);
+            Collections.sort(expected, comparator);
+
+            comparator.sortByRankingKeys(targets);
+
+            assertEquals("Order of " + size + " targets", expected, targets);
+        }
+    }
+
+    @Test
+    public void testSelectTopKByRankingKeys_matchesComparatorOrderOfTopK() {
+        ComponentName promoteToFirst = new ComponentName("package7", "class");
+        Context context = InstrumentationRegistry.getTargetContext();
+        AbstractResolverComparator comparator =
+                getScoringComparator(context, promoteToFirst, /* withRankingScores= */ true);
+        Random random = new Random(42);
+
+        for (int k : new int[] {1, 8, 499, 500}) {
+            List<ResolvedComponentInfo> targets = createRandomTargets(500, random);
+            List<ResolvedComponentInfo> expected = new ArrayList<>(targets);
+            Collections.sort(expected, comparator);
+            List<ResolvedComponentInfo> expectedTail = new ArrayList<>(targets);
+            expectedTail.removeAll(expected.subList(0, k));
+
+            comparator.selectTopKByRankingKeys(targets, k);
+
+            assertEquals("Top " + k + " targets", expected.subList(0, k), targets.subList(0, k));
+            assertEquals("Targets after the top " + k, expectedTail, targets.subList(k, 500));
+        }
+    }
+
+    private List<ResolvedComponentInfo> createRandomTargets(int size, Random random) {
+        List<ResolvedComponentInfo> targets = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            ResolvedComponentInfo target = createResolvedComponentInfo(
+                    new ComponentName("package" + i, "class"));
+            ResolveInfo info = target.getResolveInfoAt(0);
+            info.priority = random.nextInt(10);
+            if (random.nextInt(20) == 0) {
+                info.targetUserId = 10;
+            }
+            target.setPinned(random.nextInt(10) == 0);
+            targets.add(target);
+        }
+        return targets;
+    }
+
     private ResolvedComponentInfo createResolvedComponentInfo(ComponentName component) {
         ResolveInfo info = new ResolveInfo();
         info.activityInfo = new ActivityInfo();
@@ -138,4 +217,36 @@ public class AbstractResolverComparatorTest {
         return testComparator;
     }
 
+    /**
+     * @return a comparator whose model ranks the targets by descending priority, and optionally
+     * exposes the priority as their ranking score.
+     */
+    private AbstractResolverComparator getScoringComparator(
+            Context context, ComponentName promoteToFirst, boolean withRankingScores) {
+        return new AbstractResolverComparator(context, new Intent(),
+                Lists.newArrayList(context.getUser()), promoteToFirst) {
+
+            @Override
+            public int compare(ResolveInfo lhs, ResolveInfo rhs) {
+                return Integer.compare(rhs.priority, lhs.priority);
+            }
+
+            @Override
+            protected float getRankingScore(ResolveInfo target) {
+                return withRankingScores ? target.priority : Float.NaN;
+            }
+
+            @Override
+            public void doCompute(List<ResolvedComponentInfo> targets) {}
+
+            @Override
+            public float getScore(TargetInfo targetInfo) {
+                return 0;
+            }
+
+            @Override
+            public void handleResultMessage(Message message) {}
+        };
+    }
+
 }
@@ -0,0 +1,158 @@
+/*
+ * Copyright (C) 2024 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.intentresolver.model;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import android.app.usage.UsageStats;
+import android.content.Intent;
+import android.os.UserHandle;
+import android.util.ArrayMap;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+public class UsageStatsCacheTest {
+    private static final long DAY = 1000 * 60 * 60 * 24;
+    private static final UserHandle USER = UserHandle.of(0);
+
+    private long mNow = 10 * DAY;
+    private final UsageStatsCache mCache = new UsageStatsCache(Runnable::run, () -> mNow);
+
+    @Test
+    public void refresh_aggregatesDailyBuckets() {
+        FakeQuery query = new FakeQuery(Arrays.asList(
+                createStats("pkg", 8 * DAY, 2, 100, Intent.ACTION_SEND, "text/plain", 1),
+                createStats("pkg", 9 * DAY, 3, 200, Intent.ACTION_SEND, "text/plain", 2),
+                createStats("other", 9 * DAY, 1, 10, null, null, 0)));
+
+        mCache.refresh(USER, query);
+        Map<String, UsageStats> stats = mCache.getStats(USER);
+
+        assertThat(query.mQueries).containsExactly(
+                Arrays.asList(mNow - UsageStatsCache.PERIOD_MILLIS, mNow));
+        assertThat(stats.keySet()).containsExactly("pkg", "other");
+        UsageStats pkgStats = stats.get("pkg");
+        assertThat(pkgStats.mLaunchCount).isEqualTo(5);
+        assertThat(pkgStats.getTotalTimeInForeground()).isEqualTo(300);
+        assertThat(pkgStats.getLastTimeUsed()).isEqualTo(9 * DAY + DAY / 2);
+        assertThat(pkgStats.mChooserCounts.get(Intent.ACTION_SEND).get("text/plain"))
+                .isEqualTo(3);
+        assertThat(stats.get("other").mChooserCounts).isNull();
+    }
+
+    @Test
+    public void refresh_queriesOnlyDeltaAndReplacesBuckets() {
+        FakeQuery query = new FakeQuery(Arrays.asList(
+                createStats("pkg", 8 * DAY, 2, 100, Intent.ACTION_SEND, "text/plain", 1),
+                createStats("pkg", 9 * DAY, 3, 200, Intent.ACTION_SEND, "text/plain", 2)));
+        mCache.refresh(USER, query);
+        long firstRefreshTime = mNow;
+
+        mNow += 1000;
+        // The current daily bucket is reported again, with the updated counts
+        query.mResult = Collections.singletonList(
+                createStats("pkg", 9 * DAY, 4, 250, Intent.ACTION_SEND, "text/plain", 3));
+        mCache.refresh(USER, query);
+        Map<String, UsageStats> stats = mCache.getStats(USER);
+
+        assertThat(query.mQueries.get(1)).containsExactly(firstRefreshTime, mNow).inOrder();
+        UsageStats pkgStats = stats.get("pkg");
+        assertThat(pkgStats.mLaunchCount).isEqualTo(6);
+        assertThat(pkgStats.getTotalTimeInForeground()).isEqualTo(350);
+        assertThat(pkgStats.mChooserCounts.get(Intent.ACTION_SEND).get("text/plain"))
+                .isEqualTo(4);
+    }
+
+    @Test
+    public void refresh_dropsBucketsOutOfPeriod() {
+        FakeQuery query = new FakeQuery(Arrays.asList(
+                createStats("old", 3 * DAY, 1, 100, null, null, 0),
+                createStats("pkg", 9 * DAY, 3, 200, null, null, 0)));
+        mCache.refresh(USER, query);
+
+        mNow += 2 * DAY;
+        query.mResult = Collections.emptyList();
+        mCache.refresh(USER, query);
+
+        assertThat(mCache.getStats(USER).keySet()).containsExactly("pkg");
+    }
+
+    @Test
+    public void getStats_firstRefreshStalled_queriesDirectly() {
+        // The refresh is queued behind other work and never runs
+        UsageStatsCache cache = new UsageStatsCache(command -> {}, () -> mNow);
+        FakeQuery query = new FakeQuery(Collections.singletonList(
+                createStats("pkg", 9 * DAY, 3, 200, null, null, 0)));
+        cache.refresh(USER, query);
+
+        Map<String, UsageStats> stats = cache.getStats(USER);
+
+        assertThat(stats.keySet()).containsExactly("pkg");
+        assertThat(query.mQueries).containsExactly(
+                Arrays.asList(mNow - UsageStatsCache.PERIOD_MILLIS, mNow));
+    }
+
+    @Test
+    public void getStats_neverRefreshed_returnsEmpty() {
+        assertThat(mCache.getStats(USER)).isEmpty();
+    }
+
+    private static UsageStats createStats(
+            String packageName,
+            long beginTime,
+            int launchCount,
+            long timeInForeground,
+            String action,
+            String contentType,
+            int chooserCount) {
+        UsageStats stats = new UsageStats();
+        stats.mPackageName = packageName;
+        stats.mBeginTimeStamp = beginTime;
+        stats.mEndTimeStamp = beginTime + DAY - 1;
+        stats.mLastTimeUsed = beginTime + DAY / 2;
+        stats.mLaunchCount = launchCount;
+        stats.mTotalTimeInForeground = timeInForeground;
+        if (action != null) {
+            ArrayMap<String, Integer> counts = new ArrayMap<>();
+            counts.put(contentType, chooserCount);
+            stats.mChooserCounts = new ArrayMap<>();
+            stats.mChooserCounts.put(action, counts);
+        }
+        return stats;
+    }
+
+    private static class FakeQuery implements UsageStatsCache.BucketQuery {
+        final List<List<Long>> mQueries = new ArrayList<>();
+        List<UsageStats> mResult;
+
+        FakeQuery(List<UsageStats> result) {
+            mResult = result;
+        }
+
+        @Override
+        public List<UsageStats> query(long beginTime, long endTime) {
+            mQueries.add(Arrays.asList(beginTime, endTime));
+            return mResult;
+        }
+    }
+}
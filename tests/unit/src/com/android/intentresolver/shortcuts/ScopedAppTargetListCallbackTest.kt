@@ -58,6 +58,19 @@ class ScopedAppTargetListCallbackTest {
         assertThat(counter).isEqualTo(1)
     }
 
+    @Test
+    fun test_cancelled_noCallbackInvocations() {
+        val scope = TestScope(UnconfinedTestDispatcher())
+        var counter = 0
+        val callback = ScopedAppTargetListCallback(scope) { counter++ }
+        val testSubject = callback.toConsumer()
+
+        callback.cancel()
+        testSubject.accept(ArrayList())
+
+        assertThat(counter).isEqualTo(0)
+    }
+
     @Test
     fun test_createdWithClosedScope_noCallbackInvocations() {
         val scope = TestScope(UnconfinedTestDispatcher()).apply { cancel() }
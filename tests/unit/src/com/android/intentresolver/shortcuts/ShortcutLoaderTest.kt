@@ -148,6 +148,95 @@ class ShortcutLoaderTest {
             }
         }
 
+    @Test
+    fun test_cachedShortcuts_deliveredAsProvisionalResultBeforeFreshOnes() =
+        scope.runTest {
+            val shortcutCache = ShortcutDataCache(maxEntries = 1)
+            val shortcuts = listOf(createAppTarget(matchingShortcutInfo))
+            val appPredictorCallbackCaptor = argumentCaptor<AppPredictor.Callback>()
+            ShortcutLoader(
+                    context,
+                    backgroundScope,
+                    appPredictor,
+                    UserHandle.of(0),
+                    true,
+                    intentFilter,
+                    dispatcher,
+                    mock(),
+                    shortcutCache,
+                )
+                .updateAppTargets(appTargets)
+            verify(appPredictor, times(1))
+                .registerPredictionUpdates(any(), capture(appPredictorCallbackCaptor))
+            appPredictorCallbackCaptor.value.onTargetsAvailable(shortcuts)
+
+            val testSubject =
+                ShortcutLoader(
+                    context,
+                    backgroundScope,
+                    appPredictor,
+                    UserHandle.of(0),
+                    true,
+                    intentFilter,
+                    dispatcher,
+                    callback,
+                    shortcutCache,
+                )
+            testSubject.updateAppTargets(appTargets)
+
+            val resultCaptor = argumentCaptor<ShortcutLoader.Result>()
+            verify(callback, times(1)).accept(capture(resultCaptor))
+            assertTrue("A provisional result is expected", resultCaptor.value.isProvisional)
+            assertEquals("Wrong shortcut count", 1, resultCaptor.value.shortcutsByApp.size)
+
+            verify(appPredictor, times(2))
+                .registerPredictionUpdates(any(), capture(appPredictorCallbackCaptor))
+            appPredictorCallbackCaptor.value.onTargetsAvailable(shortcuts)
+
+            verify(callback, times(2)).accept(capture(resultCaptor))
+            assertFalse("A fresh result is expected", resultCaptor.value.isProvisional)
+        }
+
+    @Test
+    fun test_cachedShortcutsOfInvalidatedUser_notDelivered() =
+        scope.runTest {
+            val shortcutCache = ShortcutDataCache(maxEntries = 1)
+            val appPredictorCallbackCaptor = argumentCaptor<AppPredictor.Callback>()
+            ShortcutLoader(
+                    context,
+                    backgroundScope,
+                    appPredictor,
+                    UserHandle.of(0),
+                    true,
+                    intentFilter,
+                    dispatcher,
+                    mock(),
+                    shortcutCache,
+                )
+                .updateAppTargets(appTargets)
+            verify(appPredictor, times(1))
+                .registerPredictionUpdates(any(), capture(appPredictorCallbackCaptor))
+            appPredictorCallbackCaptor.value.onTargetsAvailable(
+                listOf(createAppTarget(matchingShortcutInfo))
+            )
+
+            shortcutCache.invalidate(UserHandle.of(0))
+            ShortcutLoader(
+                    context,
+                    backgroundScope,
+                    appPredictor,
+                    UserHandle.of(0),
+                    true,
+                    intentFilter,
+                    dispatcher,
+                    callback,
+                    shortcutCache,
+                )
+                .updateAppTargets(appTargets)
+
+            verify(callback, never()).accept(any())
+        }
+
     @Test
     fun test_loadShortcutsWithShortcutManager_resultIntegrity() =
         scope.runTest {
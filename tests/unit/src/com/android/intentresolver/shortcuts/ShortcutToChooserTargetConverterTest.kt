@@ -139,6 +139,81 @@ class ShortcutToChooserTargetConverterTest {
         assertShortcutInfoCache(chooserTargets, shortcutInfoCache)
     }
 
+    @Test
+    fun testConvertToChooserTarget_largeLists_sameResultAsIndexOfLookup() {
+        for (size in intArrayOf(10, 100, 1000, 5000)) {
+            val allShortcuts =
+                List(size) { i ->
+                    createShareShortcutInfo(
+                        id = "id-$i",
+                        componentName = ComponentName(PACKAGE, "Class${i % 3}"),
+                        rank = (i * 7) % 11,
+                    )
+                }
+            val appTargets = allShortcuts.map { createAppTarget(it.shortcutInfo) }
+            val positions = allShortcuts.indices.filter { it % 3 == 1 }
+            val matchingShortcuts = positions.map { allShortcuts[it] }
+
+            for (targets in listOf(appTargets, null)) {
+                val expected =
+                    convertWithIndexOfLookup(matchingShortcuts, allShortcuts, targets != null)
+                val fromList =
+                    testSubject.convertToChooserTarget(
+                        matchingShortcuts,
+                        allShortcuts,
+                        targets,
+                        null,
+                        null,
+                    )
+                val fromPositions =
+                    testSubject.convertToChooserTarget(
+                        matchingShortcuts,
+                        positions.toIntArray(),
+                        targets,
+                        null,
+                        null,
+                    )
+
+                assertEquals(expected, fromList.map { it.idAndScore() })
+                assertEquals(expected, fromPositions.map { it.idAndScore() })
+            }
+        }
+    }
+
+    /**
+     * The conversion as it was made before the shortcut positions were indexed: a linear search
+     * of each shortcut in the list of all the shortcuts and of its rank in the list of the ranks.
+     */
+    private fun convertWithIndexOfLookup(
+        matchingShortcuts: List<ShareShortcutInfo>,
+        allShortcuts: List<ShareShortcutInfo>,
+        isFromAppPredictor: Boolean,
+    ): List<Pair<String, Float>> {
+        val scoreList = ArrayList<Int>()
+        if (!isFromAppPredictor) {
+            for (shortcut in matchingShortcuts) {
+                if (!scoreList.contains(shortcut.shortcutInfo.rank)) {
+                    scoreList.add(shortcut.shortcutInfo.rank)
+                }
+            }
+            scoreList.sort()
+        }
+        return matchingShortcuts
+            .map { shortcut ->
+                val index =
+                    if (isFromAppPredictor) {
+                        allShortcuts.indexOf(shortcut)
+                    } else {
+                        scoreList.indexOf(shortcut.shortcutInfo.rank)
+                    }
+                shortcut.shortcutInfo.id to maxOf(1.0f - (0.01f * index), 0.0f)
+            }
+            .sortedByDescending { it.second }
+    }
+
+    private fun ChooserTarget.idAndScore(): Pair<String, Float> =
+        intentExtras.getString(Intent.EXTRA_SHORTCUT_ID)!! to score
+
     private fun assertCorrectShortcutToChooserTargetConversion(
         shortcuts: List<ShareShortcutInfo>,
         chooserTargets: List<ChooserTarget>,